@@ -1,23 +1,74 @@
 package com.bigsort;
 
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.Duplicates;
 import com.bigsort.util.FilesHandler;
+import com.bigsort.util.InputSplit;
+import com.bigsort.util.KeyedLine;
+import com.bigsort.util.LineReader;
+import com.bigsort.util.MemoryEstimator;
+import com.bigsort.util.MergeSettings;
+import com.bigsort.util.MergeTree;
+import com.bigsort.util.ReadAhead;
+import com.bigsort.util.RunIndex;
+import com.bigsort.util.SortKeys;
+import com.bigsort.util.TempCodec;
+import com.bigsort.util.WriteBehind;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 
 /**
- * FilesSorter sorts the content of {@code files} having only {@code batch} items in RAM as a maximum.
+ * FilesSorter sorts the content of {@code files} having only {@code batch} items and {@code memory} bytes
+ * in RAM as a maximum.
  * For this purpose two steps needed:
- * 1. Sort stage. FilesSorter creates a queue of files to process and runs {@code workers} of consumers
- * to do the sort of Strings from each file. The consumers sort the files in parallel. Each consumer is
- * allowed to have only {@code batch / workers} lines in RAM. It means that every input file may produce
- * several sorted files as an output.
- * 2. Merge stage. FilesSorter merges at most {@code batch} files at once. This process is not multi-threaded because
- * of the high IO-load.
+ * 1. Sort stage. FilesSorter splits the files into line-aligned ranges of bytes, creates a queue of these
+ * splits and runs {@code workers} of consumers to do the sort of Strings from each split. The consumers sort
+ * the splits in parallel, so even a single big file is sorted by all the workers. Each consumer is
+ * allowed to have only {@code batch / workers} lines and {@code memory / workers} bytes in RAM. It means that
+ * every input file may produce several sorted files as an output.
+ * 2. Merge stage. FilesSorter merges at most {@code batch} files at once. The read buffers of the files are
+ * taken from the {@code memory} too, so the bigger the budget, the more files are merged at once. If there are
+ * more files, a {@link MergePlan} decides which ones are merged first. Independent groups of files
+ * may be merged by {@code mergeWorkers} threads simultaneously. All the groups which are being
+ * merged at the same moment share the same budget of opened files, i.e. the limits are never exceeded in total.
+ * <p>
+ * If {@code options.isMergeDuringSort()}, the two stages overlap: the sorted files are published to a
+ * {@link RunRegistry} as soon as they are written, and a background merger merges groups of the smallest of
+ * them while the workers are still sorting. The merger gets the share of {@code batch} and {@code memory} of
+ * one more worker.
+ * <p>
+ * If {@code options.getMergePartitions()} is more than one, the last merge step is cut into key ranges which
+ * are merged in parallel, see {@link #mergeRanges(List, int, Semaphore, ReadAhead, WriteBehind)}.
+ * <p>
+ * If {@code options.isMergeTree()}, the last merge step is a {@link MergeTree} of merging threads instead, so
+ * it takes as many files as {@code memory} and {@code batch} allow, and fewer files need an intermediate step.
+ * <p>
+ * If {@code options.getSortKeys()} are given, both stages compare the lines by their keys, see {@link SortKeys}.
+ * <p>
+ * If {@code options.getDuplicates()} is unique, equal lines are collapsed by every pass which writes lines, see
+ * {@link Duplicates}: a worker writes each of them once per sorted file, and each merge writes them once per
+ * merged file, so the duplicates never reach the next pass. The key ranges of the last step need to know the
+ * size of a merged range in advance, so they are not used.
+ * <p>
+ * The input files which are already sorted are found before the sort stage, and they are merged as they
+ * are, without being sorted and copied into sorted files. If {@code options.isMergeOnly()}, every input file
+ * is taken as sorted, like {@code sort -m}. The files which are smaller than a chunk of a worker go through
+ * the sort stage anyway, so that many small files share a few sorted files.
+ * <p>
+ * If {@code options.getLimit()} is set, only the first lines of the sorted order are written. If the chunks
+ * of the lines which are kept fit into RAM, the input is scanned once by {@link InMemorySorter} without any
+ * temporary files. Otherwise every sorted file and every merged file is cut to the limit, and each merge
+ * stops as soon as it has written the limit.
  * <p>
  * During the process, temporary files are created in the directory {@code destinationDir}. Each FilesSorter instance
  * has its own prefix for temporary files. All the temporary files are removed from the {@code destinationDir} after
@@ -30,38 +81,93 @@ public class FilesSorter {
 
     public static final String PROJECT_PREFIX = "big.sort.";
     public static final int MAX_FILES = 10000;
+    public static final long MIN_SPLIT_SIZE = 16L * 1024 * 1024;
+    public static final int READ_AHEAD_THREADS = 4;
+    public static final int PARTITION_SAMPLES = 32;
+    public static final int TREE_NODE_FAN_IN = 8;
+    public static final long LINE_SAMPLE_SIZE = 64L * 1024;
     private int workers;
     private int maxItemsPerWorker;
-    private ConcurrentLinkedQueue<File> unsortedFilesQueue;
-    private int batch;
+    private long maxBytesPerWorker;
+    private List<InputSplit> splits;
+    private long inputSize;
+    private ConcurrentLinkedQueue<InputSplit> unsortedFilesQueue;
+    private SortOptions options;
     private String jobID;
     private String destinationDir;
     private String resultFile;
-    private int max_opened_files;
+    private List<File> files;
+    private Set<File> inputRuns = new HashSet<>();
 
     /**
-     * Initializes a FilesSorter which sorts all {@code files} having {@code batch}
-     * items as a maximum in RAM. Each FilesSorted has a unique {@code jobID} which
-     * is used as a prefix for all temporary files created by each FilesSorter.
+     * Initializes a FilesSorter which sorts all {@code files} having {@code options.getBatch()}
+     * items and {@code options.getMemory()} bytes as a maximum in RAM. Each FilesSorted has a unique
+     * {@code jobID} which is used as a prefix for all temporary files created by each FilesSorter.
      *
      * @param files      an array of files to sort
-     * @param workers    the maximum amount of workers which work in parallel during the sort stage
-     * @param batch      the maximum lines in RAM
      * @param dst        the working directory where the sorted resulting files are stored
      * @param resultFile the path to the result file
-     * @param maxFiles   maximum amount of opened files
+     * @param options    the settings of the sort
+     * @throws IllegalArgumentException if the keys or the aggregates of lines are used together with the arena
+     *                                  or the binary mode, if the merge only mode is used together with a temp
+     *                                  codec or the aggregates of lines, or if the write-behind buffers take more
+     *                                  than half of the memory of a worker or of a merging thread
      */
 
-    public FilesSorter(List<File> files, int workers, int batch, String dst, String resultFile, int maxFiles) {
-        this.workers = calculateOptimalAmountOfWorkers(workers, batch, files.size());
+    public FilesSorter(List<File> files, String dst, String resultFile, SortOptions options) {
+        if (!options.getSortKeys().isEmpty() && (options.isArena() || options.isBinary()))
+            throw new IllegalArgumentException("The keys cannot be used with the arena or the binary mode.");
+        if (options.getDuplicates().isAggregated() && (options.isArena() || options.isBinary()))
+            throw new IllegalArgumentException("The lines cannot be aggregated by the arena or the binary mode.");
+        if (options.isMergeOnly() && (options.getTempCodec() != TempCodec.NONE
+                || options.getDuplicates().isAggregated()))
+            throw new IllegalArgumentException("The input files cannot be merged with a temp codec or aggregates.");
+        int maxWorkers = calculateOptimalAmountOfWorkers(options.getWorkers(), options.getBatch(), Integer.MAX_VALUE);
+        this.inputSize = calculateInputSize(files);
+        this.splits = FilesHandler.splitFiles(files, calculateSplitSize(maxWorkers));
+        this.workers = calculateOptimalAmountOfWorkers(options.getWorkers(), options.getBatch(), splits.size());
+        this.options = options;
         this.jobID = constructThePrefix(PROJECT_PREFIX);
         this.destinationDir = dst;
         this.resultFile = resultFile;
-        this.max_opened_files = maxFiles;
-        this.batch = batch;
-        maxItemsPerWorker = batch / this.workers;
+        this.files = files;
+        // The background merger takes the share of one more worker
+        int shares = options.isMergeDuringSort() ? this.workers + 1 : this.workers;
+        maxItemsPerWorker = Math.max(1, options.getBatch() / shares);
+        // The buffers of the writer of a worker or of a merging thread are taken from its memory as well
+        long writerOverhead = new WriteBehind(options.getWriteBehind()).getWriterOverhead();
+        long share = Math.min(options.getMemory() / shares,
+                options.getMemory() / Math.max(options.getMergeWorkers(), getMergePartitions()));
+        if (writerOverhead > share / 2)
+            throw new IllegalArgumentException("The write-behind buffers take " + writerOverhead + " bytes, but " +
+                    "a worker or a merging thread has only " + share + " bytes of memory, at most half of it " +
+                    "can be taken.");
+        maxBytesPerWorker = Math.max(1, options.getMemory() / shares - writerOverhead);
         unsortedFilesQueue = new ConcurrentLinkedQueue<>();
-        unsortedFilesQueue.addAll(files);
+        unsortedFilesQueue.addAll(splits);
+    }
+
+    /**
+     * Initializes a FilesSorter which sorts all {@code files} having {@code batch}
+     * items as a maximum in RAM.
+     *
+     * @param files        an array of files to sort
+     * @param workers      the maximum amount of workers which work in parallel during the sort stage
+     * @param batch        the maximum lines in RAM
+     * @param dst          the working directory where the sorted resulting files are stored
+     * @param resultFile   the path to the result file
+     * @param maxFiles     maximum amount of opened files
+     * @param mergeWorkers the maximum amount of threads which merge files in parallel during the merge stage
+     */
+
+    public FilesSorter(List<File> files, int workers, int batch, String dst, String resultFile, int maxFiles,
+                       int mergeWorkers) {
+        this(files, dst, resultFile, new SortOptions().setWorkers(workers).setBatch(batch)
+                .setMaxOpenedFiles(maxFiles).setMergeWorkers(mergeWorkers));
+    }
+
+    public FilesSorter(List<File> files, int workers, int batch, String dst, String resultFile, int maxFiles) {
+        this(files, workers, batch, dst, resultFile, maxFiles, 1);
     }
 
     public FilesSorter(List<File> files, int workers, int batch, String dst, String resultFile) {
@@ -70,9 +176,9 @@ public class FilesSorter {
 
     /**
      * Despite the fact that the constructor receives {@code workers}, this value may be
-     * not optimally defined. For example, if there is only one file to be processed, there is
+     * not optimally defined. For example, if there is only one small split to be processed, there is
      * no need to start more than one worker. Also, it is required to have only batch items
-     * in RAM in total, thus it is not allowed to run more than {@code batch} workers. If no files
+     * in RAM in total, thus it is not allowed to run more than {@code batch} workers. If no splits
      * are to be processed, one worker will be initialized.
      *
      * @return optimal amount of workers
@@ -83,21 +189,198 @@ public class FilesSorter {
         return Math.min(Math.min(workersAmount, batch), length);
     }
 
+    /**
+     * Calculates the size of a split so that the input is shared equally between {@code workers}.
+     * Splits smaller than {@code MIN_SPLIT_SIZE} are not worth the separate sorted files
+     * they produce, so small files are not split at all.
+     *
+     * @return the maximum size of a split in bytes
+     */
+
+    private long calculateSplitSize(int workers) {
+        return Math.max(MIN_SPLIT_SIZE, (inputSize + workers - 1) / workers);
+    }
+
+    private long calculateInputSize(List<File> files) {
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        return total;
+    }
+
+    /**
+     * Checks whether the input may fit into {@code memory} and {@code batch}. Each byte of the input is at
+     * least one char of a line, i.e. two bytes of RAM, so a bigger input never fits. The amount of lines is
+     * not known before the input is read, so it is estimated by the first {@code LINE_SAMPLE_SIZE} bytes of
+     * the input, see {@link #estimateLines()}, and {@link InMemorySorter} checks {@code batch} exactly. If only
+     * the first lines of the result are needed, the input of any size may be scanned in RAM, see
+     * {@link InMemorySorter#keepsFirstLines(SortOptions, int)}.
+     *
+     * @return {@code false} if the input is too big to be sorted in RAM
+     * @throws IOException if the input cannot be read
+     */
+
+    private boolean mayFitInMemory() throws IOException {
+        if (InMemorySorter.keepsFirstLines(options, workers)) return true;
+        if (options.getMemory() != SortOptions.UNLIMITED_MEMORY && inputSize > options.getMemory() / 2)
+            return false;
+        return options.getBatch() == SortOptions.UNLIMITED_BATCH || estimateLines() <= options.getBatch();
+    }
+
+    /**
+     * Estimates the amount of lines of the input by the lines of its first {@code LINE_SAMPLE_SIZE} bytes.
+     *
+     * @return the estimated amount of lines
+     * @throws IOException if the input cannot be read
+     */
+
+    private long estimateLines() throws IOException {
+        long sampled = 0;
+        long lines = 0;
+        ByteLine line = new ByteLine();
+        for (File f : files) {
+            if (sampled >= LINE_SAMPLE_SIZE) break;
+            long end = Math.min(f.length(), LINE_SAMPLE_SIZE - sampled);
+            if (end == 0) continue;
+            try (LineReader reader = new LineReader(new InputSplit(f, 0, end))) {
+                while (reader.readLine(line)) {
+                    ++lines;
+                }
+            }
+            sampled += end;
+        }
+        return sampled == 0 ? 0 : (long) ((double) lines / sampled * inputSize);
+    }
+
+    /**
+     * Sorts the input in RAM and writes the result straight to {@code resultFile}.
+     *
+     * @return {@code true} if the input is sorted, {@code false} if it doesn't fit into RAM
+     * @throws IOException if the input cannot be read or the result cannot be written
+     */
+
+    private boolean doTheInMemorySort() throws IOException {
+        if (!mayFitInMemory()) return false;
+        return new InMemorySorter(splits, workers, options).sort(new File(resultFile));
+    }
+
+    /**
+     * Publishes the input files which are already sorted to {@code registry}, so they are merged as they are
+     * and are never read by the sort stage. If {@code options.isMergeOnly()}, every input file is taken as
+     * sorted. Otherwise {@code workers} threads check the files, see
+     * {@link FilesHandler#isSorted(File, int, SortKeys)}. An input file is neither compressed nor aggregated,
+     * so it cannot be merged together with the sorted files of a temp codec or of aggregates, and the files are
+     * not checked then.
+     * <p>
+     * A file which is smaller than the chunk of a worker is left to the sort stage, where it shares a sorted
+     * file with other small files, see {@link #fillsChunk(File)}. Otherwise every small file would be a sorted
+     * file of its own, and the merge would take many more steps.
+     *
+     * @param registry receives the sorted input files
+     * @return {@code false} if a file cannot be read
+     */
+
+    private boolean publishSortedInputs(RunRegistry registry) {
+        if (!options.isMergeOnly() && (options.getTempCodec() != TempCodec.NONE
+                || options.getDuplicates().isAggregated()))
+            return true;
+        List<File> sorted = new ArrayList<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        List<Future<Boolean>> res = new ArrayList<>();
+        for (File f : files) {
+            res.add(executorService.submit(() -> fillsChunk(f) && (options.isMergeOnly() || (options.isBinary()
+                    ? FilesHandler.isSortedBytes(f, 2 * MemoryEstimator.MERGE_BUFFER_SIZE)
+                    : FilesHandler.isSorted(f, MemoryEstimator.MERGE_BUFFER_SIZE, options.getSortKeys())))));
+        }
+        executorService.shutdown();
+        try {
+            for (int i = 0; i < files.size(); ++i) {
+                if (res.get(i).get()) sorted.add(files.get(i));
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted check of the input files.");
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println(e.getCause().getMessage());
+            return false;
+        } finally {
+            executorService.shutdownNow();
+        }
+        for (File f : sorted) {
+            inputRuns.add(f);
+            registry.publish(f);
+        }
+        unsortedFilesQueue.removeIf(split -> inputRuns.contains(split.getFile()));
+        return true;
+    }
+
+    /**
+     * Tells if {@code file} takes at least a whole chunk of a worker, i.e. {@code maxBytesPerWorker} bytes or
+     * {@code maxItemsPerWorker} lines. Each byte of the input is at least one char of a line, i.e. two bytes
+     * of RAM, and a file has at most as many lines as bytes, so the lines are counted only if the size of the
+     * file doesn't tell.
+     *
+     * @return {@code true} if the file would produce at least one whole sorted file by itself
+     * @throws IOException if the file cannot be read
+     */
+
+    private boolean fillsChunk(File file) throws IOException {
+        if (file.length() >= maxBytesPerWorker / 2) return true;
+        if (file.length() < maxItemsPerWorker) return false;
+        return FilesHandler.countLines(file, 2 * MemoryEstimator.MERGE_BUFFER_SIZE, maxItemsPerWorker)
+                == maxItemsPerWorker;
+    }
+
+    /**
+     * Deletes the merged sorted files, except the input files which have been merged as they are.
+     */
+    private void deleteMerged(List<File> files) {
+        for (File f : files) {
+            if (!inputRuns.contains(f)) f.delete();
+        }
+    }
+
+    /**
+     * Do the sort stage without the merge stage.
+     *
+     * @return {@code true} if the sort stage is successful. {@code false} otherwise
+     */
+    private boolean doTheSortJob() {
+        ExecutorService mergerService = Executors.newSingleThreadExecutor();
+        boolean result = doTheSortJob(new RunRegistry(), new Semaphore(calculateMergeFanIn()), mergerService);
+        awaitBackgroundMerge(mergerService);
+        return result;
+    }
+
     /**
      * Do the sort stage. {@code workers} workers sort files simultaneously.
      * If a sort stage finishes successfully, the directory {@code destinationDir}
-     * contains sorted files.
+     * contains sorted files, and all of them are published to {@code registry}.
+     * <p>
+     * If {@code options.isMergeDuringSort()}, the background merger is started along with the workers.
+     * The registry is closed once the workers are done, but the merge which is running at this moment
+     * goes on: the merge stage waits for its result only when the result is needed. The caller has to
+     * await {@code mergerService} before the temporary files are cleaned up, see
+     * {@link #awaitBackgroundMerge(ExecutorService)}.
      *
+     * @param registry      receives the sorted files
+     * @param mergeBudget   the budget of opened files of the merge, see {@link #doTheMergeJob(RunRegistry, Semaphore)}
+     * @param mergerService runs the background merger, it is shut down once the merger is started
      * @return {@code true} if the sort stage is successful. {@code false} otherwise
      */
-    private boolean doTheSortJob() {
+    private boolean doTheSortJob(RunRegistry registry, Semaphore mergeBudget, ExecutorService mergerService) {
         Boolean sortResult = true;
         ExecutorService executorService = Executors.newFixedThreadPool(workers);
         List<Future<Boolean>> res = new ArrayList<>();
 
+        if (options.isMergeDuringSort())
+            mergerService.execute(() -> mergeInBackground(registry, mergeBudget));
+        mergerService.shutdown();
         for (int i = 0; i < workers; ++i) {
             res.add(executorService.submit(
-                    new MapWorker(unsortedFilesQueue, maxItemsPerWorker, destinationDir, jobID)));
+                    new MapWorker(unsortedFilesQueue, maxItemsPerWorker, maxBytesPerWorker, destinationDir, jobID,
+                            options, registry)));
         }
         executorService.shutdown();
         try {
@@ -110,71 +393,612 @@ public class FilesSorter {
             }
         } catch (InterruptedException ex) {
             System.err.println("Interrupted sort stage execution.");
-            return false;
+            sortResult = false;
         } catch (ExecutionException e) {
             System.err.println("Interrupted sort stage execution.");
-            return false;
+            sortResult = false;
         }
 
+        registry.close();
         return sortResult;
     }
 
     /**
-     * Do the merge stage. This stage is single threaded. Because of the fact that a lot of files
-     * are being read simultaneously, there is a configurable limit of opened files.
+     * Waits until the background merger is done, so that it doesn't create files after the clean up.
+     */
+    private void awaitBackgroundMerge(ExecutorService mergerService) {
+        try {
+            mergerService.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted background merge.");
+        }
+    }
+
+    /**
+     * The body of the background merger. While the sort stage is running, it takes the smallest sorted
+     * files from {@code registry} as soon as there are more of them than the merge stage could merge at once,
+     * i.e. as soon as an intermediate merge is needed anyway, and merges them into a new sorted file. The
+     * new file is published before it is written, so the merge stage may start without waiting for it.
+     * A failed merge, including an unchecked failure, fails the run it publishes, so the merge stage fails
+     * as well.
+     */
+    private void mergeInBackground(RunRegistry registry, Semaphore mergeBudget) {
+        int fanIn = calculateMergeFanIn();
+        int bufferSize = calculateMergeBufferSize(fanIn);
+        int groupSize = calculateBackgroundGroupSize(fanIn, bufferSize);
+        ReadAhead readAhead = createReadAhead();
+        WriteBehind writeBehind = new WriteBehind(options.getWriteBehind());
+        try {
+            List<File> group;
+            while ((group = registry.take(calculateFinalFanIn(fanIn), groupSize)) != null) {
+                CompletableFuture<File> merged = new CompletableFuture<>();
+                long size = 0;
+                for (long s : getSizes(group)) {
+                    size += s;
+                }
+                registry.publish(merged, size);
+                try {
+                    merged.complete(mergeStep(group, bufferSize, options.getTempCodec(), mergeBudget, readAhead,
+                            writeBehind));
+                } catch (CompletionException e) {
+                    merged.completeExceptionally(e.getCause());
+                    return;
+                } catch (RuntimeException | Error e) {
+                    // Otherwise the merge stage would wait for the published run forever
+                    merged.completeExceptionally(e);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted background merge.");
+        } finally {
+            readAhead.close();
+        }
+    }
+
+    /**
+     * Calculates how many files are merged at once by the background merger. It has the share of {@code batch}
+     * and {@code memory} of one more worker, but it never merges more files than an intermediate step of the
+     * merge stage. At least two files are always merged together.
+     *
+     * @return the maximum amount of files of a background merge
+     */
+
+    private int calculateBackgroundGroupSize(int fanIn, int bufferSize) {
+        int shares = workers + 1;
+        long files = Math.min(calculateMergeGroupSize(fanIn), options.getBatch() / shares);
+        if (options.getMemory() != SortOptions.UNLIMITED_MEMORY) {
+            long perFile = MemoryEstimator.estimateReader(bufferSize) + getReaderOverhead();
+            long memory = options.getMemory() / shares - new WriteBehind(options.getWriteBehind()).getWriterOverhead();
+            files = Math.min(files, memory / perFile);
+        }
+        return (int) Math.max(2, files);
+    }
+
+    /**
+     * Do the merge stage. Because of the fact that a lot of files are being read simultaneously,
+     * there is a configurable limit of opened files.
+     * <p>
+     * {@code options.getMergeEngine()} is used to merge files. At most {@code Math.min(max_opened_files, batch)} files are
+     * merged at once and there is at most one line from each file in the merge queue. Each opened
+     * file also has a read buffer, so the amount of files is limited by {@code memory} as well. If it is not
+     * possible to merge all files because of small buffer, several steps are required. Which files are merged
+     * by each step is decided by a {@link MergePlan}: the smallest files are merged first, so that big files
+     * are re-merged as rarely as possible, and the last step merges as many files as possible. The last step
+     * writes the result, which is moved to {@code resultFile}. Temporary files may be compressed by
+     * {@code options.getTempCodec()}, but the result is always written as plain text. If
+     * {@code options.isBinary()}, the files are merged as raw bytes. If {@code options.isPrintMergePlan()},
+     * the plan is printed before the merge is started.
      * <p>
-     * IndexedPriorityQueue is used to merge files.{@code Math.min(max_opened_files, batch)} are merged
-     * at once and there is at most one line from each file in the IndexedPriorityQueue. If it is not
-     * possible to merge all files because of small buffer, several stages are required. The process is
-     * finished when there is only one file left. This file is the result and is copied to the
-     * {@code resultFile}.
+     * If {@code options.getReadAhead()} is set, the blocks of the opened files are loaded ahead of time by
+     * {@code READ_AHEAD_THREADS} threads shared by all the merging threads, see {@link ReadAhead}. If
+     * {@code options.getWriteBehind()} is set, each merged file is written by its own thread, see
+     * {@link WriteBehind}.
+     * <p>
+     * A step is started as soon as the files it merges are ready, so independent steps are merged by
+     * {@code mergeWorkers} threads at once. The limit of opened files is shared by all the threads: each step
+     * reserves as many files (and lines, because every opened file has exactly one line in the queue) as it
+     * contains before the merge is started and releases them once the merge is done. The background merger
+     * shares the same budget, so a background merge which is still running takes its part of the limit.
      *
+     * @param registry    contains the sorted files, some of them may be still being merged in the background
+     * @param mergeBudget has a permit for each file which may be opened at once
      * @return {@code true} if the merge stage is successful. {@code false} otherwise
      */
-    private boolean doTheMergeJob() {
-        List<File> sortedFiles = FilesHandler.getMatchedFiles(destinationDir, jobID);
+    private boolean doTheMergeJob(RunRegistry registry, Semaphore mergeBudget) {
+        List<RunRegistry.Run> sortedFiles = registry.getRuns();
         if(sortedFiles.size() == 0) {
             System.err.println("No files has been found after the sort stage." +
                     " Please check that your input is not empty.");
             return true;
         }
+
         // We may want not to open too many files at once
-        int maxItemsInMemory = Math.min(max_opened_files, batch);
+        int maxItemsInMemory = calculateMergeFanIn();
+        int bufferSize = calculateMergeBufferSize(maxItemsInMemory);
+        long[] sizes = new long[sortedFiles.size()];
+        for (int i = 0; i < sizes.length; ++i) {
+            sizes[i] = sortedFiles.get(i).getSize();
+        }
+        MergePlan plan = MergePlan.create(sizes, calculateFinalFanIn(maxItemsInMemory),
+                calculateMergeGroupSize(maxItemsInMemory));
+        if (options.isPrintMergePlan() && sortedFiles.size() > 1) System.out.print(plan);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(options.getMergeWorkers());
+        ReadAhead readAhead = createReadAhead();
+        WriteBehind writeBehind = new WriteBehind(options.getWriteBehind());
+
+        try {
+            // A single plain file is already the result, unless it is an input file which is merged alone
+            if (sortedFiles.size() == 1 && options.getTempCodec() == TempCodec.NONE
+                    && !inputRuns.contains(sortedFiles.get(0).getFile().get()))
+                return sortedFiles.get(0).getFile().get().renameTo(new File(resultFile));
+
+            // runs.get(i) completes once the run i is written
+            List<CompletableFuture<File>> runs = new ArrayList<>();
+            for (RunRegistry.Run run : sortedFiles) {
+                runs.add(run.getFile());
+            }
+            List<MergePlan.Step> steps = plan.getSteps();
+            for (int i = 0; i < steps.size(); ++i) {
+                List<CompletableFuture<File>> inputs = new ArrayList<>();
+                for (int run : steps.get(i).getInputs()) {
+                    inputs.add(runs.get(run));
+                }
+                boolean last = i == steps.size() - 1;
+                // The last step writes the plain result
+                TempCodec resultCodec = last ? TempCodec.NONE : options.getTempCodec();
+                boolean ranges = last && inputs.size() > 1 && getMergePartitions() > 1;
+                boolean tree = last && inputs.size() > 1 && isMergeTree();
+                runs.add(CompletableFuture.allOf(inputs.toArray(new CompletableFuture<?>[0]))
+                        .thenApplyAsync(ignored -> {
+                            // The lines of an input file may end with CRLF or lack the last line feed, so the
+                            // merged ranges would not take as many bytes as their parts
+                            if (ranges && Collections.disjoint(join(inputs), inputRuns))
+                                return mergeRanges(join(inputs), bufferSize, mergeBudget, readAhead,
+                                        writeBehind);
+                            if (tree) return mergeTree(join(inputs), maxItemsInMemory, mergeBudget, readAhead,
+                                    writeBehind);
+                            return mergeStep(join(inputs), bufferSize, resultCodec, mergeBudget, readAhead,
+                                    writeBehind);
+                        }, executorService));
+            }
+            return runs.get(runs.size() - 1).get().renameTo(new File(resultFile));
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted merge stage execution.");
+            return false;
+        } catch (ExecutionException e) {
+            System.err.println(e.getCause().getMessage());
+            return false;
+        } finally {
+            executorService.shutdownNow();
+            readAhead.close();
+        }
+    }
+
+    private ReadAhead createReadAhead() {
+        return options.getReadAhead() == 0 ? ReadAhead.NONE
+                : new ReadAhead(options.getReadAhead(), READ_AHEAD_THREADS);
+    }
+
+    private static List<File> join(List<CompletableFuture<File>> inputs) {
+        List<File> files = new ArrayList<>();
+        for (CompletableFuture<File> input : inputs) {
+            files.add(input.join());
+        }
+        return files;
+    }
+
+    /**
+     * Merges {@code files} into a new temporary file.
+     *
+     * @return the merged file
+     * @throws CompletionException if the files are not merged
+     */
+
+    private File mergeStep(List<File> files, int bufferSize, TempCodec resultCodec,
+                           Semaphore budget, ReadAhead readAhead, WriteBehind writeBehind) {
+        File resultTempFile = FilesHandler.createTempFile(jobID, destinationDir);
+        try {
+            if (resultTempFile != null
+                    && mergeGroup(files, resultTempFile, bufferSize, resultCodec, budget, readAhead, writeBehind))
+                return resultTempFile;
+        } catch (InterruptedException e) {
+            throw new CompletionException(new IOException("Interrupted merge stage execution.", e));
+        }
+        throw new CompletionException(new IOException("Cannot merge sorted files."));
+    }
+
+    private static long[] getSizes(List<File> files) {
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < files.size(); ++i) {
+            sizes[i] = files.get(i).length();
+        }
+        return sizes;
+    }
+
+    /**
+     * Calculates how many files can be opened at once by all the merging threads. Each file has
+     * one line in RAM, so there can't be more than {@code batch} files. Each file also has a read
+     * buffer of at least {@code MemoryEstimator.MERGE_BUFFER_SIZE} chars, the buffers of its codec and
+     * the blocks of its read-ahead, which are taken from {@code memory}. At least two files are always
+     * allowed, otherwise the merge would never finish.
+     *
+     * @return the maximum amount of opened files
+     */
 
-        while (sortedFiles.size() > 1) {
-            ArrayList<File> mergeResult = new ArrayList<>();
+    private int calculateMergeFanIn() {
+        long byMemory = getMergeMemory() / (MemoryEstimator.estimateReader(MemoryEstimator.MERGE_BUFFER_SIZE)
+                + getReaderOverhead());
+        long fanIn = Math.min(Math.min(options.getMaxOpenedFiles(), options.getBatch()), byMemory);
+        return (int) Math.max(2, fanIn);
+    }
+
+    /**
+     * Shares {@code memory} between {@code fanIn} files. If the amount of files is limited by
+     * something else than {@code memory}, the buffers become bigger, which means less reads from disk.
+     * If {@code memory} is not limited, the default size is used.
+     *
+     * @return the size of the read buffer of each file in chars
+     */
 
-            for (int i = 0; i < sortedFiles.size(); i += maxItemsInMemory) {
-                File resultTempFile = FilesHandler.createTempFile(jobID, destinationDir);
-                if (resultTempFile == null) return false;
+    private int calculateMergeBufferSize(int fanIn) {
+        if (options.getMemory() == SortOptions.UNLIMITED_MEMORY) return MemoryEstimator.MERGE_BUFFER_SIZE;
+        long perFile = getMergeMemory() / fanIn;
+        long chars = (perFile - MemoryEstimator.estimateReader(0) - getReaderOverhead()) / 2;
+        return (int) Math.max(MemoryEstimator.MERGE_BUFFER_SIZE, Math.min(MemoryEstimator.MAX_MERGE_BUFFER_SIZE, chars));
+    }
+
+    /**
+     * @return how many bytes of {@code memory} are left for the opened files once each merging thread has
+     * the buffers of its writer
+     */
 
-                if (!FilesHandler.mergeSortedFiles(
-                        sortedFiles.subList(i, Math.min(i + maxItemsInMemory, sortedFiles.size())), resultTempFile))
-                    return false;
-                mergeResult.add(resultTempFile);
+    private long getMergeMemory() {
+        int threads = Math.max(options.getMergeWorkers(), getMergePartitions());
+        // The constructor makes sure that the writers take at most half of memory
+        return options.getMemory() - threads * new WriteBehind(options.getWriteBehind()).getWriterOverhead();
+    }
+
+    /**
+     * @return how many bytes each opened file takes besides the buffer of its reader
+     */
+
+    private long getReaderOverhead() {
+        return options.getTempCodec().getReaderOverhead() + 2L * options.getReadAhead();
+    }
+
+    /**
+     * Calculates how many files are merged into one file by an intermediate step. The budget is divided
+     * between {@code mergeWorkers} so that they can run simultaneously. At least two files are always
+     * merged together, otherwise the merge would never finish.
+     *
+     * @param maxItemsInMemory how many files can be opened at once by all the merging threads
+     * @return the maximum amount of files of an intermediate step
+     */
+
+    private int calculateMergeGroupSize(int maxItemsInMemory) {
+        return Math.min(Math.max(2, maxItemsInMemory / options.getMergeWorkers()),
+                calculateFinalFanIn(maxItemsInMemory));
+    }
+
+    /**
+     * Calculates how many files are merged by the last step. Each key range of the last step opens all of its
+     * files, so the budget is divided between the ranges. A merge tree is limited by
+     * {@link #calculateTreeFanIn()} instead. At least two files are always merged together.
+     *
+     * @param maxItemsInMemory how many files can be opened at once by all the merging threads
+     * @return the maximum amount of files of the last step
+     */
+
+    private int calculateFinalFanIn(int maxItemsInMemory) {
+        if (isMergeTree()) return calculateTreeFanIn();
+        return Math.max(2, maxItemsInMemory / getMergePartitions());
+    }
+
+    /**
+     * The key ranges and the merge tree both replace the last merge step, the ranges win if both are asked for.
+     *
+     * @return {@code true} if the last merge step is a {@link MergeTree}
+     */
+
+    private boolean isMergeTree() {
+        return options.isMergeTree() && getMergePartitions() == 1;
+    }
+
+    /**
+     * A node of the merge tree holds a line of each of its children, so {@code maxOpenedFiles} limits the
+     * children of a node rather than the files of the tree.
+     *
+     * @return the maximum amount of children of a node of the merge tree
+     */
+
+    private int calculateTreeNodeFanIn() {
+        return Math.max(2, Math.min(options.getMaxOpenedFiles(), TREE_NODE_FAN_IN));
+    }
+
+    /**
+     * Calculates how many files the merge tree can take. Each file takes a line and a reader of
+     * {@code MemoryEstimator.MERGE_BUFFER_SIZE} chars, and each edge between the nodes takes
+     * {@code MergeTree.BLOCKS} blocks of at least {@code MergeTree.MIN_BLOCK_LINES} lines and
+     * {@code MergeTree.MIN_BLOCK_BYTES} bytes. All of them are taken from {@code batch} and {@code memory}.
+     *
+     * @return the maximum amount of files of the merge tree, at least two
+     */
+
+    private int calculateTreeFanIn() {
+        int fanIn = 2;
+        while (fanIn < MAX_FILES && fitsTree(fanIn + 1)) {
+            ++fanIn;
+        }
+        return fanIn;
+    }
+
+    private boolean fitsTree(int files) {
+        long blocks = (long) MergeTree.countEdges(files, calculateTreeNodeFanIn()) * MergeTree.BLOCKS;
+        long readers = files * (MemoryEstimator.estimateReader(MemoryEstimator.MERGE_BUFFER_SIZE)
+                + getReaderOverhead());
+        return readers + blocks * MergeTree.MIN_BLOCK_BYTES <= getMergeMemory()
+                && files + blocks * MergeTree.MIN_BLOCK_LINES <= options.getBatch();
+    }
+
+    /**
+     * Merges the last step by a {@link MergeTree}. The memory and the lines which are left after the readers
+     * of the files are shared between the blocks of the edges. The tree uses the whole budget, so it holds all
+     * {@code budgetSize} permits of the {@code budget}.
+     *
+     * @return the merged file
+     * @throws CompletionException if the files are not merged
+     */
+
+    private File mergeTree(List<File> files, int budgetSize, Semaphore budget, ReadAhead readAhead,
+                           WriteBehind writeBehind) {
+        int nodeFanIn = calculateTreeNodeFanIn();
+        long blocks = Math.max(1L, (long) MergeTree.countEdges(files.size(), nodeFanIn) * MergeTree.BLOCKS);
+        long readers = files.size() * (MemoryEstimator.estimateReader(MemoryEstimator.MERGE_BUFFER_SIZE)
+                + getReaderOverhead());
+        long blockBytes = Math.max(MergeTree.MIN_BLOCK_BYTES,
+                Math.min(MergeTree.MAX_BLOCK_BYTES, (getMergeMemory() - readers) / blocks));
+        int blockLines = (int) Math.max(MergeTree.MIN_BLOCK_LINES,
+                Math.min(MergeTree.MAX_BLOCK_LINES, (options.getBatch() - (long) files.size()) / blocks));
+        File resultTempFile = FilesHandler.createTempFile(jobID, destinationDir);
+        try {
+            budget.acquire(budgetSize);
+            try {
+                MergeSettings settings = mergeSettings(MemoryEstimator.MERGE_BUFFER_SIZE, TempCodec.NONE, readAhead,
+                        writeBehind);
+                boolean merged = resultTempFile != null && (options.isBinary()
+                        ? MergeTree.mergeSortedByteFiles(files, resultTempFile, nodeFanIn, blockLines, blockBytes,
+                        settings)
+                        : MergeTree.mergeSortedFiles(files, resultTempFile, nodeFanIn, blockLines, blockBytes,
+                        settings));
+                if (merged) {
+                    deleteMerged(files);
+                    return resultTempFile;
+                }
+            } finally {
+                budget.release(budgetSize);
+            }
+        } catch (InterruptedException e) {
+            throw new CompletionException(new IOException("Interrupted merge stage execution.", e));
+        }
+        throw new CompletionException(new IOException("Cannot merge sorted files."));
+    }
+
+    /**
+     * The ranges of the last step are found by seeking in the sorted files, which is not possible in
+     * compressed files, so a codec turns the partitioning off. Collapsed duplicates make a merged range
+     * smaller than its parts, so its offset in the result is not known in advance, and the unique mode turns
+     * the partitioning off as well. So does the limit of lines, only the first range would be needed. The
+     * input files which are merged as they are may have other line endings than the written lines, so the
+     * last step doesn't use the ranges if it merges any of them.
+     *
+     * @return the amount of key ranges of the last merge step
+     */
+
+    private int getMergePartitions() {
+        return options.getTempCodec() == TempCodec.NONE && !options.getDuplicates().isUnique()
+                && !options.isLimited() ? options.getMergePartitions() : 1;
+    }
+
+    /**
+     * Merges the last step as {@code options.getMergePartitions()} independent key ranges.
+     * <p>
+     * Each file gets a sparse {@link RunIndex} of {@code PARTITION_SAMPLES} lines per range. The samples of all
+     * the files give the splitters which cut the files into ranges of about the same size, and each file is cut
+     * at the first line which is not less than each splitter. The range {@code p} of every file only has lines
+     * which are not less than the splitter {@code p - 1} and less than the splitter {@code p}, so the merged
+     * ranges follow each other in the result. A merged range takes exactly as many bytes as its parts of the
+     * files, so the offset of each range in the result is known in advance and every range is merged by its
+     * own thread straight into its region of the result file. Each range holds as many permits of the
+     * {@code budget} as it opens files.
+     *
+     * @return the merged file
+     * @throws CompletionException if the files are not merged
+     */
+
+    private File mergeRanges(List<File> files, int bufferSize, Semaphore budget, ReadAhead readAhead,
+                             WriteBehind writeBehind) {
+        try {
+            // A byte buffer of a binary merge takes as much memory as the char buffer of a reader
+            File result = options.isBinary()
+                    ? mergeRanges(files, RunIndex.BINARY, 2 * bufferSize, budget, readAhead, writeBehind)
+                    : options.getSortKeys().isEmpty()
+                    ? mergeRanges(files, RunIndex.TEXT, bufferSize, budget, readAhead, writeBehind)
+                    : mergeRanges(files, keyReader(options.getSortKeys()), bufferSize, budget, readAhead,
+                    writeBehind);
+            deleteMerged(files);
+            return result;
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } catch (InterruptedException e) {
+            throw new CompletionException(new IOException("Interrupted merge stage execution.", e));
+        }
+    }
+
+    /**
+     * @return reads the lines together with their keys, the same way the merge does
+     */
+    private static RunIndex.KeyReader<KeyedLine> keyReader(SortKeys keys) {
+        return reader -> keys.wrap(reader.readLine());
+    }
+
+    private <K extends Comparable<K>> File mergeRanges(List<File> files, RunIndex.KeyReader<K> keys, int bufferSize,
+                                                       Semaphore budget, ReadAhead readAhead,
+                                                       WriteBehind writeBehind)
+            throws IOException, InterruptedException {
+        int partitions = getMergePartitions();
+        List<RunIndex<K>> indexes = new ArrayList<>();
+        for (File f : files) {
+            indexes.add(RunIndex.build(f, PARTITION_SAMPLES * partitions, keys));
+        }
+        List<K> splitters = RunIndex.splitters(indexes, partitions);
+
+        // ranges.get(p) are the parts of the files which belong to the range p, it starts at offsets[p]
+        List<List<InputSplit>> ranges = new ArrayList<>();
+        for (int p = 0; p <= splitters.size(); ++p) {
+            ranges.add(new ArrayList<>());
+        }
+        long[] offsets = new long[ranges.size() + 1];
+        for (RunIndex<K> index : indexes) {
+            long start = 0;
+            for (int p = 0; p < ranges.size(); ++p) {
+                long end = p < splitters.size() ? index.find(splitters.get(p)) : index.getSize();
+                if (end > start) ranges.get(p).add(new InputSplit(index.getFile(), start, end));
+                offsets[p + 1] += end - start;
+                start = end;
+            }
+        }
+        for (int p = 0; p < ranges.size(); ++p) {
+            offsets[p + 1] += offsets[p];
+        }
+
+        File result = FilesHandler.createTempFile(jobID, destinationDir);
+        if (result == null) throw new IOException("Cannot merge sorted files.");
+        ExecutorService rangeMergers = Executors.newFixedThreadPool(ranges.size());
+        try {
+            List<Future<Boolean>> merged = new ArrayList<>();
+            for (int p = 0; p < ranges.size(); ++p) {
+                List<InputSplit> range = ranges.get(p);
+                long position = offsets[p];
+                if (!range.isEmpty())
+                    merged.add(rangeMergers.submit(() -> mergeRange(range, result, position, bufferSize, budget,
+                            readAhead, writeBehind)));
             }
-            sortedFiles = mergeResult;
+            for (Future<Boolean> f : merged) {
+                if (!f.get()) throw new IOException("Cannot merge sorted files.");
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            rangeMergers.shutdownNow();
         }
+        if (result.length() != offsets[ranges.size()])
+            throw new IOException("The merged ranges take " + result.length() + " bytes instead of "
+                    + offsets[ranges.size()] + ".");
+        return result;
+    }
 
-        return sortedFiles.get(0).renameTo(new File(resultFile));
+    /**
+     * Merges the parts of the files of one key range into the region of {@code result} which starts at
+     * {@code position}.
+     *
+     * @return {@code true} if the range is merged successfully. {@code false} otherwise
+     */
+
+    private boolean mergeRange(List<InputSplit> range, File result, long position, int bufferSize, Semaphore budget,
+                               ReadAhead readAhead, WriteBehind writeBehind)
+            throws IOException, InterruptedException {
+        budget.acquire(range.size());
+        try {
+            OutputStream out = writeBehind.wrap(FilesHandler.openOutputStream(result, position));
+            MergeSettings settings = new MergeSettings().setBufferSize(bufferSize)
+                    .setEngine(options.getMergeEngine()).setReadAhead(readAhead).setKeys(options.getSortKeys());
+            return options.isBinary()
+                    ? FilesHandler.mergeSortedByteSplits(range, out, settings)
+                    : FilesHandler.mergeSortedSplits(range, out, settings);
+        } finally {
+            budget.release(range.size());
+        }
     }
 
     /**
-     * Do the sort. Clean up of {@code destinationDir} is required in any case.
+     * Merges one group of files holding {@code files.size()} permits of the {@code budget}
+     * while the files are opened. The merged files are deleted right away, so the temporary files
+     * occupy at most twice the size of the input on disk.
+     *
+     * @return {@code true} if the files are merged successfully. {@code false} otherwise
+     */
+
+    private boolean mergeGroup(List<File> files, File resultTempFile, int bufferSize, TempCodec resultCodec,
+                               Semaphore budget, ReadAhead readAhead, WriteBehind writeBehind)
+            throws InterruptedException {
+        budget.acquire(files.size());
+        try {
+            MergeSettings settings = mergeSettings(bufferSize, resultCodec, readAhead, writeBehind);
+            boolean merged = options.isBinary()
+                    ? FilesHandler.mergeSortedByteFiles(files, resultTempFile, settings)
+                    : FilesHandler.mergeSortedFiles(files, resultTempFile, settings);
+            if (merged) deleteMerged(files);
+            return merged;
+        } finally {
+            budget.release(files.size());
+        }
+    }
+
+    /**
+     * Collects the settings of a merge of the temporary files from the options of the sort.
+     *
+     * @param bufferSize is the size of the read buffer of each file in chars
+     */
+
+    private MergeSettings mergeSettings(int bufferSize, TempCodec resultCodec, ReadAhead readAhead,
+                                        WriteBehind writeBehind) {
+        // A byte buffer of a binary merge takes as much memory as the char buffer of a reader
+        return new MergeSettings().setBufferSize(options.isBinary() ? 2 * bufferSize : bufferSize)
+                .setEngine(options.getMergeEngine()).setCodec(options.getTempCodec()).setResultCodec(resultCodec)
+                .setReadAhead(readAhead).setWriteBehind(writeBehind).setKeys(options.getSortKeys())
+                .setDuplicates(options.getDuplicates()).setLimit(options.getLimit());
+    }
+
+    /**
+     * Do the sort. If the input fits into RAM, it is sorted without temporary files. Otherwise
+     * the sort and the merge stages are done and clean up of {@code destinationDir} is required in any case.
      *
      * @return {@code true} if the sort is successful. {@code false} otherwise
      */
 
     public boolean sort() {
-        boolean result = doTheSortJob();
+        try {
+            if (!options.isMergeOnly() && doTheInMemorySort()) {
+                System.out.println("The input is sorted in memory");
+                return true;
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.err.println("The in-memory sort has failed.");
+            return false;
+        }
+
+        RunRegistry registry = new RunRegistry();
+        Semaphore mergeBudget = new Semaphore(calculateMergeFanIn());
+        if (!publishSortedInputs(registry)) {
+            System.err.println("The input files cannot be checked.");
+            return false;
+        }
+        ExecutorService mergerService = Executors.newSingleThreadExecutor();
+        boolean result = doTheSortJob(registry, mergeBudget, mergerService);
 
         if (!result) {
             System.err.println("The sort stage has failed.");
+            awaitBackgroundMerge(mergerService);
             FilesHandler.errorHandler(FilesHandler.cleanUp(destinationDir, jobID));
             return false;
         }
         System.out.println("The sort stage is finished");
-        result = doTheMergeJob();
+        result = doTheMergeJob(registry, mergeBudget);
+        // A failed merge stage may not wait for the run of the background merger, which is still written
+        awaitBackgroundMerge(mergerService);
         if (!result) {
             System.err.println("The merge stage has failed.");
             FilesHandler.errorHandler(FilesHandler.cleanUp(destinationDir, jobID));
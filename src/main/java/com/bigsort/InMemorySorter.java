@@ -0,0 +1,323 @@
+package com.bigsort;
+
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.DuplicateFilter;
+import com.bigsort.util.Duplicates;
+import com.bigsort.util.FilesHandler;
+import com.bigsort.util.InputSplit;
+import com.bigsort.util.LineArena;
+import com.bigsort.util.LineReader;
+import com.bigsort.util.MemoryEstimator;
+import com.bigsort.util.MergeQueue;
+import com.bigsort.util.SortKeys;
+import com.bigsort.util.StringSorter;
+import com.bigsort.util.TempCodec;
+import com.bigsort.util.WriteBehind;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * {@code InMemorySorter} sorts an input which fits into RAM without any temporary files.
+ * <p>
+ * {@code workers} threads take splits from a shared queue and read their lines into their own chunks.
+ * All the workers share the limits of the job: {@code batch} lines and {@code memory} bytes in total.
+ * As soon as any of the limits is exceeded, all the workers stop and the input is declared too big, so
+ * the caller has to sort it the usual way. Otherwise each worker sorts its chunk, and the sorted chunks are
+ * merged by {@code options.getMergeEngine()} straight into the result file.
+ * <p>
+ * If the binary mode is enabled, each chunk is a binary {@link LineArena}: the lines are never decoded,
+ * they are compared as unsigned bytes and are written as they were read.
+ * <p>
+ * If {@link SortKeys} are given, the lines are compared by their keys, and the keys are counted in
+ * {@code memory}.
+ * <p>
+ * Equal lines are treated by {@code options.getDuplicates()}: each chunk is collapsed right after it is sorted,
+ * and the merge of the chunks collapses the equal lines of different chunks.
+ * <p>
+ * If {@code options.getLimit()} is set, only the first lines of the sorted order are written. A chunk of
+ * text lines which are not aggregated keeps only its first lines then: once it has twice the limit, it is
+ * sorted and cut to the limit, so an input of any size is sorted in RAM as long as the chunks fit,
+ * see {@link #keepsFirstLines(SortOptions, int)}.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class InMemorySorter {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private List<InputSplit> splits;
+    private int workers;
+    private SortOptions options;
+    private AtomicLong lines = new AtomicLong();
+    private AtomicLong bytes = new AtomicLong();
+    private AtomicBoolean tooBig = new AtomicBoolean(false);
+
+    /**
+     * Initializes an InMemorySorter of {@code splits}.
+     *
+     * @param splits  the input to sort
+     * @param workers the amount of threads which read and sort the input
+     * @param options the settings of the sort job
+     */
+    public InMemorySorter(List<InputSplit> splits, int workers, SortOptions options) {
+        if (workers < 1) throw new IllegalArgumentException("workers should be positive.");
+        this.splits = splits;
+        this.workers = workers;
+        this.options = options;
+    }
+
+    /**
+     * Tells if the chunks of {@code workers} keep only the first lines of the sorted order and fit into
+     * {@code batch} together. The aggregated lines of a chunk are not cut, because a cut chunk is sorted
+     * again, and the binary arenas are not cut either.
+     *
+     * @param options the settings of the sort job
+     * @param workers the amount of threads which read and sort the input
+     * @return {@code true} if the size of the input doesn't matter
+     */
+    public static boolean keepsFirstLines(SortOptions options, int workers) {
+        return cutsChunks(options) && 2L * options.getLimit() * workers <= options.getBatch();
+    }
+
+    private static boolean cutsChunks(SortOptions options) {
+        return options.isLimited() && !options.isBinary() && !options.getDuplicates().isAggregated();
+    }
+
+    /**
+     * Sorts the input and writes the result to {@code resultFile}.
+     *
+     * @param resultFile is a file where the result should be stored
+     * @return {@code true} if the input is sorted, {@code false} if it doesn't fit into RAM. Nothing is
+     * written in the latter case
+     * @throws IOException if the input cannot be read or the result cannot be written
+     */
+    public boolean sort(File resultFile) throws IOException {
+        List<Chunk> chunks = loadAndSort();
+        if (chunks == null) return false;
+        if (options.isBinary()) writeBinary(chunks, resultFile);
+        else write(chunks, resultFile);
+        return true;
+    }
+
+    /**
+     * Reads and sorts the chunks of all the workers.
+     *
+     * @return the sorted chunks or {@code null} if the input doesn't fit into RAM
+     */
+    private List<Chunk> loadAndSort() throws IOException {
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>(splits);
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        List<Future<Chunk>> res = new ArrayList<>();
+        for (int i = 0; i < workers; ++i) {
+            res.add(executorService.submit(() -> loadAndSort(q)));
+        }
+        executorService.shutdown();
+
+        List<Chunk> chunks = new ArrayList<>();
+        try {
+            for (Future<Chunk> futureRes : res) {
+                chunks.add(futureRes.get());
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted in-memory sort.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        return tooBig.get() ? null : chunks;
+    }
+
+    /**
+     * Reads splits from {@code q} into one chunk until the queue is empty or the shared limits are exceeded.
+     *
+     * @return the sorted chunk, it is incomplete if the limits are exceeded
+     */
+    private Chunk loadAndSort(ConcurrentLinkedQueue<InputSplit> q) throws IOException {
+        Chunk chunk = new Chunk();
+        if (options.isBinary()) return loadAndSortBinary(q, chunk);
+        InputSplit split;
+        while (!tooBig.get() && (split = q.poll()) != null) {
+            try (LineReader reader = new LineReader(split, options.isMmap())) {
+                String nextLine;
+                while ((nextLine = reader.readLine()) != null) {
+                    if (lines.incrementAndGet() > options.getBatch()
+                            || bytes.addAndGet(estimate(nextLine)) > options.getMemory()) {
+                        tooBig.set(true);
+                    }
+                    if (tooBig.get()) return chunk;
+                    chunk.add(nextLine, estimate(nextLine));
+                    if (cutsChunks(options) && chunk.count >= 2L * options.getLimit()) cut(chunk);
+                }
+            }
+        }
+        chunk.count = sort(chunk.lines, chunk.count);
+        return chunk;
+    }
+
+    /**
+     * Sorts {@code chunk} and keeps only its first lines, the lines and the bytes which are freed are
+     * returned to the shared limits.
+     */
+    private void cut(Chunk chunk) {
+        int count = chunk.count;
+        chunk.count = sort(chunk.lines, count);
+        long kept = 0;
+        for (int i = 0; i < chunk.count; ++i) {
+            kept += estimate(chunk.lines[i]);
+        }
+        lines.addAndGet(chunk.count - count);
+        bytes.addAndGet(kept - chunk.bytes);
+        chunk.bytes = kept;
+    }
+
+    /**
+     * Sorts the first {@code count} lines and collapses their duplicates. Only the first
+     * {@code options.getLimit()} of them are kept, the rest are cleared.
+     *
+     * @return how many lines are left
+     */
+    private int sort(String[] lines, int count) {
+        int end;
+        if (options.getSortKeys().isEmpty()) {
+            if (!StringSorter.isSorted(lines, 0, count)) options.getStringSorter().sort(lines, 0, count);
+            end = options.getDuplicates().collapse(lines, 0, count);
+        } else {
+            end = options.getSortKeys().sort(lines, 0, count, options.getDuplicates());
+        }
+        if (end <= options.getLimit()) return end;
+        Arrays.fill(lines, options.getLimit(), end, null);
+        return options.getLimit();
+    }
+
+    private long estimate(String line) {
+        return MemoryEstimator.estimate(line) + options.getSortKeys().estimate(line);
+    }
+
+    /**
+     * The same as {@link #loadAndSort(ConcurrentLinkedQueue)}, but the lines are read into the binary arena
+     * of {@code chunk}.
+     */
+    private Chunk loadAndSortBinary(ConcurrentLinkedQueue<InputSplit> q, Chunk chunk) throws IOException {
+        chunk.arena = new LineArena(Math.min(options.getMemory(), LineArena.MAX_BYTES), true);
+        InputSplit split;
+        while (!tooBig.get() && (split = q.poll()) != null) {
+            try (LineReader reader = new LineReader(split, options.isMmap())) {
+                long before = chunk.arena.bytes();
+                while (reader.readLine(chunk.arena)) {
+                    long after = chunk.arena.bytes();
+                    if (lines.incrementAndGet() > options.getBatch()
+                            || bytes.addAndGet(after - before) > options.getMemory() || chunk.arena.isFull()) {
+                        tooBig.set(true);
+                    }
+                    if (tooBig.get()) return chunk;
+                    before = after;
+                }
+            }
+        }
+        chunk.arena.sort();
+        return chunk;
+    }
+
+    /**
+     * Merges the sorted {@code chunks} into {@code resultFile}.
+     */
+    private void write(List<Chunk> chunks, File resultFile) throws IOException {
+        SortKeys keys = options.getSortKeys();
+        Duplicates duplicates = options.getDuplicates();
+        if (keys.isEmpty() && !duplicates.isAggregated())
+            write(chunks, resultFile, line -> line, duplicates::filter);
+        else write(chunks, resultFile, duplicates.reader(keys), out -> duplicates.filter(keys, out));
+    }
+
+    /**
+     * The same as {@link #write(List, File)}, the queue keeps the lines as {@code T}.
+     *
+     * @param wrap   converts a line of a chunk
+     * @param output creates the filter which writes the lines to the result
+     */
+    private <T extends Comparable<T>> void write(List<Chunk> chunks, File resultFile, Function<String, T> wrap,
+                                                 Function<BufferedWriter, DuplicateFilter<T>> output)
+            throws IOException {
+        MergeQueue<T> queue = options.getMergeEngine().create(chunks.size());
+        int[] next = new int[chunks.size()];
+        for (int i = 0; i < chunks.size(); ++i) {
+            if (chunks.get(i).count > 0) {
+                queue.insert(i, wrap.apply(chunks.get(i).lines[0]));
+                next[i] = 1;
+            }
+        }
+        try (BufferedWriter out = FilesHandler.openWriter(resultFile, TempCodec.NONE,
+                new WriteBehind(options.getWriteBehind()))) {
+            DuplicateFilter<T> filter = output.apply(out).limit(options.getLimit());
+            while (!queue.isEmpty() && !filter.isFull()) {
+                filter.add(queue.minKey());
+
+                int i = queue.minIndex();
+                Chunk chunk = chunks.get(i);
+                queue.replaceMin(next[i] < chunk.count ? wrap.apply(chunk.lines[next[i]++]) : null);
+            }
+            filter.flush();
+        }
+    }
+
+    /**
+     * Merges the sorted binary {@code chunks} into {@code resultFile}.
+     */
+    private void writeBinary(List<Chunk> chunks, File resultFile) throws IOException {
+        MergeQueue<ByteLine> queue = options.getMergeEngine().create(chunks.size());
+        // Each chunk has its own line which is pointed to its next line
+        ByteLine[] keys = new ByteLine[chunks.size()];
+        int[] next = new int[chunks.size()];
+        for (int i = 0; i < chunks.size(); ++i) {
+            keys[i] = new ByteLine();
+            if (chunks.get(i).arena.count() > 0) {
+                queue.insert(i, chunks.get(i).arena.get(0, keys[i]));
+                next[i] = 1;
+            }
+        }
+        try (OutputStream out = FilesHandler.openOutputStream(resultFile, TempCodec.NONE,
+                new WriteBehind(options.getWriteBehind()))) {
+            DuplicateFilter<ByteLine> filter = FilesHandler.byteFilter(out, options.getDuplicates())
+                    .limit(options.getLimit());
+            while (!queue.isEmpty() && !filter.isFull()) {
+                filter.add(queue.minKey());
+
+                int i = queue.minIndex();
+                LineArena arena = chunks.get(i).arena;
+                queue.replaceMin(next[i] < arena.count() ? arena.get(next[i]++, keys[i]) : null);
+            }
+            filter.flush();
+        }
+    }
+
+    /**
+     * A growable array of lines which belongs to one worker. The lines are kept in an arena
+     * in the binary mode.
+     */
+    private static class Chunk {
+        private String[] lines = new String[INITIAL_CAPACITY];
+        private int count;
+        private long bytes;
+        private LineArena arena;
+
+        private void add(String line, long lineBytes) {
+            if (count == lines.length)
+                lines = Arrays.copyOf(lines, 2 * lines.length);
+            lines[count++] = line;
+            bytes += lineBytes;
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package com.bigsort;
 
+import com.bigsort.util.Aggregates;
+import com.bigsort.util.Duplicates;
 import com.bigsort.util.FilesHandler;
+import com.bigsort.util.MergeEngine;
+import com.bigsort.util.SortKeys;
+import com.bigsort.util.StringSorter;
+import com.bigsort.util.TempCodec;
 import org.apache.commons.cli.*;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -12,16 +19,49 @@ public class Main {
 
     public static final Integer MIN_WORKERS = 1;
     public static final Integer MIN_OPENED_FILES = 2;
+    public static final Integer MIN_MERGE_WORKERS = 1;
+    public static final int MIN_MERGE_PARTITIONS = 1;
     public static final int MIN_BATCH = 2;
+    public static final int MIN_LIMIT = 1;
+    public static final long MIN_MEMORY = 1024 * 1024;
+    public static final long MIN_READ_AHEAD = 4 * 1024;
+    public static final long MAX_READ_AHEAD = 256 * 1024 * 1024;
+    public static final long MIN_WRITE_BEHIND = 4 * 1024;
+    public static final long MAX_WRITE_BEHIND = 256 * 1024 * 1024;
     public static final String PROJECT_NAME = "BigSort";
     // Required options names
-    public static final String BATCH = "batch";
     public static final String INPUT = "input";
     public static final String OUTPUT = "output";
+    // At least one of these options is required
+    public static final String BATCH = "batch";
+    public static final String MEMORY = "memory";
     // Optional options names
     public static final String WORKERS = "workers";
     public static final String WORKING_DIR = "workingDir";
     public static final String MAX_OPENED_FILES = "maxOpenedFiles";
+    public static final String MERGE_WORKERS = "mergeWorkers";
+    public static final String MERGE_ENGINE = "mergeEngine";
+    public static final String RUN_GENERATION = "runGeneration";
+    public static final String PIPELINE = "pipeline";
+    public static final String TEMP_CODEC = "tempCodec";
+    public static final String SORTER = "sorter";
+    public static final String ARENA = "arena";
+    public static final String BINARY = "binary";
+    public static final String MMAP = "mmap";
+    public static final String READ_AHEAD = "readAhead";
+    public static final String WRITE_BEHIND = "writeBehind";
+    public static final String PRINT_MERGE_PLAN = "printMergePlan";
+    public static final String MERGE_DURING_SORT = "mergeDuringSort";
+    public static final String MERGE_PARTITIONS = "mergePartitions";
+    public static final String MERGE_TREE = "mergeTree";
+    public static final String MERGE_ONLY = "mergeOnly";
+    public static final String KEY = "key";
+    public static final String FIELD_SEPARATOR = "fieldSeparator";
+    public static final String UNIQUE = "unique";
+    public static final String COUNT = "count";
+    public static final String AGGREGATE = "aggregate";
+    public static final String LIMIT = "limit";
+    public static final String RECURSIVE = "recursive";
 
 
     public static void main(String[] args) {
@@ -34,18 +74,87 @@ public class Main {
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd;
 
-        int batch;
-        int workers;
-        int maxOpenedFiles;
+        SortOptions sortOptions = new SortOptions();
 
         try {
             cmd = parser.parse(options, args);
-            batch = parseAndValidateIntOption(BATCH, cmd.getOptionValue(BATCH), MIN_BATCH);
-            workers = parseAndValidateIntOption(WORKERS,
-                    cmd.getOptionValue(WORKERS, MIN_WORKERS.toString()), MIN_WORKERS);
-            maxOpenedFiles = parseAndValidateIntOption(MAX_OPENED_FILES,
-                    cmd.getOptionValue(MAX_OPENED_FILES, MIN_OPENED_FILES.toString()), MIN_OPENED_FILES);
-
+            if (!cmd.hasOption(BATCH) && !cmd.hasOption(MEMORY))
+                throw new IllegalArgumentException("Either " + BATCH + " or " + MEMORY + " should be specified");
+            if (cmd.hasOption(BATCH))
+                sortOptions.setBatch(parseAndValidateIntOption(BATCH, cmd.getOptionValue(BATCH), MIN_BATCH));
+            if (cmd.hasOption(MEMORY))
+                sortOptions.setMemory(parseAndValidateSizeOption(MEMORY, cmd.getOptionValue(MEMORY), MIN_MEMORY));
+            sortOptions.setWorkers(parseAndValidateIntOption(WORKERS,
+                    cmd.getOptionValue(WORKERS, MIN_WORKERS.toString()), MIN_WORKERS));
+            sortOptions.setMaxOpenedFiles(parseAndValidateIntOption(MAX_OPENED_FILES,
+                    cmd.getOptionValue(MAX_OPENED_FILES, MIN_OPENED_FILES.toString()), MIN_OPENED_FILES));
+            sortOptions.setMergeWorkers(parseAndValidateIntOption(MERGE_WORKERS,
+                    cmd.getOptionValue(MERGE_WORKERS, MIN_MERGE_WORKERS.toString()), MIN_MERGE_WORKERS));
+            if (cmd.hasOption(MERGE_ENGINE))
+                sortOptions.setMergeEngine(parseEnumOption(MERGE_ENGINE, cmd.getOptionValue(MERGE_ENGINE),
+                        MergeEngine.class));
+            if (cmd.hasOption(RUN_GENERATION))
+                sortOptions.setRunGeneration(parseEnumOption(RUN_GENERATION, cmd.getOptionValue(RUN_GENERATION),
+                        RunGeneration.class));
+            sortOptions.setPipeline(cmd.hasOption(PIPELINE));
+            if (cmd.hasOption(TEMP_CODEC))
+                sortOptions.setTempCodec(parseEnumOption(TEMP_CODEC, cmd.getOptionValue(TEMP_CODEC),
+                        TempCodec.class));
+            if (cmd.hasOption(SORTER))
+                sortOptions.setStringSorter(parseEnumOption(SORTER, cmd.getOptionValue(SORTER), StringSorter.class));
+            sortOptions.setArena(cmd.hasOption(ARENA));
+            sortOptions.setBinary(cmd.hasOption(BINARY));
+            sortOptions.setMmap(cmd.hasOption(MMAP));
+            if (cmd.hasOption(READ_AHEAD)) {
+                long readAhead = parseAndValidateSizeOption(READ_AHEAD, cmd.getOptionValue(READ_AHEAD),
+                        MIN_READ_AHEAD);
+                if (readAhead > MAX_READ_AHEAD)
+                    throw new IllegalArgumentException(READ_AHEAD + " should be at most " + MAX_READ_AHEAD + " bytes");
+                sortOptions.setReadAhead((int) readAhead);
+            }
+            if (cmd.hasOption(WRITE_BEHIND)) {
+                long writeBehind = parseAndValidateSizeOption(WRITE_BEHIND, cmd.getOptionValue(WRITE_BEHIND),
+                        MIN_WRITE_BEHIND);
+                if (writeBehind > MAX_WRITE_BEHIND)
+                    throw new IllegalArgumentException(WRITE_BEHIND + " should be at most " + MAX_WRITE_BEHIND +
+                            " bytes");
+                sortOptions.setWriteBehind((int) writeBehind);
+            }
+            sortOptions.setPrintMergePlan(cmd.hasOption(PRINT_MERGE_PLAN));
+            sortOptions.setMergeDuringSort(cmd.hasOption(MERGE_DURING_SORT));
+            if (cmd.hasOption(MERGE_PARTITIONS))
+                sortOptions.setMergePartitions(parseAndValidateIntOption(MERGE_PARTITIONS,
+                        cmd.getOptionValue(MERGE_PARTITIONS), MIN_MERGE_PARTITIONS));
+            sortOptions.setMergeTree(cmd.hasOption(MERGE_TREE));
+            sortOptions.setMergeOnly(cmd.hasOption(MERGE_ONLY));
+            if (sortOptions.isMergeOnly() && sortOptions.getTempCodec() != TempCodec.NONE)
+                throw new IllegalArgumentException(MERGE_ONLY + " cannot be used with " + TEMP_CODEC);
+            char separator = cmd.hasOption(FIELD_SEPARATOR)
+                    ? parseSeparatorOption(FIELD_SEPARATOR, cmd.getOptionValue(FIELD_SEPARATOR))
+                    : SortKeys.DEFAULT_SEPARATOR;
+            if (cmd.hasOption(KEY)) {
+                sortOptions.setSortKeys(SortKeys.parse(Arrays.asList(cmd.getOptionValues(KEY)), separator));
+                if (sortOptions.isArena() || sortOptions.isBinary())
+                    throw new IllegalArgumentException(KEY + " cannot be used with " + ARENA + " or " + BINARY);
+            }
+            if (cmd.hasOption(AGGREGATE)) {
+                if (cmd.hasOption(COUNT))
+                    throw new IllegalArgumentException(AGGREGATE + " cannot be used with " + COUNT);
+                sortOptions.setDuplicates(Duplicates.aggregate(Aggregates.parse(cmd.getOptionValue(AGGREGATE),
+                        separator)));
+                if (sortOptions.isArena() || sortOptions.isBinary())
+                    throw new IllegalArgumentException(AGGREGATE + " cannot be used with " + ARENA + " or " + BINARY);
+            } else if (cmd.hasOption(COUNT)) {
+                sortOptions.setDuplicates(Duplicates.COUNT);
+                if (sortOptions.isArena() || sortOptions.isBinary())
+                    throw new IllegalArgumentException(COUNT + " cannot be used with " + ARENA + " or " + BINARY);
+            } else if (cmd.hasOption(UNIQUE)) {
+                sortOptions.setDuplicates(Duplicates.DROP);
+            }
+            if (sortOptions.isMergeOnly() && sortOptions.getDuplicates().isAggregated())
+                throw new IllegalArgumentException(MERGE_ONLY + " cannot be used with " + COUNT + " or " + AGGREGATE);
+            if (cmd.hasOption(LIMIT))
+                sortOptions.setLimit(parseAndValidateIntOption(LIMIT, cmd.getOptionValue(LIMIT), MIN_LIMIT));
 
         } catch (ParseException | IllegalArgumentException e) {
             System.out.println(e.getMessage());
@@ -55,13 +164,13 @@ public class Main {
         }
 
         try {
-            List<File> files = FilesHandler.getAllFiles(cmd.getOptionValues(INPUT));
+            List<File> files = FilesHandler.getAllFiles(cmd.getOptionValues(INPUT), cmd.hasOption(RECURSIVE));
 
             String output = cmd.getOptionValue(OUTPUT);
             String workingDir = cmd.getOptionValue(WORKING_DIR, System.getProperty("java.io.tmpdir"));
             FilesHandler.validateExistence(workingDir);
 
-            FilesSorter sorter = new FilesSorter(files, workers, batch, workingDir, output, maxOpenedFiles);
+            FilesSorter sorter = new FilesSorter(files, workingDir, output, sortOptions);
             sorter.sort();
 
             System.out.println("Work has been finished. Please find the result in " + cmd.getOptionValue(OUTPUT));
@@ -85,22 +194,111 @@ public class Main {
         return t;
     }
 
+    /**
+     * Parses a size in bytes. The value may have one of the suffixes {@code k}, {@code m}, {@code g}
+     * or {@code t} (case insensitive) which multiply it by 1024, 1024^2 and so on. For example, {@code 8g}.
+     *
+     * @param optionName is the name of the option used in error messages
+     * @param value      is the value to parse
+     * @param min        is the minimum allowed value in bytes
+     * @return the size in bytes
+     * @throws IllegalArgumentException if the value is not a valid size or it is less than {@code min}
+     */
+    public static long parseAndValidateSizeOption(String optionName, String value, long min)
+            throws IllegalArgumentException {
+        if (value == null || value.isEmpty())
+            throw new IllegalArgumentException(optionName + " has a wrong value " + value);
+        int shift = 0;
+        String number = value;
+        int suffix = "kmgt".indexOf(Character.toLowerCase(value.charAt(value.length() - 1)));
+        if (suffix >= 0) {
+            shift = 10 * (suffix + 1);
+            number = value.substring(0, value.length() - 1);
+        }
+        long t;
+        try {
+            t = Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(optionName + " has a wrong value " + value);
+        }
+        if (t < 0 || t > (Long.MAX_VALUE >> shift))
+            throw new IllegalArgumentException(optionName + " has a wrong value " + value);
+        t <<= shift;
+        if (t < min)
+            throw new IllegalArgumentException(optionName + " should be at least " + min + " bytes");
+        return t;
+    }
+
+    /**
+     * Parses a separator of fields. It is a single char, {@code \t} (a backslash followed by {@code t}) is
+     * accepted for a tab, which is hard to type in a command line.
+     *
+     * @param optionName is the name of the option used in error messages
+     * @param value      is the value to parse
+     * @return the separator
+     * @throws IllegalArgumentException if the value is not a single char
+     */
+    public static char parseSeparatorOption(String optionName, String value) throws IllegalArgumentException {
+        if ("\\t".equals(value)) return '\t';
+        if (value == null || value.length() != 1)
+            throw new IllegalArgumentException(optionName + " should be a single char, but it is " + value);
+        return value.charAt(0);
+    }
+
+    /**
+     * Parses a value of an enum. The value is case insensitive and {@code '-'} may be used
+     * instead of {@code '_'}, e.g. {@code loser-tree} is {@code LOSER_TREE}.
+     *
+     * @param optionName is the name of the option used in error messages
+     * @param value      is the value to parse
+     * @param type       is the enum class
+     * @return the constant of {@code type}
+     * @throws IllegalArgumentException if there is no such constant
+     */
+    public static <E extends Enum<E>> E parseEnumOption(String optionName, String value, Class<E> type)
+            throws IllegalArgumentException {
+        String name = value.trim().replace('-', '_');
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(name)) return constant;
+        }
+        throw new IllegalArgumentException(optionName + " has a wrong value " + value +
+                ". Possible values are " + enumValues(type));
+    }
+
+    /**
+     * @return the names of {@code type} constants the way they are typed in the command line
+     */
+    public static <E extends Enum<E>> String enumValues(Class<E> type) {
+        StringBuilder sb = new StringBuilder();
+        for (E constant : type.getEnumConstants()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(constant.name().toLowerCase().replace('_', '-'));
+        }
+        return sb.toString();
+    }
+
     public static void buildRequiredOptions(Options options) {
-        Option input = new Option("i", INPUT, true, "Input file(s) or directory{s}. Nested dirs are not allowed");
+        Option input = new Option("i", INPUT, true, "Input file(s) or directory{s}. Nested dirs are " +
+                "allowed only with --" + RECURSIVE);
         input.setArgs(Option.UNLIMITED_VALUES);
         input.setRequired(true);
         options.addOption(input);
 
-        Option batchOpt = new Option("b", BATCH, true, "Maximum number of lines in RAM. Min value is " + MIN_BATCH);
-        batchOpt.setRequired(true);
-        options.addOption(batchOpt);
-
         Option resultFile = new Option("o", OUTPUT, true, "A path for the result file");
         resultFile.setRequired(true);
         options.addOption(resultFile);
     }
 
     public static void buildOptionalOptions(Options options) {
+        Option batchOpt = new Option("b", BATCH, true, "Maximum number of lines in RAM. Min value is " + MIN_BATCH);
+        batchOpt.setRequired(false);
+        options.addOption(batchOpt);
+
+        Option memoryOpt = new Option("m", MEMORY, true, "Maximum number of bytes of lines and read buffers " +
+                "in RAM, e.g. 512m or 8g. Min value is 1m");
+        memoryOpt.setRequired(false);
+        options.addOption(memoryOpt);
+
         Option workersOpt = new Option("w", WORKERS, true, "Maximum number of workers to be running. " +
                 "Min value is " + MIN_WORKERS);
         workersOpt.setRequired(false);
@@ -114,5 +312,136 @@ public class Main {
                 "opened at once for reading. Min value is " + MIN_OPENED_FILES);
         maxOpenedFilesOpt.setRequired(false);
         options.addOption(maxOpenedFilesOpt);
+
+        Option mergeWorkersOpt = new Option("mw", MERGE_WORKERS, true, "Maximum number of threads merging " +
+                "files in parallel. Min value is " + MIN_MERGE_WORKERS);
+        mergeWorkersOpt.setRequired(false);
+        options.addOption(mergeWorkersOpt);
+
+        Option mergeEngineOpt = new Option("me", MERGE_ENGINE, true, "The structure used to merge files: " +
+                enumValues(MergeEngine.class) + ". Default value is loser-tree");
+        mergeEngineOpt.setRequired(false);
+        options.addOption(mergeEngineOpt);
+
+        Option runGenerationOpt = new Option("rg", RUN_GENERATION, true, "The way sorted files are produced " +
+                "during the sort stage: " + enumValues(RunGeneration.class) + ". Default value is load-sort");
+        runGenerationOpt.setRequired(false);
+        options.addOption(runGenerationOpt);
+
+        Option pipelineOpt = new Option("p", PIPELINE, false, "Read, sort and write batches at the same " +
+                "time in each worker. Each batch gets a third of the worker's RAM");
+        pipelineOpt.setRequired(false);
+        options.addOption(pipelineOpt);
+
+        Option tempCodecOpt = new Option("tc", TEMP_CODEC, true, "The codec used to compress temporary " +
+                "files: " + enumValues(TempCodec.class) + ". Default value is none");
+        tempCodecOpt.setRequired(false);
+        options.addOption(tempCodecOpt);
+
+        Option sorterOpt = new Option("s", SORTER, true, "The algorithm used to sort lines in RAM: " +
+                enumValues(StringSorter.class) + ". Default value is auto");
+        sorterOpt.setRequired(false);
+        options.addOption(sorterOpt);
+
+        Option arenaOpt = new Option("a", ARENA, false, "Pack the lines of a batch into a single array " +
+                "instead of separate strings. Applies to load-sort");
+        arenaOpt.setRequired(false);
+        options.addOption(arenaOpt);
+
+        Option binaryOpt = new Option("bin", BINARY, false, "Compare lines as unsigned bytes without " +
+                "decoding them, like LC_ALL=C sort. Lines of the result are separated by \\n");
+        binaryOpt.setRequired(false);
+        options.addOption(binaryOpt);
+
+        Option mmapOpt = new Option("mm", MMAP, false, "Map the input files into memory instead of " +
+                "reading them. Works best with --arena or --binary");
+        mmapOpt.setRequired(false);
+        options.addOption(mmapOpt);
+
+        Option readAheadOpt = new Option("ra", READ_AHEAD, true, "The size of a block which is read ahead " +
+                "of time for each file during the merge, e.g. 1m. Each file takes two blocks of --memory. " +
+                "Min value is 4k");
+        readAheadOpt.setRequired(false);
+        options.addOption(readAheadOpt);
+
+        Option writeBehindOpt = new Option("wb", WRITE_BEHIND, true, "The size of a buffer of a written file, " +
+                "e.g. 1m. Full buffers are written by a separate thread. Each written file takes two buffers " +
+                "of --memory. Min value is 4k");
+        writeBehindOpt.setRequired(false);
+        options.addOption(writeBehindOpt);
+
+        Option printMergePlanOpt = new Option("pm", PRINT_MERGE_PLAN, false, "Print which sorted files are " +
+                "merged by each step of the merge stage before the merge is started");
+        printMergePlanOpt.setRequired(false);
+        options.addOption(printMergePlanOpt);
+
+        Option mergeDuringSortOpt = new Option("ms", MERGE_DURING_SORT, false, "Merge groups of sorted " +
+                "files in the background while the sort stage is running. The merging thread gets the share " +
+                "of RAM of one more worker");
+        mergeDuringSortOpt.setRequired(false);
+        options.addOption(mergeDuringSortOpt);
+
+        Option mergePartitionsOpt = new Option("mp", MERGE_PARTITIONS, true, "Cut the last merge step into " +
+                "this many key ranges which are merged by separate threads straight into the result file. " +
+                "Not used with --tempCodec, --" + UNIQUE + ", --" + COUNT + ", --" + AGGREGATE + " or --" + LIMIT +
+                ". Min value is " + MIN_MERGE_PARTITIONS);
+        mergePartitionsOpt.setRequired(false);
+        options.addOption(mergePartitionsOpt);
+
+        Option mergeTreeOpt = new Option("mt", MERGE_TREE, false, "Merge the last step by a tree of threads " +
+                "which pass blocks of lines to each other in memory. --" + MAX_OPENED_FILES + " limits the files " +
+                "of a node of the tree, the amount of files of the tree is limited by RAM");
+        mergeTreeOpt.setRequired(false);
+        options.addOption(mergeTreeOpt);
+
+        Option mergeOnlyOpt = new Option("mo", MERGE_ONLY, false, "The input files are already sorted, " +
+                "merge them without the sort stage, like sort -m. Not used with --tempCodec, --" + COUNT +
+                " or --" + AGGREGATE);
+        mergeOnlyOpt.setRequired(false);
+        options.addOption(mergeOnlyOpt);
+
+        Option keyOpt = new Option("k", KEY, true, "Sort by a key F[.C][,F[.C]][nhVr]: from the char C of the " +
+                "field F to the char C of the second field (the whole field if C is omitted, the end of the line " +
+                "if the second field is omitted). n compares numbers, h compares sizes like 1.5G, V compares " +
+                "versions, r reverses the order. May be repeated, the keys are compared " +
+                "in the given order and lines with equal keys are compared as a whole. Not used with --" + ARENA +
+                " or --" + BINARY);
+        keyOpt.setRequired(false);
+        options.addOption(keyOpt);
+
+        Option fieldSeparatorOpt = new Option("t", FIELD_SEPARATOR, true, "The char which separates the " +
+                "fields of --" + KEY + " and --" + AGGREGATE + ". Default value is a tab");
+        fieldSeparatorOpt.setRequired(false);
+        options.addOption(fieldSeparatorOpt);
+
+        Option uniqueOpt = new Option("u", UNIQUE, false, "Write only the first of equal lines (of lines with " +
+                "equal keys if --" + KEY + " is given). The duplicates are dropped by every pass, so the " +
+                "temporary files are smaller as well");
+        uniqueOpt.setRequired(false);
+        options.addOption(uniqueOpt);
+
+        Option countOpt = new Option("c", COUNT, false, "The same as --" + UNIQUE + ", but each line is " +
+                "preceded by the number of its occurrences and a tab. Not used with --" + ARENA + " or --" +
+                BINARY);
+        countOpt.setRequired(false);
+        options.addOption(countOpt);
+
+        Option aggregateOpt = new Option("g", AGGREGATE, true, "The same as --" + UNIQUE + ", but each " +
+                "line is preceded by the aggregates of its group, each followed by a tab. A comma separated list " +
+                "of count, sum:F, min:F and max:F of the numeric field F, e.g. count,sum:3. Not used with --" +
+                ARENA + " or --" + BINARY);
+        aggregateOpt.setRequired(false);
+        options.addOption(aggregateOpt);
+
+        Option limitOpt = new Option("l", LIMIT, true, "Write only this many first lines of the sorted " +
+                "order. If they fit into RAM, the input is scanned once without temporary files. Min value is " +
+                MIN_LIMIT);
+        limitOpt.setRequired(false);
+        options.addOption(limitOpt);
+
+        Option recursiveOpt = new Option("r", RECURSIVE, false, "Take the files of the nested directories of " +
+                "the input directories too");
+        recursiveOpt.setRequired(false);
+        options.addOption(recursiveOpt);
     }
 }
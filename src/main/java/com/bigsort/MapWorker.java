@@ -1,108 +1,591 @@
 package com.bigsort;
 
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.DuplicateFilter;
+import com.bigsort.util.Duplicates;
 import com.bigsort.util.FilesHandler;
+import com.bigsort.util.InputSplit;
+import com.bigsort.util.LineArena;
+import com.bigsort.util.LineReader;
+import com.bigsort.util.MemoryEstimator;
+import com.bigsort.util.RunHeap;
+import com.bigsort.util.SortKeys;
+import com.bigsort.util.StringSorter;
+import com.bigsort.util.WriteBehind;
 
 import java.io.*;
 import java.util.Arrays;
-import java.util.NoSuchElementException;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
- * Each instance of {@code MapWorker} class consumes files from a shared thread-safe
+ * Each instance of {@code MapWorker} class consumes input splits from a shared thread-safe
  * LinkedQueue. This class implements Callable interface, i.e. MapWorker instances
- * can be run simultaneously.
+ * can be run simultaneously. A split is a range of lines of a file, so several workers
+ * may read different regions of the same file at once.
  * <p>
- * Each MapWorker removes a file from the queue and processes this file using batches.
- * The algorithm of reading a file is the following:
+ * Each MapWorker removes a split from the queue and processes this split using batches.
+ * The algorithm of reading a split is the following:
  * <p>
- * 1. MapWorker reads only maxItems Strings from a file
+ * 1. MapWorker reads only maxItems Strings from a split. If the Strings occupy more than maxBytes of RAM
+ * (see {@link MemoryEstimator}), the reading stops earlier
  * <p>
  * 2. This batch of Strings becomes sorted and the result is written to the directory {@code dst}
  * into the temporary file with the prefix JobID
  * <p>
- * 3. If the file is not empty, start with the step 1 again. If the file is empty, remove the
- * next file from the queue
+ * 3. If the split is not empty, start with the step 1 again. If the split is empty, remove the
+ * next split from the queue and keep filling the same batch, so many small files share a run
  * <p>
  * The process stops if the shared queue is empty.
+ * <p>
+ * This is the {@code LOAD_SORT} strategy. If {@code REPLACEMENT_SELECTION} is chosen, the lines of all
+ * the splits taken by the worker form a single stream which is passed through a heap of maxItems lines (and
+ * maxBytes bytes). The minimum line of the heap is written as soon as there is no room for the next
+ * line. A new line joins the sorted file which is being written if it is not less than the last written
+ * line, otherwise it waits for the next sorted file. See {@link RunGeneration}.
+ * <p>
+ * If the pipeline is enabled, {@code LOAD_SORT} overlaps reading, sorting and writing: while a batch is
+ * being sorted by a sorting thread, the worker reads the next batch, and the previous batch is written
+ * by a writing thread. There are three batches in RAM at once, so each of them has only a third of maxItems
+ * and maxBytes. The batches are not restarted at the end of a split.
+ * <p>
+ * If the arena is enabled, {@code LOAD_SORT} keeps the lines of a batch in a {@link LineArena} instead of
+ * an array of Strings. The lines are decoded straight into the arena and are written straight from it,
+ * and the batch is measured by {@link LineArena#bytes()}, so many more short lines fit into maxBytes.
+ * <p>
+ * If the binary mode is enabled, the lines are never decoded: {@code LOAD_SORT} always uses a binary
+ * arena, {@code REPLACEMENT_SELECTION} keeps copies of the bytes of the lines in the heap, and the
+ * lines are compared as unsigned bytes (see {@link ByteLine}) and are written as they were read.
+ * <p>
+ * If mmap is enabled, the splits are read by mapped {@link LineReader}s, so the lines of an arena are
+ * copied straight from the mapped file.
+ * <p>
+ * If {@link SortKeys} are given, the lines are sorted by their keys. The key of a line is extracted once
+ * and is kept next to the line while the batch is sorted or while the line is in the heap, and it is counted
+ * in maxBytes. The keys are not supported by the arena and the binary mode.
+ * <p>
+ * If {@code options.getDuplicates()} is unique, each run of equal lines of a sorted batch is collapsed into
+ * one line before the batch is written (with the aggregates of the run if the lines are aggregated), and the
+ * replacement selection combines a line which is equal to the last one into it. See {@link Duplicates}.
+ * <p>
+ * A batch of strings which is already sorted (e.g. a sorted stretch of the input) is not sorted again.
+ * <p>
+ * If {@code options.getLimit()} is set, only the first lines of each sorted file are written, because the
+ * rest of them are never among the first lines of the result.
+ * <p>
+ * If a {@link RunRegistry} is given, each sorted file is published to it as soon as it is written.
  *
  * @author Nadya Shakhat
  */
 
 public class MapWorker implements Callable<Boolean> {
 
-    private ConcurrentLinkedQueue<File> q;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int PIPELINE_BATCHES = 3;
+
+    private ConcurrentLinkedQueue<InputSplit> q;
     private int maxItems;
+    private long maxBytes;
     private String dst;
     private String jobID;
+    private SortOptions options;
+    private LineReader reader;    // the reader of the current split, used if batches span splits
+    private WriteBehind writeBehind;
+    private RunRegistry registry; // receives the written sorted files, may be null
 
     /**
-     * Initializes a MapWorker which uses {@code q} as a source of files to sort.
+     * Initializes a MapWorker which uses {@code q} as a source of splits to sort.
      *
-     * @param q        the source of files to process
+     * @param q        the source of splits to process
      * @param maxItems is the maximum amount of lines which can be retrieved from a file
+     * @param maxBytes is the maximum amount of bytes the retrieved lines may occupy
      * @param dst      the working directory where the sorted resulting files are stored
      * @param jobID    the prefix of the resulting files
+     * @param options  the settings of the sort job
+     * @param registry receives each sorted file once it is written, may be {@code null}
      */
-    public MapWorker(ConcurrentLinkedQueue<File> q, int maxItems, String dst, String jobID) {
+    public MapWorker(ConcurrentLinkedQueue<InputSplit> q, int maxItems, long maxBytes, String dst, String jobID,
+                     SortOptions options, RunRegistry registry) {
         if (maxItems < 1) throw new IllegalArgumentException("maxItems should be positive.");
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes should be positive.");
         this.maxItems = maxItems;
+        this.maxBytes = maxBytes;
         this.q = q;
         this.dst = dst;
         this.jobID = jobID;
+        this.options = options;
+        this.writeBehind = new WriteBehind(options.getWriteBehind());
+        this.registry = registry;
+    }
+
+    public MapWorker(ConcurrentLinkedQueue<InputSplit> q, int maxItems, long maxBytes, String dst, String jobID,
+                     SortOptions options) {
+        this(q, maxItems, maxBytes, dst, jobID, options, null);
+    }
+
+    public MapWorker(ConcurrentLinkedQueue<InputSplit> q, int maxItems, long maxBytes, String dst, String jobID) {
+        this(q, maxItems, maxBytes, dst, jobID, new SortOptions());
+    }
+
+    public MapWorker(ConcurrentLinkedQueue<InputSplit> q, int maxItems, String dst, String jobID) {
+        this(q, maxItems, SortOptions.UNLIMITED_MEMORY, dst, jobID);
     }
 
     /**
-     * Entry point for each worker. Each {@code MapWorker} retrieves next File to process from the
-     * queue until {@code NoSuchElementException} is caught. Each file is read by chunks. After a chunk
-     * is read and sorted, the result is written to a temporary file.
+     * Entry point for each worker.
      *
-     * @return {@code true} if all files are successfully sorted and written to disk.
+     * @return {@code true} if all splits are successfully sorted and written to disk.
      * {@code false} otherwise
      */
     @Override
     public Boolean call() {
+        if (options.getRunGeneration() == RunGeneration.REPLACEMENT_SELECTION)
+            return options.isBinary() ? replacementSelectionBinary() : replacementSelection();
+        if (options.isPipeline())
+            return loadSortStorePipelined();
+        if (options.isArena() || options.isBinary())
+            return loadSortStoreArena();
+        return loadSortStore();
+    }
+
+    /**
+     * Each {@code MapWorker} retrieves next split to process from the queue until the queue
+     * is empty. The lines are read by chunks, and a chunk doesn't end with a split: the lines of
+     * the next split are added to the same chunk. After a chunk is full, it is sorted and
+     * written to a temporary file. So the number of runs depends on the amount of data rather
+     * than on the number of input files.
+     *
+     * @return {@code true} if all splits are successfully sorted and written to disk.
+     * {@code false} otherwise
+     */
+    private boolean loadSortStore() {
+        // The buffer grows on demand, so a big maxItems doesn't cost anything if the lines are long
+        String[] toSort = new String[Math.min(maxItems, INITIAL_CAPACITY)];
+        int actualCount = 0;
+        long actualBytes = 0;
+        String nextLine;
         try {
-            while (true) {
-                File file = q.remove();
-                BufferedReader f = new BufferedReader(new FileReader(file));
-                String[] toSort = new String[maxItems];
-                int actualCount = 0;
-                String nextLine;
+            while ((nextLine = nextLine()) != null) {
+                if (actualCount == toSort.length)
+                    toSort = Arrays.copyOf(toSort, (int) Math.min(maxItems, 2L * toSort.length));
+                toSort[actualCount++] = nextLine;
+                actualBytes += estimate(nextLine);
 
-                try {
-                    while ((nextLine = f.readLine()) != null) {
-                        toSort[actualCount++] = nextLine;
+                if (actualCount == maxItems || actualBytes >= maxBytes) {
+                    if (!outToTempFile(toSort, sort(toSort, actualCount)))
+                        return false;
+
+                    // Let the written lines be collected
+                    Arrays.fill(toSort, 0, actualCount, null);
+                    actualCount = 0;
+                    actualBytes = 0;
+                }
+            }
+            // if actualCount <=0 there will be no attempt to create a new file because of "&&" operator
+            return actualCount <= 0 || outToTempFile(toSort, sort(toSort, actualCount));
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            try {
+                if (reader != null) reader.close();
+            } catch (IOException io) {
+                System.err.println(io.getMessage());
+            }
+        }
+    }
 
-                        if (actualCount == maxItems) {
-                            sort(toSort, actualCount);
-                            if (!outToTempFile(toSort, actualCount))
-                                return false;
 
-                            actualCount = 0;
-                        }
-                    }
-                    sort(toSort, actualCount);
-                    // if actualCount <=0 there will be no attempt to create a new file because of "&&" operator
-                    if (actualCount > 0 && !outToTempFile(toSort, actualCount))
+    /**
+     * The same as {@link #loadSortStore()}, but the lines of a chunk are kept in a {@link LineArena}.
+     *
+     * @return {@code true} if all splits are successfully sorted and written to disk.
+     * {@code false} otherwise
+     */
+    private boolean loadSortStoreArena() {
+        LineArena arena = new LineArena(maxBytes, options.isBinary());
+        try {
+            while (nextLine(arena)) {
+                if (arena.count() == maxItems || arena.bytes() >= maxBytes || arena.isFull()) {
+                    arena.sort();
+                    if (!outToTempFile(arena))
                         return false;
-                } catch (IOException e) {
-                    System.err.println(e.getMessage());
-                    return false;
+                    arena.clear();
                 }
             }
-        } catch (NoSuchElementException e) {
-            // Queue is empty, work has finished
-            return true;
-        } catch (FileNotFoundException e) {
+            arena.sort();
+            return arena.count() == 0 || outToTempFile(arena);
+        } catch (IOException e) {
             System.err.println(e.getMessage());
             return false;
+        } finally {
+            try {
+                if (reader != null) reader.close();
+            } catch (IOException io) {
+                System.err.println(io.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the batches in this thread, sorts them in the sorting thread and writes them in the writing
+     * thread. The batches are reused: a written batch goes back to the pool of free batches, and the
+     * reading waits if there is no free batch.
+     *
+     * @return {@code true} if all splits are successfully sorted and written to disk.
+     * {@code false} otherwise
+     */
+    private boolean loadSortStorePipelined() {
+        // Fewer batches if there are not enough lines for each of them, so maxItems is never exceeded
+        int batches = Math.min(PIPELINE_BATCHES, maxItems);
+        int batchItems = maxItems / batches;
+        long batchBytes = Math.max(1, maxBytes / batches);
+        BlockingQueue<Batch> free = new ArrayBlockingQueue<>(batches);
+        boolean arena = options.isArena() || options.isBinary();
+        for (int i = 0; i < batches; ++i) {
+            free.add(arena ? new Batch(new LineArena(batchBytes, options.isBinary()))
+                    : new Batch(Math.min(batchItems, INITIAL_CAPACITY)));
+        }
+        ExecutorService sorter = Executors.newSingleThreadExecutor();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        AtomicBoolean failed = new AtomicBoolean(false);
+
+        try {
+            Batch batch = free.take();
+            while (!failed.get() && readLine(batch, batchItems)) {
+                if (batch.count() == batchItems || batch.bytes() >= batchBytes || batch.isFull()) {
+                    sortAndWrite(batch, sorter, writer, free, failed);
+                    batch = null;
+                    // A failed batch is returned as well, but there is no point to read more lines
+                    if (failed.get()) break;
+                    batch = free.take();
+                }
+            }
+            if (batch != null && batch.count() > 0 && !failed.get())
+                sortAndWrite(batch, sorter, writer, free, failed);
+
+            // The sorting thread submits the last tasks to the writing thread, so it goes first
+            sorter.shutdown();
+            sorter.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            writer.shutdown();
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            return !failed.get();
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted sort stage execution.");
+            return false;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            sorter.shutdownNow();
+            writer.shutdownNow();
+            try {
+                if (reader != null) reader.close();
+            } catch (IOException io) {
+                System.err.println(io.getMessage());
+            }
+        }
+    }
+
+    private void sortAndWrite(Batch batch, ExecutorService sorter, ExecutorService writer,
+                              BlockingQueue<Batch> free, AtomicBoolean failed) {
+        sorter.execute(() -> {
+            try {
+                if (batch.arena != null) batch.arena.sort();
+                else batch.count = sort(batch.lines, batch.count);
+            } catch (RuntimeException | Error e) {
+                System.err.println(e.getMessage());
+                failed.set(true);
+                // The reading thread may be waiting for this batch
+                batch.clear();
+                free.add(batch);
+                return;
+            }
+            writer.execute(() -> {
+                try {
+                    if (!failed.get() && !outToTempFile(batch))
+                        failed.set(true);
+                } catch (RuntimeException | Error e) {
+                    // Otherwise the worker would report the success without this sorted file
+                    System.err.println(e.getMessage());
+                    failed.set(true);
+                } finally {
+                    batch.clear();
+                    free.add(batch);
+                }
+            });
+        });
+    }
+
+    /**
+     * Produces sorted files using the replacement selection. The heap is filled up to the limits,
+     * then the minimum line is written and its place is taken by the next line. The line is tagged
+     * with the next sorted file if it is less than the last written one. When the minimum line of the
+     * heap belongs to the next sorted file, the current file is finished.
+     *
+     * @return {@code true} if all splits are successfully sorted and written to disk.
+     * {@code false} otherwise
+     */
+    private boolean replacementSelection() {
+        SortKeys keys = options.getSortKeys();
+        Duplicates duplicates = options.getDuplicates();
+        if (keys.isEmpty()) return replacementSelection(line -> line, duplicates::filter, MemoryEstimator::estimate);
+        return replacementSelection(keys::wrap, out -> duplicates.filter(keys, out), line -> estimate(line.getLine()));
+    }
+
+    /**
+     * The same as {@link #replacementSelection()}, the heap keeps the lines as {@code T}.
+     *
+     * @param wrap   converts a line which is read
+     * @param output creates the filter which writes the lines to a sorted file
+     * @param size   estimates how many bytes of RAM a line takes
+     */
+    private <T extends Comparable<T>> boolean replacementSelection(Function<String, T> wrap,
+                                                                   Function<BufferedWriter, DuplicateFilter<T>> output,
+                                                                   ToLongFunction<T> size) {
+        RunHeap<T> heap = new RunHeap<>(Math.min(maxItems, INITIAL_CAPACITY));
+        long heapBytes = 0;
+        int currentRun = 0;
+        T lastWritten = null;
+        File run = null;
+        BufferedWriter out = null;
+        DuplicateFilter<T> filter = null;
+        try {
+            while (true) {
+                String line;
+                while (heap.size() < maxItems && heapBytes < maxBytes && (line = nextLine()) != null) {
+                    T nextLine = wrap.apply(line);
+                    boolean fitsCurrentRun = lastWritten == null || nextLine.compareTo(lastWritten) >= 0;
+                    heap.push(fitsCurrentRun ? currentRun : currentRun + 1, nextLine);
+                    heapBytes += size.applyAsLong(nextLine);
+                }
+                if (heap.isEmpty()) break;
+
+                if (out == null || heap.minRun() != currentRun) {
+                    if (out != null) {
+                        filter.flush();
+                        out.close();
+                        publish(run);
+                    }
+                    currentRun = heap.minRun();
+                    out = null;
+                    run = FilesHandler.createTempFile(jobID, dst);
+                    if (run == null) return false;
+                    out = openTempFile(run);
+                    filter = output.apply(out).limit(options.getLimit());
+                }
+                T min = heap.pop();
+                heapBytes -= size.applyAsLong(min);
+                filter.add(min);
+                lastWritten = min;
+            }
+            if (out != null) {
+                filter.flush();
+                out.close();
+                out = null;
+                publish(run);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write to a temp file: " + e.getMessage());
+            return false;
+        } finally {
+            try {
+                if (out != null) out.close();
+                if (reader != null) reader.close();
+            } catch (IOException io) {
+                System.err.println(io.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The same as {@link #replacementSelection()}, but the heap keeps copies of the bytes of the lines,
+     * nothing is decoded.
+     *
+     * @return {@code true} if all splits are successfully sorted and written to disk.
+     * {@code false} otherwise
+     */
+    private boolean replacementSelectionBinary() {
+        RunHeap<ByteLine> heap = new RunHeap<>(Math.min(maxItems, INITIAL_CAPACITY));
+        long heapBytes = 0;
+        int currentRun = 0;
+        ByteLine nextLine = new ByteLine();
+        ByteLine lastWritten = null;
+        File run = null;
+        OutputStream out = null;
+        DuplicateFilter<ByteLine> filter = null;
+        try {
+            while (true) {
+                while (heap.size() < maxItems && heapBytes < maxBytes && nextLine(nextLine)) {
+                    boolean fitsCurrentRun = lastWritten == null || nextLine.compareTo(lastWritten) >= 0;
+                    heap.push(fitsCurrentRun ? currentRun : currentRun + 1, nextLine.copy());
+                    heapBytes += ByteLine.OVERHEAD + nextLine.getLength();
+                }
+                if (heap.isEmpty()) break;
+
+                if (out == null || heap.minRun() != currentRun) {
+                    if (out != null) {
+                        filter.flush();
+                        out.close();
+                        publish(run);
+                    }
+                    currentRun = heap.minRun();
+                    out = null;
+                    run = FilesHandler.createTempFile(jobID, dst);
+                    if (run == null) return false;
+                    out = openTempStream(run);
+                    filter = FilesHandler.byteFilter(out, options.getDuplicates()).limit(options.getLimit());
+                }
+                ByteLine min = heap.pop();
+                heapBytes -= ByteLine.OVERHEAD + min.getLength();
+                filter.add(min);
+                lastWritten = min;
+            }
+            if (out != null) {
+                filter.flush();
+                out.close();
+                out = null;
+                publish(run);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write to a temp file: " + e.getMessage());
+            return false;
+        } finally {
+            try {
+                if (out != null) out.close();
+                if (reader != null) reader.close();
+            } catch (IOException io) {
+                System.err.println(io.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next line of the current split. If the split is exhausted, the next split
+     * is taken from the queue.
+     *
+     * @return the next line or {@code null} if all the splits are read
+     */
+    private String nextLine() throws IOException {
+        while (openReader()) {
+            String line = reader.readLine();
+            if (line != null) return line;
+            reader.close();
+            reader = null;
+        }
+        return null;
+    }
+
+    /**
+     * The same as {@link #nextLine()}, but the line is read into {@code arena}.
+     *
+     * @return {@code false} if all the splits are read
+     */
+    private boolean nextLine(LineArena arena) throws IOException {
+        while (openReader()) {
+            if (reader.readLine(arena)) return true;
+            reader.close();
+            reader = null;
         }
+        return false;
     }
 
+    /**
+     * The same as {@link #nextLine()}, but {@code line} is pointed to the bytes of the line.
+     *
+     * @return {@code false} if all the splits are read
+     */
+    private boolean nextLine(ByteLine line) throws IOException {
+        while (openReader()) {
+            if (reader.readLine(line)) return true;
+            reader.close();
+            reader = null;
+        }
+        return false;
+    }
 
-    private void sort(String[] lines, int count) {
-        Arrays.sort(lines, 0, count);
+    /**
+     * Opens the next split if the current one is exhausted.
+     *
+     * @return {@code false} if there are no splits left
+     */
+    private boolean openReader() throws IOException {
+        if (reader != null) return true;
+        InputSplit split = q.poll();
+        if (split == null) return false;
+        reader = new LineReader(split, options.isMmap());
+        return true;
+    }
+
+    /**
+     * Reads the next line into {@code batch}.
+     *
+     * @return {@code false} if all the splits are read
+     */
+    private boolean readLine(Batch batch, int maxItems) throws IOException {
+        if (batch.arena != null) return nextLine(batch.arena);
+        String nextLine = nextLine();
+        if (nextLine == null) return false;
+        batch.add(nextLine, estimate(nextLine), maxItems);
+        return true;
+    }
+
+    /**
+     * Opens a temporary file created by {@link FilesHandler#createTempFile(String, String)}.
+     * The file is compressed by {@code options.getTempCodec()} and is written in the background if
+     * {@code options.getWriteBehind()} is set.
+     *
+     * @return a writer of the file
+     */
+    private BufferedWriter openTempFile(File tempOut) throws IOException {
+        return FilesHandler.openWriter(tempOut, options.getTempCodec(), writeBehind);
+    }
+
+    /**
+     * The same as {@link #openTempFile(File)}, but the file is written as raw bytes.
+     *
+     * @return a stream of the file
+     */
+    private OutputStream openTempStream(File tempOut) throws IOException {
+        return FilesHandler.openOutputStream(tempOut, options.getTempCodec(), writeBehind);
+    }
+
+    /**
+     * Hands a written sorted file to the registry, if there is one.
+     */
+    private void publish(File sorted) {
+        if (registry != null) registry.publish(sorted);
+    }
+
+    /**
+     * Sorts the first {@code count} lines and collapses their duplicates, see
+     * {@link Duplicates#collapse(String[], int, int)}. Only the first {@code options.getLimit()} of them are kept.
+     *
+     * @return how many lines are left to be written
+     */
+    private int sort(String[] lines, int count) {
+        int end;
+        if (!options.getSortKeys().isEmpty()) {
+            end = options.getSortKeys().sort(lines, 0, count, options.getDuplicates());
+        } else {
+            // A batch of a sorted stretch of the input is written as it is
+            if (!StringSorter.isSorted(lines, 0, count)) options.getStringSorter().sort(lines, 0, count);
+            end = options.getDuplicates().collapse(lines, 0, count);
+        }
+        if (end <= options.getLimit()) return end;
+        Arrays.fill(lines, options.getLimit(), end, null);
+        return options.getLimit();
+    }
+
+    /**
+     * @return how many bytes of RAM {@code line} takes while it is sorted, together with its key
+     */
+    private long estimate(String line) {
+        return MemoryEstimator.estimate(line) + options.getSortKeys().estimate(line);
     }
 
     /**
@@ -123,11 +606,13 @@ public class MapWorker implements Callable<Boolean> {
         if (tempOut == null) return false;
         BufferedWriter out = null;
         try {
-            out = new BufferedWriter(new FileWriter(tempOut));
+            out = openTempFile(tempOut);
             for (int i = 0; i < actualCount; ++i) {
                 out.write(lines[i]);
                 out.newLine();
             }
+            out.close();
+            out = null;
         } catch (IOException e) {
             System.err.println("Cannot write to a temp file: " + e.getMessage());
             return false;
@@ -138,6 +623,97 @@ public class MapWorker implements Callable<Boolean> {
                 System.err.println(io.getMessage());
             }
         }
+        publish(tempOut);
         return true;
     }
+
+    private boolean outToTempFile(Batch batch) {
+        return batch.arena != null ? outToTempFile(batch.arena) : outToTempFile(batch.lines, batch.count);
+    }
+
+    /**
+     * This method writes the lines of {@code arena} in their current order to a temporary file with
+     * the prefix {@code jobID} in the directory {@code dst}.
+     *
+     * @param arena is a source of lines to be written to the temporary file
+     * @return {@code true} if the lines are written to the temporary file. {@code false} otherwise
+     */
+
+    private boolean outToTempFile(LineArena arena) {
+        File tempOut = FilesHandler.createTempFile(jobID, dst);
+        if (tempOut == null) return false;
+        Closeable out = null;
+        try {
+            if (arena.isBinary()) {
+                OutputStream stream = openTempStream(tempOut);
+                out = stream;
+                arena.write(stream, options.getDuplicates().isUnique(), options.getLimit());
+            } else {
+                BufferedWriter writer = openTempFile(tempOut);
+                out = writer;
+                arena.write(writer, options.getDuplicates().isUnique(), options.getLimit());
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            System.err.println("Cannot write to a temp file: " + e.getMessage());
+            return false;
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException io) {
+                System.err.println(io.getMessage());
+            }
+        }
+        publish(tempOut);
+        return true;
+    }
+
+    /**
+     * A batch of lines which is passed between the threads of the pipeline. The lines are kept
+     * either in an array of Strings or in an arena.
+     */
+    private static class Batch {
+        String[] lines;
+        LineArena arena;
+        int count;
+        long bytes;
+
+        Batch(int capacity) {
+            lines = new String[capacity];
+        }
+
+        Batch(LineArena arena) {
+            this.arena = arena;
+        }
+
+        int count() {
+            return arena != null ? arena.count() : count;
+        }
+
+        long bytes() {
+            return arena != null ? arena.bytes() : bytes;
+        }
+
+        boolean isFull() {
+            return arena != null && arena.isFull();
+        }
+
+        void add(String line, long lineBytes, int maxItems) {
+            if (count == lines.length)
+                lines = Arrays.copyOf(lines, (int) Math.min(maxItems, 2L * lines.length));
+            lines[count++] = line;
+            bytes += lineBytes;
+        }
+
+        void clear() {
+            if (arena != null) {
+                arena.clear();
+                return;
+            }
+            Arrays.fill(lines, 0, count, null);
+            count = 0;
+            bytes = 0;
+        }
+    }
 }
@@ -0,0 +1,164 @@
+package com.bigsort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The {@code MergePlan} class decides which sorted files are merged together during the merge stage.
+ * <p>
+ * The sorted files are runs {@code 0..n-1}, each merge step produces a new run which gets the next number.
+ * A byte is read and written once by every step it goes through, so the cost of a plan is the total size
+ * of the runs produced by the intermediate steps. The plan is built the way a Huffman code is: each step
+ * merges the smallest runs available, so big runs are merged as few times as possible and small runs
+ * never get a step of their own. The first step is smaller than the rest, so that exactly
+ * {@code fanIn} runs are left for the final step.
+ * <p>
+ * Intermediate steps merge at most {@code groupFanIn} runs, so that several of them can be merged at once
+ * by different threads. Steps are listed in the order of creation, i.e. every step comes after the steps
+ * which produce its runs. The last step writes the result.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class MergePlan {
+
+    private long[] inputSizes;
+    private List<Step> steps = new ArrayList<>();
+    private long cost;
+
+    private MergePlan(long[] inputSizes) {
+        this.inputSizes = inputSizes;
+    }
+
+    /**
+     * Plans the merge of runs of {@code sizes} bytes.
+     *
+     * @param sizes      the sizes of the sorted files in bytes
+     * @param fanIn      the maximum amount of runs of the final step
+     * @param groupFanIn the maximum amount of runs of an intermediate step
+     * @return the plan, it has no steps if there are no runs
+     * @throws IllegalArgumentException if {@code fanIn < 2} or {@code groupFanIn} is not in {@code [2, fanIn]}
+     */
+    public static MergePlan create(long[] sizes, int fanIn, int groupFanIn) {
+        if (fanIn < 2) throw new IllegalArgumentException("fanIn should be at least 2.");
+        if (groupFanIn < 2 || groupFanIn > fanIn)
+            throw new IllegalArgumentException("groupFanIn should be in range [2, fanIn].");
+        MergePlan plan = new MergePlan(sizes.clone());
+        if (sizes.length == 0) return plan;
+
+        // Runs ordered by size, the older run goes first among runs of the same size
+        List<Long> runSizes = new ArrayList<>();
+        PriorityQueue<Integer> runs = new PriorityQueue<>(Math.max(1, sizes.length), (a, b) -> {
+            int c = Long.compare(runSizes.get(a), runSizes.get(b));
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        for (long size : sizes) {
+            runSizes.add(size);
+            runs.add(runSizes.size() - 1);
+        }
+
+        // Every step of k runs reduces the amount of runs by k - 1
+        int reduction = Math.max(0, sizes.length - fanIn);
+        int first = reduction % (groupFanIn - 1);
+        int stepSize = first == 0 ? groupFanIn : first + 1;
+        while (runs.size() > fanIn) {
+            plan.addStep(runs, runSizes, stepSize);
+            plan.cost += runSizes.get(runSizes.size() - 1);
+            stepSize = groupFanIn;
+        }
+        plan.addStep(runs, runSizes, runs.size());
+        return plan;
+    }
+
+    private void addStep(PriorityQueue<Integer> runs, List<Long> runSizes, int size) {
+        List<Integer> inputs = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < size; ++i) {
+            int run = runs.poll();
+            inputs.add(run);
+            bytes += runSizes.get(run);
+        }
+        runSizes.add(bytes);
+        int output = runSizes.size() - 1;
+        runs.add(output);
+        steps.add(new Step(inputs, output, bytes));
+    }
+
+    /**
+     * @return the amount of sorted files the plan starts with
+     */
+    public int getInputs() {
+        return inputSizes.length;
+    }
+
+    /**
+     * @return the steps in the order they may be started, the last one writes the result
+     */
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * @return how many bytes are written to temporary files and read back by the intermediate steps
+     */
+    public long getCost() {
+        return cost;
+    }
+
+    /**
+     * @return the plan, a line per step
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Merge plan: ").append(inputSizes.length).append(" sorted files, ")
+                .append(steps.size()).append(" steps, ").append(cost).append(" bytes re-merged")
+                .append(System.lineSeparator());
+        for (int i = 0; i < steps.size(); ++i) {
+            Step step = steps.get(i);
+            sb.append("  step ").append(i + 1).append(": runs ").append(step.getInputs())
+                    .append(" (").append(step.getBytes()).append(" bytes) -> ")
+                    .append(i == steps.size() - 1 ? "result" : "run " + step.getOutput())
+                    .append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A merge of several runs into a new one.
+     */
+    public static class Step {
+        private List<Integer> inputs;
+        private int output;
+        private long bytes;
+
+        private Step(List<Integer> inputs, int output, long bytes) {
+            this.inputs = Collections.unmodifiableList(inputs);
+            this.output = output;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the runs which are merged, the sorted files are runs {@code 0..n-1}
+         */
+        public List<Integer> getInputs() {
+            return inputs;
+        }
+
+        /**
+         * @return the run which is produced
+         */
+        public int getOutput() {
+            return output;
+        }
+
+        /**
+         * @return the total size of the merged runs
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.bigsort;
+
+/**
+ * The strategies of producing sorted files during the sort stage.
+ * <p>
+ * {@code LOAD_SORT} reads as many lines as fit into RAM, sorts them and writes them into a
+ * sorted file. Every sorted file has the size of the available RAM.
+ * <p>
+ * {@code REPLACEMENT_SELECTION} keeps the lines in a heap and writes the minimum line as soon as
+ * a new line is read. A new line which is not less than the last written one joins the current
+ * sorted file, so the sorted files are about twice as big as the available RAM on random input,
+ * and an input which is nearly sorted produces a single sorted file.
+ *
+ * @author Nadya Shakhat
+ */
+
+public enum RunGeneration {
+    LOAD_SORT,
+    REPLACEMENT_SELECTION
+}
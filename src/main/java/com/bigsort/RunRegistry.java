@@ -0,0 +1,130 @@
+package com.bigsort;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@code RunRegistry} class collects the sorted files (runs) of a job as soon as they are written.
+ * <p>
+ * The workers of the sort stage publish each sorted file once it is closed. A background merger may take
+ * groups of the smallest written runs while the sort stage is still running and publish the run it is
+ * merging them into. Such a run is published before it is written, so the merge stage may plan it
+ * together with the rest and wait for it only when it is needed. Once the sort stage is finished, the
+ * registry is closed and the merge stage takes all the runs.
+ * <p>
+ * All the methods are thread-safe.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class RunRegistry {
+
+    private List<Run> runs = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * Publishes a written sorted file.
+     *
+     * @param file is a sorted file which is closed
+     */
+    public void publish(File file) {
+        publish(CompletableFuture.completedFuture(file), file.length());
+    }
+
+    /**
+     * Publishes a run which may be not written yet.
+     *
+     * @param file completes with the sorted file once it is written
+     * @param size is the size of the run in bytes, an estimate if it is not written yet
+     */
+    public void publish(CompletableFuture<File> file, long size) {
+        synchronized (this) {
+            runs.add(new Run(file, size));
+            notifyAll();
+        }
+        // The run may be taken once it is written
+        file.whenComplete((f, e) -> {
+            synchronized (this) {
+                notifyAll();
+            }
+        });
+    }
+
+    /**
+     * Tells the threads waiting in {@link #take(int, int)} that no more runs are coming.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits until more than {@code threshold} runs are written, then removes the {@code count} smallest
+     * ones from the registry. More than {@code threshold} runs are never merged at once, so a group
+     * taken this way would have to be merged by an intermediate step anyway.
+     *
+     * @param threshold how many runs may be left unmerged
+     * @param count     how many runs to take
+     * @return the taken files or {@code null} if the registry is closed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     * @throws IllegalArgumentException if {@code count < 2} or {@code count > threshold + 1}
+     */
+    public synchronized List<File> take(int threshold, int count) throws InterruptedException {
+        if (count < 2 || count > threshold + 1)
+            throw new IllegalArgumentException("count should be in range [2, threshold + 1].");
+        while (!closed) {
+            List<Run> written = new ArrayList<>();
+            for (Run run : runs) {
+                if (run.file.isDone() && !run.file.isCompletedExceptionally()) written.add(run);
+            }
+            if (written.size() > threshold) {
+                written.sort(Comparator.comparingLong(Run::getSize));
+                List<File> taken = new ArrayList<>();
+                for (Run run : written.subList(0, count)) {
+                    runs.remove(run);
+                    taken.add(run.file.join());
+                }
+                return taken;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    /**
+     * @return the runs which are published and are not taken, in the order of publishing
+     */
+    public synchronized List<Run> getRuns() {
+        return new ArrayList<>(runs);
+    }
+
+    /**
+     * A sorted file which is written or is being written.
+     */
+    public static class Run {
+        private CompletableFuture<File> file;
+        private long size;
+
+        private Run(CompletableFuture<File> file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        /**
+         * @return completes with the sorted file once it is written
+         */
+        public CompletableFuture<File> getFile() {
+            return file;
+        }
+
+        /**
+         * @return the size of the run in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.bigsort;
+
+import com.bigsort.util.MergeEngine;
+import com.bigsort.util.Duplicates;
+import com.bigsort.util.SortKeys;
+import com.bigsort.util.StringSorter;
+import com.bigsort.util.TempCodec;
+
+/**
+ * The {@code SortOptions} class holds the settings of a sort job. Every setting has
+ * a default value, so only the required ones have to be changed. Setters return
+ * {@code this}, so the options can be chained:
+ * <pre>
+ *     new SortOptions().setWorkers(4).setMemory(8L &lt;&lt; 30)
+ * </pre>
+ * The amount of data in RAM is limited both by the number of lines ({@code batch}) and by
+ * the number of bytes ({@code memory}). By default, neither of them is limited, so at least one
+ * of them should be set.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class SortOptions {
+
+    public static final long UNLIMITED_MEMORY = Long.MAX_VALUE;
+    public static final int UNLIMITED_BATCH = Integer.MAX_VALUE;
+    public static final int UNLIMITED_LINES = Integer.MAX_VALUE;
+
+    private int workers = 1;
+    private int batch = UNLIMITED_BATCH;
+    private long memory = UNLIMITED_MEMORY;
+    private int maxOpenedFiles = FilesSorter.MAX_FILES;
+    private int mergeWorkers = 1;
+    private MergeEngine mergeEngine = MergeEngine.LOSER_TREE;
+    private RunGeneration runGeneration = RunGeneration.LOAD_SORT;
+    private boolean pipeline = false;
+    private TempCodec tempCodec = TempCodec.NONE;
+    private StringSorter stringSorter = StringSorter.AUTO;
+    private boolean arena = false;
+    private boolean binary = false;
+    private boolean mmap = false;
+    private int readAhead = 0;
+    private int writeBehind = 0;
+    private boolean printMergePlan = false;
+    private boolean mergeDuringSort = false;
+    private int mergePartitions = 1;
+    private boolean mergeTree = false;
+    private boolean mergeOnly = false;
+    private SortKeys sortKeys = SortKeys.NONE;
+    private Duplicates duplicates = Duplicates.KEEP;
+    private int limit = UNLIMITED_LINES;
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @param workers the maximum amount of workers which work in parallel during the sort stage
+     * @return this options
+     * @throws IllegalArgumentException if {@code workers < 1}
+     */
+    public SortOptions setWorkers(int workers) {
+        if (workers < 1) throw new IllegalArgumentException("workers should be positive.");
+        this.workers = workers;
+        return this;
+    }
+
+    public int getBatch() {
+        return batch;
+    }
+
+    /**
+     * @param batch the maximum lines in RAM
+     * @return this options
+     * @throws IllegalArgumentException if {@code batch < 2}
+     */
+    public SortOptions setBatch(int batch) {
+        if (batch < 2) throw new IllegalArgumentException("batch should be at least 2.");
+        this.batch = batch;
+        return this;
+    }
+
+    public long getMemory() {
+        return memory;
+    }
+
+    /**
+     * @param memory the maximum amount of bytes occupied by lines and read buffers
+     * @return this options
+     * @throws IllegalArgumentException if {@code memory} is not positive
+     */
+    public SortOptions setMemory(long memory) {
+        if (memory < 1) throw new IllegalArgumentException("memory should be positive.");
+        this.memory = memory;
+        return this;
+    }
+
+    public int getMaxOpenedFiles() {
+        return maxOpenedFiles;
+    }
+
+    /**
+     * @param maxOpenedFiles maximum amount of opened files
+     * @return this options
+     * @throws IllegalArgumentException if {@code maxOpenedFiles < 2}
+     */
+    public SortOptions setMaxOpenedFiles(int maxOpenedFiles) {
+        if (maxOpenedFiles < 2) throw new IllegalArgumentException("maxOpenedFiles should be at least 2.");
+        this.maxOpenedFiles = maxOpenedFiles;
+        return this;
+    }
+
+    public int getMergeWorkers() {
+        return mergeWorkers;
+    }
+
+    /**
+     * @param mergeWorkers the maximum amount of threads which merge files in parallel during the merge stage
+     * @return this options
+     * @throws IllegalArgumentException if {@code mergeWorkers < 1}
+     */
+    public SortOptions setMergeWorkers(int mergeWorkers) {
+        if (mergeWorkers < 1) throw new IllegalArgumentException("mergeWorkers should be positive.");
+        this.mergeWorkers = mergeWorkers;
+        return this;
+    }
+
+    public MergeEngine getMergeEngine() {
+        return mergeEngine;
+    }
+
+    /**
+     * @param mergeEngine the structure which is used to merge sorted files
+     * @return this options
+     * @throws IllegalArgumentException if {@code mergeEngine} is {@code null}
+     */
+    public SortOptions setMergeEngine(MergeEngine mergeEngine) {
+        if (mergeEngine == null) throw new IllegalArgumentException("mergeEngine should be defined.");
+        this.mergeEngine = mergeEngine;
+        return this;
+    }
+
+    public RunGeneration getRunGeneration() {
+        return runGeneration;
+    }
+
+    /**
+     * @param runGeneration the strategy of producing sorted files during the sort stage
+     * @return this options
+     * @throws IllegalArgumentException if {@code runGeneration} is {@code null}
+     */
+    public SortOptions setRunGeneration(RunGeneration runGeneration) {
+        if (runGeneration == null) throw new IllegalArgumentException("runGeneration should be defined.");
+        this.runGeneration = runGeneration;
+        return this;
+    }
+
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @param pipeline whether each worker reads, sorts and writes batches at the same time
+     * @return this options
+     */
+    public SortOptions setPipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+        return this;
+    }
+
+    public TempCodec getTempCodec() {
+        return tempCodec;
+    }
+
+    /**
+     * @param tempCodec the codec which compresses temporary files, the result file is never compressed
+     * @return this options
+     * @throws IllegalArgumentException if {@code tempCodec} is {@code null}
+     */
+    public SortOptions setTempCodec(TempCodec tempCodec) {
+        if (tempCodec == null) throw new IllegalArgumentException("tempCodec should be defined.");
+        this.tempCodec = tempCodec;
+        return this;
+    }
+
+    public StringSorter getStringSorter() {
+        return stringSorter;
+    }
+
+    /**
+     * @param stringSorter the algorithm which sorts a batch of lines in RAM
+     * @return this options
+     * @throws IllegalArgumentException if {@code stringSorter} is {@code null}
+     */
+    public SortOptions setStringSorter(StringSorter stringSorter) {
+        if (stringSorter == null) throw new IllegalArgumentException("stringSorter should be defined.");
+        this.stringSorter = stringSorter;
+        return this;
+    }
+
+    public boolean isArena() {
+        return arena;
+    }
+
+    /**
+     * @param arena whether each worker packs the lines of a batch into a single array instead of Strings
+     * @return this options
+     */
+    public SortOptions setArena(boolean arena) {
+        this.arena = arena;
+        return this;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @param binary whether lines are compared as unsigned bytes without decoding them, like
+     *               {@code LC_ALL=C sort} does
+     * @return this options
+     */
+    public SortOptions setBinary(boolean binary) {
+        this.binary = binary;
+        return this;
+    }
+
+    public boolean isMmap() {
+        return mmap;
+    }
+
+    /**
+     * @param mmap whether the input files are mapped into memory instead of being read into buffers
+     * @return this options
+     */
+    public SortOptions setMmap(boolean mmap) {
+        this.mmap = mmap;
+        return this;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @param readAhead the size of a block which is read ahead of time for each file during the merge stage,
+     *                  {@code 0} disables the read-ahead. Each file has two blocks, which are taken from
+     *                  {@code memory}
+     * @return this options
+     * @throws IllegalArgumentException if {@code readAhead < 0}
+     */
+    public SortOptions setReadAhead(int readAhead) {
+        if (readAhead < 0) throw new IllegalArgumentException("readAhead should not be negative.");
+        this.readAhead = readAhead;
+        return this;
+    }
+
+    public int getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * @param writeBehind the size of a buffer of a file which is written by a separate thread, {@code 0}
+     *                    disables the write-behind. Each written file has two buffers, which are taken from
+     *                    {@code memory}
+     * @return this options
+     * @throws IllegalArgumentException if {@code writeBehind < 0}
+     */
+    public SortOptions setWriteBehind(int writeBehind) {
+        if (writeBehind < 0) throw new IllegalArgumentException("writeBehind should not be negative.");
+        this.writeBehind = writeBehind;
+        return this;
+    }
+
+    public boolean isPrintMergePlan() {
+        return printMergePlan;
+    }
+
+    /**
+     * @param printMergePlan whether the plan of the merge stage is printed to the standard output before
+     *                       the merge is started
+     * @return this options
+     */
+    public SortOptions setPrintMergePlan(boolean printMergePlan) {
+        this.printMergePlan = printMergePlan;
+        return this;
+    }
+
+    public boolean isMergeDuringSort() {
+        return mergeDuringSort;
+    }
+
+    /**
+     * @param mergeDuringSort whether groups of sorted files are merged in the background while the sort stage
+     *                        is still running
+     * @return this options
+     */
+    public SortOptions setMergeDuringSort(boolean mergeDuringSort) {
+        this.mergeDuringSort = mergeDuringSort;
+        return this;
+    }
+
+    public int getMergePartitions() {
+        return mergePartitions;
+    }
+
+    /**
+     * @param mergePartitions the amount of key ranges the last merge step is cut into, each of them is merged
+     *                        by its own thread. {@code 1} means the last step is merged by a single thread
+     * @return this options
+     * @throws IllegalArgumentException if {@code mergePartitions < 1}
+     */
+    public SortOptions setMergePartitions(int mergePartitions) {
+        if (mergePartitions < 1) throw new IllegalArgumentException("mergePartitions should be positive.");
+        this.mergePartitions = mergePartitions;
+        return this;
+    }
+
+    public boolean isMergeTree() {
+        return mergeTree;
+    }
+
+    /**
+     * @param mergeTree whether the last merge step is a tree of merging threads which pass the lines to each
+     *                  other in memory
+     * @return this options
+     */
+    public SortOptions setMergeTree(boolean mergeTree) {
+        this.mergeTree = mergeTree;
+        return this;
+    }
+
+    public boolean isMergeOnly() {
+        return mergeOnly;
+    }
+
+    /**
+     * @param mergeOnly whether the input files are already sorted, so they are merged without the sort stage.
+     *                  Not supported by a temp codec and by aggregated lines
+     * @return this options
+     */
+    public SortOptions setMergeOnly(boolean mergeOnly) {
+        this.mergeOnly = mergeOnly;
+        return this;
+    }
+
+    public SortKeys getSortKeys() {
+        return sortKeys;
+    }
+
+    /**
+     * @param sortKeys the parts of the lines which are compared, {@link SortKeys#NONE} compares whole lines.
+     *                 The keys are not supported by the arena and the binary mode
+     * @return this options
+     * @throws IllegalArgumentException if {@code sortKeys} is {@code null}
+     */
+    public SortOptions setSortKeys(SortKeys sortKeys) {
+        if (sortKeys == null) throw new IllegalArgumentException("sortKeys should be defined.");
+        this.sortKeys = sortKeys;
+        return this;
+    }
+
+    public Duplicates getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @param duplicates the way equal lines are treated. The lines are not aggregated by the arena and
+     *                   the binary mode
+     * @return this options
+     * @throws IllegalArgumentException if {@code duplicates} is {@code null}
+     */
+    public SortOptions setDuplicates(Duplicates duplicates) {
+        if (duplicates == null) throw new IllegalArgumentException("duplicates should be defined.");
+        this.duplicates = duplicates;
+        return this;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param limit how many first lines of the sorted order are written to the result, {@link #UNLIMITED_LINES}
+     *              writes all of them
+     * @return this options
+     * @throws IllegalArgumentException if {@code limit < 1}
+     */
+    public SortOptions setLimit(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit should be positive.");
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if only the first lines of the sorted order are written
+     */
+    public boolean isLimited() {
+        return limit != UNLIMITED_LINES;
+    }
+}
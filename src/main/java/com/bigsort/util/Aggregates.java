@@ -0,0 +1,192 @@
+package com.bigsort.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@code Aggregates} class describes the values which are computed for each group of equal lines, see
+ * {@link Duplicates#aggregate(Aggregates)}: {@code count} of the lines of a group, and {@code sum:F},
+ * {@code min:F} and {@code max:F} of the field {@code F}. The fields are cut by a separator char and are
+ * counted from one, the same way as the fields of {@link SortKeys}. The value of a field is the number it
+ * starts with, zero if there is none (see {@link SortKeys.Ordering#NUMERIC}).
+ * <p>
+ * The aggregates of a part of a group combine into the aggregates of the whole group, so a sorted file keeps
+ * the partial aggregates of its groups and each merge combines the aggregates of equal lines of its files.
+ * A group is written as its aggregates, each of them followed by a tab, and the first line of the group.
+ * Integral values are written without a fraction.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class Aggregates {
+
+    public static final char VALUE_SEPARATOR = '\t';
+
+    /**
+     * The amount of lines of a group only
+     */
+    public static final Aggregates COUNT = parse("count", SortKeys.DEFAULT_SEPARATOR);
+
+    private static final double MAX_EXACT = 1L << 53;
+
+    /**
+     * The way the values of a field are combined.
+     */
+    public enum Operation {
+        COUNT, SUM, MIN, MAX
+    }
+
+    private List<Operation> operations;
+    private int[] fields;
+    private char separator;
+
+    private Aggregates(List<Operation> operations, int[] fields, char separator) {
+        this.operations = Collections.unmodifiableList(operations);
+        this.fields = fields;
+        this.separator = separator;
+    }
+
+    /**
+     * Parses a comma separated list of aggregates, e.g. {@code count,sum:3,max:3}.
+     *
+     * @param spec      the aggregates in the order they are written
+     * @param separator the char which separates the fields
+     * @return the aggregates
+     * @throws IllegalArgumentException if an aggregate is malformed
+     */
+    public static Aggregates parse(String spec, char separator) {
+        List<Operation> operations = new ArrayList<>();
+        List<Integer> fields = new ArrayList<>();
+        for (String aggregate : spec.split(",", -1)) {
+            int colon = aggregate.indexOf(':');
+            String name = colon < 0 ? aggregate : aggregate.substring(0, colon);
+            Operation operation = null;
+            for (Operation o : Operation.values()) {
+                if (o.name().equalsIgnoreCase(name)) operation = o;
+            }
+            if (operation == null)
+                throw new IllegalArgumentException("Unknown aggregate " + aggregate + ", it should be one of " +
+                        "count, sum:F, min:F, max:F.");
+            if ((operation == Operation.COUNT) != (colon < 0))
+                throw new IllegalArgumentException("Aggregate " + aggregate + " is malformed, only sum, min and " +
+                        "max have a field.");
+            int field = 0;
+            if (colon >= 0) {
+                try {
+                    field = Integer.parseInt(aggregate.substring(colon + 1));
+                } catch (NumberFormatException e) {
+                    field = 0;
+                }
+                if (field < 1)
+                    throw new IllegalArgumentException("Aggregate " + aggregate + " should have a positive field.");
+            }
+            operations.add(operation);
+            fields.add(field);
+        }
+        int[] f = new int[fields.size()];
+        for (int i = 0; i < f.length; ++i) {
+            f[i] = fields.get(i);
+        }
+        return new Aggregates(operations, f, separator);
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * @param line is a line of the input
+     * @return the aggregates of a group which has only {@code line}
+     */
+    public double[] of(String line) {
+        double[] values = new double[fields.length];
+        for (int i = 0; i < values.length; ++i) {
+            if (operations.get(i) == Operation.COUNT) {
+                values[i] = 1;
+                continue;
+            }
+            int start = 0;
+            for (int f = 1; f < fields[i] && start >= 0; ++f) {
+                int next = line.indexOf(separator, start);
+                start = next < 0 ? -1 : next + 1;
+            }
+            if (start < 0) continue;
+            int end = line.indexOf(separator, start);
+            values[i] = SortKeys.parseNumber(line, start, end < 0 ? line.length() : end, false, null);
+        }
+        return values;
+    }
+
+    /**
+     * Combines the aggregates of two parts of a group.
+     *
+     * @param into   the aggregates of a part, they become the aggregates of both parts
+     * @param values the aggregates of the other part
+     */
+    public void combine(double[] into, double[] values) {
+        for (int i = 0; i < into.length; ++i) {
+            switch (operations.get(i)) {
+                case COUNT:
+                case SUM:
+                    into[i] += values[i];
+                    break;
+                case MIN:
+                    into[i] = Math.min(into[i], values[i]);
+                    break;
+                case MAX:
+                    into[i] = Math.max(into[i], values[i]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param values the aggregates of a group
+     * @param line   the first line of the group
+     * @return the group the way it is written
+     */
+    public String format(double[] values, String line) {
+        StringBuilder sb = new StringBuilder();
+        for (double value : values) {
+            if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT) sb.append((long) value);
+            else sb.append(value);
+            sb.append(VALUE_SEPARATOR);
+        }
+        return sb.append(line).toString();
+    }
+
+    /**
+     * Parses a group written by {@link #format(double[], String)}.
+     *
+     * @param group  is a written group
+     * @param values receives the aggregates of the group
+     * @return the index of the first char of the line of the group
+     * @throws IllegalArgumentException if the aggregates are malformed
+     */
+    public int parse(String group, double[] values) {
+        int start = 0;
+        for (int i = 0; i < values.length; ++i) {
+            int end = group.indexOf(VALUE_SEPARATOR, start);
+            if (end < 0) throw new IllegalArgumentException("The line has no aggregates: " + group);
+            values[i] = Double.parseDouble(group.substring(start, end));
+            start = end + 1;
+        }
+        return start;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; ++i) {
+            if (i > 0) sb.append(',');
+            sb.append(operations.get(i).name().toLowerCase());
+            if (fields[i] > 0) sb.append(':').append(fields[i]);
+        }
+        return sb.toString();
+    }
+}
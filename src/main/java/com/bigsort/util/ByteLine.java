@@ -0,0 +1,87 @@
+package com.bigsort.util;
+
+/**
+ * The {@code ByteLine} class is a line which is kept as a slice of an array of bytes,
+ * {@code bytes[offset..offset + length)}. Lines are compared byte by byte, the bytes are unsigned,
+ * and a line which is a prefix of another one goes first. This is the order of {@code LC_ALL=C sort}.
+ * <p>
+ * A {@code ByteLine} is mutable: a reader points the same instance to the next line instead of creating
+ * a new object for each line, so a merge doesn't allocate anything per line.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class ByteLine implements Comparable<ByteLine> {
+
+    /**
+     * Headers of the object and of its array of bytes plus a reference to the object
+     */
+    public static final int OVERHEAD = 56;
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    public ByteLine() {
+        this(new byte[0], 0, 0);
+    }
+
+    public ByteLine(byte[] bytes, int offset, int length) {
+        set(bytes, offset, length);
+    }
+
+    /**
+     * Points this line to {@code bytes[offset..offset + length)}.
+     *
+     * @return this line
+     */
+    public ByteLine set(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return a line which owns a copy of the bytes of this line
+     */
+    public ByteLine copy() {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, offset, copy, 0, length);
+        return new ByteLine(copy, 0, length);
+    }
+
+    @Override
+    public int compareTo(ByteLine that) {
+        return compare(bytes, offset, length, that.bytes, that.offset, that.length);
+    }
+
+    /**
+     * Compares two slices of bytes as unsigned numbers, the shorter slice goes first if it is a prefix
+     * of the longer one.
+     *
+     * @return a negative number, zero or a positive number if the first slice is less than, equal to or
+     * greater than the second one
+     */
+    public static int compare(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            int x = a[aOffset + i] & 0xFF;
+            int y = b[bOffset + i] & 0xFF;
+            if (x != y) return x - y;
+        }
+        return aLength - bLength;
+    }
+}
@@ -0,0 +1,93 @@
+package com.bigsort.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The {@code ByteLineReader} class reads lines separated by {@code '\n'} from a stream without
+ * decoding them. A line is returned as a {@link ByteLine} which points into the buffer of the
+ * reader, so it is valid only until the next line is read.
+ * <p>
+ * The buffer grows if a line doesn't fit into it.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class ByteLineReader implements Closeable {
+
+    private InputStream in;
+    private byte[] buf;
+    private int pos;           // next byte to read in buf
+    private int limit;         // amount of valid bytes in buf
+    private boolean eof;
+
+    /**
+     * Initializes a reader of {@code in} with a buffer of {@code bufferSize} bytes.
+     *
+     * @param in         is a stream to read
+     * @param bufferSize is the initial size of the buffer in bytes
+     * @throws IllegalArgumentException if {@code bufferSize} is not positive
+     */
+    public ByteLineReader(InputStream in, int bufferSize) {
+        if (bufferSize < 1) throw new IllegalArgumentException("bufferSize should be positive.");
+        this.in = in;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Points {@code line} to the next line without line separator.
+     *
+     * @param line is a line to reuse
+     * @return {@code false} if there are no lines left
+     * @throws IOException if the stream cannot be read
+     */
+    public boolean readLine(ByteLine line) throws IOException {
+        int scanned = pos;
+        while (true) {
+            int i = scanned;
+            while (i < limit && buf[i] != '\n') i++;
+            if (i < limit) {
+                line.set(buf, pos, i - pos);
+                pos = i + 1;
+                return true;
+            }
+            scanned = limit - pos;
+            if (!fill()) {
+                if (pos == limit) return false;
+                // The last line may have no line separator
+                line.set(buf, pos, limit - pos);
+                pos = limit;
+                return true;
+            }
+            scanned += pos;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Moves the unread bytes to the beginning of the buffer and reads more bytes after them.
+     *
+     * @return {@code false} if nothing has been read because the end of the stream is reached
+     */
+    private boolean fill() throws IOException {
+        if (eof) return false;
+        int remaining = limit - pos;
+        if (remaining == buf.length) buf = Arrays.copyOf(buf, 2 * buf.length);
+        System.arraycopy(buf, pos, buf, 0, remaining);
+        pos = 0;
+        limit = remaining;
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+}
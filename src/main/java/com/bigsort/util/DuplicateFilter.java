@@ -0,0 +1,121 @@
+package com.bigsort.util;
+
+import java.io.IOException;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * The {@code DuplicateFilter} class sits between a stream of sorted lines and its {@link Sink}. Each run
+ * of equal lines reaches the sink once, as its first line together with the combined {@link Aggregates} of
+ * the run, if there are any. The last line is held back until a different line comes, so {@link #flush()} has
+ * to be called at the end. Without an equality every line goes straight to the sink. See {@link Duplicates}.
+ * <p>
+ * A filter may be limited to the first lines which reach the sink, see {@link #limit(long)}. The lines after
+ * them are ignored, so the caller may stop as soon as the filter {@link #isFull()}.
+ *
+ * @param <T> the type of the lines
+ * @author Nadya Shakhat
+ */
+
+public class DuplicateFilter<T> {
+
+    /**
+     * Receives the lines which pass the filter.
+     */
+    @FunctionalInterface
+    public interface Sink<T> {
+        /**
+         * @param line   is the first line of a run
+         * @param values are the aggregates of the run, {@code null} if there are no aggregates
+         */
+        void write(T line, double[] values) throws IOException;
+    }
+
+    private final BiPredicate<T, T> same;
+    private final UnaryOperator<T> copy;
+    private final Aggregates aggregates;
+    private final Function<T, double[]> values;
+    private final Sink<T> sink;
+    private long limit = Long.MAX_VALUE;
+    private long written;
+    private T last;
+    private double[] lastValues;
+
+    /**
+     * @param same       tells if two lines are equal, {@code null} keeps every line
+     * @param copy       copies a line which is held back, e.g. if the caller reuses it
+     * @param aggregates combines the aggregates of equal lines, may be {@code null}
+     * @param values     returns the aggregates of a line, they may be changed. Not used without {@code aggregates}
+     * @param sink       receives the lines
+     */
+    public DuplicateFilter(BiPredicate<T, T> same, UnaryOperator<T> copy, Aggregates aggregates,
+                           Function<T, double[]> values, Sink<T> sink) {
+        this.same = same;
+        this.copy = copy;
+        this.aggregates = aggregates;
+        this.values = values;
+        this.sink = sink;
+    }
+
+    /**
+     * @param limit how many lines may reach the sink
+     * @return this filter
+     * @throws IllegalArgumentException if {@code limit < 1}
+     */
+    public DuplicateFilter<T> limit(long limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit should be positive.");
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @return {@code true} if the sink has got all the lines it may get, the next lines are ignored
+     */
+    public boolean isFull() {
+        return written >= limit;
+    }
+
+    /**
+     * Passes the next line, it is not less than the previous one.
+     *
+     * @param line is a line
+     * @throws IOException if the sink fails
+     */
+    public void add(T line) throws IOException {
+        if (isFull()) return;
+        if (same == null) {
+            write(line, values(line));
+            return;
+        }
+        if (last != null && same.test(last, line)) {
+            if (aggregates != null) aggregates.combine(lastValues, values(line));
+            return;
+        }
+        flush();
+        last = copy.apply(line);
+        lastValues = values(line);
+    }
+
+    /**
+     * Writes the line which is held back. The next line is not compared with the previous ones, so
+     * this is called at the end of a sorted file.
+     *
+     * @throws IOException if the sink fails
+     */
+    public void flush() throws IOException {
+        if (last == null) return;
+        T line = last;
+        last = null;
+        if (!isFull()) write(line, lastValues);
+    }
+
+    private void write(T line, double[] values) throws IOException {
+        sink.write(line, values);
+        ++written;
+    }
+
+    private double[] values(T line) {
+        return aggregates != null ? values.apply(line) : null;
+    }
+}
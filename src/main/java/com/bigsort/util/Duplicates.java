@@ -0,0 +1,171 @@
+package com.bigsort.util;
+
+import java.io.BufferedWriter;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * The ways equal lines are treated.
+ * <p>
+ * {@link #KEEP} writes every line, it is used by default.
+ * {@link #DROP} writes only the first of equal lines, like {@code sort -u}. Lines are equal if their
+ * {@link SortKeys} are equal, or if they are equal as a whole when there are no keys.
+ * {@link #aggregate(Aggregates)} writes each group of equal lines as a single line: the {@link Aggregates} of
+ * the group followed by its first line. {@link #COUNT} is the aggregation by {@code count} only, like
+ * {@code uniq -c}.
+ * <p>
+ * The duplicates are dropped by every pass which writes sorted lines: right after a batch is sorted and by
+ * every merge, so each pass writes and reads fewer lines. That is why the aggregated files of the sort stage
+ * already have the partial aggregates of their groups, and a merge combines the aggregates of equal lines of
+ * its files.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class Duplicates {
+
+    public static final Duplicates KEEP = new Duplicates(false, null);
+    public static final Duplicates DROP = new Duplicates(true, null);
+    public static final Duplicates COUNT = new Duplicates(true, Aggregates.COUNT);
+
+    private static final String NO_KEY = "";
+
+    private boolean unique;
+    private Aggregates aggregates;
+
+    private Duplicates(boolean unique, Aggregates aggregates) {
+        this.unique = unique;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * @param aggregates the values which are computed for each group of equal lines
+     * @return the way which writes a line per group of equal lines
+     * @throws IllegalArgumentException if {@code aggregates} is {@code null}
+     */
+    public static Duplicates aggregate(Aggregates aggregates) {
+        if (aggregates == null) throw new IllegalArgumentException("aggregates should be defined.");
+        return new Duplicates(true, aggregates);
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    public boolean isAggregated() {
+        return aggregates != null;
+    }
+
+    /**
+     * @return the aggregates of a group, {@code null} if the lines are not aggregated
+     */
+    public Aggregates getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * @param line   is the first line of a group
+     * @param values are the aggregates of the group, they are ignored if the lines are not aggregated
+     * @return the group the way it is written
+     */
+    public String format(String line, double[] values) {
+        return aggregates != null ? aggregates.format(values, line) : line;
+    }
+
+    /**
+     * Collapses each run of equal lines of the sorted {@code lines[from..to)} into one line, see
+     * {@link #join(String[], int, int)}. The lines are moved to the beginning of the range and the rest of it is
+     * cleared.
+     *
+     * @param lines the array
+     * @param from  the index of the first line, inclusive
+     * @param to    the index of the last line, exclusive
+     * @return the end of the collapsed lines, exclusive
+     */
+    public int collapse(String[] lines, int from, int to) {
+        if (!unique) return to;
+        int end = from;
+        for (int i = from; i < to; ) {
+            int j = i + 1;
+            while (j < to && lines[j].equals(lines[i])) ++j;
+            lines[end++] = join(lines, i, j);
+            i = j;
+        }
+        Arrays.fill(lines, end, to, null);
+        return end;
+    }
+
+    /**
+     * @param lines the array of lines of the input
+     * @param from  the index of the first line of a group, inclusive
+     * @param to    the index of the last line of the group, exclusive
+     * @return the group the way it is written
+     */
+    public String join(String[] lines, int from, int to) {
+        if (aggregates == null) return lines[from];
+        double[] values = aggregates.of(lines[from]);
+        for (int i = from + 1; i < to; ++i) {
+            aggregates.combine(values, aggregates.of(lines[i]));
+        }
+        return aggregates.format(values, lines[from]);
+    }
+
+    /**
+     * Returns the way the lines written by {@link #format(String, double[])} are read back by a merge. The
+     * aggregates of the groups are parsed, see {@link KeyedLine#getValues()}.
+     *
+     * @param keys is the order of the lines
+     * @return converts a written line, {@code null} stays {@code null}
+     * @throws IllegalArgumentException if the aggregates of a line are malformed
+     */
+    public Function<String, KeyedLine> reader(SortKeys keys) {
+        if (aggregates == null) return line -> line == null ? null : wrap(keys, line, null);
+        return group -> {
+            if (group == null) return null;
+            double[] values = new double[aggregates.size()];
+            return wrap(keys, group.substring(aggregates.parse(group, values)), values);
+        };
+    }
+
+    private static KeyedLine wrap(SortKeys keys, String line, double[] values) {
+        return new KeyedLine(keys.isEmpty() ? NO_KEY : keys.normalize(line), line, values);
+    }
+
+    /**
+     * @param out receives the lines
+     * @return a filter which writes lines of the input to {@code out}
+     */
+    public DuplicateFilter<String> filter(BufferedWriter out) {
+        return new DuplicateFilter<>(unique ? String::equals : null, line -> line, aggregates,
+                aggregates == null ? null : aggregates::of, (line, values) -> {
+            out.write(format(line, values));
+            out.newLine();
+        });
+    }
+
+    /**
+     * @param keys is the order of the lines
+     * @param out  receives the lines
+     * @return a filter which writes the lines of {@code keys} to {@code out}, the aggregates of equal lines
+     * are combined
+     */
+    public DuplicateFilter<KeyedLine> filter(SortKeys keys, BufferedWriter out) {
+        return new DuplicateFilter<>(unique ? keys::same : null, line -> line, aggregates,
+                aggregates == null ? null : this::values, (line, values) -> {
+            out.write(format(line.getLine(), values));
+            out.newLine();
+        });
+    }
+
+    /**
+     * @return the aggregates of a line which is read by {@link #reader(SortKeys)} or of a line of the input
+     */
+    private double[] values(KeyedLine line) {
+        return line.getValues() != null ? line.getValues() : aggregates.of(line.getLine());
+    }
+
+    @Override
+    public String toString() {
+        return aggregates != null ? "aggregate " + aggregates : unique ? "drop" : "keep";
+    }
+}
@@ -1,10 +1,19 @@
 package com.bigsort.util;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.function.Function;
 
 /**
  * The util class for working with files
@@ -19,14 +28,32 @@ public class FilesHandler {
      * allowed to have any kind of recursion.
      *
      * @param paths is a strings representing paths to files
-     * @return the list of files which were not deleted successfully
+     * @return the list of files
      * @throws java.lang.IllegalAccessException   if there is no read access to any file
      * @throws java.nio.file.NoSuchFileException  if any file doesn't exist
+     * @throws java.io.IOException                if a directory cannot be read
      * @throws java.lang.IllegalArgumentException is any file is a nested directory
      */
+    public static List<File> getAllFiles(String[] paths) throws IllegalAccessException, IOException {
+        return getAllFiles(paths, false);
+    }
 
-    public static List<File> getAllFiles(String[] paths) throws IllegalAccessException,
-            NoSuchFileException, IllegalArgumentException {
+    /**
+     * Parse all file names from {@code paths} list. The entries of a directory are streamed
+     * one by one, so a directory of millions of files is never listed into an array at once.
+     *
+     * @param paths     is a strings representing paths to files
+     * @param recursive if {@code true}, the files of the nested directories are taken too,
+     *                  otherwise a nested directory is an error
+     * @return the list of files
+     * @throws java.lang.IllegalAccessException   if there is no read access to any file
+     * @throws java.nio.file.NoSuchFileException  if any file doesn't exist
+     * @throws java.io.IOException                if a directory cannot be read
+     * @throws java.lang.IllegalArgumentException if {@code recursive} is {@code false} and any
+     *                                            file is a nested directory
+     */
+    public static List<File> getAllFiles(String[] paths, boolean recursive) throws IllegalAccessException,
+            IOException {
         ArrayList<File> allFiles = new ArrayList<>();
 
         for (String s : paths) {
@@ -42,19 +69,47 @@ public class FilesHandler {
                 continue;
             }
 
-            // file is a directory
-            File[] children = file.listFiles();
-            if (children == null) continue; // Failed to read the directory, skip
-
-            for (File child : children) {
-                if (child.isDirectory())
-                    throw new IllegalArgumentException("Directory " + s + " contains directories");
-                allFiles.add(child);
-            }
+            // file is a directory. The walk follows links and fails on a loop of them
+            Files.walkFileTree(file.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                    recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path child, BasicFileAttributes attrs) {
+                            // The directories beyond the depth of the walk are visited as files
+                            if (attrs.isDirectory())
+                                throw new IllegalArgumentException("Directory " + s + " contains directories");
+                            allFiles.add(child.toFile());
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
         }
         return allFiles;
     }
 
+    /**
+     * Split {@code files} into ranges of at most {@code splitSize} bytes. The ranges
+     * are not aligned to lines, {@link LineReader} takes care of it. Each file produces
+     * at least one split, even an empty one.
+     *
+     * @param files     is a list of files
+     * @param splitSize is the maximum size of each split in bytes
+     * @return the list of splits in the order of {@code files}
+     * @throws IllegalArgumentException if {@code splitSize} is not positive
+     */
+    public static List<InputSplit> splitFiles(List<File> files, long splitSize) {
+        if (splitSize < 1) throw new IllegalArgumentException("splitSize should be positive.");
+        ArrayList<InputSplit> splits = new ArrayList<>();
+        for (File file : files) {
+            long length = file.length();
+            long start = 0;
+            do {
+                long end = Math.min(start + splitSize, length);
+                splits.add(new InputSplit(file, start, end));
+                start = end;
+            } while (start < length);
+        }
+        return splits;
+    }
+
     /**
      * Construct {@code BufferedReader} for each file in the list of {@code files}.
      *
@@ -62,19 +117,241 @@ public class FilesHandler {
      * @return list of BufferedReaders for the given files
      */
     public static BufferedReader[] getBufferedReaders(List<File> files) {
+        return getBufferedReaders(files, MemoryEstimator.MERGE_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct {@code BufferedReader} with a buffer of {@code bufferSize} chars for each file
+     * in the list of {@code files}.
+     *
+     * @param files      is a list of files
+     * @param bufferSize is the size of the buffer of each reader in chars
+     * @return list of BufferedReaders for the given files
+     */
+    public static BufferedReader[] getBufferedReaders(List<File> files, int bufferSize) {
+        return getBufferedReaders(files, bufferSize, TempCodec.NONE);
+    }
+
+    /**
+     * Construct {@code BufferedReader} with a buffer of {@code bufferSize} chars for each file
+     * in the list of {@code files}. The files are decompressed by {@code codec}.
+     *
+     * @param files      is a list of files
+     * @param bufferSize is the size of the buffer of each reader in chars
+     * @param codec      is the codec the files were written with
+     * @return list of BufferedReaders for the given files or {@code null} if any file cannot be opened
+     */
+    public static BufferedReader[] getBufferedReaders(List<File> files, int bufferSize, TempCodec codec) {
+        return getBufferedReaders(files, bufferSize, codec, ReadAhead.NONE);
+    }
+
+    /**
+     * Construct {@code BufferedReader} with a buffer of {@code bufferSize} chars for each file
+     * in the list of {@code files}. The files are read ahead by {@code readAhead} and decompressed by
+     * {@code codec}.
+     *
+     * @param files      is a list of files
+     * @param bufferSize is the size of the buffer of each reader in chars
+     * @param codec      is the codec the files were written with
+     * @param readAhead  loads the blocks of the files ahead of time
+     * @return list of BufferedReaders for the given files or {@code null} if any file cannot be opened
+     */
+    public static BufferedReader[] getBufferedReaders(List<File> files, int bufferSize, TempCodec codec,
+                                                      ReadAhead readAhead) {
         if (files == null) return null;
         BufferedReader[] readers = new BufferedReader[files.size()];
         for (int i = 0; i < files.size(); ++i) {
             try {
-                readers[i] = new BufferedReader(new FileReader(files.get(i)));
-            } catch (FileNotFoundException e) {
+                readers[i] = openReader(files.get(i), bufferSize, codec, readAhead);
+            } catch (IOException e) {
                 System.err.println(e.getMessage());
+                closeReaders(Arrays.copyOf(readers, i));
                 return null;
             }
         }
         return readers;
     }
 
+    /**
+     * Open {@code file} written with {@code codec} for reading.
+     *
+     * @param file       is a file to read
+     * @param bufferSize is the size of the buffer in chars
+     * @param codec      is the codec the file was written with
+     * @return the reader of the decompressed lines
+     */
+    public static BufferedReader openReader(File file, int bufferSize, TempCodec codec) throws IOException {
+        return openReader(file, bufferSize, codec, ReadAhead.NONE);
+    }
+
+    /**
+     * Open {@code file} written with {@code codec} for reading. The compressed blocks of the file are read
+     * ahead by {@code readAhead}.
+     *
+     * @param file       is a file to read
+     * @param bufferSize is the size of the buffer in chars
+     * @param codec      is the codec the file was written with
+     * @param readAhead  loads the blocks of the file ahead of time
+     * @return the reader of the decompressed lines
+     */
+    public static BufferedReader openReader(File file, int bufferSize, TempCodec codec, ReadAhead readAhead)
+            throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return new BufferedReader(new InputStreamReader(codec.wrap(readAhead.wrap(in))), bufferSize);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the bytes of {@code split} for reading. The range should start at the beginning of a line
+     * and end at the end of a line, unless it is the whole file written with {@code codec}.
+     *
+     * @param split      is a range of a file to read
+     * @param bufferSize is the size of the buffer in chars
+     * @param codec      is the codec the file was written with
+     * @param readAhead  loads the blocks of the range ahead of time
+     * @return the reader of the decompressed lines of the range
+     */
+    public static BufferedReader openReader(InputSplit split, int bufferSize, TempCodec codec, ReadAhead readAhead)
+            throws IOException {
+        return new BufferedReader(new InputStreamReader(openInputStream(split, codec, readAhead)), bufferSize);
+    }
+
+    /**
+     * Open {@code file} for writing. Everything written is compressed by {@code codec}.
+     *
+     * @param file  is a file to write
+     * @param codec is the codec to compress the file with
+     * @return the writer of the file
+     */
+    public static BufferedWriter openWriter(File file, TempCodec codec) throws IOException {
+        return openWriter(file, codec, WriteBehind.NONE);
+    }
+
+    /**
+     * Open {@code file} for writing. Everything written is compressed by {@code codec} and is written
+     * to the file by the thread of {@code writeBehind}, so compression and disk writes don't stop the
+     * thread which produces the lines.
+     *
+     * @param file        is a file to write
+     * @param codec       is the codec to compress the file with
+     * @param writeBehind writes the file in the background
+     * @return the writer of the file
+     */
+    public static BufferedWriter openWriter(File file, TempCodec codec, WriteBehind writeBehind) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(openUnbufferedStream(file, codec, writeBehind)));
+    }
+
+    /**
+     * Open {@code file} written with {@code codec} for reading bytes. The stream is not buffered.
+     *
+     * @param file  is a file to read
+     * @param codec is the codec the file was written with
+     * @return the stream of the decompressed bytes
+     */
+    public static InputStream openInputStream(File file, TempCodec codec) throws IOException {
+        return openInputStream(file, codec, ReadAhead.NONE);
+    }
+
+    /**
+     * Open {@code file} written with {@code codec} for reading bytes. The compressed blocks of the file
+     * are read ahead by {@code readAhead}.
+     *
+     * @param file      is a file to read
+     * @param codec     is the codec the file was written with
+     * @param readAhead loads the blocks of the file ahead of time
+     * @return the stream of the decompressed bytes
+     */
+    public static InputStream openInputStream(File file, TempCodec codec, ReadAhead readAhead) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return codec.wrap(readAhead.wrap(in));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open the bytes of {@code split} for reading, see {@link #openReader(InputSplit, int, TempCodec, ReadAhead)}.
+     *
+     * @param split     is a range of a file to read
+     * @param codec     is the codec the file was written with
+     * @param readAhead loads the blocks of the range ahead of time
+     * @return the stream of the decompressed bytes of the range
+     */
+    public static InputStream openInputStream(InputSplit split, TempCodec codec, ReadAhead readAhead)
+            throws IOException {
+        FileInputStream in = new FileInputStream(split.getFile());
+        try {
+            in.getChannel().position(split.getStart());
+            return codec.wrap(readAhead.wrap(new RangeInputStream(in, split.length())));
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open {@code file} for writing bytes. Everything written is compressed by {@code codec}.
+     *
+     * @param file  is a file to write
+     * @param codec is the codec to compress the file with
+     * @return the buffered stream of the file
+     */
+    public static OutputStream openOutputStream(File file, TempCodec codec) throws IOException {
+        return openOutputStream(file, codec, WriteBehind.NONE);
+    }
+
+    /**
+     * Open {@code file} for writing bytes. Everything written is compressed by {@code codec} and is written
+     * to the file by the thread of {@code writeBehind}.
+     *
+     * @param file        is a file to write
+     * @param codec       is the codec to compress the file with
+     * @param writeBehind writes the file in the background
+     * @return the buffered stream of the file
+     */
+    public static OutputStream openOutputStream(File file, TempCodec codec, WriteBehind writeBehind)
+            throws IOException {
+        return new BufferedOutputStream(openUnbufferedStream(file, codec, writeBehind));
+    }
+
+    private static OutputStream openUnbufferedStream(File file, TempCodec codec, WriteBehind writeBehind)
+            throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            return writeBehind.wrap(codec.wrap(out));
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open {@code file} for writing bytes starting at {@code position}. The file is neither truncated nor
+     * compressed, so several streams may write different regions of the same file at once. The stream is
+     * not buffered.
+     *
+     * @param file     is a file to write
+     * @param position is the offset of the first written byte
+     * @return the stream of the region of the file
+     */
+    public static OutputStream openOutputStream(File file, long position) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            // Closing the stream closes the channel and the file
+            return Channels.newOutputStream(raf.getChannel());
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
     /**
      * Create a temporary file with a prefix {@code prefix} in the directory
      * {@code dir}.
@@ -114,19 +391,18 @@ public class FilesHandler {
     /**
      * Merge the sorted files.
      * <p>
-     * Indeed Min Priority Queue structure is used for this purpose.
-     * {@code} queue is operated in the following way. During construction it should
-     * be defined how many indexes it should contain. In this case, each file is an index.
+     * A {@link MergeQueue} structure is used for this purpose. It should be defined during
+     * construction how many indexes it should contain. In this case, each file is an index.
      * Thus, one line is read from each file and is inserted it into the queue using
      * {@code queue.insert(i, s)}. This is the initial state of the queue.
      * <p>
      * To retrieve the next item of result, the method {@code queue.minKey()} is called.
-     * It doesn't delete the minimum value from the queue. To delete the minimum item,
-     * {@code queue.delMin()} should be used. It returns the index of the minimum value,
-     * i.e. at this point it is known which fie contained the minimum value. To continue,
-     * the next line from this file should be put in the queue with the corresponding index.
+     * The method {@code queue.minIndex()} returns the index of the minimum value, i.e. at this
+     * point it is known which file contained the minimum value. To continue, the next line from
+     * this file replaces the minimum value using {@code queue.replaceMin(s)}. If the file has no
+     * lines left, {@code null} is passed and the file leaves the queue.
      * <p>
-     * The process finishes when the queue is empty.
+     * The process finishes when the queue is empty. By default, {@link LoserTree} is used as a queue.
      *
      * @param files      is an array of files to process
      * @param resultFile is a File where the result should be stored
@@ -134,46 +410,313 @@ public class FilesHandler {
      */
 
     public static Boolean mergeSortedFiles(List<File> files, File resultFile) {
+        return mergeSortedFiles(files, resultFile, new MergeSettings());
+    }
+
+    /**
+     * Merge the sorted files the same way as {@link #mergeSortedFiles(List, File)}, but the way the files are
+     * read, compared and written is given by {@code settings}: the read buffer of each file, the merge engine,
+     * the codecs of the files and of the result, the read-ahead and the write-behind, the keys of the lines,
+     * the treatment of equal lines and the limit of the written lines.
+     *
+     * @param files      is an array of files to process
+     * @param resultFile is a File where the result should be stored
+     * @param settings   are the settings of the merge, the buffer size is in chars
+     * @return {@code true} if the merge stage is successful. {@code false} otherwise
+     */
+
+    public static Boolean mergeSortedFiles(List<File> files, File resultFile, MergeSettings settings) {
+        if (files == null) return false;
+        OutputStream result;
+        try {
+            result = openUnbufferedStream(resultFile, settings.getResultCodec(), settings.getWriteBehind());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return mergeSortedSplits(toSplits(files), result, settings);
+    }
+
+    /**
+     * Merge the sorted ranges of files the same way as {@link #mergeSortedFiles(List, File, MergeSettings)}.
+     * Each range starts at the beginning of a line and ends at the end of a line. This way a group of sorted
+     * files may be cut into key ranges which are merged independently.
+     *
+     * @param splits   are the ranges of the files to process
+     * @param result   receives the merged lines, it is closed at the end
+     * @param settings are the settings of the merge, the result codec and the write-behind are not used
+     * @return {@code true} if the merge is successful. {@code false} otherwise
+     */
+
+    public static Boolean mergeSortedSplits(List<InputSplit> splits, OutputStream result, MergeSettings settings) {
+        BufferedReader[] readers = new BufferedReader[splits.size()];
+        for (int i = 0; i < splits.size(); ++i) {
+            try {
+                readers[i] = openReader(splits.get(i), settings.getBufferSize(), settings.getCodec(),
+                        settings.getReadAhead());
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                closeReaders(Arrays.copyOf(readers, i));
+                closeReaders(new Closeable[]{result});
+                return false;
+            }
+        }
+        SortKeys keys = settings.getKeys();
+        Duplicates duplicates = settings.getDuplicates();
+        MergeEngine engine = settings.getEngine();
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(result));
+        try {
+            if (keys.isEmpty() && !duplicates.isAggregated()) {
+                merge(readers, engine, line -> line, duplicates.filter(out).limit(settings.getLimit()));
+            } else {
+                merge(readers, engine, duplicates.reader(keys),
+                        duplicates.filter(keys, out).limit(settings.getLimit()));
+            }
+            // An error of the last write comes from close()
+            out.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            try {
+                out.close();
+            } catch (IOException io) {
+                System.err.println(io.getMessage());
+            }
+            closeReaders(readers);
+        }
+
+        return true;
+    }
+
+    /**
+     * Merge the sorted files the same way as {@link #mergeSortedFiles(List, File, MergeSettings)}, but the
+     * lines are never decoded: they are compared as unsigned bytes (see {@link ByteLine}) and are copied to
+     * {@code resultFile} as they are, each line is followed by {@code '\n'}. The keys of the settings are not
+     * used.
+     *
+     * @param files      is an array of files to process
+     * @param resultFile is a File where the result should be stored
+     * @param settings   are the settings of the merge, the buffer size is in bytes
+     * @return {@code true} if the merge stage is successful. {@code false} otherwise
+     * @throws IllegalArgumentException if the lines are aggregated
+     */
+
+    public static Boolean mergeSortedByteFiles(List<File> files, File resultFile, MergeSettings settings) {
+        if (settings.getDuplicates().isAggregated())
+            throw new IllegalArgumentException("Lines of raw bytes cannot be aggregated.");
         if (files == null) return false;
+        OutputStream result;
+        try {
+            result = openUnbufferedStream(resultFile, settings.getResultCodec(), settings.getWriteBehind());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        }
+        return mergeSortedByteSplits(toSplits(files), result, settings);
+    }
 
-        IndexMinPQ<String> queue = new IndexMinPQ<>(files.size());
-        BufferedReader[] readers = FilesHandler.getBufferedReaders(files);
-        if (readers == null) return false;
-        BufferedWriter out = null;
+    /**
+     * Merge the sorted ranges of files the same way as {@link #mergeSortedByteFiles(List, File, MergeSettings)},
+     * see {@link #mergeSortedSplits(List, OutputStream, MergeSettings)}.
+     *
+     * @param splits   are the ranges of the files to process
+     * @param result   receives the merged lines, it is closed at the end
+     * @param settings are the settings of the merge, the result codec and the write-behind are not used
+     * @return {@code true} if the merge is successful. {@code false} otherwise
+     * @throws IllegalArgumentException if the lines are aggregated
+     */
+
+    public static Boolean mergeSortedByteSplits(List<InputSplit> splits, OutputStream result,
+                                                MergeSettings settings) {
+        if (settings.getDuplicates().isAggregated())
+            throw new IllegalArgumentException("Lines of raw bytes cannot be aggregated.");
+        MergeQueue<ByteLine> queue = settings.getEngine().create(splits.size());
+        ByteLineReader[] readers = new ByteLineReader[splits.size()];
+        for (int i = 0; i < splits.size(); ++i) {
+            try {
+                readers[i] = new ByteLineReader(openInputStream(splits.get(i), settings.getCodec(),
+                        settings.getReadAhead()), settings.getBufferSize());
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                closeReaders(Arrays.copyOf(readers, i));
+                closeReaders(new Closeable[]{result});
+                return false;
+            }
+        }
+        // A line points into the buffer of its reader, so each file has its own line which is reused
+        ByteLine[] lines = new ByteLine[splits.size()];
+        OutputStream out = new BufferedOutputStream(result);
+        DuplicateFilter<ByteLine> filter = byteFilter(out, settings.getDuplicates()).limit(settings.getLimit());
         try {
             // Queue initialization
-            for (int i = 0; i < files.size(); ++i) {
-                String s;
-                if ((s = readers[i].readLine()) != null)
-                    queue.insert(i, s);
+            for (int i = 0; i < splits.size(); ++i) {
+                lines[i] = new ByteLine();
+                if (readers[i].readLine(lines[i]))
+                    queue.insert(i, lines[i]);
             }
 
-            out = new BufferedWriter(new FileWriter(resultFile));
+            while (!queue.isEmpty() && !filter.isFull()) {
+                filter.add(queue.minKey());
 
-            while (!queue.isEmpty()) {
-                out.write(queue.minKey());
-                out.newLine();
-
-                int i = queue.delMin();
-                String s;
-                if ((s = readers[i].readLine()) != null) {
-                    queue.insert(i, s);
-                }
+                int i = queue.minIndex();
+                queue.replaceMin(readers[i].readLine(lines[i]) ? lines[i] : null);
             }
+            filter.flush();
+            out.close();
         } catch (IOException e) {
             System.err.println(e.getMessage());
             return false;
         } finally {
             try {
-                if (out != null) out.close();
+                out.close();
             } catch (IOException io) {
                 System.err.println(io.getMessage());
             }
+            closeReaders(readers);
         }
 
         return true;
     }
 
+    /**
+     * Tells if the lines of {@code file} are already sorted by {@code keys}. The file is read until the first
+     * line which is less than the previous one, so an unsorted file is usually rejected by its first lines.
+     *
+     * @param file       is a plain file
+     * @param bufferSize is the size of the read buffer in chars
+     * @param keys       is the order of the lines
+     * @return {@code true} if every line is not less than the previous one
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSorted(File file, int bufferSize, SortKeys keys) throws IOException {
+        try (BufferedReader reader = openReader(file, bufferSize, TempCodec.NONE)) {
+            String line = reader.readLine();
+            if (keys.isEmpty()) {
+                String previous = line;
+                while (previous != null && (line = reader.readLine()) != null) {
+                    if (line.compareTo(previous) < 0) return false;
+                    previous = line;
+                }
+            } else {
+                KeyedLine previous = line == null ? null : keys.wrap(line);
+                while (previous != null && (line = reader.readLine()) != null) {
+                    KeyedLine next = keys.wrap(line);
+                    if (next.compareTo(previous) < 0) return false;
+                    previous = next;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The same as {@link #isSorted(File, int, SortKeys)}, but the lines are compared as unsigned bytes, see
+     * {@link ByteLine}.
+     *
+     * @param file       is a plain file
+     * @param bufferSize is the size of the read buffer in bytes
+     * @return {@code true} if every line is not less than the previous one
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSortedBytes(File file, int bufferSize) throws IOException {
+        try (ByteLineReader reader = new ByteLineReader(openInputStream(file, TempCodec.NONE), bufferSize)) {
+            // A line points into the buffer of the reader, so the previous one is a copy
+            ByteLine line = new ByteLine();
+            ByteLine previous = null;
+            while (reader.readLine(line)) {
+                if (previous != null && line.compareTo(previous) < 0) return false;
+                previous = line.copy();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Counts the lines of {@code file}, but stops as soon as there are {@code limit} of them.
+     *
+     * @param file       is a plain file
+     * @param bufferSize is the size of the read buffer in bytes
+     * @param limit      is the amount of lines which is enough
+     * @return the amount of lines, but not more than {@code limit}
+     * @throws IOException if the file cannot be read
+     */
+    public static long countLines(File file, int bufferSize, long limit) throws IOException {
+        try (ByteLineReader reader = new ByteLineReader(openInputStream(file, TempCodec.NONE), bufferSize)) {
+            ByteLine line = new ByteLine();
+            long count = 0;
+            while (count < limit && reader.readLine(line)) {
+                ++count;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Returns a filter which writes raw lines to {@code out}, each line is followed by {@code '\n'}. A line
+     * which is held back is copied, because the lines of a reader share its buffer.
+     *
+     * @param out        is a stream
+     * @param duplicates the way equal lines are treated, the lines are never aggregated
+     * @return the filter
+     */
+    public static DuplicateFilter<ByteLine> byteFilter(OutputStream out, Duplicates duplicates) {
+        return new DuplicateFilter<>(duplicates.isUnique() ? (a, b) -> a.compareTo(b) == 0 : null, ByteLine::copy,
+                null, null, (line, values) -> {
+            out.write(line.getBytes(), line.getOffset(), line.getLength());
+            out.write('\n');
+        });
+    }
+
+    /**
+     * Merges the lines of {@code readers} into {@code out}, the queue keeps the lines as {@code T}.
+     *
+     * @param wrap converts a line which is read, {@code null} stays {@code null}
+     * @param out  receives the merged lines, it is flushed at the end. The merge stops once it is full
+     */
+    private static <T extends Comparable<T>> void merge(BufferedReader[] readers, MergeEngine engine,
+                                                        Function<String, T> wrap, DuplicateFilter<T> out)
+            throws IOException {
+        MergeQueue<T> queue = engine.create(readers.length);
+        // Queue initialization
+        for (int i = 0; i < readers.length; ++i) {
+            T s;
+            if ((s = wrap.apply(readers[i].readLine())) != null)
+                queue.insert(i, s);
+        }
+
+        while (!queue.isEmpty() && !out.isFull()) {
+            out.add(queue.minKey());
+
+            queue.replaceMin(wrap.apply(readers[queue.minIndex()].readLine()));
+        }
+        out.flush();
+    }
+
+    private static List<InputSplit> toSplits(List<File> files) {
+        List<InputSplit> splits = new ArrayList<>();
+        for (File f : files) {
+            splits.add(new InputSplit(f));
+        }
+        return splits;
+    }
+
+    /**
+     * Close all the {@code readers}. The errors are only reported, nothing is lost if
+     * a reader is not closed properly.
+     *
+     * @param readers is an array of readers
+     */
+    private static void closeReaders(Closeable[] readers) {
+        for (Closeable reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException io) {
+                System.err.println(io.getMessage());
+            }
+        }
+    }
+
 
     /**
      * Delete files from {@code directory} whose names have {@code prefix} prefix.
@@ -225,4 +768,49 @@ public class FilesHandler {
         if (!f.exists())
             throw new NoSuchFileException(path + " doesn't exist");
     }
+
+    /**
+     * A stream which reads at most {@code remaining} bytes of a file, the file is closed along with it.
+     */
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
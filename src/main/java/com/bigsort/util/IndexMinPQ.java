@@ -31,7 +31,7 @@ import java.util.NoSuchElementException;
  * @author Robert Sedgewick
  * @author Kevin Wayne
  */
-public class IndexMinPQ<Key extends Comparable<Key>> {
+public class IndexMinPQ<Key extends Comparable<Key>> implements MergeQueue<Key> {
     private int maxN;        // maximum number of elements on PQ
     private int n;           // number of elements on PQ
     private int[] pq;        // binary heap using 1-based indexing
@@ -119,6 +119,34 @@ public class IndexMinPQ<Key extends Comparable<Key>> {
         return keys[pq[1]];
     }
 
+    /**
+     * Returns an index associated with a minimum key.
+     *
+     * @return an index associated with a minimum key
+     * @throws NoSuchElementException if this priority queue is empty
+     */
+    public int minIndex() {
+        if (n == 0) throw new NoSuchElementException("Priority queue underflow");
+        return pq[1];
+    }
+
+    /**
+     * Replaces a minimum key by {@code key} keeping the same index. If {@code key}
+     * is {@code null}, the minimum key is removed.
+     *
+     * @param key the new key of the index of a minimum key
+     * @throws NoSuchElementException if this priority queue is empty
+     */
+    public void replaceMin(Key key) {
+        if (n == 0) throw new NoSuchElementException("Priority queue underflow");
+        if (key == null) {
+            delMin();
+            return;
+        }
+        keys[pq[1]] = key;
+        sink(1);
+    }
+
     /**
      * Removes a minimum key and returns its associated index.
      *
@@ -0,0 +1,66 @@
+package com.bigsort.util;
+
+import java.io.File;
+
+/**
+ * The {@code InputSplit} class represents a range of bytes of an input file which is
+ * processed by one worker. The range is {@code [start, end)}. The boundaries do not have
+ * to be aligned to lines: a split owns every line which starts inside of its range, so
+ * a line crossing {@code end} belongs to this split and a line crossing {@code start}
+ * belongs to the previous one.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class InputSplit {
+
+    private File file;
+    private long start;
+    private long end;
+
+    /**
+     * Initializes a split which covers the whole {@code file}.
+     *
+     * @param file the file to read
+     */
+    public InputSplit(File file) {
+        this(file, 0, file.length());
+    }
+
+    /**
+     * Initializes a split which covers the bytes {@code [start, end)} of the {@code file}.
+     *
+     * @param file  the file to read
+     * @param start the first byte of the range, inclusively
+     * @param end   the last byte of the range, exclusively
+     * @throws IllegalArgumentException if the range is not valid
+     */
+    public InputSplit(File file, long start, long end) {
+        if (start < 0 || end < start)
+            throw new IllegalArgumentException("Wrong range [" + start + ", " + end + ") of " + file);
+        this.file = file;
+        this.start = start;
+        this.end = end;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return file + " [" + start + ", " + end + ")";
+    }
+}
@@ -0,0 +1,73 @@
+package com.bigsort.util;
+
+/**
+ * The {@code KeyedLine} class is a line together with its normalized key, see {@link SortKeys}. The key is
+ * extracted once, when the line is read, so comparisons never parse the line again. Lines are compared by
+ * their keys, lines with equal keys are compared as a whole, the same way {@code sort -k} does it.
+ * <p>
+ * A line of a merge of aggregated files also has the aggregates of its group, see {@link Aggregates}. The
+ * aggregates take no part in the comparisons.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class KeyedLine implements Comparable<KeyedLine> {
+
+    /**
+     * The header of the object plus a reference to the object, the key and the line are counted separately
+     */
+    public static final int OVERHEAD = 24;
+
+    private final String key;
+    private final String line;
+    private final double[] values;
+
+    public KeyedLine(String key, String line) {
+        this(key, line, null);
+    }
+
+    public KeyedLine(String key, String line, double[] values) {
+        this.key = key;
+        this.line = line;
+        this.values = values;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * @return the aggregates of the group of the line, {@code null} if the line is not aggregated
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    @Override
+    public int compareTo(KeyedLine that) {
+        int cmp = key.compareTo(that.key);
+        return cmp != 0 ? cmp : line.compareTo(that.line);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof KeyedLine)) return false;
+        KeyedLine that = (KeyedLine) o;
+        return key.equals(that.key) && line.equals(that.line);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * key.hashCode() + line.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return line;
+    }
+}
@@ -0,0 +1,489 @@
+package com.bigsort.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+
+/**
+ * The {@code LineArena} class keeps a batch of lines packed into a single array of bytes.
+ * <p>
+ * The bytes of the line {@code i} are {@code bytes[starts[i]..starts[i + 1])}. A String costs about
+ * {@link MemoryEstimator#STRING_OVERHEAD} bytes besides its chars, a line of the arena costs
+ * {@link #BYTES_PER_LINE} bytes: the start of the line, its place in the sorted order and its place in the
+ * auxiliary array of the sort. There are only three big arrays per batch no matter how many lines it has,
+ * so the garbage collector has almost nothing to do.
+ * <p>
+ * A text arena keeps each char as two bytes, the high one first (UTF-16BE), so the unsigned order of
+ * the bytes is the order of {@link String#compareTo(String)}. A binary arena keeps the bytes of the lines
+ * as they are in the input, they are never decoded.
+ * <p>
+ * Sorting permutes only the array {@code order} of line numbers, the bytes are never moved. The lines are
+ * sorted by MSD radix sort over their unsigned bytes (see {@link MsdRadixSort}). A batch which is already
+ * sorted is detected in one pass and is not sorted at all. The lines are written straight from the array.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class LineArena {
+
+    /**
+     * How many bytes a line takes in addition to its own bytes
+     */
+    public static final int BYTES_PER_LINE = 12;
+
+    /**
+     * The arena is full once it holds that many bytes, so that the next line still fits into an array
+     */
+    public static final int MAX_BYTES = 1 << 30;
+
+    private static final int INITIAL_BYTES = 32 * 1024;
+    private static final int INITIAL_LINES = 1024;
+    private static final int R = 256;
+    private static final int CUTOFF = 32;
+
+    private boolean binary;
+    private byte[] bytes;
+    private int size;          // amount of bytes in use
+    private int[] starts;      // starts[i] = first byte of the line i, starts[count] = size
+    private int[] order;       // order[k] = the line which is k-th in the sorted order
+    private int[] aux;
+    private int count;
+    private int maxSize;       // the bytes array does not grow beyond this unless a single line needs it
+    private char[] chars;      // a buffer to decode lines to and to encode lines from, text arenas only
+
+    /**
+     * Initializes an empty text arena which is not supposed to take more than {@code maxBytes} bytes.
+     *
+     * @param maxBytes the maximum amount of bytes of the arena, it limits the growth of its arrays
+     * @throws IllegalArgumentException if {@code maxBytes} is not positive
+     */
+    public LineArena(long maxBytes) {
+        this(maxBytes, false);
+    }
+
+    /**
+     * Initializes an empty arena which is not supposed to take more than {@code maxBytes} bytes.
+     *
+     * @param maxBytes the maximum amount of bytes of the arena, it limits the growth of its arrays
+     * @param binary   whether the lines are kept as raw bytes instead of chars
+     * @throws IllegalArgumentException if {@code maxBytes} is not positive
+     */
+    public LineArena(long maxBytes, boolean binary) {
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes should be positive.");
+        this.binary = binary;
+        maxSize = (int) Math.min(MAX_BYTES, maxBytes);
+        bytes = new byte[Math.min(INITIAL_BYTES, maxSize)];
+        starts = new int[INITIAL_LINES + 1];
+        order = new int[INITIAL_LINES];
+        if (!binary) chars = new char[128];
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return how many bytes the lines of this arena take
+     */
+    public long bytes() {
+        return size + (long) BYTES_PER_LINE * count;
+    }
+
+    /**
+     * @return {@code true} if there is no room for more lines
+     */
+    public boolean isFull() {
+        return size >= MAX_BYTES;
+    }
+
+    /**
+     * Adds a copy of {@code line} to a text arena.
+     *
+     * @param line is a line
+     * @throws IllegalStateException if the arena is binary
+     */
+    public void add(String line) {
+        if (binary) throw new IllegalStateException("Strings cannot be added to a binary arena");
+        ensureChars(line.length());
+        line.getChars(0, line.length(), chars, 0);
+        addChars(line.length());
+    }
+
+    /**
+     * Decodes {@code length} bytes of {@code bytes} starting at {@code offset} by {@code decoder}
+     * and adds them as a line to a text arena.
+     *
+     * @param decoder is a decoder which replaces malformed input, it is reset before decoding
+     * @param input   is an array of bytes
+     * @param offset  is the first byte of the line
+     * @param length  is the amount of bytes of the line
+     * @throws IllegalStateException if the arena is binary
+     */
+    public void add(CharsetDecoder decoder, byte[] input, int offset, int length) {
+        add(decoder, ByteBuffer.wrap(input, offset, length));
+    }
+
+    /**
+     * Decodes the remaining bytes of {@code input} by {@code decoder} and adds them as a line to a text arena.
+     * The bytes are consumed.
+     *
+     * @param decoder is a decoder which replaces malformed input, it is reset before decoding
+     * @param input   is a buffer of bytes, e.g. a mapped file
+     * @throws IllegalStateException if the arena is binary
+     */
+    public void add(CharsetDecoder decoder, ByteBuffer input) {
+        if (binary) throw new IllegalStateException("Decoded lines cannot be added to a binary arena");
+        long maxChars = (long) Math.ceil(input.remaining() * (double) decoder.maxCharsPerByte());
+        ensureChars((int) Math.min(MAX_BYTES, maxChars));
+        CharBuffer out = CharBuffer.wrap(chars);
+        decoder.reset();
+        decoder.decode(input, out, true);
+        decoder.flush(out);
+        addChars(out.position());
+    }
+
+    /**
+     * Adds a copy of {@code length} bytes of {@code input} starting at {@code offset} as a line
+     * to a binary arena.
+     *
+     * @param input  is an array of bytes
+     * @param offset is the first byte of the line
+     * @param length is the amount of bytes of the line
+     * @throws IllegalStateException if the arena is not binary
+     */
+    public void add(byte[] input, int offset, int length) {
+        if (!binary) throw new IllegalStateException("Raw bytes cannot be added to a text arena");
+        ensureBytes(length);
+        System.arraycopy(input, offset, bytes, size, length);
+        size += length;
+        addLine();
+    }
+
+    /**
+     * Adds a copy of the remaining bytes of {@code input} as a line to a binary arena. The bytes are consumed.
+     *
+     * @param input is a buffer of bytes, e.g. a mapped file
+     * @throws IllegalStateException if the arena is not binary
+     */
+    public void add(ByteBuffer input) {
+        if (!binary) throw new IllegalStateException("Raw bytes cannot be added to a text arena");
+        int length = input.remaining();
+        ensureBytes(length);
+        input.get(bytes, size, length);
+        size += length;
+        addLine();
+    }
+
+    /**
+     * Returns the line which is {@code k}-th in the current order of a text arena. Lines are in the order
+     * of addition until the arena is sorted.
+     *
+     * @param k is a position in the order
+     * @return a copy of the line
+     * @throws IllegalStateException if the arena is binary
+     */
+    public String get(int k) {
+        if (binary) throw new IllegalStateException("Lines of a binary arena are not decoded");
+        int i = line(k);
+        int length = decodeChars(i);
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Points {@code line} to the bytes of the line which is {@code k}-th in the current order. The bytes
+     * of a text arena are the chars of the line in UTF-16BE.
+     *
+     * @param k    is a position in the order
+     * @param line is a line to reuse
+     * @return {@code line}
+     */
+    public ByteLine get(int k, ByteLine line) {
+        int i = line(k);
+        return line.set(bytes, starts[i], starts[i + 1] - starts[i]);
+    }
+
+    /**
+     * Sorts the lines.
+     */
+    public void sort() {
+        if (isSorted()) return;
+        if (aux == null || aux.length < count) aux = new int[order.length];
+        sort(0, count - 1, 0);
+    }
+
+    /**
+     * Writes the lines of a text arena in the current order to {@code out}, each line is followed by
+     * a line separator.
+     *
+     * @param out is a writer
+     * @throws IOException if {@code out} fails
+     * @throws IllegalStateException if the arena is binary
+     */
+    public void write(BufferedWriter out) throws IOException {
+        write(out, false);
+    }
+
+    /**
+     * The same as {@link #write(BufferedWriter)}, but if {@code unique} is set, a line which is equal to
+     * the previous one is not written, see {@link Duplicates#DROP}.
+     *
+     * @param out    is a writer
+     * @param unique tells if only the first of equal lines is written
+     * @throws IOException if {@code out} fails
+     * @throws IllegalStateException if the arena is binary
+     */
+    public void write(BufferedWriter out, boolean unique) throws IOException {
+        write(out, unique, Long.MAX_VALUE);
+    }
+
+    /**
+     * The same as {@link #write(BufferedWriter, boolean)}, but only the first {@code limit} lines are written.
+     *
+     * @param out    is a writer
+     * @param unique tells if only the first of equal lines is written
+     * @param limit  how many lines are written at most
+     * @throws IOException if {@code out} fails
+     * @throws IllegalStateException if the arena is binary
+     */
+    public void write(BufferedWriter out, boolean unique, long limit) throws IOException {
+        if (binary) throw new IllegalStateException("Lines of a binary arena are not decoded");
+        long written = 0;
+        for (int k = 0; k < count && written < limit; k++) {
+            if (unique && isDuplicate(k)) continue;
+            write(k, out);
+            ++written;
+        }
+    }
+
+    /**
+     * Writes the line which is {@code k}-th in the current order of a text arena to {@code out},
+     * the line is followed by a line separator.
+     *
+     * @param k   is a position in the order
+     * @param out is a writer
+     * @throws IOException if {@code out} fails
+     */
+    public void write(int k, BufferedWriter out) throws IOException {
+        int length = decodeChars(line(k));
+        out.write(chars, 0, length);
+        out.newLine();
+    }
+
+    /**
+     * Writes the lines of a binary arena in the current order to {@code out}, each line is followed by
+     * {@code '\n'}.
+     *
+     * @param out is a stream, it should be buffered
+     * @throws IOException if {@code out} fails
+     * @throws IllegalStateException if the arena is not binary
+     */
+    public void write(OutputStream out) throws IOException {
+        write(out, false);
+    }
+
+    /**
+     * The same as {@link #write(OutputStream)}, but if {@code unique} is set, a line which is equal to
+     * the previous one is not written, see {@link Duplicates#DROP}.
+     *
+     * @param out    is a stream, it should be buffered
+     * @param unique tells if only the first of equal lines is written
+     * @throws IOException if {@code out} fails
+     * @throws IllegalStateException if the arena is not binary
+     */
+    public void write(OutputStream out, boolean unique) throws IOException {
+        write(out, unique, Long.MAX_VALUE);
+    }
+
+    /**
+     * The same as {@link #write(OutputStream, boolean)}, but only the first {@code limit} lines are written.
+     *
+     * @param out    is a stream, it should be buffered
+     * @param unique tells if only the first of equal lines is written
+     * @param limit  how many lines are written at most
+     * @throws IOException if {@code out} fails
+     * @throws IllegalStateException if the arena is not binary
+     */
+    public void write(OutputStream out, boolean unique, long limit) throws IOException {
+        if (!binary) throw new IllegalStateException("Lines of a text arena are not encoded");
+        long written = 0;
+        for (int k = 0; k < count && written < limit; k++) {
+            if (unique && isDuplicate(k)) continue;
+            int i = order[k];
+            out.write(bytes, starts[i], starts[i + 1] - starts[i]);
+            out.write('\n');
+            ++written;
+        }
+    }
+
+    /**
+     * Removes all the lines, the arrays are kept for the next batch.
+     */
+    public void clear() {
+        size = 0;
+        count = 0;
+    }
+
+    /**
+     * @return {@code true} if the line which is {@code k}-th in the current order is equal to the previous one
+     */
+    private boolean isDuplicate(int k) {
+        return k > 0 && compare(order[k - 1], order[k], 0) == 0;
+    }
+
+    private int line(int k) {
+        if (k < 0 || k >= count) throw new IndexOutOfBoundsException();
+        return order[k];
+    }
+
+    private void ensureChars(int length) {
+        if (length > chars.length) chars = new char[Math.max(length, 2 * chars.length)];
+    }
+
+    /**
+     * Adds the first {@code length} chars of {@code chars} as a line.
+     */
+    private void addChars(int length) {
+        ensureBytes(2 * length);
+        for (int j = 0; j < length; j++) {
+            char c = chars[j];
+            bytes[size++] = (byte) (c >>> 8);
+            bytes[size++] = (byte) c;
+        }
+        addLine();
+    }
+
+    /**
+     * Decodes the line {@code i} of a text arena into {@code chars}.
+     *
+     * @return the length of the line in chars
+     */
+    private int decodeChars(int i) {
+        int start = starts[i];
+        int length = (starts[i + 1] - start) / 2;
+        ensureChars(length);
+        for (int j = 0; j < length; j++) {
+            chars[j] = (char) (((bytes[start + 2 * j] & 0xFF) << 8) | (bytes[start + 2 * j + 1] & 0xFF));
+        }
+        return length;
+    }
+
+    private void ensureBytes(int length) {
+        long needed = (long) size + length;
+        if (needed <= bytes.length) return;
+        if (needed > Integer.MAX_VALUE - 8) throw new IllegalStateException("The arena is full");
+        long capacity = Math.max(Math.min(2L * bytes.length, maxSize), needed);
+        bytes = Arrays.copyOf(bytes, (int) capacity);
+    }
+
+    private void addLine() {
+        if (count == order.length) {
+            order = Arrays.copyOf(order, 2 * order.length);
+            starts = Arrays.copyOf(starts, order.length + 1);
+        }
+        order[count] = count;
+        count++;
+        starts[count] = size;
+    }
+
+    private boolean isSorted() {
+        for (int k = 1; k < count; k++) {
+            if (compare(order[k - 1], order[k], 0) > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sorts {@code order[lo..hi]}, all the lines have the same first {@code d} bytes.
+     */
+    private void sort(int lo, int hi, int d) {
+        while (hi - lo >= CUTOFF) {
+            int[] counts = new int[R + 2];
+            for (int k = lo; k <= hi; k++)
+                counts[digit(order[k], d) + 2]++;
+
+            // The same bucket for everybody, nothing to move
+            int n = hi - lo + 1;
+            if (counts[1] == n) return;
+            boolean single = false;
+            for (int r = 2; r < R + 2 && !single; r++)
+                single = counts[r] == n;
+            if (single) {
+                // The lines may share more than one byte, they are skipped in one pass
+                d = Math.max(d + 1, commonPrefix(lo, hi, d));
+                continue;
+            }
+
+            for (int r = 0; r < R + 1; r++)
+                counts[r + 1] += counts[r];
+            for (int k = lo; k <= hi; k++)
+                aux[counts[digit(order[k], d) + 1]++] = order[k];
+            System.arraycopy(aux, 0, order, lo, n);
+
+            // Now the bucket of the byte r is order[lo + counts[r]..lo + counts[r + 1] - 1],
+            // the lines which are over are not sorted any further
+            int biggest = 0;
+            for (int r = 1; r < R; r++) {
+                if (counts[r + 1] - counts[r] > counts[biggest + 1] - counts[biggest]) biggest = r;
+            }
+            for (int r = 0; r < R; r++) {
+                if (r != biggest) sort(lo + counts[r], lo + counts[r + 1] - 1, d + 1);
+            }
+            int from = lo + counts[biggest];
+            hi = lo + counts[biggest + 1] - 1;
+            lo = from;
+            d++;
+        }
+        insertion(lo, hi, d);
+    }
+
+    /**
+     * Returns the byte of the line {@code i} at the position {@code d} or {@code -1} if the line is shorter.
+     */
+    private int digit(int i, int d) {
+        if (d >= starts[i + 1] - starts[i]) return -1;
+        return bytes[starts[i] + d] & 0xFF;
+    }
+
+    /**
+     * Returns the length of the common prefix of the lines {@code order[lo..hi]}, all of them have
+     * the same first {@code d} bytes.
+     */
+    private int commonPrefix(int lo, int hi, int d) {
+        int first = starts[order[lo]];
+        int prefix = starts[order[lo] + 1] - first;
+        for (int k = lo + 1; k <= hi && prefix > d; k++) {
+            int start = starts[order[k]];
+            int n = Math.min(prefix, starts[order[k] + 1] - start);
+            int j = d;
+            while (j < n && bytes[start + j] == bytes[first + j]) j++;
+            prefix = j;
+        }
+        return Math.max(prefix, d);
+    }
+
+    private void insertion(int lo, int hi, int d) {
+        for (int k = lo + 1; k <= hi; k++) {
+            for (int j = k; j > lo && compare(order[j], order[j - 1], d) < 0; j--) {
+                int t = order[j];
+                order[j] = order[j - 1];
+                order[j - 1] = t;
+            }
+        }
+    }
+
+    /**
+     * Compares the lines {@code i} and {@code j} starting from the byte {@code d}.
+     */
+    private int compare(int i, int j, int d) {
+        int a = starts[i], b = starts[j];
+        return ByteLine.compare(bytes, a + d, starts[i + 1] - a - d, bytes, b + d, starts[j + 1] - b - d);
+    }
+}
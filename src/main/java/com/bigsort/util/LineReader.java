@@ -0,0 +1,335 @@
+package com.bigsort.util;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * The {@code LineReader} class reads the lines of an {@link InputSplit}.
+ * <p>
+ * If the split doesn't start at the beginning of the file, the reader seeks to the byte
+ * before {@code start} and skips everything up to the next line separator, i.e. the first line
+ * returned is the first line which starts inside of the split. After that, lines are read while
+ * they start before {@code end}. The last line may end after {@code end}. This way every line of
+ * the file is read exactly once, no matter how the file is split.
+ * <p>
+ * Lines are separated by {@code '\n'}, a trailing {@code '\r'} is removed. Bytes are decoded
+ * using the default charset, the same way {@code FileReader} does, unless the line is read as raw bytes.
+ * <p>
+ * A mapped reader doesn't read the file into a buffer at all: the file is mapped into memory by windows
+ * of {@link #WINDOW_SIZE} bytes and line separators are searched right in the mapped window. A line which
+ * is read into a {@link LineArena} is copied (or decoded) only once, straight from the page cache to the
+ * arena. A line which crosses the end of a window starts the next window.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class LineReader implements Closeable {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The default size of a mapped window. A mapped buffer is indexed by int, so a window is less than 2GB
+     */
+    public static final int WINDOW_SIZE = 1 << 30;
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private FileInputStream in;
+    private long end;
+    private byte[] buf;
+    private int pos;           // next byte to read in buf or in window
+    private int limit;         // amount of valid bytes in buf or in window
+    private long bufStart;     // offset of buf[0] or of window[0] in the file
+    private byte[] line;       // accumulates a line which doesn't fit into buf
+    private int lineLength;
+    private byte[] lineBytes;  // the bytes of the line which has been found by nextLine(), null if it is mapped
+    private int lineOffset;
+    private int lineEnd;
+    private CharsetDecoder decoder;
+
+    private FileChannel channel;     // the channel of a mapped reader, null otherwise
+    private int windowSize;
+    private long fileLength;
+    private MappedByteBuffer window;
+    private ByteBuffer lineView;     // a view of the window which is limited to the current line
+
+    /**
+     * Opens {@code split} for reading and skips the line which belongs to the previous split.
+     *
+     * @param split is a range of a file to read
+     * @throws IOException if the file cannot be opened or read
+     */
+    public LineReader(InputSplit split) throws IOException {
+        this(split, false);
+    }
+
+    /**
+     * Opens {@code split} for reading and skips the line which belongs to the previous split.
+     *
+     * @param split  is a range of a file to read
+     * @param mapped whether the file is mapped into memory instead of being read into a buffer
+     * @throws IOException if the file cannot be opened or read
+     */
+    public LineReader(InputSplit split, boolean mapped) throws IOException {
+        this(split, mapped, WINDOW_SIZE);
+    }
+
+    /**
+     * Opens {@code split} for reading and skips the line which belongs to the previous split.
+     *
+     * @param split      is a range of a file to read
+     * @param mapped     whether the file is mapped into memory instead of being read into a buffer
+     * @param windowSize is the size of a mapped window in bytes
+     * @throws IOException if the file cannot be opened or read
+     * @throws IllegalArgumentException if {@code windowSize} is not positive
+     */
+    public LineReader(InputSplit split, boolean mapped, int windowSize) throws IOException {
+        if (windowSize < 1) throw new IllegalArgumentException("windowSize should be positive.");
+        this.in = new FileInputStream(split.getFile());
+        this.end = split.getEnd();
+        this.line = new byte[128];
+        this.windowSize = windowSize;
+
+        try {
+            if (mapped) {
+                channel = in.getChannel();
+                fileLength = channel.size();
+            } else {
+                buf = new byte[BUFFER_SIZE];
+            }
+            if (split.getStart() > 0) {
+                bufStart = split.getStart() - 1;
+                if (mapped) {
+                    if (findMappedLine()) pos = Math.min(lineEnd + 1, limit);
+                } else {
+                    in.getChannel().position(bufStart);
+                    skipLine();
+                }
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the offset of the next byte to be read.
+     *
+     * @return the position in the file
+     */
+    public long position() {
+        return bufStart + pos;
+    }
+
+    /**
+     * Reads the next line of the split.
+     *
+     * @return the next line without line separator or {@code null} if there are no lines left
+     * @throws IOException if the file cannot be read
+     */
+    public String readLine() throws IOException {
+        if (!nextLine()) return null;
+        copyMappedLine();
+        return new String(lineBytes, lineOffset, lineLength(), CHARSET);
+    }
+
+    /**
+     * Reads the next line of the split into {@code arena}. The line is decoded straight into the arena,
+     * no String is created. A binary arena gets the bytes of the line as they are.
+     *
+     * @param arena is an arena to add the line to
+     * @return {@code false} if there are no lines left
+     * @throws IOException if the file cannot be read
+     */
+    public boolean readLine(LineArena arena) throws IOException {
+        if (!nextLine()) return false;
+        if (!arena.isBinary() && decoder == null)
+            decoder = CHARSET.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        if (lineBytes == null) {
+            // The arena takes the line straight from the mapped window
+            lineView.clear();
+            lineView.position(lineOffset);
+            lineView.limit(lineOffset + lineLength());
+            if (arena.isBinary()) arena.add(lineView);
+            else arena.add(decoder, lineView);
+        } else if (arena.isBinary()) {
+            arena.add(lineBytes, lineOffset, lineLength());
+        } else {
+            arena.add(decoder, lineBytes, lineOffset, lineLength());
+        }
+        return true;
+    }
+
+    /**
+     * Points {@code line} to the bytes of the next line of the split, nothing is decoded. The bytes belong
+     * to the reader, so they are valid only until the next line is read.
+     *
+     * @param line is a line to reuse
+     * @return {@code false} if there are no lines left
+     * @throws IOException if the file cannot be read
+     */
+    public boolean readLine(ByteLine line) throws IOException {
+        if (!nextLine()) return false;
+        copyMappedLine();
+        line.set(lineBytes, lineOffset, lineLength());
+        return true;
+    }
+
+    /**
+     * Finds the next line, its bytes are {@code lineBytes[lineOffset..lineEnd)}. The bytes of a line
+     * of a mapped reader are {@code window[lineOffset..lineEnd)} instead.
+     *
+     * @return {@code false} if there are no lines left
+     */
+    private boolean nextLine() throws IOException {
+        if (position() >= end) return false;
+        if (channel != null) {
+            if (!findMappedLine()) return false;
+            pos = Math.min(lineEnd + 1, limit);
+            return true;
+        }
+        if (!fill()) return false;
+        lineLength = 0;
+        while (true) {
+            int i = pos;
+            while (i < limit && buf[i] != '\n') i++;
+
+            if (i < limit) {
+                if (lineLength == 0) {
+                    setLine(buf, pos, i);
+                } else {
+                    append(pos, i);
+                    setLine(line, 0, lineLength);
+                }
+                pos = i + 1;
+                return true;
+            }
+            append(pos, limit);
+            pos = limit;
+            // The last line of the file may have no line separator
+            if (!fill()) {
+                setLine(line, 0, lineLength);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finds the line which starts at {@code pos} of the mapped window, {@code pos} is not moved.
+     * If the line doesn't end inside of the window, the next window starts at the start of the line.
+     *
+     * @return {@code false} if the end of the file is reached
+     */
+    private boolean findMappedLine() throws IOException {
+        if (position() >= fileLength) return false;
+        if (window == null || pos >= limit) map(position(), windowSize);
+        int i = pos;
+        while (true) {
+            while (i < limit && window.get(i) != '\n') i++;
+            // The last line of the file may have no line separator
+            if (i < limit || bufStart + limit >= fileLength) {
+                setLine(null, pos, i);
+                return true;
+            }
+            // A line which is longer than a window gets a bigger window
+            int scanned = i - pos;
+            map(position(), pos == 0 ? 2L * limit : windowSize);
+            i = scanned;
+        }
+    }
+
+    /**
+     * Maps {@code size} bytes of the file starting at {@code start}, fewer at the end of the file.
+     */
+    private void map(long start, long size) throws IOException {
+        size = Math.min(size, fileLength - start);
+        if (size > Integer.MAX_VALUE) throw new IOException("A line of the file is too long to be mapped.");
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        lineView = window.duplicate();
+        bufStart = start;
+        pos = 0;
+        limit = (int) size;
+    }
+
+    /**
+     * Copies the current line of a mapped reader to {@code line}, so that it is an array as usual.
+     */
+    private void copyMappedLine() {
+        if (lineBytes != null) return;
+        int length = lineEnd - lineOffset;
+        if (length > line.length) line = new byte[Math.max(length, 2 * line.length)];
+        lineView.clear();
+        lineView.position(lineOffset);
+        lineView.get(line, 0, length);
+        setLine(line, 0, length);
+    }
+
+    private void setLine(byte[] bytes, int offset, int end) {
+        lineBytes = bytes;
+        lineOffset = offset;
+        lineEnd = end;
+    }
+
+    /**
+     * @return the length of the current line without a trailing {@code '\r'}
+     */
+    private int lineLength() {
+        int length = lineEnd - lineOffset;
+        if (length > 0 && lastByte() == '\r') length--;
+        return length;
+    }
+
+    private byte lastByte() {
+        return lineBytes != null ? lineBytes[lineEnd - 1] : window.get(lineEnd - 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // There is no way to unmap a window, it is released by the garbage collector
+        window = null;
+        lineView = null;
+        in.close();
+    }
+
+    private void skipLine() throws IOException {
+        while (fill()) {
+            int i = pos;
+            while (i < limit && buf[i] != '\n') i++;
+            if (i < limit) {
+                pos = i + 1;
+                return;
+            }
+            pos = limit;
+        }
+    }
+
+    /**
+     * Makes sure that there is at least one byte to read in the buffer.
+     *
+     * @return {@code false} if the end of the file is reached
+     */
+    private boolean fill() throws IOException {
+        if (pos < limit) return true;
+        bufStart += limit;
+        pos = 0;
+        limit = Math.max(in.read(buf), 0);
+        return limit > 0;
+    }
+
+    private void append(int from, int to) {
+        int len = to - from;
+        if (lineLength + len > line.length)
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + len));
+        System.arraycopy(buf, from, line, lineLength, len);
+        lineLength += len;
+    }
+}
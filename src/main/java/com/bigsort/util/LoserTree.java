@@ -0,0 +1,144 @@
+package com.bigsort.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The {@code LoserTree} class represents a tournament tree of {@code n} sorted sequences.
+ * <p>
+ * Each sequence is a leaf of a complete binary tree. Each internal node stores the index of
+ * the sequence which lost the match played at this node, and the winner of the whole tournament
+ * (the sequence with a minimum key) is stored separately. When the minimum key is replaced by
+ * the next key of the same sequence, only the matches on the path from its leaf to the root
+ * have to be replayed: the new key is compared with the loser of each node on the path, so
+ * the replacement takes exactly {@code ceil(log2(n))} comparisons. A binary heap needs about
+ * twice as much to delete the minimum and to insert the next key.
+ * <p>
+ * An exhausted sequence has a {@code null} key which is greater than any other key. Equal keys are
+ * ordered by the index of the sequence, so sequences with lower indexes win.
+ * <p>
+ * The tree is built when the minimum is requested for the first time, so all keys should be
+ * inserted before that.
+ *
+ * @param <Key> the generic type of key on this tree
+ * @author Nadya Shakhat
+ */
+
+public class LoserTree<Key extends Comparable<Key>> implements MergeQueue<Key> {
+    private int n;            // number of sequences
+    private Key[] keys;       // keys[i] = current key of the sequence i, null if it is exhausted
+    private int[] tree;       // tree[1..n-1] - losers of internal nodes, tree[0] - the winner
+    private boolean built;
+
+    /**
+     * Initializes an empty tree of {@code n} sequences with indices between {@code 0}
+     * and {@code n - 1}.
+     *
+     * @param n the amount of sequences
+     * @throws IllegalArgumentException if {@code n < 0}
+     */
+    public LoserTree(int n) {
+        if (n < 0) throw new IllegalArgumentException();
+        this.n = n;
+        // Only the keys of the sequences are ever stored, so the array never holds anything but Key
+        @SuppressWarnings("unchecked")
+        Key[] keys = (Key[]) new Comparable<?>[n];
+        this.keys = keys;
+        tree = new int[Math.max(n, 1)];
+    }
+
+    /**
+     * Associates the first key of the sequence {@code i} with this sequence.
+     *
+     * @param i   an index of a sequence
+     * @param key the first key of the sequence
+     * @throws IllegalArgumentException unless {@code 0 <= i < n}
+     * @throws IllegalArgumentException if there already is a key of the sequence {@code i}
+     * @throws IllegalStateException    if the tree has already been built
+     */
+    public void insert(int i, Key key) {
+        if (i < 0 || i >= n) throw new IllegalArgumentException();
+        if (keys[i] != null) throw new IllegalArgumentException("index is already in the tree");
+        if (built) throw new IllegalStateException("keys cannot be inserted after the merge has started");
+        keys[i] = key;
+    }
+
+    public boolean isEmpty() {
+        build();
+        return n == 0 || keys[tree[0]] == null;
+    }
+
+    /**
+     * Returns a minimum key.
+     *
+     * @return a minimum key
+     * @throws NoSuchElementException if this tree is empty
+     */
+    public Key minKey() {
+        if (isEmpty()) throw new NoSuchElementException("Loser tree underflow");
+        return keys[tree[0]];
+    }
+
+    /**
+     * Returns the index of the sequence which has a minimum key.
+     *
+     * @return an index associated with a minimum key
+     * @throws NoSuchElementException if this tree is empty
+     */
+    public int minIndex() {
+        if (isEmpty()) throw new NoSuchElementException("Loser tree underflow");
+        return tree[0];
+    }
+
+    /**
+     * Replaces a minimum key by the next key of the same sequence and replays the matches
+     * on the path from its leaf to the root.
+     *
+     * @param key the next key of the sequence or {@code null} if the sequence is exhausted
+     * @throws NoSuchElementException if this tree is empty
+     */
+    public void replaceMin(Key key) {
+        if (isEmpty()) throw new NoSuchElementException("Loser tree underflow");
+        int winner = tree[0];
+        keys[winner] = key;
+        for (int node = (winner + n) >> 1; node > 0; node >>= 1) {
+            int loser = tree[node];
+            if (less(loser, winner)) {
+                tree[node] = winner;
+                winner = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /**
+     * Plays all the matches bottom-up. The leaf of the sequence {@code i} is the node {@code n + i},
+     * the children of the node {@code k} are {@code 2k} and {@code 2k + 1}.
+     */
+    private void build() {
+        if (built) return;
+        built = true;
+        if (n == 0) return;
+        int[] winners = new int[2 * n];
+        for (int i = 0; i < n; ++i)
+            winners[n + i] = i;
+        for (int node = n - 1; node > 0; --node) {
+            int a = winners[2 * node];
+            int b = winners[2 * node + 1];
+            if (less(a, b)) {
+                winners[node] = a;
+                tree[node] = b;
+            } else {
+                winners[node] = b;
+                tree[node] = a;
+            }
+        }
+        tree[0] = winners[1];
+    }
+
+    private boolean less(int i, int j) {
+        if (keys[i] == null) return false;
+        if (keys[j] == null) return true;
+        int cmp = keys[i].compareTo(keys[j]);
+        return cmp < 0 || (cmp == 0 && i < j);
+    }
+}
@@ -0,0 +1,50 @@
+package com.bigsort.util;
+
+/**
+ * The util class which estimates how much heap is occupied by the data of a sort job.
+ * The estimations are pessimistic: a String is supposed to keep two bytes per char, even
+ * though the JVM may store Latin-1 strings using one byte per char.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class MemoryEstimator {
+
+    /**
+     * Headers of a String object and of its array of chars plus a reference to the String
+     */
+    public static final int STRING_OVERHEAD = 56;
+
+    /**
+     * The minimum and the maximum size of the read buffer of each file opened for merge, in chars
+     */
+    public static final int MERGE_BUFFER_SIZE = 8192;
+    public static final int MAX_MERGE_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The size of the byte buffer of a decoder which is used by {@code InputStreamReader}
+     */
+    private static final int DECODER_BUFFER_SIZE = 8192;
+
+    /**
+     * Returns how many bytes of heap {@code line} occupies.
+     *
+     * @param line is a String
+     * @return estimated size of {@code line} in bytes
+     */
+    public static long estimate(String line) {
+        return STRING_OVERHEAD + 2L * line.length();
+    }
+
+    /**
+     * Returns how many bytes of heap a file opened for merge occupies if its reader
+     * has a buffer of {@code bufferSize} chars. The line which is kept in the merge queue
+     * is not taken into account, the lines are supposed to be much shorter than the buffer.
+     *
+     * @param bufferSize is the size of the read buffer in chars
+     * @return estimated size of a reader in bytes
+     */
+    public static long estimateReader(int bufferSize) {
+        return 2L * bufferSize + DECODER_BUFFER_SIZE;
+    }
+}
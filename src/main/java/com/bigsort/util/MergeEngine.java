@@ -0,0 +1,34 @@
+package com.bigsort.util;
+
+/**
+ * The structures which can be used to merge sorted files.
+ * <p>
+ * {@code HEAP} is the indexed binary heap {@link IndexMinPQ}.
+ * {@code LOSER_TREE} is the tournament tree {@link LoserTree} which needs half as
+ * many comparisons per line as the heap. It is used by default.
+ *
+ * @author Nadya Shakhat
+ */
+
+public enum MergeEngine {
+    HEAP {
+        @Override
+        public <Key extends Comparable<Key>> MergeQueue<Key> create(int n) {
+            return new IndexMinPQ<>(n);
+        }
+    },
+    LOSER_TREE {
+        @Override
+        public <Key extends Comparable<Key>> MergeQueue<Key> create(int n) {
+            return new LoserTree<>(n);
+        }
+    };
+
+    /**
+     * Creates an empty structure to merge {@code n} sorted sequences.
+     *
+     * @param n the amount of sequences
+     * @return an empty merge queue
+     */
+    public abstract <Key extends Comparable<Key>> MergeQueue<Key> create(int n);
+}
@@ -0,0 +1,48 @@
+package com.bigsort.util;
+
+/**
+ * The {@code MergeQueue} interface represents a structure which merges {@code n} sorted
+ * sequences of keys. Each sequence is referred by an index between {@code 0} and {@code n - 1}.
+ * <p>
+ * First, the first key of each sequence is added using <em>insert</em>. After that, the minimum
+ * key and the index of its sequence are returned by <em>minKey</em> and <em>minIndex</em>. The minimum
+ * key is replaced by the next key of the same sequence using <em>replaceMin</em>. If the sequence is
+ * exhausted, {@code null} is passed, and the sequence leaves the queue. The merge is finished when
+ * the queue is empty.
+ *
+ * @param <Key> the generic type of key on this queue
+ * @author Nadya Shakhat
+ */
+
+public interface MergeQueue<Key> {
+
+    /**
+     * Associates the first key of the sequence {@code i} with this sequence.
+     *
+     * @param i   an index of a sequence
+     * @param key the first key of the sequence
+     */
+    void insert(int i, Key key);
+
+    /**
+     * @return {@code true} if all the sequences are exhausted, {@code false} otherwise
+     */
+    boolean isEmpty();
+
+    /**
+     * @return a minimum key
+     */
+    Key minKey();
+
+    /**
+     * @return the index of the sequence which has a minimum key
+     */
+    int minIndex();
+
+    /**
+     * Replaces a minimum key by the next key of the same sequence.
+     *
+     * @param key the next key of the sequence or {@code null} if the sequence is exhausted
+     */
+    void replaceMin(Key key);
+}
@@ -0,0 +1,168 @@
+package com.bigsort.util;
+
+/**
+ * The {@code MergeSettings} class holds the settings of a merge of sorted files, see
+ * {@link FilesHandler#mergeSortedFiles(java.util.List, java.io.File, MergeSettings)} and
+ * {@link MergeTree}. Every setting has a default value, which is the plain merge of plain files,
+ * so only the required ones have to be changed. Setters return {@code this}, so the settings
+ * can be chained:
+ * <pre>
+ *     new MergeSettings().setCodec(TempCodec.LZ4).setKeys(keys).setLimit(10)
+ * </pre>
+ *
+ * @author Nadya Shakhat
+ */
+
+public class MergeSettings {
+
+    public static final long UNLIMITED_LINES = Long.MAX_VALUE;
+
+    private int bufferSize = MemoryEstimator.MERGE_BUFFER_SIZE;
+    private MergeEngine engine = MergeEngine.LOSER_TREE;
+    private TempCodec codec = TempCodec.NONE;
+    private TempCodec resultCodec = TempCodec.NONE;
+    private ReadAhead readAhead = ReadAhead.NONE;
+    private WriteBehind writeBehind = WriteBehind.NONE;
+    private SortKeys keys = SortKeys.NONE;
+    private Duplicates duplicates = Duplicates.KEEP;
+    private long limit = UNLIMITED_LINES;
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @param bufferSize the size of the read buffer of each file, in chars for the lines of text and in bytes
+     *                   for the lines of raw bytes
+     * @return this settings
+     * @throws IllegalArgumentException if {@code bufferSize < 1}
+     */
+    public MergeSettings setBufferSize(int bufferSize) {
+        if (bufferSize < 1) throw new IllegalArgumentException("bufferSize should be positive.");
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public MergeEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * @param engine the structure which is used to merge the files
+     * @return this settings
+     * @throws IllegalArgumentException if {@code engine} is {@code null}
+     */
+    public MergeSettings setEngine(MergeEngine engine) {
+        if (engine == null) throw new IllegalArgumentException("engine should be defined.");
+        this.engine = engine;
+        return this;
+    }
+
+    public TempCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec the codec the files were written with
+     * @return this settings
+     * @throws IllegalArgumentException if {@code codec} is {@code null}
+     */
+    public MergeSettings setCodec(TempCodec codec) {
+        if (codec == null) throw new IllegalArgumentException("codec should be defined.");
+        this.codec = codec;
+        return this;
+    }
+
+    public TempCodec getResultCodec() {
+        return resultCodec;
+    }
+
+    /**
+     * @param resultCodec the codec to write the result file with
+     * @return this settings
+     * @throws IllegalArgumentException if {@code resultCodec} is {@code null}
+     */
+    public MergeSettings setResultCodec(TempCodec resultCodec) {
+        if (resultCodec == null) throw new IllegalArgumentException("resultCodec should be defined.");
+        this.resultCodec = resultCodec;
+        return this;
+    }
+
+    public ReadAhead getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @param readAhead loads the blocks of the files ahead of time
+     * @return this settings
+     * @throws IllegalArgumentException if {@code readAhead} is {@code null}
+     */
+    public MergeSettings setReadAhead(ReadAhead readAhead) {
+        if (readAhead == null) throw new IllegalArgumentException("readAhead should be defined.");
+        this.readAhead = readAhead;
+        return this;
+    }
+
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * @param writeBehind writes the result file in the background
+     * @return this settings
+     * @throws IllegalArgumentException if {@code writeBehind} is {@code null}
+     */
+    public MergeSettings setWriteBehind(WriteBehind writeBehind) {
+        if (writeBehind == null) throw new IllegalArgumentException("writeBehind should be defined.");
+        this.writeBehind = writeBehind;
+        return this;
+    }
+
+    public SortKeys getKeys() {
+        return keys;
+    }
+
+    /**
+     * @param keys the order of the files. The key of each line is extracted once, when the line is read
+     * @return this settings
+     * @throws IllegalArgumentException if {@code keys} is {@code null}
+     */
+    public MergeSettings setKeys(SortKeys keys) {
+        if (keys == null) throw new IllegalArgumentException("keys should be defined.");
+        this.keys = keys;
+        return this;
+    }
+
+    public Duplicates getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @param duplicates the way equal lines of all the files are treated. The files should have been written
+     *                   with the same {@code duplicates}, so aggregated lines are read together with their
+     *                   aggregates
+     * @return this settings
+     * @throws IllegalArgumentException if {@code duplicates} is {@code null}
+     */
+    public MergeSettings setDuplicates(Duplicates duplicates) {
+        if (duplicates == null) throw new IllegalArgumentException("duplicates should be defined.");
+        this.duplicates = duplicates;
+        return this;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param limit how many first lines of the result are written at most, the merge stops as soon as they
+     *              are. {@link #UNLIMITED_LINES} writes all of them
+     * @return this settings
+     * @throws IllegalArgumentException if {@code limit < 1}
+     */
+    public MergeSettings setLimit(long limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit should be positive.");
+        this.limit = limit;
+        return this;
+    }
+}
@@ -0,0 +1,421 @@
+package com.bigsort.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * The {@code MergeTree} class merges many sorted files at once by a tree of merging threads, no intermediate
+ * files are written.
+ * <p>
+ * The files are the leaves of the tree. Each internal node merges at most {@code nodeFanIn} children by its own
+ * thread and hands the merged lines to its parent by blocks through a bounded queue. Each edge has
+ * {@link #BLOCKS} blocks: one is being filled by the child, one is waiting in the queue and one is being
+ * consumed by the parent, so the child and the parent work at the same time and a fast child waits for its
+ * parent instead of taking more memory. A block is limited both by lines and by bytes. The root node is
+ * merged by the calling thread and writes the result.
+ * <p>
+ * The lines of a block are copies, because a leaf of the binary mode reuses the bytes of its lines.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class MergeTree {
+
+    /**
+     * The amount of blocks of an edge between a node and its parent
+     */
+    public static final int BLOCKS = 3;
+    public static final int MIN_BLOCK_LINES = 16;
+    public static final int MAX_BLOCK_LINES = 4096;
+    public static final long MIN_BLOCK_BYTES = 16L * 1024;
+    public static final long MAX_BLOCK_BYTES = 1024L * 1024;
+
+    private MergeTree() {
+    }
+
+    /**
+     * Calculates how many internal nodes besides the root a tree of {@code leaves} leaves has, i.e. how many
+     * threads and edges with blocks it needs.
+     *
+     * @param leaves    the amount of merged files
+     * @param nodeFanIn the maximum amount of children of a node
+     * @return the amount of edges with blocks
+     * @throws IllegalArgumentException if {@code nodeFanIn < 2}
+     */
+    public static int countEdges(int leaves, int nodeFanIn) {
+        if (nodeFanIn < 2) throw new IllegalArgumentException("nodeFanIn should be at least 2.");
+        int edges = 0;
+        int level = leaves;
+        while (level > nodeFanIn) {
+            level = (level + nodeFanIn - 1) / nodeFanIn;
+            edges += level;
+        }
+        return edges;
+    }
+
+    /**
+     * Merges the sorted {@code files} the same way as
+     * {@link FilesHandler#mergeSortedFiles(List, File, MergeSettings)}, but by a tree of threads. The key of
+     * each line is extracted once by its leaf and is passed up the tree together with the line. Equal lines of
+     * all the files are treated by the root when it writes them, and the root stops the tree as soon as the
+     * limit of the settings is written.
+     *
+     * @param files      is a list of files to merge
+     * @param resultFile is a File where the result should be stored
+     * @param nodeFanIn  is the maximum amount of children of a node
+     * @param blockLines is the maximum amount of lines of a block
+     * @param blockBytes is the maximum amount of bytes of a block, see {@link MemoryEstimator}
+     * @param settings   are the settings of the merge, the buffer size is in chars
+     * @return {@code true} if the merge is successful. {@code false} otherwise
+     * @throws IllegalArgumentException if {@code nodeFanIn < 2}, {@code blockLines < 1} or {@code blockBytes < 1}
+     */
+    public static Boolean mergeSortedFiles(List<File> files, File resultFile, int nodeFanIn, int blockLines,
+                                           long blockBytes, MergeSettings settings) {
+        validate(nodeFanIn, blockLines, blockBytes);
+        SortKeys keys = settings.getKeys();
+        Duplicates duplicates = settings.getDuplicates();
+        long limit = settings.getLimit();
+        if (keys.isEmpty() && !duplicates.isAggregated())
+            return mergeSortedFiles(files, resultFile, nodeFanIn, blockLines, blockBytes, settings, line -> line,
+                    out -> duplicates.filter(out).limit(limit), MemoryEstimator::estimate);
+        return mergeSortedFiles(files, resultFile, nodeFanIn, blockLines, blockBytes, settings,
+                duplicates.reader(keys), out -> duplicates.filter(keys, out).limit(limit),
+                line -> MemoryEstimator.estimate(line.getLine()) + keys.estimate(line.getLine()));
+    }
+
+    /**
+     * Merges the files of text lines, the tree passes the lines as {@code K}.
+     *
+     * @param wrap   converts a line which is read, {@code null} stays {@code null}
+     * @param output creates the filter which writes the lines of the root to the result
+     * @param size   estimates how many bytes of RAM a line takes
+     */
+    private static <K extends Comparable<K>> Boolean mergeSortedFiles(List<File> files, File resultFile,
+                                                                      int nodeFanIn, int blockLines,
+                                                                      long blockBytes, MergeSettings settings,
+                                                                      Function<String, K> wrap,
+                                                                      Function<BufferedWriter,
+                                                                              DuplicateFilter<K>> output,
+                                                                      ToLongFunction<K> size) {
+        List<Source<K>> leaves = new ArrayList<>();
+        try {
+            for (File f : files) {
+                BufferedReader reader = FilesHandler.openReader(f, settings.getBufferSize(), settings.getCodec(),
+                        settings.getReadAhead());
+                leaves.add(new Leaf<>(() -> wrap.apply(reader.readLine()), reader));
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            close(leaves);
+            return false;
+        }
+        BufferedWriter out = null;
+        try {
+            out = FilesHandler.openWriter(resultFile, settings.getResultCodec(), settings.getWriteBehind());
+            boolean merged = merge(leaves, output.apply(out), nodeFanIn, blockLines, blockBytes,
+                    settings.getEngine(), UnaryOperator.identity(), size);
+            out.close();
+            return merged;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Merges the sorted {@code files} as raw bytes, the same way as
+     * {@link FilesHandler#mergeSortedByteFiles(List, File, MergeSettings)}, but by a tree of threads.
+     *
+     * @param settings are the settings of the merge, the buffer size is in bytes
+     * @return {@code true} if the merge is successful. {@code false} otherwise
+     * @throws IllegalArgumentException if {@code nodeFanIn < 2}, {@code blockLines < 1}, {@code blockBytes < 1}
+     *                                  or the lines are aggregated
+     * @see #mergeSortedFiles(List, File, int, int, long, MergeSettings)
+     */
+    public static Boolean mergeSortedByteFiles(List<File> files, File resultFile, int nodeFanIn, int blockLines,
+                                               long blockBytes, MergeSettings settings) {
+        validate(nodeFanIn, blockLines, blockBytes);
+        if (settings.getDuplicates().isAggregated())
+            throw new IllegalArgumentException("Lines of raw bytes cannot be aggregated.");
+        List<Source<ByteLine>> leaves = new ArrayList<>();
+        try {
+            for (File f : files) {
+                ByteLineReader reader = new ByteLineReader(FilesHandler.openInputStream(f, settings.getCodec(),
+                        settings.getReadAhead()), settings.getBufferSize());
+                ByteLine line = new ByteLine();
+                leaves.add(new Leaf<>(() -> reader.readLine(line) ? line : null, reader));
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            close(leaves);
+            return false;
+        }
+        OutputStream out = null;
+        try {
+            out = FilesHandler.openOutputStream(resultFile, settings.getResultCodec(), settings.getWriteBehind());
+            DuplicateFilter<ByteLine> sink = FilesHandler.byteFilter(out, settings.getDuplicates())
+                    .limit(settings.getLimit());
+            boolean merged = merge(leaves, sink, nodeFanIn, blockLines, blockBytes, settings.getEngine(),
+                    ByteLine::copy, line -> ByteLine.OVERHEAD + line.getLength());
+            out.close();
+            return merged;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void validate(int nodeFanIn, int blockLines, long blockBytes) {
+        if (nodeFanIn < 2) throw new IllegalArgumentException("nodeFanIn should be at least 2.");
+        if (blockLines < 1) throw new IllegalArgumentException("blockLines should be positive.");
+        if (blockBytes < 1) throw new IllegalArgumentException("blockBytes should be positive.");
+    }
+
+    /**
+     * Builds the tree over {@code leaves} level by level and writes the lines of the root to {@code sink}, the
+     * sink is flushed at the end. The nodes are stopped as soon as the sink is full.
+     * The children of a level are shared between its nodes as evenly as possible. The leaves are closed at
+     * the end.
+     *
+     * @return {@code true} if the merge is successful. {@code false} otherwise
+     */
+    private static <K extends Comparable<K>> boolean merge(List<Source<K>> leaves, DuplicateFilter<K> sink,
+                                                           int nodeFanIn, int blockLines, long blockBytes,
+                                                           MergeEngine engine,
+                                                           UnaryOperator<K> copy, ToLongFunction<K> size) {
+        ExecutorService nodes = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "merge-tree-node");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Source<K>> level = leaves;
+            while (level.size() > nodeFanIn) {
+                int groups = (level.size() + nodeFanIn - 1) / nodeFanIn;
+                List<Source<K>> next = new ArrayList<>();
+                for (int g = 0; g < groups; ++g) {
+                    List<Source<K>> children = level.subList(level.size() * g / groups,
+                            level.size() * (g + 1) / groups);
+                    Edge<K> edge = new Edge<>(blockLines, blockBytes, copy, size);
+                    Node<K> node = new Node<>(children, engine);
+                    nodes.execute(() -> edge.fill(node));
+                    next.add(edge);
+                }
+                level = next;
+            }
+            Node<K> root = new Node<>(level, engine);
+            K line;
+            while (!sink.isFull() && (line = root.next()) != null) {
+                sink.add(line);
+            }
+            sink.flush();
+            return true;
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return false;
+        } finally {
+            // Stops the nodes which are still waiting for their parents after a failure
+            nodes.shutdownNow();
+            close(leaves);
+        }
+    }
+
+    private static void close(List<? extends Closeable> sources) {
+        for (Closeable source : sources) {
+            closeQuietly(source);
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            if (c != null) c.close();
+        } catch (IOException io) {
+            System.err.println(io.getMessage());
+        }
+    }
+
+    /**
+     * A sorted sequence of lines.
+     */
+    private interface Source<K> extends Closeable {
+        /**
+         * @return the next line, which is valid until the next call, or {@code null} if there are no lines left
+         */
+        K next() throws IOException;
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    private interface LineSupplier<K> {
+        K get() throws IOException;
+    }
+
+    /**
+     * A sorted file.
+     */
+    private static class Leaf<K> implements Source<K> {
+        private LineSupplier<K> lines;
+        private Closeable file;
+
+        Leaf(LineSupplier<K> lines, Closeable file) {
+            this.lines = lines;
+            this.file = file;
+        }
+
+        @Override
+        public K next() throws IOException {
+            return lines.get();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Merges its children. A returned line belongs to a child, so the child is advanced only when the next
+     * line is requested.
+     */
+    private static class Node<K extends Comparable<K>> implements Source<K> {
+        private List<Source<K>> children;
+        private MergeQueue<K> queue;
+        private boolean started;
+
+        Node(List<Source<K>> children, MergeEngine engine) {
+            this.children = children;
+            this.queue = engine.create(children.size());
+        }
+
+        @Override
+        public K next() throws IOException {
+            if (!started) {
+                started = true;
+                for (int i = 0; i < children.size(); ++i) {
+                    K line = children.get(i).next();
+                    if (line != null) queue.insert(i, line);
+                }
+            } else if (!queue.isEmpty()) {
+                queue.replaceMin(children.get(queue.minIndex()).next());
+            }
+            return queue.isEmpty() ? null : queue.minKey();
+        }
+    }
+
+    /**
+     * The bounded queue of blocks between a node, which is merged by its own thread, and its parent.
+     */
+    private static class Edge<K> implements Source<K> {
+        private BlockingQueue<Block> free = new ArrayBlockingQueue<>(BLOCKS);
+        private BlockingQueue<Block> full = new ArrayBlockingQueue<>(BLOCKS + 1);
+        private long blockBytes;
+        private UnaryOperator<K> copy;
+        private ToLongFunction<K> size;
+        private Block current;
+        private int pos;
+
+        Edge(int blockLines, long blockBytes, UnaryOperator<K> copy, ToLongFunction<K> size) {
+            this.blockBytes = blockBytes;
+            this.copy = copy;
+            this.size = size;
+            for (int i = 0; i < BLOCKS; ++i) {
+                free.add(new Block(blockLines));
+            }
+        }
+
+        /**
+         * The body of the thread of the node: passes the lines of {@code node} to the parent by blocks.
+         */
+        void fill(Source<K> node) {
+            try {
+                try {
+                    Block block = free.take();
+                    K line;
+                    while ((line = node.next()) != null) {
+                        block.lines[block.count++] = copy.apply(line);
+                        block.bytes += size.applyAsLong(line);
+                        if (block.count == block.lines.length || block.bytes >= blockBytes) {
+                            full.put(block);
+                            block = free.take();
+                        }
+                    }
+                    if (block.count > 0) full.put(block);
+                    full.put(Block.END);
+                } catch (IOException | RuntimeException | Error e) {
+                    // Otherwise the parent would wait for the next block forever
+                    full.put(new Block(e));
+                }
+            } catch (InterruptedException e) {
+                // The parent has failed, nobody waits for the lines
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public K next() throws IOException {
+            if (current == Block.END) return null;
+            if (current == null || pos == current.count) {
+                if (current != null) {
+                    current.clear();
+                    free.add(current);
+                }
+                try {
+                    current = full.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted merge.");
+                }
+                if (current.error instanceof IOException) throw (IOException) current.error;
+                if (current.error instanceof RuntimeException) throw (RuntimeException) current.error;
+                if (current.error != null) throw (Error) current.error;
+                if (current == Block.END) return null;
+                pos = 0;
+            }
+            return (K) current.lines[pos++];
+        }
+    }
+
+    private static class Block {
+        private static final Block END = new Block(0);
+
+        private Object[] lines;
+        private int count;
+        private long bytes;
+        private Throwable error;
+
+        Block(int capacity) {
+            lines = new Object[capacity];
+        }
+
+        Block(Throwable error) {
+            this(0);
+            this.error = error;
+        }
+
+        void clear() {
+            Arrays.fill(lines, 0, count, null);
+            count = 0;
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.bigsort.util;
+
+/**
+ * The {@code MsdRadixSort} class sorts an array of strings by the most-significant-digit-first
+ * radix sort.
+ * <p>
+ * Each char is split into two 8-bit digits, the high byte and the low byte, so a count array has only
+ * 256 buckets (plus one for the strings which are over) instead of 65536. The order is the same as the one of
+ * {@link String#compareTo(String)}. If all the strings fall into the same bucket, as the high bytes of ASCII
+ * text do, the strings are not moved at all.
+ * <p>
+ * Small buckets are sorted by insertion sort. The biggest bucket is sorted in a loop and the others
+ * recursively, so the recursion is at most {@code log2(n)} deep.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class MsdRadixSort {
+
+    private static final int R = 256;
+    private static final int CUTOFF = 32;
+
+    /**
+     * Sorts {@code a[from..to)}.
+     *
+     * @param a    the array
+     * @param from the index of the first string to sort, inclusive
+     * @param to   the index of the last string to sort, exclusive
+     * @throws IllegalArgumentException unless {@code 0 <= from <= to <= a.length}
+     */
+    public static void sort(String[] a, int from, int to) {
+        if (from < 0 || from > to || to > a.length) throw new IllegalArgumentException();
+        String[] aux = new String[to - from];
+        sort(a, from, to - 1, 0, aux);
+    }
+
+    /**
+     * Sorts {@code a[lo..hi]}, all the strings have the same first {@code d} digits.
+     */
+    private static void sort(String[] a, int lo, int hi, int d, String[] aux) {
+        while (hi - lo >= CUTOFF) {
+            int[] count = new int[R + 2];
+            for (int i = lo; i <= hi; i++)
+                count[digit(a[i], d) + 2]++;
+
+            // The same bucket for everybody, nothing to move
+            int n = hi - lo + 1;
+            if (count[1] == n) return;
+            boolean single = false;
+            for (int r = 2; r < R + 2 && !single; r++)
+                single = count[r] == n;
+            if (single) {
+                // The strings may share more than one char, they are skipped in one pass
+                int prefix = MultikeyQuicksort.commonPrefix(a, lo, hi, d >> 1);
+                d = prefix > (d >> 1) ? 2 * prefix : d + 1;
+                continue;
+            }
+
+            for (int r = 0; r < R + 1; r++)
+                count[r + 1] += count[r];
+            for (int i = lo; i <= hi; i++)
+                aux[count[digit(a[i], d) + 1]++] = a[i];
+            System.arraycopy(aux, 0, a, lo, n);
+
+            // Now the bucket of the digit r is a[lo + count[r]..lo + count[r + 1] - 1],
+            // the strings which are over are not sorted any further
+            int biggest = 0;
+            for (int r = 1; r < R; r++) {
+                if (count[r + 1] - count[r] > count[biggest + 1] - count[biggest]) biggest = r;
+            }
+            for (int r = 0; r < R; r++) {
+                if (r != biggest) sort(a, lo + count[r], lo + count[r + 1] - 1, d + 1, aux);
+            }
+            int from = lo + count[biggest];
+            hi = lo + count[biggest + 1] - 1;
+            lo = from;
+            d++;
+        }
+        MultikeyQuicksort.insertion(a, lo, hi, d >> 1);
+    }
+
+    /**
+     * Returns the digit of {@code s} at the position {@code d} or {@code -1} if {@code s} is shorter.
+     */
+    private static int digit(String s, int d) {
+        int i = d >> 1;
+        if (i >= s.length()) return -1;
+        char c = s.charAt(i);
+        return (d & 1) == 0 ? c >>> 8 : c & 0xFF;
+    }
+}
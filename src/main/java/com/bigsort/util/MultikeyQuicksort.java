@@ -0,0 +1,128 @@
+package com.bigsort.util;
+
+/**
+ * The {@code MultikeyQuicksort} class sorts an array of strings by the multikey (three-way radix)
+ * quicksort of Bentley and Sedgewick.
+ * <p>
+ * The strings are partitioned by a single char at a time: the ones whose char at the position {@code d}
+ * is less than the char of the pivot, equal to it and greater than it. Only the middle part moves on to
+ * the next char, so the common prefix of the strings is never compared again, unlike in a comparison sort
+ * where every comparison starts from the first char. The order is the same as the one of
+ * {@link String#compareTo(String)}.
+ * <p>
+ * Small parts are sorted by insertion sort which starts comparing at the position {@code d}. The biggest part
+ * of each partition is sorted in a loop and the others recursively, so the recursion is at most
+ * {@code log2(n)} deep no matter how long the common prefixes are.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class MultikeyQuicksort {
+
+    private static final int CUTOFF = 16;
+
+    /**
+     * Sorts {@code a[from..to)}.
+     *
+     * @param a    the array
+     * @param from the index of the first string to sort, inclusive
+     * @param to   the index of the last string to sort, exclusive
+     * @throws IllegalArgumentException unless {@code 0 <= from <= to <= a.length}
+     */
+    public static void sort(String[] a, int from, int to) {
+        if (from < 0 || from > to || to > a.length) throw new IllegalArgumentException();
+        sort(a, from, to - 1, 0);
+    }
+
+    private static void sort(String[] a, int lo, int hi, int d) {
+        boolean skipPrefix = d > 0;
+        while (hi - lo >= CUTOFF) {
+            // The strings of the middle part often share more than one char, they are skipped in one pass
+            if (skipPrefix) d = commonPrefix(a, lo, hi, d);
+            skipPrefix = false;
+            int v = charAt(a[median(a, lo, lo + (hi - lo) / 2, hi, d)], d);
+            int lt = lo, gt = hi, i = lo;
+            while (i <= gt) {
+                int t = charAt(a[i], d);
+                if (t < v) exch(a, lt++, i++);
+                else if (t > v) exch(a, i, gt--);
+                else i++;
+            }
+            // a[lo..lt-1] < v = a[lt..gt] < a[gt+1..hi], the middle part is sorted if the strings are over
+            int less = lt - lo, equal = gt - lt + 1, greater = hi - gt;
+            if (v >= 0 && equal >= less && equal >= greater) {
+                sort(a, lo, lt - 1, d);
+                sort(a, gt + 1, hi, d);
+                lo = lt;
+                hi = gt;
+                d++;
+                skipPrefix = true;
+            } else if (less >= greater) {
+                if (v >= 0) sort(a, lt, gt, d + 1);
+                sort(a, gt + 1, hi, d);
+                hi = lt - 1;
+            } else {
+                if (v >= 0) sort(a, lt, gt, d + 1);
+                sort(a, lo, lt - 1, d);
+                lo = gt + 1;
+            }
+        }
+        insertion(a, lo, hi, d);
+    }
+
+    /**
+     * Returns the char of {@code s} at the position {@code d} or {@code -1} if {@code s} is shorter.
+     */
+    static int charAt(String s, int d) {
+        return d < s.length() ? s.charAt(d) : -1;
+    }
+
+    /**
+     * Returns the length of the common prefix of {@code a[lo..hi]}, all the strings have the same
+     * first {@code d} chars.
+     */
+    static int commonPrefix(String[] a, int lo, int hi, int d) {
+        String first = a[lo];
+        int prefix = first.length();
+        for (int i = lo + 1; i <= hi && prefix > d; i++) {
+            String s = a[i];
+            int n = Math.min(prefix, s.length());
+            int j = d;
+            while (j < n && s.charAt(j) == first.charAt(j)) j++;
+            prefix = j;
+        }
+        return Math.max(prefix, d);
+    }
+
+    /**
+     * Sorts {@code a[lo..hi]}, all the strings have the same first {@code d} chars.
+     */
+    static void insertion(String[] a, int lo, int hi, int d) {
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && less(a[j], a[j - 1], d); j--)
+                exch(a, j, j - 1);
+        }
+    }
+
+    private static boolean less(String v, String w, int d) {
+        int n = Math.min(v.length(), w.length());
+        for (int i = d; i < n; i++) {
+            char a = v.charAt(i);
+            char b = w.charAt(i);
+            if (a != b) return a < b;
+        }
+        return v.length() < w.length();
+    }
+
+    private static int median(String[] a, int i, int j, int k, int d) {
+        int x = charAt(a[i], d), y = charAt(a[j], d), z = charAt(a[k], d);
+        if (x < y) return y < z ? j : (x < z ? k : i);
+        return x < z ? i : (y < z ? k : j);
+    }
+
+    static void exch(String[] a, int i, int j) {
+        String s = a[i];
+        a[i] = a[j];
+        a[j] = s;
+    }
+}
@@ -0,0 +1,181 @@
+package com.bigsort.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The {@code ReadAhead} class loads the blocks of the sorted files ahead of time during the merge.
+ * <p>
+ * Each wrapped stream has two blocks of {@code blockSize} bytes. While the merge consumes one block,
+ * a thread of a small shared pool fills the other one, so the merge waits for the disk only if it consumes
+ * a block faster than the disk reads the next one. Big blocks also mean fewer and longer reads, which
+ * matters a lot for hundreds of files on a spinning disk.
+ * <p>
+ * {@link #NONE} doesn't wrap streams at all.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class ReadAhead implements Closeable {
+
+    public static final ReadAhead NONE = new ReadAhead(0, 1);
+
+    private int blockSize;
+    private ExecutorService pool;
+
+    /**
+     * Initializes a ReadAhead which loads blocks of {@code blockSize} bytes by {@code threads} threads.
+     *
+     * @param blockSize is the size of a block in bytes, {@code 0} disables the read-ahead
+     * @param threads   is the amount of threads which read the blocks
+     * @throws IllegalArgumentException if {@code blockSize < 0} or {@code threads < 1}
+     */
+    public ReadAhead(int blockSize, int threads) {
+        if (blockSize < 0) throw new IllegalArgumentException("blockSize should not be negative.");
+        if (threads < 1) throw new IllegalArgumentException("threads should be positive.");
+        this.blockSize = blockSize;
+        if (blockSize > 0) pool = Executors.newFixedThreadPool(threads);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return how many bytes of RAM a wrapped stream takes
+     */
+    public long getReaderOverhead() {
+        return 2L * blockSize;
+    }
+
+    /**
+     * Wraps {@code in} so that its blocks are read ahead of time. The first block is requested right away.
+     *
+     * @param in is a stream to read
+     * @return the wrapping stream or {@code in} itself if the read-ahead is disabled
+     */
+    public InputStream wrap(InputStream in) {
+        if (blockSize == 0) return in;
+        return new PrefetchStream(in, blockSize, pool);
+    }
+
+    /**
+     * Stops the threads. The wrapped streams should be closed before.
+     */
+    @Override
+    public void close() {
+        if (pool != null) pool.shutdown();
+    }
+
+    /**
+     * A stream which returns the bytes of one block while the next block is being read by the pool.
+     */
+    private static class PrefetchStream extends InputStream {
+        private InputStream in;
+        private ExecutorService pool;
+        private byte[] block;
+        private byte[] spare;
+        private int pos;
+        private int limit;
+        private Future<Integer> pending;   // reads the next block into spare
+        private boolean eof;
+
+        PrefetchStream(InputStream in, int blockSize, ExecutorService pool) {
+            this.in = in;
+            this.pool = pool;
+            this.block = new byte[blockSize];
+            this.spare = new byte[blockSize];
+            requestNext();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == limit && !nextBlock()) return -1;
+            return block[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (pos == limit && !nextBlock()) return -1;
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // The block which is being read should not be read from a closed stream
+                if (pending != null) pending.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // Nothing else is going to be read
+            } finally {
+                pending = null;
+                in.close();
+            }
+        }
+
+        /**
+         * Waits for the next block, makes it current and requests the one after it.
+         *
+         * @return {@code false} if the end of the stream is reached
+         */
+        private boolean nextBlock() throws IOException {
+            if (eof) return false;
+            int n;
+            try {
+                n = pending.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted read-ahead.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+            pending = null;
+            if (n <= 0) {
+                eof = true;
+                return false;
+            }
+            byte[] t = block;
+            block = spare;
+            spare = t;
+            pos = 0;
+            limit = n;
+            requestNext();
+            return true;
+        }
+
+        private void requestNext() {
+            byte[] target = spare;
+            pending = pool.submit(() -> readFully(target));
+        }
+
+        /**
+         * Fills {@code target} unless the end of the stream is reached earlier.
+         *
+         * @return the amount of bytes read
+         */
+        private int readFully(byte[] target) throws IOException {
+            int n = 0;
+            while (n < target.length) {
+                int r = in.read(target, n, target.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.bigsort.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * The {@code RunHeap} class represents a binary min-heap of keys where every key is tagged
+ * with the number of a run. Keys of a lower run are always less than keys of a higher run,
+ * keys of the same run are compared by their natural order. This is the structure which is
+ * needed by the replacement selection: the keys which are too small to be written into the
+ * current run are tagged with the next run and sink below all the keys of the current run.
+ * <p>
+ * The <em>push</em> and <em>pop</em> operations take logarithmic time. The heap grows on demand.
+ *
+ * @param <Key> the generic type of key on this heap
+ * @author Nadya Shakhat
+ */
+
+public class RunHeap<Key extends Comparable<Key>> {
+    private int n;           // number of keys on the heap
+    private int[] runs;      // runs[i] = the run of keys[i], 1-based indexing
+    private Key[] keys;      // binary heap using 1-based indexing
+
+    /**
+     * Initializes an empty heap which is able to hold {@code capacity} keys without growing.
+     *
+     * @param capacity the initial capacity
+     * @throws IllegalArgumentException if {@code capacity < 1}
+     */
+    public RunHeap(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException();
+        runs = new int[capacity + 1];
+        // Only the inserted keys are ever stored, so the array never holds anything but Key
+        @SuppressWarnings("unchecked")
+        Key[] keys = (Key[]) new Comparable<?>[capacity + 1];
+        this.keys = keys;
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Adds {@code key} of the run {@code run}.
+     *
+     * @param run the number of the run
+     * @param key the key
+     */
+    public void push(int run, Key key) {
+        if (n + 1 == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * keys.length);
+            runs = Arrays.copyOf(runs, 2 * runs.length);
+        }
+        n++;
+        runs[n] = run;
+        keys[n] = key;
+        swim(n);
+    }
+
+    /**
+     * Returns the run of a minimum key.
+     *
+     * @return the run of a minimum key
+     * @throws NoSuchElementException if this heap is empty
+     */
+    public int minRun() {
+        if (n == 0) throw new NoSuchElementException("Heap underflow");
+        return runs[1];
+    }
+
+    /**
+     * Removes and returns a minimum key.
+     *
+     * @return a minimum key
+     * @throws NoSuchElementException if this heap is empty
+     */
+    public Key pop() {
+        if (n == 0) throw new NoSuchElementException("Heap underflow");
+        Key min = keys[1];
+        exch(1, n);
+        keys[n] = null;    // to help with garbage collection
+        n--;
+        sink(1);
+        return min;
+    }
+
+    private boolean greater(int i, int j) {
+        if (runs[i] != runs[j]) return runs[i] > runs[j];
+        return keys[i].compareTo(keys[j]) > 0;
+    }
+
+    private void exch(int i, int j) {
+        Key key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        int run = runs[i];
+        runs[i] = runs[j];
+        runs[j] = run;
+    }
+
+    private void swim(int k) {
+        while (k > 1 && greater(k / 2, k)) {
+            exch(k, k / 2);
+            k = k / 2;
+        }
+    }
+
+    private void sink(int k) {
+        while (2 * k <= n) {
+            int j = 2 * k;
+            if (j < n && greater(j, j + 1)) j++;
+            if (!greater(k, j)) break;
+            exch(k, j);
+            k = j;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.bigsort.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The {@code RunIndex} class is a sparse index of a plain sorted file: a few lines sampled at evenly
+ * spaced byte offsets of the file, together with the offsets they start at.
+ * <p>
+ * Sampling doesn't read the file: the reader seeks to an offset and reads the first line which starts
+ * there or later (see {@link LineReader}). Since the file is sorted, the keys of the index are sorted as
+ * well, so the first line which is not less than any key is found by a binary search over the index and
+ * a scan of a single gap between two entries. This way a sorted file is cut into key ranges with a few
+ * seeks, see {@link #find(Comparable)}. {@link #splitters(List, int)} picks the keys which cut a group of
+ * sorted files into ranges of about the same size.
+ *
+ * @param <K> the type of the keys, i.e. of the lines
+ * @author Nadya Shakhat
+ */
+
+public class RunIndex<K extends Comparable<K>> {
+
+    /**
+     * Reads a line as a key.
+     */
+    public interface KeyReader<K> {
+        /**
+         * @return the next line of {@code reader} or {@code null} if there are no lines left
+         */
+        K read(LineReader reader) throws IOException;
+    }
+
+    /**
+     * Reads lines as Strings, the same way the merge does.
+     */
+    public static final KeyReader<String> TEXT = LineReader::readLine;
+
+    /**
+     * Reads lines as raw bytes, for the files of the binary mode.
+     */
+    public static final KeyReader<ByteLine> BINARY = reader -> {
+        ByteLine line = new ByteLine();
+        return reader.readLine(line) ? line.copy() : null;
+    };
+
+    private File file;
+    private long size;
+    private KeyReader<K> keys;
+    private List<Long> offsets = new ArrayList<>();
+    private List<K> entries = new ArrayList<>();
+
+    private RunIndex(File file, KeyReader<K> keys) {
+        this.file = file;
+        this.size = file.length();
+        this.keys = keys;
+    }
+
+    /**
+     * Samples about {@code entries} lines of the sorted {@code file}.
+     *
+     * @param file    is a plain sorted file
+     * @param entries is the amount of evenly spaced offsets to sample
+     * @param keys    reads the lines of the file
+     * @return the index of the file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if {@code entries < 1}
+     */
+    public static <K extends Comparable<K>> RunIndex<K> build(File file, int entries, KeyReader<K> keys)
+            throws IOException {
+        if (entries < 1) throw new IllegalArgumentException("entries should be positive.");
+        RunIndex<K> index = new RunIndex<>(file, keys);
+        for (int i = 0; i < entries; ++i) {
+            long offset = index.size * i / entries;
+            // Several offsets of a long line lead to the same line
+            if (!index.offsets.isEmpty() && offset < index.offsets.get(index.offsets.size() - 1)) continue;
+            try (LineReader reader = new LineReader(new InputSplit(file, offset, index.size))) {
+                long start = reader.position();
+                K key = keys.read(reader);
+                if (key == null) break;
+                if (!index.offsets.isEmpty() && start == index.offsets.get(index.offsets.size() - 1)) continue;
+                index.offsets.add(start);
+                index.entries.add(key);
+            }
+        }
+        return index;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Finds the first line which is not less than {@code key}.
+     *
+     * @param key is a key to look for
+     * @return the offset of the line or the size of the file if all the lines are less than {@code key}
+     * @throws IOException if the file cannot be read
+     */
+    public long find(K key) throws IOException {
+        // The last entry which is less than the key, the line we look for is after it
+        int lo = 0;
+        int hi = entries.size() - 1;
+        int before = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).compareTo(key) < 0) {
+                before = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (before < 0) return 0;
+        try (LineReader reader = new LineReader(new InputSplit(file, offsets.get(before), size))) {
+            while (true) {
+                long start = reader.position();
+                K line = keys.read(reader);
+                if (line == null) return size;
+                if (line.compareTo(key) >= 0) return start;
+            }
+        }
+    }
+
+    /**
+     * Picks the keys which cut the files of {@code indexes} into {@code partitions} ranges of about the same
+     * amount of bytes. Each entry of an index stands for the bytes up to the next entry.
+     *
+     * @param indexes    are the indexes of the files
+     * @param partitions is the amount of ranges
+     * @return {@code partitions - 1} sorted keys, the range {@code i} starts at the key {@code i - 1}
+     * @throws IllegalArgumentException if {@code partitions < 1}
+     */
+    public static <K extends Comparable<K>> List<K> splitters(List<RunIndex<K>> indexes, int partitions) {
+        if (partitions < 1) throw new IllegalArgumentException("partitions should be positive.");
+        List<K> samples = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        long total = 0;
+        for (RunIndex<K> index : indexes) {
+            for (int i = 0; i < index.entries.size(); ++i) {
+                long next = i + 1 < index.offsets.size() ? index.offsets.get(i + 1) : index.size;
+                samples.add(index.entries.get(i));
+                weights.add(next - index.offsets.get(i));
+                total += next - index.offsets.get(i);
+            }
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < samples.size(); ++i) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(samples::get));
+
+        List<K> splitters = new ArrayList<>();
+        long seen = 0;
+        int next = 0;
+        for (int p = 1; p < partitions; ++p) {
+            long boundary = total * p / partitions;
+            // The first sample which starts at or after the boundary opens the next range
+            while (next < order.size() && seen + weights.get(order.get(next)) <= boundary) {
+                seen += weights.get(order.get(next++));
+            }
+            if (next == order.size()) break;
+            splitters.add(samples.get(order.get(next)));
+        }
+        return splitters;
+    }
+}
@@ -0,0 +1,456 @@
+package com.bigsort.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@code SortKeys} class describes which parts of a line are compared, the same way {@code sort -k}
+ * does. A line is cut into fields by a {@code separator} char, and each key is a range of the line
+ * {@code F[.C][,F[.C]][flags]}: it starts at the char {@code C} of the field {@code F} (the first char by
+ * default) and ends at the char {@code C} of the second field, inclusive (the end of the field if {@code C} is
+ * omitted, the end of the line if the second field is omitted). Fields and chars are counted from one. A key
+ * with {@code r} is compared in the reverse order. The keys are compared one by one, lines with equal keys
+ * are compared as a whole.
+ * <p>
+ * A key is compared as text by default. Other orderings are chosen by the flags, see {@link Ordering}:
+ * {@code n} compares the number the key starts with, {@code h} compares sizes like {@code 12K} or
+ * {@code 1.5G}, {@code V} compares the runs of digits of the key as numbers, so {@code v1.10} goes after
+ * {@code v1.9}.
+ * <p>
+ * All the keys of a line are normalized into a single String, so that plain {@link String#compareTo(String)}
+ * of two normalized keys gives the order of the keys. Each char {@code c} of a text key becomes {@code c + 1}
+ * ({@code \uFFFE} and {@code \uFFFF} become {@code \uFFFF} followed by {@code \u0001} and {@code \u0002}),
+ * and the key is terminated by {@code \u0000}, so no normalized key is a prefix of another one and the keys
+ * never mix. A number is parsed once into a {@code double} and is stored as the four chars of its bits which
+ * are ordered the same way as the numbers, and a fifth char keeps the difference between an integer which is
+ * too big for a {@code double} and its rounded value, so integers of up to 18 digits are compared exactly.
+ * A version key is text where each run of digits becomes a token of its length and its digits without the
+ * leading zeros. The chars of a reverse key are inverted, {@code \uFFFF - c}. See {@link KeyedLine}.
+ * <p>
+ * {@link #NONE} has no keys: the lines are compared as a whole.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class SortKeys {
+
+    public static final char DEFAULT_SEPARATOR = '\t';
+
+    public static final SortKeys NONE = new SortKeys(Collections.emptyList(), DEFAULT_SEPARATOR);
+
+    private static final char TERMINATOR = '\u0000';
+    private static final char ESCAPE = '\uFFFF';
+    private static final char DIGITS = '0' + 1;
+    private static final int MAX_DIGITS = 0xFFFF;
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final String SIZE_SUFFIXES = "KMGTPE";
+
+    /**
+     * The way a key is compared.
+     */
+    public enum Ordering {
+        /**
+         * Chars one by one, the same way as {@link String#compareTo(String)}
+         */
+        TEXT,
+        /**
+         * The number the key starts with: leading blanks, a sign, digits, a fraction and an exponent, e.g.
+         * {@code -12.5e3} or {@code 12.5} of {@code 12.5ms}. A key without a number is zero
+         */
+        NUMERIC,
+        /**
+         * A number followed by a binary size suffix {@code K}, {@code M}, {@code G}, {@code T}, {@code P} or
+         * {@code E} (case insensitive), e.g. {@code 1.5K} is 1536
+         */
+        HUMAN_SIZE,
+        /**
+         * Text where runs of digits are compared as numbers, e.g. {@code 1.9 < 1.10 < 2.0-rc1}
+         */
+        VERSION
+    }
+
+    private List<Key> keys;
+    private char separator;
+
+    private SortKeys(List<Key> keys, char separator) {
+        this.keys = Collections.unmodifiableList(keys);
+        this.separator = separator;
+    }
+
+    /**
+     * Parses the keys of {@code specs}.
+     *
+     * @param specs     the keys in the order they are compared, each of them is {@code F[.C][,F[.C]][flags]}
+     * @param separator the char which separates the fields
+     * @return the keys, {@link #NONE} if {@code specs} is empty
+     * @throws IllegalArgumentException if a key is malformed
+     */
+    public static SortKeys parse(List<String> specs, char separator) {
+        if (specs.isEmpty()) return NONE;
+        List<Key> keys = new ArrayList<>();
+        for (String spec : specs) {
+            keys.add(Key.parse(spec));
+        }
+        return new SortKeys(keys, separator);
+    }
+
+    /**
+     * @see #parse(List, char)
+     */
+    public static SortKeys parse(String... specs) {
+        return parse(Arrays.asList(specs), DEFAULT_SEPARATOR);
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    public List<Key> getKeys() {
+        return keys;
+    }
+
+    public char getSeparator() {
+        return separator;
+    }
+
+    /**
+     * Extracts all the keys of {@code line} into one normalized String.
+     *
+     * @param line is a line without the line separator
+     * @return the normalized keys
+     */
+    public String normalize(String line) {
+        StringBuilder sb = new StringBuilder();
+        for (Key key : keys) {
+            int start = find(line, key.startField, key.startChar - 1, false);
+            int end = key.endField == 0 ? line.length() : find(line, key.endField, key.endChar, key.endChar == 0);
+            char mask = key.reverse ? ESCAPE : 0;
+            switch (key.ordering) {
+                case NUMERIC:
+                case HUMAN_SIZE:
+                    appendNumber(sb, line, start, end, key.ordering == Ordering.HUMAN_SIZE, mask);
+                    break;
+                case VERSION:
+                    appendVersion(sb, line, start, end, mask);
+                    break;
+                default:
+                    for (int i = start; i < end; ++i) {
+                        appendChar(sb, line.charAt(i), mask);
+                    }
+                    sb.append((char) (TERMINATOR ^ mask));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendChar(StringBuilder sb, char c, char mask) {
+        if (c >= ESCAPE - 1) {
+            sb.append((char) (ESCAPE ^ mask));
+            sb.append((char) ((c - ESCAPE + 2) ^ mask));
+        } else {
+            sb.append((char) ((c + 1) ^ mask));
+        }
+    }
+
+    /**
+     * Appends the number of {@code line[start..end)} as five chars, see {@link Ordering#NUMERIC}.
+     *
+     * @param human whether the number may have a size suffix
+     */
+    private static void appendNumber(StringBuilder sb, String line, int start, int end, boolean human,
+                                     char mask) {
+        long[] residual = new long[1];
+        double value = parseNumber(line, start, end, human, residual);
+        // -0.0 has other bits than 0.0
+        if (value == 0) value = 0;
+        long bits = Double.doubleToLongBits(value);
+        bits ^= bits < 0 ? -1L : Long.MIN_VALUE;
+        for (int shift = 48; shift >= 0; shift -= 16) {
+            sb.append((char) ((char) (bits >>> shift) ^ mask));
+        }
+        // The rounding error of a long is at most half of the step of doubles near 2^63, i.e. 1024
+        sb.append((char) ((char) (residual[0] + 0x8000) ^ mask));
+    }
+
+    /**
+     * Parses the number {@code line[start..end)} starts with, see {@link Ordering#NUMERIC}.
+     *
+     * @param human     whether the number may have a size suffix
+     * @param residuals receives the difference between an integer of up to 18 digits and the returned value,
+     *                  may be {@code null}
+     * @return the number, zero if there is none
+     */
+    static double parseNumber(String line, int start, int end, boolean human, long[] residuals) {
+        int i = start;
+        while (i < end && Character.isWhitespace(line.charAt(i))) ++i;
+        int from = i;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) ++i;
+        int intFrom = i;
+        while (i < end && isDigit(line.charAt(i))) ++i;
+        int intEnd = i;
+        int fraction = 0;
+        if (i < end && line.charAt(i) == '.') {
+            ++i;
+            while (i < end && isDigit(line.charAt(i))) {
+                ++i;
+                ++fraction;
+            }
+        }
+        double value = 0;
+        long residual = 0;
+        if (intEnd > intFrom || fraction > 0) {
+            boolean integer = i == intEnd;
+            int exponent = i < end && (line.charAt(i) == 'e' || line.charAt(i) == 'E') ? exponentEnd(line, i, end) : i;
+            if (exponent > i) {
+                integer = false;
+                i = exponent;
+            }
+            if (integer && intEnd - intFrom <= MAX_LONG_DIGITS) {
+                long exact = Long.parseLong(line.substring(from, intEnd));
+                value = exact;
+                residual = exact - (long) value;
+            } else {
+                value = Double.parseDouble(line.substring(from, i));
+            }
+            if (human && i < end) {
+                int suffix = SIZE_SUFFIXES.indexOf(Character.toUpperCase(line.charAt(i)));
+                if (suffix >= 0) {
+                    value = Math.scalb(value, 10 * (suffix + 1));
+                    residual = 0;
+                }
+            }
+        }
+        if (residuals != null) residuals[0] = residual;
+        return value;
+    }
+
+    /**
+     * @return the end of the exponent which starts at {@code e}, or {@code e} if there are no digits after it
+     */
+    private static int exponentEnd(String line, int e, int end) {
+        int i = e + 1;
+        if (i < end && (line.charAt(i) == '-' || line.charAt(i) == '+')) ++i;
+        int digits = i;
+        while (i < end && isDigit(line.charAt(i))) ++i;
+        return i > digits ? i : e;
+    }
+
+    /**
+     * Appends {@code line[start..end)} as a version, see {@link Ordering#VERSION}. A run of digits is a token
+     * which starts with {@code '0' + 1}, the place of a digit among the other chars, so a number is compared
+     * with a non-digit char the same way a digit is. Then the length of the number goes, so a shorter number
+     * is less, and then its digits.
+     */
+    private static void appendVersion(StringBuilder sb, String line, int start, int end, char mask) {
+        int i = start;
+        while (i < end) {
+            char c = line.charAt(i);
+            if (!isDigit(c)) {
+                appendChar(sb, c, mask);
+                ++i;
+                continue;
+            }
+            while (i < end && line.charAt(i) == '0') ++i;
+            int from = i;
+            while (i < end && isDigit(line.charAt(i)) && i - from < MAX_DIGITS) ++i;
+            sb.append((char) (DIGITS ^ mask)).append((char) ((i - from) ^ mask));
+            for (int j = from; j < i; ++j) {
+                sb.append((char) (line.charAt(j) ^ mask));
+            }
+        }
+        sb.append((char) (TERMINATOR ^ mask));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Finds a position in the field {@code field} of {@code line}.
+     *
+     * @param offset   the offset in the field, it is cut to the end of the field
+     * @param fieldEnd whether the end of the field is asked for instead
+     * @return the position in {@code line}, the end of the line if there is no such field
+     */
+    private int find(String line, int field, int offset, boolean fieldEnd) {
+        int start = 0;
+        for (int f = 1; f < field; ++f) {
+            int next = line.indexOf(separator, start);
+            if (next < 0) return line.length();
+            start = next + 1;
+        }
+        int end = line.indexOf(separator, start);
+        if (end < 0) end = line.length();
+        return fieldEnd ? end : (int) Math.min(end, (long) start + offset);
+    }
+
+    /**
+     * @param line is a line or {@code null}
+     * @return the line with its key or {@code null} if {@code line} is {@code null}
+     */
+    public KeyedLine wrap(String line) {
+        return line == null ? null : new KeyedLine(normalize(line), line);
+    }
+
+    /**
+     * Tells if two lines are duplicates: their keys are equal, or the lines are equal if there are no keys.
+     *
+     * @param a is a line
+     * @param b is a line
+     * @return {@code true} if the lines are equal for {@link Duplicates}
+     */
+    public boolean same(KeyedLine a, KeyedLine b) {
+        return isEmpty() ? a.getLine().equals(b.getLine()) : a.getKey().equals(b.getKey());
+    }
+
+    /**
+     * Returns how many bytes of heap the key of {@code line} takes besides the line itself. A normalized key
+     * usually has at most a char for each char of the line plus five chars for each key.
+     *
+     * @param line is a line
+     * @return estimated size of the key in bytes, {@code 0} if there are no keys
+     */
+    public long estimate(String line) {
+        if (isEmpty()) return 0;
+        return KeyedLine.OVERHEAD + MemoryEstimator.STRING_OVERHEAD + 2L * (line.length() + 5L * keys.size());
+    }
+
+    /**
+     * Sorts {@code lines[from..to)} by their keys. The key of each line is extracted once and is kept next to
+     * the line while the lines are sorted.
+     *
+     * @param lines the array
+     * @param from  the index of the first line to sort, inclusive
+     * @param to    the index of the last line to sort, exclusive
+     */
+    public void sort(String[] lines, int from, int to) {
+        sort(lines, from, to, Duplicates.KEEP);
+    }
+
+    /**
+     * The same as {@link #sort(String[], int, int)}, but each run of lines with equal keys is collapsed into
+     * one line by {@code duplicates} while the keys are still there, see {@link Duplicates#join(String[], int,
+     * int)}.
+     *
+     * @param duplicates the way lines with equal keys are treated
+     * @return the end of the sorted lines, exclusive
+     */
+    public int sort(String[] lines, int from, int to, Duplicates duplicates) {
+        KeyedLine[] keyed = new KeyedLine[to - from];
+        for (int i = from; i < to; ++i) {
+            keyed[i - from] = wrap(lines[i]);
+        }
+        Arrays.sort(keyed);
+        for (int i = from; i < to; ++i) {
+            lines[i] = keyed[i - from].getLine();
+        }
+        if (!duplicates.isUnique()) return to;
+        int end = from;
+        for (int i = 0; i < keyed.length; ) {
+            int j = i + 1;
+            while (j < keyed.length && same(keyed[j], keyed[i])) ++j;
+            // The group is joined before its place is taken, end <= from + i
+            lines[end++] = duplicates.join(lines, from + i, from + j);
+            i = j;
+        }
+        Arrays.fill(lines, end, to, null);
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return keys.toString();
+    }
+
+    /**
+     * A range of a line which is compared as a whole.
+     */
+    public static class Key {
+        // The flags of the orderings in the order of Ordering, text has no flag
+        private static final String FLAGS = " nhV";
+
+        private int startField;
+        private int startChar = 1;
+        private int endField;     // 0 is the end of the line
+        private int endChar;      // 0 is the end of the field
+        private boolean reverse;
+        private Ordering ordering = Ordering.TEXT;
+
+        private Key() {
+        }
+
+        /**
+         * @param spec is {@code F[.C][,F[.C]][flags]}, the flags are {@code r} and one of {@code n}, {@code h}
+         *             and {@code V}, see {@link Ordering}
+         * @return the key
+         * @throws IllegalArgumentException if {@code spec} is malformed
+         */
+        static Key parse(String spec) {
+            Key key = new Key();
+            String[] positions = spec.split(",", -1);
+            if (positions.length > 2) throw malformed(spec);
+            int[] start = parsePosition(spec, positions[0], key);
+            key.startField = start[0];
+            if (start[1] >= 0) key.startChar = start[1];
+            if (key.startField < 1 || key.startChar < 1) throw malformed(spec);
+            if (positions.length == 2) {
+                int[] end = parsePosition(spec, positions[1], key);
+                key.endField = end[0];
+                key.endChar = Math.max(0, end[1]);
+                if (key.endField < 1) throw malformed(spec);
+            }
+            return key;
+        }
+
+        /**
+         * Parses {@code F[.C]} followed by the flags of the key.
+         *
+         * @return the field and the char, {@code -1} if the char is omitted
+         */
+        private static int[] parsePosition(String spec, String position, Key key) {
+            int flags = position.length();
+            while (flags > 0 && Character.isLetter(position.charAt(flags - 1))) {
+                --flags;
+            }
+            for (char flag : position.substring(flags).toCharArray()) {
+                if (flag == 'r') {
+                    key.reverse = true;
+                    continue;
+                }
+                int ordering = FLAGS.indexOf(flag);
+                if (ordering < 0) throw new IllegalArgumentException("Unknown flag " + flag + " of key " + spec);
+                if (key.ordering != Ordering.TEXT && key.ordering != Ordering.values()[ordering])
+                    throw new IllegalArgumentException("Key " + spec + " should have only one of the flags n, h, V");
+                key.ordering = Ordering.values()[ordering];
+            }
+            String[] parts = position.substring(0, flags).split("\\.", -1);
+            if (parts.length > 2) throw malformed(spec);
+            try {
+                return new int[]{Integer.parseInt(parts[0]), parts.length == 2 ? Integer.parseInt(parts[1]) : -1};
+            } catch (NumberFormatException e) {
+                throw malformed(spec);
+            }
+        }
+
+        private static IllegalArgumentException malformed(String spec) {
+            return new IllegalArgumentException("Key " + spec + " should be F[.C][,F[.C]][nhVr]");
+        }
+
+        public boolean isReverse() {
+            return reverse;
+        }
+
+        public Ordering getOrdering() {
+            return ordering;
+        }
+
+        @Override
+        public String toString() {
+            return startField + "." + startChar + (endField == 0 ? "" : "," + endField
+                    + (endChar == 0 ? "" : "." + endChar)) + FLAGS.substring(ordering.ordinal(), ordering.ordinal() + 1).trim()
+                    + (reverse ? "r" : "");
+        }
+    }
+}
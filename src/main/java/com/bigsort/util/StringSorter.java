@@ -0,0 +1,100 @@
+package com.bigsort.util;
+
+import java.util.Arrays;
+
+/**
+ * The algorithms which sort a batch of lines in RAM. All of them produce the order of
+ * {@link String#compareTo(String)}.
+ * <p>
+ * {@code JDK} is {@code Arrays.sort}, i.e. TimSort. It is the best choice for a batch which is already
+ * (nearly) sorted, but every comparison starts from the first char, so long common prefixes are compared
+ * over and over. {@code MULTIKEY_QUICKSORT} and {@code MSD_RADIX} skip the common prefix of a group of
+ * lines in a single pass. {@code MSD_RADIX} is usually the fastest one, but it needs an extra array of
+ * references as big as the batch, while {@code MULTIKEY_QUICKSORT} sorts in place. {@code AUTO} chooses
+ * an algorithm for each batch, see {@link #choose(String[], int, int)}.
+ *
+ * @author Nadya Shakhat
+ */
+
+public enum StringSorter {
+    JDK {
+        @Override
+        public void sort(String[] a, int from, int to) {
+            Arrays.sort(a, from, to);
+        }
+    },
+    MULTIKEY_QUICKSORT {
+        @Override
+        public void sort(String[] a, int from, int to) {
+            MultikeyQuicksort.sort(a, from, to);
+        }
+    },
+    MSD_RADIX {
+        @Override
+        public void sort(String[] a, int from, int to) {
+            MsdRadixSort.sort(a, from, to);
+        }
+    },
+    AUTO {
+        @Override
+        public void sort(String[] a, int from, int to) {
+            choose(a, from, to).sort(a, from, to);
+        }
+    };
+
+    private static final int SAMPLE_SIZE = 128;
+    private static final int MIN_RADIX_BATCH = 4 * SAMPLE_SIZE;
+
+    /**
+     * Sorts {@code a[from..to)}.
+     *
+     * @param a    the array
+     * @param from the index of the first string to sort, inclusive
+     * @param to   the index of the last string to sort, exclusive
+     */
+    public abstract void sort(String[] a, int from, int to);
+
+    /**
+     * Tells if {@code a[from..to)} is already sorted. The check stops at the first string which is less than
+     * the previous one, so an unsorted batch is usually rejected by its first strings.
+     *
+     * @param a    the array
+     * @param from the index of the first string, inclusive
+     * @param to   the index of the last string, exclusive
+     * @return {@code true} if every string is not less than the previous one
+     */
+    public static boolean isSorted(String[] a, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (a[i].compareTo(a[i - 1]) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Chooses an algorithm for {@code a[from..to)} by a sample of evenly spaced strings. Small batches and
+     * batches whose sample is already sorted in either direction are sorted by {@code JDK}, because TimSort
+     * merges the existing runs in linear time. Any other batch is sorted by {@code MSD_RADIX}, which has been
+     * faster than {@code MULTIKEY_QUICKSORT} on every kind of text we have tried.
+     *
+     * @param a    the array
+     * @param from the index of the first string to sort, inclusive
+     * @param to   the index of the last string to sort, exclusive
+     * @return the algorithm which is expected to be the fastest one
+     */
+    public static StringSorter choose(String[] a, int from, int to) {
+        int n = to - from;
+        if (n < MIN_RADIX_BATCH) return JDK;
+
+        boolean ascending = true;
+        boolean descending = true;
+        String previous = a[from];
+        for (int i = 1; i < SAMPLE_SIZE && (ascending || descending); i++) {
+            String next = a[from + (int) ((long) i * n / SAMPLE_SIZE)];
+            int cmp = previous.compareTo(next);
+            if (cmp > 0) ascending = false;
+            if (cmp < 0) descending = false;
+            previous = next;
+        }
+        return ascending || descending ? JDK : MSD_RADIX;
+    }
+}
@@ -0,0 +1,122 @@
+package com.bigsort.util;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The codecs which are used to compress temporary files. The result file is never compressed.
+ * <p>
+ * {@code NONE} writes temporary files as plain text.
+ * {@code LZ4} is a fast block compressor, it costs little CPU and usually halves the size of text.
+ * {@code DEFLATE} is {@code java.util.zip} deflate at the fastest level. It compresses better than
+ * {@code LZ4}, but it is several times slower.
+ * <p>
+ * Compression trades spare CPU for less disk IO: every temporary file is written once and read once
+ * during each merge pass.
+ *
+ * @author Nadya Shakhat
+ */
+
+public enum TempCodec {
+    NONE {
+        @Override
+        public OutputStream wrap(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream wrap(InputStream in) {
+            return in;
+        }
+
+        @Override
+        public int getReaderOverhead() {
+            return 0;
+        }
+    },
+    LZ4 {
+        @Override
+        public OutputStream wrap(OutputStream out) {
+            return new LZ4BlockOutputStream(out, BLOCK_SIZE);
+        }
+
+        @Override
+        public InputStream wrap(InputStream in) {
+            return new LZ4BlockInputStream(in);
+        }
+
+        @Override
+        public int getReaderOverhead() {
+            // a block and a compressed block
+            return 2 * BLOCK_SIZE + 1024;
+        }
+    },
+    DEFLATE {
+        @Override
+        public OutputStream wrap(OutputStream out) {
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            return new DeflaterOutputStream(out, deflater, BLOCK_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream wrap(InputStream in) {
+            final Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, BLOCK_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public int getReaderOverhead() {
+            // a buffer of compressed bytes and the state of the inflater with its 32 KB window
+            return BLOCK_SIZE + 48 * 1024;
+        }
+    };
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Wraps {@code out} so that everything written is compressed.
+     *
+     * @param out is a stream of a temporary file
+     * @return a compressing stream, closing it closes {@code out}
+     */
+    public abstract OutputStream wrap(OutputStream out) throws IOException;
+
+    /**
+     * Wraps {@code in} so that everything read is decompressed.
+     *
+     * @param in is a stream of a temporary file written by {@link #wrap(OutputStream)}
+     * @return a decompressing stream, closing it closes {@code in}
+     */
+    public abstract InputStream wrap(InputStream in) throws IOException;
+
+    /**
+     * @return how many bytes of RAM the decompression of one file takes in addition to the read buffer
+     */
+    public abstract int getReaderOverhead();
+}
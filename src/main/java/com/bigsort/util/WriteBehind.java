@@ -0,0 +1,228 @@
+package com.bigsort.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The {@code WriteBehind} class moves writing to a file off the thread which produces the lines.
+ * <p>
+ * Each wrapped stream has a ring of {@code buffers} buffers of {@code bufferSize} bytes and its own writing
+ * thread. The producing thread fills a buffer and hands it to the writing thread, then it goes on with
+ * the next free buffer while the full one is being written. The producer waits only if all the buffers are
+ * full, i.e. if it produces bytes faster than the disk takes them. Errors of the writing thread are thrown
+ * by the next call of the producer.
+ * <p>
+ * {@link #NONE} doesn't wrap streams at all.
+ *
+ * @author Nadya Shakhat
+ */
+
+public class WriteBehind {
+
+    /**
+     * The default amount of buffers of a stream: one is being filled while the other one is being written
+     */
+    public static final int BUFFERS = 2;
+
+    public static final WriteBehind NONE = new WriteBehind(0);
+
+    private int bufferSize;
+    private int buffers;
+
+    /**
+     * Initializes a WriteBehind which gives each stream {@link #BUFFERS} buffers of {@code bufferSize} bytes.
+     *
+     * @param bufferSize is the size of a buffer in bytes, {@code 0} disables the write-behind
+     * @throws IllegalArgumentException if {@code bufferSize < 0}
+     */
+    public WriteBehind(int bufferSize) {
+        this(bufferSize, BUFFERS);
+    }
+
+    /**
+     * Initializes a WriteBehind which gives each stream {@code buffers} buffers of {@code bufferSize} bytes.
+     *
+     * @param bufferSize is the size of a buffer in bytes, {@code 0} disables the write-behind
+     * @param buffers    is the amount of buffers of a stream
+     * @throws IllegalArgumentException if {@code bufferSize < 0} or {@code buffers < 2}
+     */
+    public WriteBehind(int bufferSize, int buffers) {
+        if (bufferSize < 0) throw new IllegalArgumentException("bufferSize should not be negative.");
+        if (buffers < 2) throw new IllegalArgumentException("buffers should be at least 2.");
+        this.bufferSize = bufferSize;
+        this.buffers = buffers;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return how many bytes of RAM a wrapped stream takes
+     */
+    public long getWriterOverhead() {
+        return (long) buffers * bufferSize;
+    }
+
+    /**
+     * Wraps {@code out} so that it is written by a separate thread. {@code out} is closed when the wrapping
+     * stream is closed.
+     *
+     * @param out is a stream to write
+     * @return the wrapping stream or {@code out} itself if the write-behind is disabled
+     */
+    public OutputStream wrap(OutputStream out) {
+        if (bufferSize == 0) return out;
+        return new WriteBehindStream(out, bufferSize, buffers);
+    }
+
+    /**
+     * A stream which fills one buffer while the other ones are being written by the writing thread.
+     */
+    private static class WriteBehindStream extends OutputStream {
+        private static final Chunk END = new Chunk(null, 0);
+
+        private OutputStream out;
+        private BlockingQueue<byte[]> free;
+        private BlockingQueue<Chunk> full;
+        private int buffers;
+        private byte[] buf;
+        private int count;
+        private Thread writer;
+        private volatile IOException error;
+        private boolean closed;
+
+        WriteBehindStream(OutputStream out, int bufferSize, int buffers) {
+            this.out = out;
+            this.buffers = buffers;
+            free = new ArrayBlockingQueue<>(buffers);
+            full = new ArrayBlockingQueue<>(buffers + 1);
+            for (int i = 1; i < buffers; ++i) {
+                free.add(new byte[bufferSize]);
+            }
+            buf = new byte[bufferSize];
+            writer = new Thread(this::writeChunks, "write-behind");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) handOff();
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) handOff();
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Hands the current buffer to the writing thread and waits until everything is written.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) handOff();
+            try {
+                // All the buffers are free once the writing thread is idle
+                byte[][] taken = new byte[buffers - 1][];
+                for (int i = 0; i < taken.length; ++i) {
+                    taken[i] = take();
+                }
+                for (byte[] b : taken) {
+                    free.add(b);
+                }
+            } finally {
+                checkError();
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                if (count > 0 && error == null) handOff();
+            } finally {
+                try {
+                    full.put(END);
+                    writer.join();
+                } catch (InterruptedException e) {
+                    writer.interrupt();
+                    Thread.currentThread().interrupt();
+                }
+                out.close();
+            }
+            checkError();
+        }
+
+        /**
+         * Passes the current buffer to the writing thread and takes a free one.
+         */
+        private void handOff() throws IOException {
+            checkError();
+            try {
+                full.put(new Chunk(buf, count));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted write-behind.");
+            }
+            buf = take();
+            count = 0;
+        }
+
+        private byte[] take() throws IOException {
+            try {
+                // The writing thread returns every buffer, even after a failure
+                return free.take();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted write-behind.");
+            }
+        }
+
+        private void checkError() throws IOException {
+            if (error != null) throw error;
+        }
+
+        /**
+         * The body of the writing thread: writes the chunks until {@code END} comes.
+         */
+        private void writeChunks() {
+            try {
+                while (true) {
+                    Chunk chunk = full.take();
+                    if (chunk == END) return;
+                    try {
+                        if (error == null) out.write(chunk.bytes, 0, chunk.length);
+                    } catch (IOException e) {
+                        error = e;
+                    } finally {
+                        free.add(chunk.bytes);
+                    }
+                }
+            } catch (InterruptedException e) {
+                error = new InterruptedIOException("Interrupted write-behind.");
+            }
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] bytes;
+        private final int length;
+
+        Chunk(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+}
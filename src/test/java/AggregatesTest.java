@@ -0,0 +1,64 @@
+import com.bigsort.util.Aggregates;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AggregatesTest {
+
+    @Test
+    public void testParse() {
+        Aggregates aggregates = Aggregates.parse("count,sum:3,MIN:1,max:2", ',');
+        assertEquals(Arrays.asList(Aggregates.Operation.COUNT, Aggregates.Operation.SUM, Aggregates.Operation.MIN,
+                Aggregates.Operation.MAX), aggregates.getOperations());
+        assertEquals(4, aggregates.size());
+        assertEquals("count,sum:3,min:1,max:2", aggregates.toString());
+    }
+
+    @Test
+    public void testWrongAggregates() {
+        for (String spec : Arrays.asList("", "avg:1", "count:1", "sum", "sum:0", "sum:x", "count,")) {
+            try {
+                Aggregates.parse(spec, ' ');
+                throw new AssertionError(spec);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testOf() {
+        Aggregates aggregates = Aggregates.parse("count,sum:2,min:3,max:4", ' ');
+        assertArrayEquals(new double[]{1, 12, -1.5, 0}, aggregates.of("a 12 -1.5"), 0);
+        assertArrayEquals(new double[]{1, 0, 0, 0}, aggregates.of("a x"), 0);
+        assertArrayEquals(new double[]{1, 7, 0, 3}, aggregates.of("a 7kb  3"), 0);
+    }
+
+    @Test
+    public void testCombine() {
+        Aggregates aggregates = Aggregates.parse("count,sum:1,min:1,max:1", ' ');
+        double[] values = aggregates.of("3");
+        aggregates.combine(values, aggregates.of("-2"));
+        aggregates.combine(values, new double[]{2, 10, 5, 5});
+        assertArrayEquals(new double[]{4, 11, -2, 5}, values, 0);
+    }
+
+    @Test
+    public void testFormatAndParse() {
+        Aggregates aggregates = Aggregates.parse("count,sum:2", ' ');
+        String group = aggregates.format(new double[]{3, 0.5}, "a 1");
+        assertEquals("3\t0.5\ta 1", group);
+        double[] values = new double[2];
+        assertEquals(group.length() - 3, aggregates.parse(group, values));
+        assertArrayEquals(new double[]{3, 0.5}, values, 0);
+        assertEquals("-2\t1.0E20\t", aggregates.format(new double[]{-2, 1e20}, ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseWithoutAggregates() {
+        Aggregates.COUNT.parse("a", new double[1]);
+    }
+}
@@ -0,0 +1,81 @@
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.ByteLineReader;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteLineTest {
+
+    @Test
+    public void testCompareUnsigned() {
+        ByteLine a = line(0x7f);
+        ByteLine b = line(0x80);
+        ByteLine c = line(0xff);
+        assertTrue(a.compareTo(b) < 0);
+        assertTrue(b.compareTo(c) < 0);
+        assertTrue(c.compareTo(a) > 0);
+        assertEquals(0, b.compareTo(line(0x80)));
+    }
+
+    @Test
+    public void testComparePrefix() {
+        assertTrue(line().compareTo(line(0)) < 0);
+        assertTrue(line('a').compareTo(line('a', 'a')) < 0);
+        assertTrue(line('a', 'b').compareTo(line('a', 'a', 'z')) > 0);
+    }
+
+    @Test
+    public void testCompareSlices() {
+        byte[] bytes = {'x', 'a', 'b', 'y'};
+        ByteLine slice = new ByteLine(bytes, 1, 2);
+        assertEquals(0, slice.compareTo(line('a', 'b')));
+        ByteLine copy = slice.copy();
+        bytes[1] = 'z';
+        assertEquals(0, copy.compareTo(line('a', 'b')));
+        assertEquals(0, copy.getOffset());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReaderWrongBufferSize() {
+        new ByteLineReader(new ByteArrayInputStream(new byte[0]), 0);
+    }
+
+    @Test
+    public void testReadLines() throws IOException {
+        byte[] input = "first\n\na much longer line\r\nlast".getBytes("US-ASCII");
+        for (int bufferSize : new int[]{1, 3, 1024}) {
+            ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(input), bufferSize);
+            List<String> result = new ArrayList<>();
+            ByteLine line = new ByteLine();
+            while (reader.readLine(line)) {
+                result.add(new String(line.getBytes(), line.getOffset(), line.getLength(), "US-ASCII"));
+            }
+            assertFalse(reader.readLine(line));
+            reader.close();
+            assertEquals(Arrays.asList("first", "", "a much longer line\r", "last"), result);
+        }
+    }
+
+    @Test
+    public void testReadEmptyStream() throws IOException {
+        ByteLineReader reader = new ByteLineReader(new ByteArrayInputStream(new byte[0]), 16);
+        assertFalse(reader.readLine(new ByteLine()));
+        reader.close();
+    }
+
+    private static ByteLine line(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            bytes[i] = (byte) values[i];
+        }
+        return new ByteLine(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,160 @@
+import com.bigsort.util.Aggregates;
+import com.bigsort.util.DuplicateFilter;
+import com.bigsort.util.Duplicates;
+import com.bigsort.util.KeyedLine;
+import com.bigsort.util.SortKeys;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicatesTest {
+
+    @Test
+    public void testIsUnique() {
+        assertFalse(Duplicates.KEEP.isUnique());
+        assertTrue(Duplicates.DROP.isUnique());
+        assertTrue(Duplicates.COUNT.isUnique());
+        assertFalse(Duplicates.DROP.isAggregated());
+        assertTrue(Duplicates.COUNT.isAggregated());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregateWithoutAggregates() {
+        Duplicates.aggregate(null);
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("a", Duplicates.KEEP.format("a", new double[]{3}));
+        assertEquals("a", Duplicates.DROP.format("a", new double[]{3}));
+        assertEquals("3\ta", Duplicates.COUNT.format("a", new double[]{3}));
+    }
+
+    @Test
+    public void testCollapse() {
+        String[] lines = {"a", "a", "b", "c", "c", "c"};
+        assertEquals(6, Duplicates.KEEP.collapse(lines.clone(), 0, 6));
+
+        String[] dropped = lines.clone();
+        assertEquals(4, Duplicates.DROP.collapse(dropped, 1, 6));
+        assertArrayEquals(new String[]{"a", "a", "b", "c", null, null}, dropped);
+
+        String[] counted = lines.clone();
+        assertEquals(3, Duplicates.COUNT.collapse(counted, 0, 6));
+        assertArrayEquals(new String[]{"2\ta", "1\tb", "3\tc", null, null, null}, counted);
+        assertEquals(0, Duplicates.COUNT.collapse(new String[0], 0, 0));
+
+        String[] summed = {"a 1", "a 1", "a 2"};
+        Duplicates sum = Duplicates.aggregate(Aggregates.parse("sum:2,count", ' '));
+        assertEquals(2, sum.collapse(summed, 0, 3));
+        assertArrayEquals(new String[]{"2\t2\ta 1", "2\t1\ta 2", null}, summed);
+    }
+
+    @Test
+    public void testReader() {
+        KeyedLine line = Duplicates.COUNT.reader(SortKeys.NONE).apply("12\ta\tb");
+        assertEquals("a\tb", line.getLine());
+        assertArrayEquals(new double[]{12}, line.getValues(), 0);
+
+        line = Duplicates.COUNT.reader(SortKeys.parse("2")).apply("3\ta\tb");
+        assertEquals(SortKeys.parse("2").normalize("a\tb"), line.getKey());
+        assertArrayEquals(new double[]{3}, line.getValues(), 0);
+
+        line = Duplicates.DROP.reader(SortKeys.NONE).apply("5\ta");
+        assertEquals("5\ta", line.getLine());
+        assertNull(line.getValues());
+        assertNull(Duplicates.COUNT.reader(SortKeys.NONE).apply(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReaderWithoutCount() {
+        Duplicates.COUNT.reader(SortKeys.NONE).apply("a");
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        SortKeys keys = SortKeys.parse(Arrays.asList("2"), ' ');
+        List<String> lines = Arrays.asList("2\tb 1", "1\tc 1", "1\ta 2", "4\tb 3", "1\tc 3");
+        for (Duplicates duplicates : Arrays.asList(Duplicates.KEEP, Duplicates.DROP, Duplicates.COUNT)) {
+            StringWriter text = new StringWriter();
+            BufferedWriter out = new BufferedWriter(text);
+            DuplicateFilter<KeyedLine> filter = duplicates.filter(keys, out);
+            for (String line : lines) {
+                filter.add(Duplicates.COUNT.reader(keys).apply(line));
+            }
+            filter.flush();
+            out.close();
+            List<String> expected = duplicates == Duplicates.KEEP
+                    ? Arrays.asList("b 1", "c 1", "a 2", "b 3", "c 3")
+                    : duplicates == Duplicates.DROP ? Arrays.asList("b 1", "a 2", "b 3")
+                    : Arrays.asList("3\tb 1", "1\ta 2", "5\tb 3");
+            assertEquals(duplicates.toString(), expected, split(text));
+        }
+    }
+
+    @Test
+    public void testFilterCopiesHeldLine() throws IOException {
+        List<String> written = new ArrayList<>();
+        StringBuilder reused = new StringBuilder();
+        DuplicateFilter<StringBuilder> filter = new DuplicateFilter<>((a, b) -> a.toString().equals(b.toString()),
+                line -> new StringBuilder(line), Aggregates.COUNT, line -> new double[]{1},
+                (line, values) -> written.add(line + " " + (long) values[0]));
+        for (String line : Arrays.asList("a", "a", "b")) {
+            reused.setLength(0);
+            filter.add(reused.append(line));
+        }
+        filter.flush();
+        filter.flush();
+        assertEquals(Arrays.asList("a 2", "b 1"), written);
+    }
+
+    @Test
+    public void testFilterAggregates() throws IOException {
+        Duplicates duplicates = Duplicates.aggregate(Aggregates.parse("min:2,max:2", ' '));
+        StringWriter text = new StringWriter();
+        BufferedWriter out = new BufferedWriter(text);
+        DuplicateFilter<String> filter = duplicates.filter(out);
+        for (String line : Arrays.asList("a", "a", "b 2", "b 2")) {
+            filter.add(line);
+        }
+        filter.flush();
+        out.close();
+        assertEquals(Arrays.asList("0\t0\ta", "2\t2\tb 2"), split(text));
+    }
+
+    @Test
+    public void testFilterLimit() throws IOException {
+        StringWriter text = new StringWriter();
+        BufferedWriter out = new BufferedWriter(text);
+        DuplicateFilter<String> filter = Duplicates.COUNT.filter(out).limit(2);
+        for (String line : Arrays.asList("a", "a", "b", "b", "c")) {
+            assertFalse(filter.isFull());
+            filter.add(line);
+        }
+        assertTrue(filter.isFull());
+        filter.add("d");
+        filter.flush();
+        out.close();
+        assertEquals(Arrays.asList("2\ta", "2\tb"), split(text));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFilterWrongLimit() {
+        Duplicates.KEEP.filter(new BufferedWriter(new StringWriter())).limit(0);
+    }
+
+    private static List<String> split(StringWriter text) {
+        return Arrays.asList(text.toString().split(System.lineSeparator()));
+    }
+}
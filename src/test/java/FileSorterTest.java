@@ -1,4 +1,14 @@
 import com.bigsort.FilesSorter;
+import com.bigsort.RunGeneration;
+import com.bigsort.RunRegistry;
+import com.bigsort.SortOptions;
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.Aggregates;
+import com.bigsort.util.Duplicates;
+import com.bigsort.util.MemoryEstimator;
+import com.bigsort.util.SortKeys;
+import com.bigsort.util.StringSorter;
+import com.bigsort.util.TempCodec;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -6,11 +16,21 @@ import org.junit.rules.TemporaryFolder;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.UnaryOperator;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -122,6 +142,682 @@ public class FileSorterTest {
     }
 
 
+    @Test
+    public void testSortParallelMerge() throws IOException {
+        List<File> files = createUnsortedFiles(30);
+        FilesSorter sorter = new FilesSorter(files, 5, 9,
+                folder.getRoot().getAbsolutePath(), getOutputPath(), FilesSorter.MAX_FILES, 3);
+        assertTrue(sorter.sort());
+        assertSortedOutput(files, new File(getOutputPath()));
+    }
+
+
+    @Test
+    public void testSortMemoryLimit() throws IOException {
+        // Only the memory is limited: 4 lines per worker and 2 files per merge
+        SortOptions options = new SortOptions().setWorkers(3).setMemory(3 * 4 * MemoryEstimator.estimate("0"));
+        List<File> files = createUnsortedFiles(10);
+        FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(), getOutputPath(), options);
+        assertTrue(sorter.sort());
+        assertSortedOutput(files, new File(getOutputPath()));
+    }
+
+
+    @Test
+    public void testSortReplacementSelection() throws IOException {
+        SortOptions options = new SortOptions().setWorkers(3).setBatch(9)
+                .setRunGeneration(RunGeneration.REPLACEMENT_SELECTION);
+        List<File> files = createUnsortedFiles(30);
+        FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(), getOutputPath(), options);
+        assertTrue(sorter.sort());
+        assertSortedOutput(files, new File(getOutputPath()));
+    }
+
+
+    @Test
+    public void testSortPipeline() throws IOException {
+        SortOptions options = new SortOptions().setWorkers(2).setBatch(12).setPipeline(true);
+        List<File> files = createUnsortedFiles(30);
+        FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(), getOutputPath(), options);
+        assertTrue(sorter.sort());
+        assertSortedOutput(files, new File(getOutputPath()));
+    }
+
+
+    @Test
+    public void testSortTempCodec() throws IOException {
+        List<File> files = createUnsortedFiles(30);
+        for (TempCodec codec : TempCodec.values()) {
+            SortOptions options = new SortOptions().setWorkers(2).setBatch(12).setMaxOpenedFiles(3)
+                    .setTempCodec(codec);
+            File output = new File(getOutputPath() + "." + codec);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertSortedOutput(files, output);
+        }
+    }
+
+    @Test
+    public void testSortReadAheadWriteBehind() throws IOException {
+        List<File> files = createUnsortedFiles(30);
+        for (boolean binary : new boolean[]{false, true}) {
+            // The blocks are taken from the memory, so only a few files are merged at once
+            SortOptions options = new SortOptions().setWorkers(2).setBatch(12).setMemory(1024 * 1024)
+                    .setReadAhead(128 * 1024).setWriteBehind(64 * 1024).setBinary(binary);
+            File output = new File(getOutputPath() + "." + binary);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertSortedOutput(files, output);
+        }
+    }
+
+    @Test
+    public void testSortMergeDuringSort() throws IOException {
+        // About a hundred sorted files and only four of them may be opened at once
+        assertSortsLikeDefault(createRandomFile(19, 3000),
+                options -> options.setWorkers(3).setBatch(120).setMaxOpenedFiles(4).setMergeDuringSort(true),
+                new SortOptions(), new SortOptions().setMergeWorkers(2), new SortOptions().setTempCodec(TempCodec.LZ4),
+                new SortOptions().setBinary(true),
+                new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION));
+    }
+
+    @Test(timeout = 60000)
+    public void testSortMergeDuringSortFailure() throws IOException {
+        // A lone '\r' ends a counted line when a sorted file is read back, so the rest of the line has no count
+        // and every merge fails by an unchecked exception
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            lines.add("a" + i + "\rb");
+        }
+        File input = folder.newFile();
+        Files.write(input.toPath(), lines);
+        FilesSorter sorter = new FilesSorter(Collections.singletonList(input), folder.getRoot().getAbsolutePath(),
+                getOutputPath(), new SortOptions().setBatch(20).setMaxOpenedFiles(2).setMergeDuringSort(true)
+                .setDuplicates(Duplicates.COUNT));
+        assertFalse(sorter.sort());
+        // The background merger is done before the clean up, so it leaves no files behind
+        assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.startsWith(FilesSorter.PROJECT_PREFIX)).length);
+    }
+
+    @Test
+    public void testSortMergePartitions() throws IOException {
+        assertSortsLikeDefault(createRandomFile(21, 2000),
+                options -> options.setWorkers(2).setBatch(150).setMergePartitions(4),
+                new SortOptions(), new SortOptions().setBinary(true),
+                new SortOptions().setMaxOpenedFiles(8).setMergeWorkers(2),
+                new SortOptions().setMaxOpenedFiles(8).setMergeDuringSort(true),
+                new SortOptions().setWriteBehind(4096), new SortOptions().setTempCodec(TempCodec.LZ4));
+    }
+
+    @Test
+    public void testSortByKeys() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(23);
+        File input = folder.newFile("keys.csv");
+        BufferedWriter w = new BufferedWriter(new FileWriter(input));
+        for (int i = 0; i < 3000; ++i) {
+            String line = "id" + random.nextInt(100000) + "," + (char) ('a' + random.nextInt(5)) + ","
+                    + random.nextInt(1000);
+            lines.add(line);
+            w.write(line);
+            w.newLine();
+        }
+        w.close();
+        // The second field descending, then the third field ascending, then the whole line
+        List<String> expected = new ArrayList<>(lines);
+        expected.sort((a, b) -> {
+            String[] x = a.split(",");
+            String[] y = b.split(",");
+            int cmp = y[1].compareTo(x[1]);
+            if (cmp == 0) cmp = x[2].compareTo(y[2]);
+            return cmp != 0 ? cmp : a.compareTo(b);
+        });
+
+        List<SortOptions> variants = Arrays.asList(new SortOptions(), new SortOptions().setMemory(1L << 30),
+                new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION),
+                new SortOptions().setPipeline(true), new SortOptions().setMergePartitions(3),
+                new SortOptions().setMergeTree(true).setMaxOpenedFiles(3),
+                new SortOptions().setMaxOpenedFiles(4).setMergeDuringSort(true).setTempCodec(TempCodec.LZ4));
+        int n = 0;
+        for (SortOptions options : variants) {
+            options.setWorkers(2).setSortKeys(SortKeys.parse(Arrays.asList("2,2r", "3,3"), ','));
+            if (options.getMemory() == SortOptions.UNLIMITED_MEMORY) options.setBatch(400);
+            File output = new File(getOutputPath() + "." + n++);
+            FilesSorter sorter = new FilesSorter(Collections.singletonList(input),
+                    folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertEquals(expected, Files.readAllLines(output.toPath()));
+            assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.startsWith(FilesSorter.PROJECT_PREFIX)).length);
+        }
+    }
+
+    @Test
+    public void testSortByNumericKeys() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(24);
+        File input = folder.newFile("latencies.tsv");
+        BufferedWriter w = new BufferedWriter(new FileWriter(input));
+        for (int i = 0; i < 2000; ++i) {
+            String line = "v1." + random.nextInt(30) + "\t" + random.nextInt(100000) / 10.0 + "ms";
+            lines.add(line);
+            w.write(line);
+            w.newLine();
+        }
+        w.close();
+        // The versions ascending, then the latencies descending
+        List<String> expected = new ArrayList<>(lines);
+        expected.sort((a, b) -> {
+            String[] x = a.split("\t");
+            String[] y = b.split("\t");
+            int cmp = Integer.compare(Integer.parseInt(x[0].substring(3)), Integer.parseInt(y[0].substring(3)));
+            if (cmp == 0) cmp = Double.compare(Double.parseDouble(y[1].replace("ms", "")),
+                    Double.parseDouble(x[1].replace("ms", "")));
+            return cmp != 0 ? cmp : a.compareTo(b);
+        });
+
+        for (RunGeneration generation : RunGeneration.values()) {
+            SortOptions options = new SortOptions().setWorkers(2).setBatch(300).setRunGeneration(generation)
+                    .setMergePartitions(2).setSortKeys(SortKeys.parse("1,1V", "2nr"));
+            File output = new File(getOutputPath() + "." + generation);
+            FilesSorter sorter = new FilesSorter(Collections.singletonList(input),
+                    folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertEquals(expected, Files.readAllLines(output.toPath()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortByKeysBinary() throws IOException {
+        new FilesSorter(createUnsortedFiles(1), folder.getRoot().getAbsolutePath(), getOutputPath(),
+                new SortOptions().setBinary(true).setSortKeys(SortKeys.parse("1")));
+    }
+
+    @Test
+    public void testSortUnique() throws IOException {
+        File input = createDuplicatedFile(new Random(31));
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String line : Files.readAllLines(input.toPath())) {
+            counts.merge(line, 1, Integer::sum);
+        }
+        List<String> unique = new ArrayList<>(counts.keySet());
+        List<String> counted = new ArrayList<>();
+        counts.forEach((line, count) -> counted.add(count + "\t" + line));
+
+        List<SortOptions> variants = Arrays.asList(new SortOptions(), new SortOptions().setMemory(1L << 30),
+                new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION),
+                new SortOptions().setPipeline(true), new SortOptions().setMergePartitions(3),
+                new SortOptions().setMergeTree(true).setMaxOpenedFiles(3),
+                new SortOptions().setMaxOpenedFiles(4).setMergeDuringSort(true).setTempCodec(TempCodec.LZ4));
+        int n = 0;
+        for (Duplicates duplicates : Arrays.asList(Duplicates.DROP, Duplicates.COUNT)) {
+            for (SortOptions options : variants) {
+                options.setWorkers(2).setDuplicates(duplicates);
+                if (options.getMemory() == SortOptions.UNLIMITED_MEMORY) options.setBatch(400);
+                File output = new File(getOutputPath() + "." + n++);
+                FilesSorter sorter = new FilesSorter(Collections.singletonList(input),
+                        folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), options);
+                assertTrue(sorter.sort());
+                assertEquals(duplicates == Duplicates.COUNT ? counted : unique, Files.readAllLines(output.toPath()));
+                assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.startsWith(FilesSorter.PROJECT_PREFIX)).length);
+            }
+        }
+    }
+
+    @Test
+    public void testSortUniqueArenaAndBinary() throws IOException {
+        File input = createDuplicatedFile(new Random(32));
+        List<String> unique = new ArrayList<>(new TreeSet<>(Files.readAllLines(input.toPath())));
+        List<SortOptions> variants = Arrays.asList(new SortOptions().setArena(true),
+                new SortOptions().setBinary(true), new SortOptions().setBinary(true).setMemory(1L << 30),
+                new SortOptions().setBinary(true).setRunGeneration(RunGeneration.REPLACEMENT_SELECTION),
+                new SortOptions().setBinary(true).setMergeTree(true).setMaxOpenedFiles(3));
+        int n = 0;
+        for (SortOptions options : variants) {
+            options.setWorkers(2).setDuplicates(Duplicates.DROP);
+            if (options.getMemory() == SortOptions.UNLIMITED_MEMORY) options.setBatch(400);
+            File output = new File(getOutputPath() + "." + n++);
+            FilesSorter sorter = new FilesSorter(Collections.singletonList(input),
+                    folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertEquals(unique, Files.readAllLines(output.toPath()));
+        }
+    }
+
+    @Test
+    public void testSortUniqueByKeys() throws IOException {
+        File input = createDuplicatedFile(new Random(33));
+        // The lines are "<a letter> <a number>", the key is the letter, the smallest line of a key is kept
+        Map<String, String> first = new TreeMap<>();
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String line : Files.readAllLines(input.toPath())) {
+            String key = line.substring(0, 1);
+            first.merge(key, line, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            counts.merge(key, 1, Integer::sum);
+        }
+        List<String> counted = new ArrayList<>();
+        first.forEach((key, line) -> counted.add(counts.get(key) + "\t" + line));
+
+        int n = 0;
+        for (SortOptions options : Arrays.asList(new SortOptions(), new SortOptions().setMemory(1L << 30),
+                new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION),
+                new SortOptions().setMergeTree(true).setMaxOpenedFiles(3))) {
+            options.setWorkers(2).setDuplicates(Duplicates.COUNT)
+                    .setSortKeys(SortKeys.parse(Arrays.asList("1,1"), ' '));
+            if (options.getMemory() == SortOptions.UNLIMITED_MEMORY) options.setBatch(400);
+            File output = new File(getOutputPath() + "." + n++);
+            FilesSorter sorter = new FilesSorter(Collections.singletonList(input),
+                    folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertEquals(counted, Files.readAllLines(output.toPath()));
+        }
+    }
+
+    @Test
+    public void testSortAggregate() throws IOException {
+        File input = createDuplicatedFile(new Random(34));
+        // The group of a letter has the count, the sum, the minimum and the maximum of its numbers
+        Map<String, String> first = new TreeMap<>();
+        Map<String, long[]> values = new TreeMap<>();
+        for (String line : Files.readAllLines(input.toPath())) {
+            String key = line.substring(0, 1);
+            long number = Long.parseLong(line.substring(2));
+            first.merge(key, line, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            values.merge(key, new long[]{1, number, number, number}, (a, b) -> new long[]{a[0] + b[0],
+                    a[1] + b[1], Math.min(a[2], b[2]), Math.max(a[3], b[3])});
+        }
+        List<String> aggregated = new ArrayList<>();
+        values.forEach((key, v) -> aggregated.add(v[0] + "\t" + v[1] + "\t" + v[2] + "\t" + v[3] + "\t" +
+                first.get(key)));
+
+        Duplicates duplicates = Duplicates.aggregate(Aggregates.parse("count,sum:2,min:2,max:2", ' '));
+        int n = 0;
+        for (SortOptions options : Arrays.asList(new SortOptions(), new SortOptions().setMemory(1L << 30),
+                new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION),
+                new SortOptions().setPipeline(true),
+                new SortOptions().setMergeTree(true).setMaxOpenedFiles(3),
+                new SortOptions().setMaxOpenedFiles(4).setMergeDuringSort(true).setTempCodec(TempCodec.LZ4))) {
+            options.setWorkers(2).setDuplicates(duplicates).setSortKeys(SortKeys.parse(Arrays.asList("1,1"), ' '));
+            if (options.getMemory() == SortOptions.UNLIMITED_MEMORY) options.setBatch(400);
+            File output = new File(getOutputPath() + "." + n++);
+            FilesSorter sorter = new FilesSorter(Collections.singletonList(input),
+                    folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertEquals(aggregated, Files.readAllLines(output.toPath()));
+        }
+    }
+
+    @Test
+    public void testSortLimit() throws IOException {
+        File input = createDuplicatedFile(new Random(35));
+        List<String> sorted = Files.readAllLines(input.toPath());
+        Collections.sort(sorted);
+        List<String> unique = new ArrayList<>(new TreeSet<>(sorted));
+
+        // The first variant is scanned in RAM, the rest of them write temporary files
+        List<SortOptions> variants = Arrays.asList(new SortOptions().setBatch(1000),
+                new SortOptions().setBatch(200), new SortOptions().setBatch(200).setArena(true),
+                new SortOptions().setBatch(200).setBinary(true),
+                new SortOptions().setBatch(200).setRunGeneration(RunGeneration.REPLACEMENT_SELECTION),
+                new SortOptions().setBatch(200).setPipeline(true).setMergePartitions(3),
+                new SortOptions().setBatch(200).setMergeTree(true).setMaxOpenedFiles(3),
+                new SortOptions().setBatch(200).setMaxOpenedFiles(4).setMergeDuringSort(true)
+                        .setTempCodec(TempCodec.LZ4));
+        int n = 0;
+        for (int limit : new int[]{1, 150}) {
+            for (Duplicates duplicates : Arrays.asList(Duplicates.KEEP, Duplicates.DROP)) {
+                List<String> expected = duplicates == Duplicates.KEEP ? sorted : unique;
+                for (SortOptions options : variants) {
+                    options.setWorkers(2).setLimit(limit).setDuplicates(duplicates);
+                    File output = new File(getOutputPath() + "." + n++);
+                    FilesSorter sorter = new FilesSorter(Collections.singletonList(input),
+                            folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), options);
+                    assertTrue(sorter.sort());
+                    assertEquals(expected.subList(0, Math.min(limit, expected.size())),
+                            Files.readAllLines(output.toPath()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSortSortedInputs() throws IOException {
+        // Three sorted files, a sorted file of CRLF lines, a sorted file without the last line feed and an
+        // unsorted one
+        List<String> expected = new ArrayList<>();
+        List<File> files = createSortedFiles(3, expected);
+        StringBuilder crlfLines = new StringBuilder();
+        StringBuilder lfLines = new StringBuilder();
+        for (int i = 10; i < 30; ++i) {
+            crlfLines.append("a").append(i).append("\r\n");
+            lfLines.append(i > 10 ? "\n" : "").append("b").append(i);
+            expected.addAll(Arrays.asList("a" + i, "b" + i));
+        }
+        File crlf = folder.newFile("crlf.txt");
+        Files.write(crlf.toPath(), crlfLines.toString().getBytes(StandardCharsets.UTF_8));
+        File noLastLineFeed = folder.newFile("noLastLineFeed.txt");
+        Files.write(noLastLineFeed.toPath(), lfLines.toString().getBytes(StandardCharsets.UTF_8));
+        files.addAll(Arrays.asList(crlf, noLastLineFeed));
+        files.addAll(createUnsortedFiles(1));
+        for (int i = 0; i <= 9; ++i) {
+            expected.add(String.valueOf(i));
+        }
+        Collections.sort(expected);
+        List<List<String>> inputs = new ArrayList<>();
+        for (File f : files) {
+            inputs.add(Files.readAllLines(f.toPath()));
+        }
+
+        int n = 0;
+        for (SortOptions options : Arrays.asList(new SortOptions(), new SortOptions().setBinary(true),
+                new SortOptions().setMergeTree(true), new SortOptions().setMergePartitions(2),
+                new SortOptions().setMaxOpenedFiles(2).setMergeDuringSort(true),
+                new SortOptions().setTempCodec(TempCodec.DEFLATE))) {
+            File output = new File(getOutputPath() + "." + n++);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), options.setWorkers(2).setBatch(5));
+            assertTrue(sorter.sort());
+            assertEquals(expected, Files.readAllLines(output.toPath()));
+            // The sorted input files are merged, not moved or deleted
+            for (int i = 0; i < files.size(); ++i) {
+                assertEquals(inputs.get(i), Files.readAllLines(files.get(i).toPath()));
+            }
+            assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.startsWith(FilesSorter.PROJECT_PREFIX))
+                    .length);
+        }
+        // The last step merges all the files at once, the input files among them, so it cannot be cut into
+        // key ranges by the sizes of the files
+        for (boolean binary : new boolean[]{false, true}) {
+            File output = new File(getOutputPath() + "." + n++);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), new SortOptions().setWorkers(2).setBatch(32).setMergePartitions(4)
+                    .setBinary(binary));
+            assertTrue(sorter.sort());
+            assertEquals(expected, Files.readAllLines(output.toPath()));
+        }
+    }
+
+    @Test
+    public void testMayFitInMemoryByBatch() throws Exception {
+        Method method = FilesSorter.class.getDeclaredMethod("mayFitInMemory");
+        method.setAccessible(true);
+        // 30 lines of 2 bytes each
+        List<File> files = createUnsortedFiles(3);
+        for (int batch : new int[]{10, 29, 30, 100}) {
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(), getOutputPath(),
+                    new SortOptions().setBatch(batch));
+            assertEquals(batch >= 30, method.invoke(sorter));
+        }
+    }
+
+    @Test
+    public void testSortSmallSortedInputs() throws Exception {
+        // Ten sorted files of 20 lines, which are smaller than a chunk of 50 lines, and a sorted file of 100 lines
+        List<String> expected = new ArrayList<>();
+        List<File> files = createSortedFiles(10, expected);
+        List<String> big = new ArrayList<>();
+        for (int i = 100; i < 200; ++i) {
+            big.add(String.valueOf(i));
+        }
+        File bigFile = folder.newFile("big.txt");
+        Files.write(bigFile.toPath(), big);
+        files.add(bigFile);
+        expected.addAll(big);
+        Collections.sort(expected);
+
+        for (boolean mergeOnly : new boolean[]{false, true}) {
+            SortOptions options = new SortOptions().setWorkers(2).setBatch(100).setMergeOnly(mergeOnly);
+            // Only the big file is merged as it is, the small ones are left to the sort stage
+            Method method = FilesSorter.class.getDeclaredMethod("publishSortedInputs", RunRegistry.class);
+            method.setAccessible(true);
+            RunRegistry registry = new RunRegistry();
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(), getOutputPath(), options);
+            assertTrue((Boolean) method.invoke(sorter, registry));
+            assertEquals(1, registry.getRuns().size());
+            assertEquals(bigFile, registry.getRuns().get(0).getFile().get());
+
+            File output = new File(getOutputPath() + "." + mergeOnly);
+            sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertEquals(expected, Files.readAllLines(output.toPath()));
+            assertEquals(big, Files.readAllLines(bigFile.toPath()));
+        }
+    }
+
+    @Test
+    public void testMergeOnly() throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<File> files = createSortedFiles(5, expected);
+        Collections.sort(expected);
+        List<String> unique = new ArrayList<>(new TreeSet<>(expected));
+
+        int n = 0;
+        for (SortOptions options : Arrays.asList(new SortOptions(), new SortOptions().setMaxOpenedFiles(2),
+                new SortOptions().setBinary(true).setMergeTree(true), new SortOptions().setLimit(7),
+                new SortOptions().setDuplicates(Duplicates.DROP))) {
+            File output = new File(getOutputPath() + "." + n++);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), options.setMergeOnly(true).setBatch(2));
+            assertTrue(sorter.sort());
+            List<String> result = options.getDuplicates().isUnique() ? unique : expected;
+            assertEquals(result.subList(0, Math.min(options.getLimit(), result.size())),
+                    Files.readAllLines(output.toPath()));
+        }
+
+        // A single input file is copied, not moved
+        File output = new File(getOutputPath() + "." + n);
+        FilesSorter sorter = new FilesSorter(files.subList(0, 1), folder.getRoot().getAbsolutePath(),
+                output.getAbsolutePath(), new SortOptions().setMergeOnly(true).setBatch(2));
+        assertTrue(sorter.sort());
+        assertEquals(Files.readAllLines(files.get(0).toPath()), Files.readAllLines(output.toPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortWriteBehindTooBig() throws IOException {
+        // Two buffers of 1m don't leave anything of the 1m of memory
+        new FilesSorter(createUnsortedFiles(1), folder.getRoot().getAbsolutePath(), getOutputPath(),
+                new SortOptions().setMemory(1024 * 1024).setWriteBehind(1024 * 1024));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeOnlyTempCodec() throws IOException {
+        new FilesSorter(createUnsortedFiles(1), folder.getRoot().getAbsolutePath(), getOutputPath(),
+                new SortOptions().setMergeOnly(true).setTempCodec(TempCodec.LZ4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSortCountBinary() throws IOException {
+        new FilesSorter(createUnsortedFiles(1), folder.getRoot().getAbsolutePath(), getOutputPath(),
+                new SortOptions().setBinary(true).setDuplicates(Duplicates.COUNT));
+    }
+
+    /**
+     * @return a file of 3000 lines "<a letter> <a number>" with many duplicates
+     */
+    private File createDuplicatedFile(Random random) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 3000; ++i) {
+            lines.add((char) ('a' + random.nextInt(20)) + " " + random.nextInt(30));
+        }
+        File input = folder.newFile();
+        Files.write(input.toPath(), lines);
+        return input;
+    }
+
+    @Test
+    public void testSortMergeTree() throws IOException {
+        // There are many more sorted files than --maxOpenedFiles, the tree merges them at once
+        assertSortsLikeDefault(createRandomFile(22, 3000),
+                options -> options.setWorkers(2).setBatch(400).setMaxOpenedFiles(3).setMergeTree(true),
+                new SortOptions(), new SortOptions().setBinary(true), new SortOptions().setMergeDuringSort(true),
+                new SortOptions().setTempCodec(TempCodec.LZ4), new SortOptions().setMergePartitions(3),
+                new SortOptions().setMemory(8L * 1024 * 1024));
+    }
+
+    @Test
+    public void testSortMergePlan() throws IOException {
+        // Files of different sizes produce sorted files of different sizes
+        List<File> files = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        Random random = new Random(18);
+        for (int i = 0; i < 12; ++i) {
+            File f = folder.newFile("uneven" + i + ".txt");
+            BufferedWriter w = new BufferedWriter(new FileWriter(f));
+            for (int j = 0; j < 1 + i * i; ++j) {
+                String line = String.valueOf(random.nextInt(1000));
+                expected.add(line);
+                w.write(line);
+                w.newLine();
+            }
+            w.close();
+            files.add(f);
+        }
+        Collections.sort(expected);
+        for (int mergeWorkers : new int[]{1, 2}) {
+            SortOptions options = new SortOptions().setWorkers(2).setBatch(100).setMaxOpenedFiles(3)
+                    .setMergeWorkers(mergeWorkers).setPrintMergePlan(true);
+            File output = new File(getOutputPath() + "." + mergeWorkers);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertEquals(expected, Files.readAllLines(output.toPath()));
+            assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.startsWith(FilesSorter.PROJECT_PREFIX)).length);
+        }
+    }
+
+    @Test
+    public void testSortInMemory() throws IOException {
+        SortOptions options = new SortOptions().setWorkers(2).setMemory(1024 * 1024);
+        List<File> files = createUnsortedFiles(30);
+        FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(), getOutputPath(), options);
+        assertTrue(sorter.sort());
+        assertSortedOutput(files, new File(getOutputPath()));
+    }
+
+    @Test
+    public void testSortEmptyInput() throws IOException {
+        List<File> files = new ArrayList<>();
+        files.add(folder.newFile("empty.txt"));
+        FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(), getOutputPath(),
+                new SortOptions().setBatch(10));
+        assertTrue(sorter.sort());
+        assertEquals(0, new File(getOutputPath()).length());
+    }
+
+    @Test
+    public void testSortStringSorters() throws IOException {
+        List<File> files = createUnsortedFiles(30);
+        for (StringSorter stringSorter : StringSorter.values()) {
+            SortOptions options = new SortOptions().setWorkers(2).setBatch(40).setStringSorter(stringSorter);
+            File output = new File(getOutputPath() + "." + stringSorter);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), options);
+            assertTrue(sorter.sort());
+            assertSortedOutput(files, output);
+        }
+    }
+
+    @Test
+    public void testSortBinary() throws IOException {
+        // Lines of random bytes, most of them are not valid in any charset
+        Random random = new Random(11);
+        List<ByteLine> lines = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (int j = 0; j < 40; ++j) {
+                byte[] line = new byte[random.nextInt(6)];
+                for (int k = 0; k < line.length; ++k) {
+                    int b;
+                    do {
+                        b = random.nextInt(256);
+                    } while (b == '\n' || b == '\r');
+                    line[k] = (byte) b;
+                }
+                lines.add(new ByteLine(line, 0, line.length));
+                content.write(line);
+                content.write('\n');
+            }
+            File f = folder.newFile("binary" + i + ".txt");
+            Files.write(f.toPath(), content.toByteArray());
+            files.add(f);
+        }
+        Collections.sort(lines);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (ByteLine line : lines) {
+            expected.write(line.getBytes(), 0, line.getLength());
+            expected.write('\n');
+        }
+
+        List<SortOptions> variants = new ArrayList<>();
+        variants.add(new SortOptions().setWorkers(2).setMemory(1024 * 1024));
+        variants.add(new SortOptions().setWorkers(2).setBatch(30).setMaxOpenedFiles(3));
+        variants.add(new SortOptions().setWorkers(2).setBatch(30).setPipeline(true).setTempCodec(TempCodec.LZ4));
+        variants.add(new SortOptions().setWorkers(2).setBatch(30).setMaxOpenedFiles(3)
+                .setRunGeneration(RunGeneration.REPLACEMENT_SELECTION));
+        for (int i = 0; i < variants.size(); ++i) {
+            File output = new File(getOutputPath() + "." + i);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), variants.get(i).setBinary(true));
+            assertTrue(sorter.sort());
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(output.toPath()));
+            assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.startsWith(FilesSorter.PROJECT_PREFIX)).length);
+        }
+    }
+
+    @Test
+    public void testSortMmap() throws IOException {
+        List<File> files = createUnsortedFiles(30);
+        List<SortOptions> variants = new ArrayList<>();
+        variants.add(new SortOptions().setWorkers(2).setMemory(1024 * 1024));
+        variants.add(new SortOptions().setWorkers(2).setBatch(12).setMaxOpenedFiles(3));
+        variants.add(new SortOptions().setWorkers(2).setBatch(12).setArena(true));
+        variants.add(new SortOptions().setWorkers(2).setBatch(12).setBinary(true).setPipeline(true));
+        for (int i = 0; i < variants.size(); ++i) {
+            File output = new File(getOutputPath() + "." + i);
+            FilesSorter sorter = new FilesSorter(files, folder.getRoot().getAbsolutePath(),
+                    output.getAbsolutePath(), variants.get(i).setMmap(true));
+            assertTrue(sorter.sort());
+            assertSortedOutput(files, output);
+        }
+    }
+
+    /**
+     * @return a file of {@code lines} random lines, a quarter of them are equal, so that equal lines cross the
+     * boundaries of the sorted files and of the key ranges
+     */
+    private File createRandomFile(long seed, int lines) throws IOException {
+        Random random = new Random(seed);
+        List<String> written = new ArrayList<>();
+        for (int i = 0; i < lines; ++i) {
+            written.add(random.nextInt(4) == 0 ? "dup" : Integer.toString(random.nextInt(100000), 36));
+        }
+        File input = folder.newFile();
+        Files.write(input.toPath(), written);
+        return input;
+    }
+
+    /**
+     * Sorts {@code input} with each of {@code variants}, completed by {@code common}, and checks that the
+     * result is the same as the one of the default sort and no temporary file is left.
+     */
+    private void assertSortsLikeDefault(File input, UnaryOperator<SortOptions> common, SortOptions... variants)
+            throws IOException {
+        List<String> expected = Files.readAllLines(input.toPath());
+        Collections.sort(expected);
+        int n = 0;
+        for (SortOptions options : variants) {
+            File output = new File(getOutputPath() + "." + n++);
+            FilesSorter sorter = new FilesSorter(Collections.singletonList(input),
+                    folder.getRoot().getAbsolutePath(), output.getAbsolutePath(), common.apply(options));
+            assertTrue(sorter.sort());
+            assertEquals(expected, Files.readAllLines(output.toPath()));
+            assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.startsWith(FilesSorter.PROJECT_PREFIX))
+                    .length);
+        }
+    }
+
     /**
      * Creates {@code count} file in the {@code folder}. This file has 10 lines with numbers 9 down to 0.
      */
@@ -142,6 +838,40 @@ public class FileSorterTest {
         return res;
     }
 
+    /**
+     * Checks that {@code output} holds exactly the lines of {@code inputs} in the sorted order and no
+     * temporary file is left.
+     */
+    private void assertSortedOutput(List<File> inputs, File output) throws IOException {
+        List<String> expected = new ArrayList<>();
+        for (File f : inputs) {
+            expected.addAll(Files.readAllLines(f.toPath()));
+        }
+        Collections.sort(expected);
+        assertEquals(expected, Files.readAllLines(output.toPath()));
+        assertEquals(0, folder.getRoot().listFiles((dir, name) -> name.startsWith(FilesSorter.PROJECT_PREFIX)).length);
+    }
+
+    /**
+     * @return {@code count} files of sorted numbers, some of them are equal
+     */
+    private List<File> createSortedFiles(int count, List<String> written) throws IOException {
+        Random random = new Random(count);
+        List<File> res = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            List<String> lines = new ArrayList<>();
+            for (int j = 0; j < 20; ++j) {
+                lines.add(String.valueOf(random.nextInt(50)));
+            }
+            Collections.sort(lines);
+            written.addAll(lines);
+            File f = folder.newFile("sorted" + i + ".txt");
+            Files.write(f.toPath(), lines);
+            res.add(f);
+        }
+        return res;
+    }
+
     private String getOutputPath() {
         return folder.getRoot().getAbsolutePath() + File.separator + OUTPUT;
     }
@@ -0,0 +1,126 @@
+import com.bigsort.InMemorySorter;
+import com.bigsort.SortOptions;
+import com.bigsort.util.FilesHandler;
+import com.bigsort.util.InputSplit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InMemorySorterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSortManyWorkers() throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<File> files = createFiles(5, 1000, expected);
+        // Small splits, so that every worker reads several of them
+        List<InputSplit> splits = FilesHandler.splitFiles(files, 500);
+        File result = new File(folder.getRoot(), "result.txt");
+
+        InMemorySorter sorter = new InMemorySorter(splits, 4, new SortOptions().setBatch(5000));
+        assertTrue(sorter.sort(result));
+
+        Collections.sort(expected);
+        assertEquals(expected, readFile(result));
+    }
+
+    @Test
+    public void testSortLimit() throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<File> files = createFiles(5, 1000, expected);
+        List<InputSplit> splits = FilesHandler.splitFiles(files, 500);
+        File result = new File(folder.getRoot(), "result.txt");
+
+        // The chunks are cut to 10 lines, so 4 workers never have more than 80 lines
+        SortOptions options = new SortOptions().setBatch(100).setLimit(10);
+        assertTrue(InMemorySorter.keepsFirstLines(options, 4));
+        assertTrue(new InMemorySorter(splits, 4, options).sort(result));
+        Collections.sort(expected);
+        assertEquals(expected.subList(0, 10), readFile(result));
+
+        // The binary arenas are not cut
+        options = new SortOptions().setBatch(100).setLimit(10).setBinary(true);
+        assertFalse(InMemorySorter.keepsFirstLines(options, 4));
+        assertFalse(new InMemorySorter(splits, 4, options).sort(result));
+        assertTrue(new InMemorySorter(splits, 4, options.setBatch(5000)).sort(result));
+        assertEquals(expected.subList(0, 10), readFile(result));
+        assertFalse(InMemorySorter.keepsFirstLines(new SortOptions().setBatch(100).setLimit(20), 4));
+    }
+
+    @Test
+    public void testSortEmptyInput() throws IOException {
+        File result = new File(folder.getRoot(), "result.txt");
+        InMemorySorter sorter = new InMemorySorter(
+                FilesHandler.splitFiles(Arrays.asList(folder.newFile()), 100), 2, new SortOptions());
+        assertTrue(sorter.sort(result));
+        assertTrue(readFile(result).isEmpty());
+    }
+
+    @Test
+    public void testTooManyLines() throws IOException {
+        List<File> files = createFiles(3, 100, new ArrayList<String>());
+        File result = new File(folder.getRoot(), "result.txt");
+
+        InMemorySorter sorter = new InMemorySorter(FilesHandler.splitFiles(files, 100), 2,
+                new SortOptions().setBatch(299));
+        assertFalse(sorter.sort(result));
+        assertFalse(result.exists());
+    }
+
+    @Test
+    public void testTooManyBytes() throws IOException {
+        List<File> files = createFiles(3, 100, new ArrayList<String>());
+        File result = new File(folder.getRoot(), "result.txt");
+
+        InMemorySorter sorter = new InMemorySorter(FilesHandler.splitFiles(files, 100), 2,
+                new SortOptions().setMemory(1000));
+        assertFalse(sorter.sort(result));
+        assertFalse(result.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoWorkers() throws IOException {
+        new InMemorySorter(new ArrayList<InputSplit>(), 0, new SortOptions());
+    }
+
+    private List<File> createFiles(int count, int lines, List<String> written) throws IOException {
+        Random random = new Random(11);
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            File f = folder.newFile();
+            BufferedWriter w = new BufferedWriter(new FileWriter(f));
+            for (int j = 0; j < lines; ++j) {
+                String line = String.valueOf(random.nextInt(100000));
+                w.write(line);
+                w.newLine();
+                written.add(line);
+            }
+            w.close();
+            files.add(f);
+        }
+        return files;
+    }
+
+    private List<String> readFile(File f) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(f));
+        List<String> lines = new ArrayList<>();
+        String next;
+        while ((next = reader.readLine()) != null) {
+            lines.add(next);
+        }
+        reader.close();
+        return lines;
+    }
+}
@@ -142,6 +142,25 @@ public class IndexMinPQTest {
         idxMinPQ.delMin();
     }
 
+    @Test
+    public void testReplaceMin() {
+        for (int i = 0; i < strings.length; ++i) {
+            idxMinPQ.insert(i, strings[i]);
+        }
+        idxMinPQ.replaceMin("z");
+        assertEquals(1, idxMinPQ.minIndex());
+        assertEquals("b", idxMinPQ.minKey());
+        idxMinPQ.replaceMin(null);
+        assertEquals(strings.length - 1, idxMinPQ.size());
+        assertFalse(idxMinPQ.contains(1));
+        assertEquals("c", idxMinPQ.minKey());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMinIndexExceptionEmpty() {
+        idxMinPQ.minIndex();
+    }
+
     @Test(expected = NoSuchElementException.class)
     public void testDelMinExceptionEmpty() {
         idxMinPQ.delMin();
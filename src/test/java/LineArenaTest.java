@@ -0,0 +1,234 @@
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.LineArena;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LineArenaTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxBytes() {
+        new LineArena(-1);
+    }
+
+    @Test
+    public void testAddAndGet() {
+        LineArena arena = new LineArena(1024);
+        List<String> lines = Arrays.asList("b", "", "a", "a longer line");
+        for (String line : lines) {
+            arena.add(line);
+        }
+        assertEquals(lines, toList(arena));
+        assertEquals(2L * 15 + 4 * LineArena.BYTES_PER_LINE, arena.bytes());
+        assertFalse(arena.isFull());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        LineArena arena = new LineArena(1024);
+        arena.add("a");
+        arena.get(1);
+    }
+
+    @Test
+    public void testSortRandom() {
+        Random random = new Random(12);
+        for (int n : new int[]{0, 1, 31, 32, 33, 5000}) {
+            LineArena arena = new LineArena(Long.MAX_VALUE);
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < n; ++i) {
+                String line = "/common/prefix/" + random.nextInt(100) + "/" + (char) ('\u00f0' + random.nextInt(30));
+                lines.add(line);
+                arena.add(line);
+            }
+            arena.sort();
+            Collections.sort(lines);
+            assertEquals(lines, toList(arena));
+        }
+    }
+
+    @Test
+    public void testSortPrefixesAndDuplicates() {
+        LineArena arena = new LineArena(Long.MAX_VALUE);
+        List<String> lines = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; ++i) {
+            sb.append('a');
+            lines.add(sb.toString());
+            lines.add("");
+            lines.add("a");
+        }
+        Collections.shuffle(lines, new Random(13));
+        for (String line : lines) {
+            arena.add(line);
+        }
+        arena.sort();
+        Collections.sort(lines);
+        assertEquals(lines, toList(arena));
+    }
+
+    @Test
+    public void testClearAndReuse() {
+        LineArena arena = new LineArena(1024);
+        arena.add("z");
+        arena.add("y");
+        arena.sort();
+        arena.clear();
+        assertEquals(0, arena.count());
+        assertEquals(0, arena.bytes());
+        arena.add("c");
+        arena.add("b");
+        assertEquals(Arrays.asList("c", "b"), toList(arena));
+        arena.sort();
+        assertEquals(Arrays.asList("b", "c"), toList(arena));
+    }
+
+    @Test
+    public void testAddDecoded() {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        LineArena arena = new LineArena(1024);
+        byte[] bytes = "xx\u0436\u00e9yy".getBytes(StandardCharsets.UTF_8);
+        arena.add(decoder, bytes, 2, bytes.length - 4);
+        arena.add(decoder, new byte[]{(byte) 0xff}, 0, 1);
+        assertEquals(Arrays.asList("\u0436\u00e9", "\ufffd"), toList(arena));
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        LineArena arena = new LineArena(1024);
+        arena.add("b");
+        arena.add("a");
+        arena.sort();
+        File f = folder.newFile();
+        BufferedWriter out = new BufferedWriter(new FileWriter(f));
+        arena.write(out);
+        out.close();
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        assertEquals("a", in.readLine());
+        assertEquals("b", in.readLine());
+        assertEquals(null, in.readLine());
+        in.close();
+        assertTrue(f.length() > 0);
+    }
+
+    @Test
+    public void testWriteUnique() throws IOException {
+        LineArena arena = new LineArena(1024);
+        for (String line : Arrays.asList("b", "a", "ab", "b", "a", "b")) {
+            arena.add(line);
+        }
+        arena.sort();
+        StringWriter text = new StringWriter();
+        BufferedWriter out = new BufferedWriter(text);
+        arena.write(out, true);
+        out.close();
+        assertEquals(Arrays.asList("a", "ab", "b"), Arrays.asList(text.toString().split(System.lineSeparator())));
+        assertEquals(6, arena.count());
+
+        LineArena binary = new LineArena(1024, true);
+        for (String line : Arrays.asList("b", "a", "b", "")) {
+            binary.add(line.getBytes(), 0, line.length());
+        }
+        binary.sort();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        binary.write(bytes, true);
+        assertArrayEquals(new byte[]{'\n', 'a', '\n', 'b', '\n'}, bytes.toByteArray());
+    }
+
+    @Test
+    public void testWriteLimit() throws IOException {
+        LineArena arena = new LineArena(1024);
+        for (String line : Arrays.asList("b", "a", "c", "a")) {
+            arena.add(line);
+        }
+        arena.sort();
+        StringWriter text = new StringWriter();
+        BufferedWriter out = new BufferedWriter(text);
+        arena.write(out, true, 2);
+        out.close();
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(text.toString().split(System.lineSeparator())));
+
+        LineArena binary = new LineArena(1024, true);
+        for (String line : Arrays.asList("b", "a", "c")) {
+            binary.add(line.getBytes(), 0, line.length());
+        }
+        binary.sort();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        binary.write(bytes, false, 1);
+        assertArrayEquals(new byte[]{'a', '\n'}, bytes.toByteArray());
+    }
+
+    @Test
+    public void testSortBinary() throws IOException {
+        LineArena arena = new LineArena(Long.MAX_VALUE, true);
+        assertTrue(arena.isBinary());
+        Random random = new Random(14);
+        List<ByteLine> lines = new ArrayList<>();
+        for (int i = 0; i < 3000; ++i) {
+            byte[] line = new byte[1 + random.nextInt(4)];
+            line[0] = (byte) 0xc3;
+            for (int j = 1; j < line.length; ++j) {
+                line[j] = (byte) random.nextInt(256);
+            }
+            lines.add(new ByteLine(line, 0, line.length));
+            arena.add(line, 0, line.length);
+        }
+        assertEquals(lines.size(), arena.count());
+        arena.sort();
+        Collections.sort(lines);
+        ByteLine slice = new ByteLine();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < lines.size(); ++i) {
+            assertEquals(0, lines.get(i).compareTo(arena.get(i, slice)));
+            expected.write(lines.get(i).getBytes(), 0, lines.get(i).getLength());
+            expected.write('\n');
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        arena.write(out);
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    public void testTextBytesAreUtf16() {
+        // A supplementary char is less than U+FFFF as a String, so the bytes of the arena are compared the same way
+        LineArena arena = new LineArena(1024);
+        arena.add("\uffff");
+        arena.add("\ud83d\ude00");
+        arena.sort();
+        assertEquals(Arrays.asList("\ud83d\ude00", "\uffff"), toList(arena));
+        ByteLine line = arena.get(1, new ByteLine());
+        assertEquals(2, line.getLength());
+        assertEquals((byte) 0xff, line.getBytes()[line.getOffset()]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBinaryRejectsStrings() {
+        new LineArena(1024, true).add("a");
+    }
+
+    private static List<String> toList(LineArena arena) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < arena.count(); ++i) {
+            result.add(arena.get(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,209 @@
+import com.bigsort.SortOptions;
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.FilesHandler;
+import com.bigsort.util.InputSplit;
+import com.bigsort.util.LineArena;
+import com.bigsort.util.LineReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LineReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadWholeFile() throws IOException {
+        List<String> lines = Arrays.asList("b", "", "aaa", "c");
+        File f = createFile(lines, "\n", true);
+        assertEquals(lines, readAll(Collections.singletonList(new InputSplit(f))));
+    }
+
+    @Test
+    public void testReadNoTrailingSeparator() throws IOException {
+        List<String> lines = Arrays.asList("b", "aaa", "c");
+        File f = createFile(lines, "\n", false);
+        assertEquals(lines, readAll(Collections.singletonList(new InputSplit(f))));
+    }
+
+    @Test
+    public void testReadCarriageReturn() throws IOException {
+        List<String> lines = Arrays.asList("b", "aaa", "c");
+        File f = createFile(lines, "\r\n", true);
+        assertEquals(lines, readAll(Collections.singletonList(new InputSplit(f))));
+    }
+
+    @Test
+    public void testReadEmptySplit() throws IOException {
+        File f = createFile(Arrays.asList("a", "b"), "\n", true);
+        LineReader reader = new LineReader(new InputSplit(f, 1, 1));
+        assertNull(reader.readLine());
+        reader.close();
+    }
+
+    @Test
+    public void testReadAnySplitSize() throws IOException {
+        List<String> lines = Arrays.asList("first", "", "x", "a longer line", "", "", "yy", "last");
+        for (String separator : new String[]{"\n", "\r\n"}) {
+            for (boolean trailing : new boolean[]{true, false}) {
+                File f = createFile(lines, separator, trailing);
+                for (long size = 1; size <= f.length(); ++size) {
+                    assertEquals("split size " + size, lines,
+                            readAll(FilesHandler.splitFiles(Collections.singletonList(f), size)));
+                }
+                f.delete();
+            }
+        }
+    }
+
+    @Test
+    public void testReadLongLines() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LineReader.BUFFER_SIZE * 2 + 7; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        List<String> lines = Arrays.asList(sb.toString(), "short", sb.toString());
+        File f = createFile(lines, "\r\n", true);
+        assertEquals(lines, readAll(FilesHandler.splitFiles(Collections.singletonList(f), LineReader.BUFFER_SIZE)));
+    }
+
+    @Test
+    public void testReadIntoArena() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LineReader.BUFFER_SIZE + 3; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        List<String> lines = Arrays.asList("first", "", sb.toString(), "x", "last");
+        File f = createFile(lines, "\r\n", false);
+        for (long size : new long[]{1, 7, 100, LineReader.BUFFER_SIZE, f.length()}) {
+            LineArena arena = new LineArena(SortOptions.UNLIMITED_MEMORY);
+            for (InputSplit split : FilesHandler.splitFiles(Collections.singletonList(f), size)) {
+                LineReader reader = new LineReader(split);
+                while (reader.readLine(arena)) {
+                    // read everything
+                }
+                reader.close();
+            }
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < arena.count(); ++i) {
+                result.add(arena.get(i));
+            }
+            assertEquals("split size " + size, lines, result);
+        }
+    }
+
+    @Test
+    public void testReadBytes() throws IOException {
+        File f = folder.newFile();
+        Files.write(f.toPath(), new byte[]{'a', (byte) 0xff, '\r', '\n', '\n', (byte) 0x80});
+        for (long size : new long[]{1, 2, f.length()}) {
+            List<String> result = new ArrayList<>();
+            LineArena arena = new LineArena(1024, true);
+            ByteLine line = new ByteLine();
+            for (InputSplit split : FilesHandler.splitFiles(Collections.singletonList(f), size)) {
+                LineReader reader = new LineReader(split);
+                while (reader.readLine(line)) {
+                    result.add(Arrays.toString(Arrays.copyOfRange(line.getBytes(), line.getOffset(),
+                            line.getOffset() + line.getLength())));
+                }
+                reader.close();
+                reader = new LineReader(split);
+                while (reader.readLine(arena)) {
+                    // read everything
+                }
+                reader.close();
+            }
+            assertEquals("split size " + size, Arrays.asList("[97, -1]", "[]", "[-128]"), result);
+            assertEquals(3, arena.count());
+            assertEquals(0, arena.get(0, new ByteLine()).compareTo(new ByteLine(new byte[]{'a', (byte) 0xff}, 0, 2)));
+        }
+    }
+
+    @Test
+    public void testReadMapped() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            sb.append((char) ('a' + i % 26));
+        }
+        List<String> lines = Arrays.asList("first", "", sb.toString(), "x", "last");
+        File f = createFile(lines, "\r\n", false);
+        // Tiny windows make lines cross the ends of windows and be longer than a window
+        for (int windowSize : new int[]{1, 3, 16, LineReader.WINDOW_SIZE}) {
+            for (long size : new long[]{1, 7, 100, f.length()}) {
+                List<String> result = new ArrayList<>();
+                LineArena text = new LineArena(SortOptions.UNLIMITED_MEMORY);
+                LineArena binary = new LineArena(SortOptions.UNLIMITED_MEMORY, true);
+                for (InputSplit split : FilesHandler.splitFiles(Collections.singletonList(f), size)) {
+                    try (LineReader reader = new LineReader(split, true, windowSize)) {
+                        String next;
+                        while ((next = reader.readLine()) != null) {
+                            result.add(next);
+                        }
+                    }
+                    try (LineReader reader = new LineReader(split, true, windowSize)) {
+                        while (reader.readLine(text)) {
+                            // read everything
+                        }
+                    }
+                    try (LineReader reader = new LineReader(split, true, windowSize)) {
+                        while (reader.readLine(binary)) {
+                            // read everything
+                        }
+                    }
+                }
+                String message = "window " + windowSize + ", split size " + size;
+                assertEquals(message, lines, result);
+                assertEquals(message, lines.size(), text.count());
+                assertEquals(message, lines.size(), binary.count());
+                for (int i = 0; i < lines.size(); ++i) {
+                    assertEquals(message, lines.get(i), text.get(i));
+                    ByteLine line = binary.get(i, new ByteLine());
+                    assertEquals(message, lines.get(i), new String(line.getBytes(), line.getOffset(),
+                            line.getLength(), "US-ASCII"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadMappedEmptyFile() throws IOException {
+        File f = folder.newFile();
+        try (LineReader reader = new LineReader(new InputSplit(f), true)) {
+            assertNull(reader.readLine());
+        }
+    }
+
+    private List<String> readAll(List<InputSplit> splits) throws IOException {
+        List<String> result = new ArrayList<>();
+        for (InputSplit split : splits) {
+            LineReader reader = new LineReader(split);
+            String next;
+            while ((next = reader.readLine()) != null) {
+                result.add(next);
+            }
+            reader.close();
+        }
+        return result;
+    }
+
+    private File createFile(List<String> lines, String separator, boolean trailing) throws IOException {
+        File f = folder.newFile();
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        for (int i = 0; i < lines.size(); ++i) {
+            w.write(lines.get(i));
+            if (trailing || i < lines.size() - 1) w.write(separator);
+        }
+        w.close();
+        return f;
+    }
+}
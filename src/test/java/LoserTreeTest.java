@@ -0,0 +1,209 @@
+import com.bigsort.util.IndexMinPQ;
+import com.bigsort.util.LoserTree;
+import com.bigsort.util.MergeEngine;
+import com.bigsort.util.MergeQueue;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LoserTreeTest {
+    protected String[] strings;
+    protected LoserTree<String> tree;
+
+    @Before
+    public void setUp() {
+        strings = new String[]{"a", "b", "c", "d", "e", "f", "g", "h", "i", "j"};
+        tree = new LoserTree<>(strings.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLoserTreeNegativeSize() {
+        new LoserTree<String>(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertNegativeIndex() {
+        tree.insert(-1, strings[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertTooBigIndex() {
+        tree.insert(strings.length, strings[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsertDuplicate() {
+        tree.insert(1, strings[0]);
+        tree.insert(1, strings[0]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInsertAfterBuild() {
+        tree.insert(1, strings[0]);
+        tree.minKey();
+        tree.insert(2, strings[0]);
+    }
+
+    @Test
+    public void testIsEmpty() {
+        assertTrue(new LoserTree<String>(0).isEmpty());
+        assertTrue(tree.isEmpty());
+        LoserTree<String> other = new LoserTree<>(strings.length);
+        other.insert(3, strings[0]);
+        assertFalse(other.isEmpty());
+        other.replaceMin(null);
+        assertTrue(other.isEmpty());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMinKeyExceptionEmpty() {
+        tree.minKey();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testReplaceMinExceptionEmpty() {
+        tree.replaceMin("a");
+    }
+
+    @Test
+    public void testSingleSequence() {
+        LoserTree<String> single = new LoserTree<>(1);
+        single.insert(0, "a");
+        assertEquals("a", single.minKey());
+        single.replaceMin("b");
+        assertEquals("b", single.minKey());
+        assertEquals(0, single.minIndex());
+        single.replaceMin(null);
+        assertTrue(single.isEmpty());
+    }
+
+    @Test
+    public void testMinKeyDifferent() {
+        for (int i = strings.length - 1; i >= 0; i--) {
+            tree.insert(i, strings[strings.length - 1 - i]);
+        }
+        for (int i = 0; i < strings.length; ++i) {
+            assertEquals(strings[i], tree.minKey());
+            assertEquals(strings.length - 1 - i, tree.minIndex());
+            tree.replaceMin(null);
+        }
+        assertTrue(tree.isEmpty());
+    }
+
+    @Test
+    public void testEqualKeysLowerIndexFirst() {
+        for (int i = 0; i < strings.length; ++i) {
+            tree.insert(i, "b");
+        }
+        for (int i = 0; i < strings.length; ++i) {
+            assertEquals(i, tree.minIndex());
+            tree.replaceMin(null);
+        }
+    }
+
+    @Test
+    public void testMergeRandomSequences() {
+        Random random = new Random(7);
+        for (int n = 1; n <= 33; ++n) {
+            for (MergeEngine engine : MergeEngine.values()) {
+                List<List<String>> sequences = new ArrayList<>();
+                List<String> expected = new ArrayList<>();
+                for (int i = 0; i < n; ++i) {
+                    List<String> sequence = new ArrayList<>();
+                    int length = random.nextInt(20);
+                    for (int j = 0; j < length; ++j) {
+                        sequence.add(String.valueOf(random.nextInt(50)));
+                    }
+                    Collections.sort(sequence);
+                    sequences.add(sequence);
+                    expected.addAll(sequence);
+                }
+                Collections.sort(expected);
+                assertEquals(engine + " of " + n, expected, merge(engine.create(n), sequences));
+            }
+        }
+    }
+
+    /**
+     * A 1000-way merge needs at most ceil(log2(1000)) = 10 comparisons per line with the loser tree
+     * and about twice as much with the binary heap.
+     */
+    @Test
+    public void testComparisonsOfThousandWayMerge() {
+        int n = 1000;
+        Random random = new Random(42);
+        List<List<CountedKey>> sequences = new ArrayList<>();
+        int total = 0;
+        for (int i = 0; i < n; ++i) {
+            CountedKey[] sequence = new CountedKey[100];
+            for (int j = 0; j < sequence.length; ++j) {
+                sequence[j] = new CountedKey(random.nextInt());
+            }
+            Arrays.sort(sequence);
+            sequences.add(Arrays.asList(sequence));
+            total += sequence.length;
+        }
+
+        CountedKey.comparisons = 0;
+        merge(new LoserTree<>(n), sequences);
+        long loserTree = CountedKey.comparisons;
+
+        CountedKey.comparisons = 0;
+        IndexMinPQ<CountedKey> pq = new IndexMinPQ<>(n);
+        for (int i = 0; i < n; ++i) {
+            pq.insert(i, sequences.get(i).get(0));
+        }
+        int[] next = new int[n];
+        Arrays.fill(next, 1);
+        while (!pq.isEmpty()) {
+            int i = pq.delMin();
+            if (next[i] < sequences.get(i).size())
+                pq.insert(i, sequences.get(i).get(next[i]++));
+        }
+        long heap = CountedKey.comparisons;
+
+        assertTrue("loser tree: " + loserTree, loserTree <= 10L * (total + n));
+        assertTrue("loser tree: " + loserTree + ", heap: " + heap, 3 * loserTree < 2 * heap);
+    }
+
+    private static <Key> List<Key> merge(MergeQueue<Key> queue, List<List<Key>> sequences) {
+        int[] next = new int[sequences.size()];
+        for (int i = 0; i < sequences.size(); ++i) {
+            if (!sequences.get(i).isEmpty()) {
+                queue.insert(i, sequences.get(i).get(0));
+                next[i] = 1;
+            }
+        }
+        List<Key> result = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            result.add(queue.minKey());
+            int i = queue.minIndex();
+            List<Key> sequence = sequences.get(i);
+            queue.replaceMin(next[i] < sequence.size() ? sequence.get(next[i]++) : null);
+        }
+        return result;
+    }
+
+    private static class CountedKey implements Comparable<CountedKey> {
+        static long comparisons;
+        final int value;
+
+        CountedKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(CountedKey o) {
+            comparisons++;
+            return Integer.compare(value, o.value);
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import com.bigsort.Main;
+import com.bigsort.util.MergeEngine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
@@ -12,6 +13,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class MainTest {
@@ -84,6 +86,54 @@ public class MainTest {
         parser.parse(options, args);
     }
 
+    @Test
+    public void testParseSizeOption() {
+        assertEquals(100, Main.parseAndValidateSizeOption(Main.MEMORY, "100", 1));
+        assertEquals(2048, Main.parseAndValidateSizeOption(Main.MEMORY, "2k", 1));
+        assertEquals(512L << 20, Main.parseAndValidateSizeOption(Main.MEMORY, "512M", 1));
+        assertEquals(8L << 30, Main.parseAndValidateSizeOption(Main.MEMORY, "8g", 1));
+        assertEquals(1L << 40, Main.parseAndValidateSizeOption(Main.MEMORY, "1t", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseSizeOptionWrongSuffix() {
+        Main.parseAndValidateSizeOption(Main.MEMORY, "8x", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseSizeOptionTooSmall() {
+        Main.parseAndValidateSizeOption(Main.MEMORY, "1k", Main.MIN_MEMORY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseSizeOptionOverflow() {
+        Main.parseAndValidateSizeOption(Main.MEMORY, "9999999999999t", 1);
+    }
+
+    @Test
+    public void testParseEnumOption() {
+        assertEquals(MergeEngine.LOSER_TREE, Main.parseEnumOption(Main.MERGE_ENGINE, "loser-tree", MergeEngine.class));
+        assertEquals(MergeEngine.LOSER_TREE, Main.parseEnumOption(Main.MERGE_ENGINE, "LOSER_TREE", MergeEngine.class));
+        assertEquals(MergeEngine.HEAP, Main.parseEnumOption(Main.MERGE_ENGINE, "Heap", MergeEngine.class));
+    }
+
+    @Test
+    public void testParseSeparatorOption() {
+        assertEquals(',', Main.parseSeparatorOption(Main.FIELD_SEPARATOR, ","));
+        assertEquals('\t', Main.parseSeparatorOption(Main.FIELD_SEPARATOR, "\\t"));
+        assertEquals('\t', Main.parseSeparatorOption(Main.FIELD_SEPARATOR, "\t"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseSeparatorOptionTooLong() {
+        Main.parseSeparatorOption(Main.FIELD_SEPARATOR, ";;");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseEnumOptionWrongValue() {
+        Main.parseEnumOption(Main.MERGE_ENGINE, "tree", MergeEngine.class);
+    }
+
     private File createUnsortedFile() throws IOException {
         File f = folder.newFile("temp.txt");
         BufferedWriter w = new BufferedWriter(new FileWriter(f));
@@ -1,12 +1,23 @@
 import com.bigsort.MapWorker;
+import com.bigsort.RunGeneration;
+import com.bigsort.RunRegistry;
+import com.bigsort.SortOptions;
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.ByteLineReader;
+import com.bigsort.util.FilesHandler;
+import com.bigsort.util.InputSplit;
+import com.bigsort.util.MemoryEstimator;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.junit.Assert.assertEquals;
@@ -18,8 +29,8 @@ public class MapWorkerTest {
 
     @Test
     public void testCallNotEvenBatch() throws IOException {
-        ConcurrentLinkedQueue<File> q = new ConcurrentLinkedQueue<>();
-        q.add(createUnsortedFile());
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createUnsortedFile()));
         MapWorker w = new MapWorker(q, 3, folder.getRoot().getAbsolutePath(), "testJob");
         assertTrue(w.call());
         // There is 10 lines and the batch equals to 3, i.e. we expect 4 files to be created
@@ -46,8 +57,8 @@ public class MapWorkerTest {
 
     @Test
     public void testCallEvenBatch() throws IOException {
-        ConcurrentLinkedQueue<File> q = new ConcurrentLinkedQueue<>();
-        q.add(createUnsortedFile());
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createUnsortedFile()));
         MapWorker w = new MapWorker(q, 5, folder.getRoot().getAbsolutePath(), "testJob");
         assertTrue(w.call());
         // There is 10 lines and the batch equals to 5, i.e. we expect 2 files to be created
@@ -74,8 +85,8 @@ public class MapWorkerTest {
 
     @Test
     public void testCallBigBatch() throws IOException {
-        ConcurrentLinkedQueue<File> q = new ConcurrentLinkedQueue<>();
-        q.add(createUnsortedFile());
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createUnsortedFile()));
         MapWorker w = new MapWorker(q, 30, folder.getRoot().getAbsolutePath(), "testJob");
         assertTrue(w.call());
         // There is 10 lines and the batch equals to 30, i.e. we expect 1 files to be created
@@ -100,8 +111,8 @@ public class MapWorkerTest {
 
     @Test
     public void testCallSmallBatch() throws IOException {
-        ConcurrentLinkedQueue<File> q = new ConcurrentLinkedQueue<>();
-        q.add(createUnsortedFile());
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createUnsortedFile()));
         MapWorker w = new MapWorker(q, 1, folder.getRoot().getAbsolutePath(), "testJob");
         assertTrue(w.call());
         // There is 10 lines and the batch equals to 1, i.e. we expect 10 files to be created
@@ -121,6 +132,346 @@ public class MapWorkerTest {
     }
 
 
+    @Test
+    public void testCallMemoryLimit() throws IOException {
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createUnsortedFile()));
+        // Each line of one char is estimated as STRING_OVERHEAD + 2 bytes, i.e. 3 lines fit into the limit
+        long maxBytes = 3 * MemoryEstimator.estimate("0");
+        MapWorker w = new MapWorker(q, 30, maxBytes, folder.getRoot().getAbsolutePath(), "testJob");
+        assertTrue(w.call());
+        File[] resultFiles = folder.getRoot().listFiles((dir, name) -> name.startsWith("testJob"));
+        assertEquals(4, resultFiles.length);
+        int total = 0;
+        for (File f : resultFiles) {
+            BufferedReader reader = new BufferedReader(new FileReader(f));
+            ArrayList<String> result = new ArrayList<>();
+            String next;
+            while ((next = reader.readLine()) != null) {
+                result.add(next);
+            }
+            assertTrue(result.size() <= 3);
+            total += result.size();
+        }
+        assertEquals(10, total);
+    }
+
+    @Test
+    public void testCallSplitFile() throws IOException {
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        // 10 lines of 2 bytes each are split into 7 ranges which are not aligned to lines
+        q.addAll(FilesHandler.splitFiles(Collections.singletonList(createUnsortedFile()), 3));
+        assertEquals(7, q.size());
+        MapWorker w = new MapWorker(q, 30, folder.getRoot().getAbsolutePath(), "testJob");
+        assertTrue(w.call());
+        File[] resultFiles = folder.getRoot().listFiles((dir, name) -> name.startsWith("testJob"));
+        List<String> allStrings = new ArrayList<>();
+        for (File f : resultFiles) {
+            BufferedReader reader = new BufferedReader(new FileReader(f));
+            String next;
+            while ((next = reader.readLine()) != null) {
+                allStrings.add(next);
+            }
+        }
+        // Assert that every line is read exactly once
+        Collections.sort(allStrings);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i <= 9; ++i) {
+            expected.add(String.valueOf(i));
+        }
+        assertEquals(expected, allStrings);
+    }
+
+
+    @Test
+    public void testReplacementSelectionSortedInput() throws IOException {
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createFile(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"))));
+        MapWorker w = new MapWorker(q, 3, SortOptions.UNLIMITED_MEMORY, folder.getRoot().getAbsolutePath(),
+                "testJob", new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION));
+        assertTrue(w.call());
+        // A sorted input produces a single sorted file, no matter how small the heap is
+        File[] resultFiles = folder.getRoot().listFiles((dir, name) -> name.startsWith("testJob"));
+        assertEquals(1, resultFiles.length);
+        assertEquals(10, readSortedFile(resultFiles[0]).size());
+    }
+
+    @Test
+    public void testReplacementSelectionRandomInput() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; ++i) {
+            lines.add(String.valueOf(random.nextInt(100000)));
+        }
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        // Several splits form a single stream
+        q.addAll(FilesHandler.splitFiles(Collections.singletonList(createFile(lines)), 1000));
+        MapWorker w = new MapWorker(q, 50, SortOptions.UNLIMITED_MEMORY, folder.getRoot().getAbsolutePath(),
+                "testJob", new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION));
+        assertTrue(w.call());
+        File[] resultFiles = folder.getRoot().listFiles((dir, name) -> name.startsWith("testJob"));
+        // The sorted files are about twice as big as the heap: 1000 / (2 * 50)
+        assertTrue(resultFiles.length + " files", resultFiles.length <= 12);
+        List<String> allStrings = new ArrayList<>();
+        for (File f : resultFiles) {
+            allStrings.addAll(readSortedFile(f));
+        }
+        Collections.sort(allStrings);
+        Collections.sort(lines);
+        assertEquals(lines, allStrings);
+    }
+
+    @Test
+    public void testReplacementSelectionReversedInput() throws IOException {
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createUnsortedFile()));
+        MapWorker w = new MapWorker(q, 3, SortOptions.UNLIMITED_MEMORY, folder.getRoot().getAbsolutePath(),
+                "testJob", new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION));
+        assertTrue(w.call());
+        // A reversed input is the worst case, the sorted files are as big as the heap
+        File[] resultFiles = folder.getRoot().listFiles((dir, name) -> name.startsWith("testJob"));
+        assertEquals(4, resultFiles.length);
+        int total = 0;
+        for (File f : resultFiles) {
+            total += readSortedFile(f).size();
+        }
+        assertEquals(10, total);
+    }
+    @Test
+    public void testCallPipeline() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 1000; ++i) {
+            lines.add(String.valueOf(random.nextInt(100000)));
+        }
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.addAll(FilesHandler.splitFiles(Collections.singletonList(createFile(lines)), 700));
+        // Three batches of 10 lines each are in RAM at once
+        MapWorker w = new MapWorker(q, 30, SortOptions.UNLIMITED_MEMORY, folder.getRoot().getAbsolutePath(),
+                "testJob", new SortOptions().setPipeline(true));
+        assertTrue(w.call());
+        File[] resultFiles = folder.getRoot().listFiles((dir, name) -> name.startsWith("testJob"));
+        assertEquals(100, resultFiles.length);
+        List<String> allStrings = new ArrayList<>();
+        for (File f : resultFiles) {
+            List<String> result = readSortedFile(f);
+            assertEquals(10, result.size());
+            allStrings.addAll(result);
+        }
+        Collections.sort(allStrings);
+        Collections.sort(lines);
+        assertEquals(lines, allStrings);
+    }
+
+
+    /**
+     * Reads the lines of {@code f} and checks that they are sorted.
+     */
+    @Test
+    public void testCallPipelineSmallBatch() throws IOException {
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createUnsortedFile()));
+        // Two batches of one line each rather than three, so no more than two lines are in RAM at once
+        MapWorker w = new MapWorker(q, 2, SortOptions.UNLIMITED_MEMORY, folder.getRoot().getAbsolutePath(),
+                "testJob", new SortOptions().setPipeline(true));
+        assertTrue(w.call());
+        File[] resultFiles = folder.getRoot().listFiles((dir, name) -> name.startsWith("testJob"));
+        assertEquals(10, resultFiles.length);
+        List<String> allStrings = new ArrayList<>();
+        for (File f : resultFiles) {
+            allStrings.addAll(readSortedFile(f));
+        }
+        Collections.sort(allStrings);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i <= 9; ++i) {
+            expected.add(String.valueOf(i));
+        }
+        assertEquals(expected, allStrings);
+    }
+
+    @Test
+    public void testCallArena() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(6);
+        for (int i = 0; i < 1000; ++i) {
+            lines.add(String.valueOf(random.nextInt(100000)));
+        }
+        for (boolean pipeline : new boolean[]{false, true}) {
+            File dir = folder.newFolder();
+            ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+            q.addAll(FilesHandler.splitFiles(Collections.singletonList(createFile(lines)), 700));
+            MapWorker w = new MapWorker(q, 90, SortOptions.UNLIMITED_MEMORY, dir.getAbsolutePath(),
+                    "testJob", new SortOptions().setArena(true).setPipeline(pipeline));
+            assertTrue(w.call());
+            List<String> allStrings = new ArrayList<>();
+            for (File f : dir.listFiles((d, name) -> name.startsWith("testJob"))) {
+                List<String> result = readSortedFile(f);
+                assertTrue(result.size() <= (pipeline ? 30 : 90));
+                allStrings.addAll(result);
+            }
+            Collections.sort(allStrings);
+            List<String> expected = new ArrayList<>(lines);
+            Collections.sort(expected);
+            assertEquals(expected, allStrings);
+        }
+    }
+
+    @Test
+    public void testCallManySmallFiles() throws IOException {
+        List<File> files = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            List<String> lines = Arrays.asList(String.valueOf(2 * i + 1), String.valueOf(2 * i));
+            files.add(createFile(lines));
+            expected.addAll(lines);
+        }
+        Collections.sort(expected);
+        for (boolean arena : new boolean[]{false, true}) {
+            File dir = folder.newFolder();
+            ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>(FilesHandler.splitFiles(files, 100));
+            MapWorker w = new MapWorker(q, 30, SortOptions.UNLIMITED_MEMORY, dir.getAbsolutePath(),
+                    "testJob", new SortOptions().setArena(arena));
+            assertTrue(w.call());
+            // The files share the runs: 100 lines by 30 give 4 runs rather than one run per file
+            File[] resultFiles = dir.listFiles((d, name) -> name.startsWith("testJob"));
+            assertEquals(4, resultFiles.length);
+            List<String> allStrings = new ArrayList<>();
+            for (File f : resultFiles) {
+                allStrings.addAll(readSortedFile(f));
+            }
+            Collections.sort(allStrings);
+            assertEquals(expected, allStrings);
+        }
+    }
+
+    @Test
+    public void testCallArenaMemoryLimit() throws IOException {
+        ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+        q.add(new InputSplit(createUnsortedFile()));
+        // The same limit fits only 3 Strings of one char, but all the 10 lines of the arena
+        long maxBytes = 3 * MemoryEstimator.estimate("0");
+        MapWorker w = new MapWorker(q, 30, maxBytes, folder.getRoot().getAbsolutePath(), "testJob",
+                new SortOptions().setArena(true));
+        assertTrue(w.call());
+        File[] resultFiles = folder.getRoot().listFiles((dir, name) -> name.startsWith("testJob"));
+        assertEquals(1, resultFiles.length);
+        int total = 0;
+        for (File f : resultFiles) {
+            total += readSortedFile(f).size();
+        }
+        assertEquals(10, total);
+    }
+
+    @Test
+    public void testCallBinary() throws IOException {
+        Random random = new Random(7);
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        List<ByteLine> lines = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            byte[] line = {(byte) (0x70 + random.nextInt(32)), (byte) random.nextInt(10)};
+            lines.add(new ByteLine(line, 0, line.length));
+            content.write(line, 0, line.length);
+            content.write('\n');
+        }
+        File input = folder.newFile();
+        Files.write(input.toPath(), content.toByteArray());
+        Collections.sort(lines);
+
+        List<SortOptions> variants = Arrays.asList(new SortOptions(), new SortOptions().setPipeline(true),
+                new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION));
+        for (SortOptions options : variants) {
+            File dir = folder.newFolder();
+            ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+            q.addAll(FilesHandler.splitFiles(Collections.singletonList(input), 400));
+            MapWorker w = new MapWorker(q, 60, SortOptions.UNLIMITED_MEMORY, dir.getAbsolutePath(), "testJob",
+                    options.setBinary(true));
+            assertTrue(w.call());
+            List<ByteLine> allLines = new ArrayList<>();
+            for (File f : dir.listFiles((d, name) -> name.startsWith("testJob"))) {
+                allLines.addAll(readSortedBytes(f));
+            }
+            Collections.sort(allLines);
+            assertEquals(lines.size(), allLines.size());
+            for (int i = 0; i < lines.size(); ++i) {
+                assertEquals(0, lines.get(i).compareTo(allLines.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testPublishSortedFiles() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(16);
+        for (int i = 0; i < 100; ++i) {
+            lines.add(String.valueOf(random.nextInt(1000)));
+        }
+        File input = createFile(lines);
+
+        List<SortOptions> variants = Arrays.asList(new SortOptions(), new SortOptions().setArena(true),
+                new SortOptions().setPipeline(true), new SortOptions().setBinary(true),
+                new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION),
+                new SortOptions().setRunGeneration(RunGeneration.REPLACEMENT_SELECTION).setBinary(true));
+        for (SortOptions options : variants) {
+            File dir = folder.newFolder();
+            ConcurrentLinkedQueue<InputSplit> q = new ConcurrentLinkedQueue<>();
+            q.addAll(FilesHandler.splitFiles(Collections.singletonList(input), 100));
+            RunRegistry registry = new RunRegistry();
+            MapWorker w = new MapWorker(q, 9, SortOptions.UNLIMITED_MEMORY, dir.getAbsolutePath(), "testJob",
+                    options, registry);
+            assertTrue(w.call());
+
+            List<File> published = new ArrayList<>();
+            for (RunRegistry.Run run : registry.getRuns()) {
+                File f = run.getFile().join();
+                assertEquals(f.length(), run.getSize());
+                published.add(f);
+            }
+            List<File> written = Arrays.asList(dir.listFiles((d, name) -> name.startsWith("testJob")));
+            assertTrue(written.size() > 1);
+            assertEquals(written.size(), published.size());
+            assertTrue(published.containsAll(written));
+        }
+    }
+
+    private List<ByteLine> readSortedBytes(File f) throws IOException {
+        List<ByteLine> result = new ArrayList<>();
+        ByteLine line = new ByteLine();
+        try (ByteLineReader reader = new ByteLineReader(new FileInputStream(f), 1024)) {
+            while (reader.readLine(line)) {
+                ByteLine copy = line.copy();
+                if (!result.isEmpty()) assertTrue(result.get(result.size() - 1).compareTo(copy) <= 0);
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    private List<String> readSortedFile(File f) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(f));
+        String next;
+        ArrayList<String> result = new ArrayList<>();
+        while ((next = reader.readLine()) != null) {
+            result.add(next);
+        }
+        reader.close();
+        ArrayList<String> expected = new ArrayList<>(result);
+        Collections.sort(expected);
+        assertEquals(expected, result);
+        return result;
+    }
+
+    private File createFile(List<String> lines) throws IOException {
+        File f = folder.newFile();
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        for (String line : lines) {
+            w.write(line);
+            w.newLine();
+        }
+        w.close();
+        return f;
+    }
+
+
     private File createUnsortedFile() throws IOException {
         File f = folder.newFile("temp.txt");
         BufferedWriter w = new BufferedWriter(new FileWriter(f));
@@ -0,0 +1,95 @@
+import com.bigsort.MergePlan;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MergePlanTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongFanIn() {
+        MergePlan.create(new long[]{1, 2}, 1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGroupFanInBiggerThanFanIn() {
+        MergePlan.create(new long[]{1, 2}, 3, 4);
+    }
+
+    @Test
+    public void testNoRuns() {
+        MergePlan plan = MergePlan.create(new long[0], 2, 2);
+        assertEquals(0, plan.getSteps().size());
+        assertEquals(0, plan.getCost());
+    }
+
+    @Test
+    public void testSingleStep() {
+        MergePlan plan = MergePlan.create(new long[]{5, 1, 3}, 3, 2);
+        assertEquals(1, plan.getSteps().size());
+        assertEquals(Arrays.asList(1, 2, 0), plan.getSteps().get(0).getInputs());
+        assertEquals(9, plan.getSteps().get(0).getBytes());
+        assertEquals(0, plan.getCost());
+    }
+
+    @Test
+    public void testSmallRunsFirst() {
+        // The big run is merged only once, by the final step
+        MergePlan plan = MergePlan.create(new long[]{100, 1, 1, 1, 1, 1, 1}, 3, 3);
+        List<MergePlan.Step> steps = plan.getSteps();
+        assertEquals(3, steps.size());
+        assertEquals(Arrays.asList(1, 2, 3), steps.get(0).getInputs());
+        assertEquals(Arrays.asList(4, 5, 6), steps.get(1).getInputs());
+        assertEquals(Arrays.asList(7, 8, 0), steps.get(2).getInputs());
+        assertEquals(6, plan.getCost());
+        assertTrue(plan.toString().contains("-> result"));
+    }
+
+    @Test
+    public void testFinalStepUsesFullFanIn() {
+        // 6 runs and the fan-in of 4: a step of 3 runs leaves exactly 4 runs for the final step
+        MergePlan plan = MergePlan.create(new long[]{10, 20, 30, 40, 50, 60}, 4, 4);
+        List<MergePlan.Step> steps = plan.getSteps();
+        assertEquals(2, steps.size());
+        assertEquals(Arrays.asList(0, 1, 2), steps.get(0).getInputs());
+        assertEquals(4, steps.get(1).getInputs().size());
+        assertEquals(60, plan.getCost());
+    }
+
+    @Test
+    public void testEveryRunIsMergedOnce() {
+        Random random = new Random(17);
+        for (int n = 1; n < 60; ++n) {
+            long[] sizes = new long[n];
+            for (int i = 0; i < n; ++i) {
+                sizes[i] = random.nextInt(1000);
+            }
+            for (int fanIn = 2; fanIn < 8; ++fanIn) {
+                for (int groupFanIn = 2; groupFanIn <= fanIn; ++groupFanIn) {
+                    MergePlan plan = MergePlan.create(sizes, fanIn, groupFanIn);
+                    List<MergePlan.Step> steps = plan.getSteps();
+                    int[] used = new int[n + steps.size()];
+                    for (int s = 0; s < steps.size(); ++s) {
+                        MergePlan.Step step = steps.get(s);
+                        int limit = s == steps.size() - 1 ? fanIn : groupFanIn;
+                        assertTrue(step.getInputs().size() <= limit);
+                        assertEquals(n + s, step.getOutput());
+                        for (int run : step.getInputs()) {
+                            // A run is merged after it is produced
+                            assertTrue(run < n + s);
+                            used[run]++;
+                        }
+                    }
+                    for (int run = 0; run < used.length - 1; ++run) {
+                        assertEquals(1, used[run]);
+                    }
+                    if (n > fanIn) assertEquals(fanIn, steps.get(steps.size() - 1).getInputs().size());
+                }
+            }
+        }
+    }
+}
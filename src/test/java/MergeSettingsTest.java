@@ -0,0 +1,55 @@
+import com.bigsort.util.Duplicates;
+import com.bigsort.util.MemoryEstimator;
+import com.bigsort.util.MergeEngine;
+import com.bigsort.util.MergeSettings;
+import com.bigsort.util.ReadAhead;
+import com.bigsort.util.SortKeys;
+import com.bigsort.util.TempCodec;
+import com.bigsort.util.WriteBehind;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class MergeSettingsTest {
+
+    @Test
+    public void testDefaults() {
+        MergeSettings settings = new MergeSettings();
+        assertEquals(MemoryEstimator.MERGE_BUFFER_SIZE, settings.getBufferSize());
+        assertEquals(MergeEngine.LOSER_TREE, settings.getEngine());
+        assertEquals(TempCodec.NONE, settings.getCodec());
+        assertEquals(TempCodec.NONE, settings.getResultCodec());
+        assertEquals(ReadAhead.NONE, settings.getReadAhead());
+        assertEquals(WriteBehind.NONE, settings.getWriteBehind());
+        assertEquals(SortKeys.NONE, settings.getKeys());
+        assertEquals(Duplicates.KEEP, settings.getDuplicates());
+        assertEquals(MergeSettings.UNLIMITED_LINES, settings.getLimit());
+    }
+
+    @Test
+    public void testChaining() {
+        SortKeys keys = SortKeys.parse(Arrays.asList("2"), ' ');
+        MergeSettings settings = new MergeSettings().setBufferSize(16).setEngine(MergeEngine.HEAP)
+                .setCodec(TempCodec.LZ4).setResultCodec(TempCodec.LZ4).setKeys(keys)
+                .setDuplicates(Duplicates.COUNT).setLimit(10);
+        assertEquals(16, settings.getBufferSize());
+        assertEquals(MergeEngine.HEAP, settings.getEngine());
+        assertEquals(TempCodec.LZ4, settings.getCodec());
+        assertEquals(TempCodec.LZ4, settings.getResultCodec());
+        assertEquals(keys, settings.getKeys());
+        assertEquals(Duplicates.COUNT, settings.getDuplicates());
+        assertEquals(10, settings.getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongBufferSize() {
+        new MergeSettings().setBufferSize(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongEngine() {
+        new MergeSettings().setEngine(null);
+    }
+}
@@ -0,0 +1,158 @@
+import com.bigsort.util.Duplicates;
+import com.bigsort.util.MergeEngine;
+import com.bigsort.util.MergeSettings;
+import com.bigsort.util.MergeTree;
+import com.bigsort.util.SortKeys;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MergeTreeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCountEdges() {
+        assertEquals(0, MergeTree.countEdges(1, 2));
+        assertEquals(0, MergeTree.countEdges(8, 8));
+        assertEquals(2, MergeTree.countEdges(9, 8));
+        assertEquals(8, MergeTree.countEdges(64, 8));
+        // 10 -> 5 -> 3 -> 2
+        assertEquals(5 + 3 + 2, MergeTree.countEdges(10, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongNodeFanIn() {
+        MergeTree.countEdges(10, 1);
+    }
+
+    @Test
+    public void testMergeSortedFiles() throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<File> files = createRuns(37, expected);
+        int n = 0;
+        for (int nodeFanIn : new int[]{2, 3, 8, 40}) {
+            for (MergeEngine engine : MergeEngine.values()) {
+                File result = new File(folder.getRoot(), "result" + n++);
+                assertTrue(MergeTree.mergeSortedFiles(files, result, nodeFanIn, 1, 1,
+                        new MergeSettings().setBufferSize(16).setEngine(engine)));
+                assertEquals(expected, Files.readAllLines(result.toPath()));
+            }
+        }
+    }
+
+    @Test
+    public void testMergeSortedByteFiles() throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<File> files = createRuns(21, expected);
+        int n = 0;
+        for (int blockLines : new int[]{1, 5, 4096}) {
+            File result = new File(folder.getRoot(), "result" + n++);
+            assertTrue(MergeTree.mergeSortedByteFiles(files, result, 2, blockLines, 64,
+                    new MergeSettings().setBufferSize(16).setEngine(MergeEngine.HEAP)));
+            assertEquals(expected, Files.readAllLines(result.toPath()));
+        }
+    }
+
+    @Test
+    public void testMergeSortedFilesByKeys() throws IOException {
+        // The lines are sorted by their second char in the reverse order
+        SortKeys keys = SortKeys.parse(Arrays.asList("1.2,1.2r"), '\t');
+        List<String> expected = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        Random random = new Random(19);
+        for (int i = 0; i < 11; ++i) {
+            List<String> lines = new ArrayList<>();
+            for (int j = 0; j < 20; ++j) {
+                lines.add(Integer.toString(100 + random.nextInt(900)));
+            }
+            lines.sort((a, b) -> keys.wrap(a).compareTo(keys.wrap(b)));
+            expected.addAll(lines);
+            File f = folder.newFile("keyed" + i);
+            Files.write(f.toPath(), lines);
+            files.add(f);
+        }
+        expected.sort((a, b) -> a.charAt(1) != b.charAt(1) ? b.charAt(1) - a.charAt(1) : a.compareTo(b));
+
+        File result = new File(folder.getRoot(), "result");
+        assertTrue(MergeTree.mergeSortedFiles(files, result, 3, 2, 1,
+                new MergeSettings().setBufferSize(16).setKeys(keys)));
+        assertEquals(expected, Files.readAllLines(result.toPath()));
+    }
+
+    @Test
+    public void testMergeSortedFilesLimit() throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<File> files = createRuns(37, expected);
+        int n = 0;
+        for (int limit : new int[]{1, 25, 1000000}) {
+            List<String> first = expected.subList(0, Math.min(limit, expected.size()));
+            File result = new File(folder.getRoot(), "result" + n++);
+            // Blocks of one line, so the nodes are stopped while they still have lines
+            assertTrue(MergeTree.mergeSortedFiles(files, result, 2, 1, 1,
+                    new MergeSettings().setBufferSize(16).setLimit(limit)));
+            assertEquals(first, Files.readAllLines(result.toPath()));
+
+            result = new File(folder.getRoot(), "result" + n++);
+            assertTrue(MergeTree.mergeSortedByteFiles(files, result, 3, 1, 1,
+                    new MergeSettings().setBufferSize(16).setEngine(MergeEngine.HEAP).setLimit(limit)));
+            assertEquals(first, Files.readAllLines(result.toPath()));
+        }
+    }
+
+    @Test(timeout = 10000, expected = IllegalArgumentException.class)
+    public void testMergeMalformedLine() throws IOException {
+        // The lines have no counts, so the nodes fail to read them and the root has to get the error
+        List<File> files = createRuns(11, new ArrayList<>());
+        MergeTree.mergeSortedFiles(files, new File(folder.getRoot(), "result"), 2, 4, 1024,
+                new MergeSettings().setBufferSize(16).setEngine(MergeEngine.HEAP).setDuplicates(Duplicates.COUNT));
+    }
+
+    @Test
+    public void testMergeMissingFile() throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<File> files = createRuns(5, expected);
+        files.add(new File(folder.getRoot(), "missing"));
+        assertFalse(MergeTree.mergeSortedFiles(files, new File(folder.getRoot(), "result"), 2, 4, 1024,
+                new MergeSettings().setBufferSize(16).setEngine(MergeEngine.HEAP)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongBlockLines() throws IOException {
+        MergeTree.mergeSortedFiles(new ArrayList<>(), folder.newFile(), 2, 0, 1024, new MergeSettings());
+    }
+
+    /**
+     * Creates {@code runs} sorted files of different sizes, some of them are empty.
+     */
+    private List<File> createRuns(int runs, List<String> expected) throws IOException {
+        Random random = new Random(runs);
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < runs; ++i) {
+            List<String> lines = new ArrayList<>();
+            for (int j = 0; j < (i % 4) * 30; ++j) {
+                lines.add(Integer.toString(random.nextInt(1000), 36));
+            }
+            Collections.sort(lines);
+            expected.addAll(lines);
+            File f = folder.newFile("run" + i);
+            Files.write(f.toPath(), lines);
+            files.add(f);
+        }
+        Collections.sort(expected);
+        return files;
+    }
+}
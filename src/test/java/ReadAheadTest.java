@@ -0,0 +1,78 @@
+import com.bigsort.util.ReadAhead;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ReadAheadTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBlockSize() {
+        new ReadAhead(-1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoThreads() {
+        new ReadAhead(1024, 0);
+    }
+
+    @Test
+    public void testNone() {
+        InputStream in = new ByteArrayInputStream(new byte[1]);
+        assertSame(in, ReadAhead.NONE.wrap(in));
+        assertEquals(0, ReadAhead.NONE.getReaderOverhead());
+    }
+
+    @Test
+    public void testReadAll() throws IOException {
+        byte[] data = new byte[10000];
+        new Random(15).nextBytes(data);
+        ReadAhead readAhead = new ReadAhead(64, 2);
+        assertEquals(128, readAhead.getReaderOverhead());
+        for (int chunk : new int[]{1, 7, 64, 1000}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = readAhead.wrap(new ByteArrayInputStream(data))) {
+                byte[] buf = new byte[chunk];
+                int n;
+                while ((n = in.read(buf, 0, chunk)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+                assertEquals(-1, in.read());
+            }
+            assertArrayEquals("chunk " + chunk, data, out.toByteArray());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = readAhead.wrap(new ByteArrayInputStream(data))) {
+            int b;
+            while ((b = in.read()) >= 0) {
+                out.write(b);
+            }
+        }
+        assertArrayEquals(data, out.toByteArray());
+        readAhead.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadFailure() throws IOException {
+        ReadAhead readAhead = new ReadAhead(64, 1);
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken disk");
+            }
+        };
+        try (InputStream in = readAhead.wrap(failing)) {
+            in.read();
+        } finally {
+            readAhead.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import com.bigsort.util.RunHeap;
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.*;
+
+public class RunHeapTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRunHeapWrongCapacity() {
+        new RunHeap<String>(0);
+    }
+
+    @Test
+    public void testLowerRunFirst() {
+        RunHeap<String> heap = new RunHeap<>(2);
+        heap.push(1, "a");
+        heap.push(0, "z");
+        heap.push(0, "m");
+        heap.push(1, "b");
+        assertEquals(4, heap.size());
+
+        assertEquals(0, heap.minRun());
+        assertEquals("m", heap.pop());
+        assertEquals("z", heap.pop());
+        assertEquals(1, heap.minRun());
+        assertEquals("a", heap.pop());
+        assertEquals("b", heap.pop());
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testPopExceptionEmpty() {
+        new RunHeap<String>(1).pop();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMinRunExceptionEmpty() {
+        new RunHeap<String>(1).minRun();
+    }
+}
@@ -0,0 +1,112 @@
+import com.bigsort.util.ByteLine;
+import com.bigsort.util.InputSplit;
+import com.bigsort.util.LineReader;
+import com.bigsort.util.RunIndex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RunIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongEntries() throws IOException {
+        RunIndex.build(createFile(Arrays.asList("a", "b")), 0, RunIndex.TEXT);
+    }
+
+    @Test
+    public void testFind() throws IOException {
+        List<String> lines = new ArrayList<>();
+        Random random = new Random(20);
+        for (int i = 0; i < 1000; ++i) {
+            lines.add(String.valueOf(100 + random.nextInt(50)));
+        }
+        Collections.sort(lines);
+        File run = createFile(lines);
+
+        for (int entries : new int[]{1, 7, 100, 5000}) {
+            RunIndex<String> index = RunIndex.build(run, entries, RunIndex.TEXT);
+            assertEquals(0, index.find("0"));
+            assertEquals(run.length(), index.find("9"));
+            for (int key = 100; key < 150; key += 7) {
+                long offset = index.find(String.valueOf(key));
+                // Every line before the offset is less than the key, every line after it is not
+                List<String> before = readLines(run, 0, offset);
+                List<String> after = readLines(run, offset, run.length());
+                assertEquals(lines.size(), before.size() + after.size());
+                for (String line : before) assertTrue(line.compareTo(String.valueOf(key)) < 0);
+                for (String line : after) assertTrue(line.compareTo(String.valueOf(key)) >= 0);
+            }
+        }
+    }
+
+    @Test
+    public void testFindBinary() throws IOException {
+        File run = folder.newFile();
+        Files.write(run.toPath(), new byte[]{'a', '\n', 'b', '\n', (byte) 0xC0, '\n', (byte) 0xFF, '\n'});
+        RunIndex<ByteLine> index = RunIndex.build(run, 4, RunIndex.BINARY);
+        byte[] key = {(byte) 0x80};
+        // Unsigned bytes: 0x80 goes after "b" and before 0xC0
+        assertEquals(4, index.find(new ByteLine(key, 0, 1)));
+    }
+
+    @Test
+    public void testSplitters() throws IOException {
+        List<RunIndex<String>> indexes = new ArrayList<>();
+        for (int r = 0; r < 4; ++r) {
+            List<String> lines = new ArrayList<>();
+            for (int i = 0; i < 250; ++i) {
+                lines.add(String.format("%04d", i * 4 + r));
+            }
+            indexes.add(RunIndex.build(createFile(lines), 50, RunIndex.TEXT));
+        }
+        List<String> splitters = RunIndex.splitters(indexes, 4);
+        assertEquals(3, splitters.size());
+        int[] expected = {250, 500, 750};
+        for (int i = 0; i < splitters.size(); ++i) {
+            assertTrue(splitters.get(i), Math.abs(Integer.parseInt(splitters.get(i)) - expected[i]) <= 30);
+        }
+        assertEquals(Collections.emptyList(), RunIndex.splitters(indexes, 1));
+    }
+
+    @Test
+    public void testSplittersOfEqualLines() throws IOException {
+        RunIndex<String> index = RunIndex.build(createFile(Collections.nCopies(100, "same")), 10, RunIndex.TEXT);
+        // All the lines go to the last range
+        for (String splitter : RunIndex.splitters(Collections.singletonList(index), 3)) {
+            assertEquals("same", splitter);
+            assertEquals(0, index.find(splitter));
+        }
+    }
+
+    private List<String> readLines(File f, long start, long end) throws IOException {
+        List<String> result = new ArrayList<>();
+        if (start == end) return result;
+        try (LineReader reader = new LineReader(new InputSplit(f, start, end))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    private File createFile(List<String> lines) throws IOException {
+        File f = folder.newFile();
+        Files.write(f.toPath(), lines);
+        return f;
+    }
+}
@@ -0,0 +1,96 @@
+import com.bigsort.RunRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RunRegistryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongCount() throws InterruptedException {
+        new RunRegistry().take(2, 4);
+    }
+
+    @Test
+    public void testTakeSmallest() throws IOException, InterruptedException {
+        RunRegistry registry = new RunRegistry();
+        File big = createFile(10);
+        File small = createFile(1);
+        File medium = createFile(5);
+        registry.publish(big);
+        registry.publish(small);
+        registry.publish(medium);
+
+        assertEquals(Arrays.asList(small, medium), registry.take(2, 2));
+        List<RunRegistry.Run> left = registry.getRuns();
+        assertEquals(1, left.size());
+        assertEquals(big, left.get(0).getFile().join());
+        assertEquals(10, left.get(0).getSize());
+    }
+
+    @Test
+    public void testTakeWaitsForRuns() throws Exception {
+        RunRegistry registry = new RunRegistry();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<File>> taken = executor.submit(() -> registry.take(2, 2));
+            registry.publish(createFile(1));
+            registry.publish(createFile(2));
+            Thread.sleep(50);
+            assertFalse(taken.isDone());
+
+            // A run which is not written yet is not taken
+            CompletableFuture<File> pending = new CompletableFuture<>();
+            registry.publish(pending, 3);
+            Thread.sleep(50);
+            assertFalse(taken.isDone());
+
+            pending.complete(createFile(3));
+            assertEquals(2, taken.get(10, TimeUnit.SECONDS).size());
+            assertEquals(1, registry.getRuns().size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        RunRegistry registry = new RunRegistry();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<File>> taken = executor.submit(() -> registry.take(3, 2));
+            registry.publish(createFile(1));
+            registry.close();
+            assertNull(taken.get(10, TimeUnit.SECONDS));
+            assertNull(registry.take(1, 2));
+            // The runs are left to the merge stage
+            assertEquals(1, registry.getRuns().size());
+            assertTrue(registry.getRuns().get(0).getFile().isDone());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private File createFile(int size) throws IOException {
+        File f = folder.newFile();
+        Files.write(f.toPath(), new byte[size]);
+        return f;
+    }
+}
@@ -0,0 +1,195 @@
+import com.bigsort.util.Duplicates;
+import com.bigsort.util.KeyedLine;
+import com.bigsort.util.SortKeys;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SortKeysTest {
+
+    @Test
+    public void testNone() {
+        assertTrue(SortKeys.NONE.isEmpty());
+        assertTrue(SortKeys.parse(Collections.emptyList(), ',') == SortKeys.NONE);
+        assertEquals(0, SortKeys.NONE.estimate("line"));
+    }
+
+    @Test
+    public void testSortUnique() {
+        SortKeys keys = SortKeys.parse(Arrays.asList("2"), ' ');
+        String[] lines = {"x", "c 2", "b 1", "a 2", "d 1", "e 3"};
+        assertEquals(4, keys.sort(lines, 1, 6, Duplicates.DROP));
+        assertArrayEquals(new String[]{"x", "b 1", "a 2", "e 3", null, null}, lines);
+
+        lines = new String[]{"c 2", "b 1", "a 2", "d 1", "e 3"};
+        assertEquals(3, keys.sort(lines, 0, 5, Duplicates.COUNT));
+        assertArrayEquals(new String[]{"2\tb 1", "2\ta 2", "1\te 3", null, null}, lines);
+
+        assertTrue(keys.same(keys.wrap("a 2"), keys.wrap("c 2")));
+        assertTrue(SortKeys.NONE.same(new KeyedLine("", "a"), new KeyedLine("", "a")));
+        assertTrue(!SortKeys.NONE.same(new KeyedLine("", "a"), new KeyedLine("", "b")));
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals("[2.1]", SortKeys.parse("2").toString());
+        assertEquals("[2.3,2r]", SortKeys.parse("2.3,2r").toString());
+        assertEquals("[1.1,3.4r, 2.1]", SortKeys.parse("1r,3.4", "2").toString());
+        assertEquals("[1.1nr, 2.1,2h, 3.1V]", SortKeys.parse("1rn", "2,2h", "3V").toString());
+        assertEquals(SortKeys.Ordering.NUMERIC, SortKeys.parse("1n,1n").getKeys().get(0).getOrdering());
+    }
+
+    @Test
+    public void testParseWrongKeys() {
+        for (String spec : new String[]{"", "0", "1.0", "a", "1,", "1,0", "1.2.3", "1,2,3", "2x", "1n,1h", "1Vn"}) {
+            try {
+                SortKeys.parse(spec);
+                throw new AssertionError("Key " + spec + " is accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testFields() {
+        SortKeys keys = SortKeys.parse(Arrays.asList("2,2"), ',');
+        assertTrue(keys.wrap("x,b,a").compareTo(keys.wrap("a,c")) < 0);
+        // Equal keys, the whole lines decide
+        assertTrue(keys.wrap("b,a,z").compareTo(keys.wrap("a,a,z")) > 0);
+        // A missing field is an empty key, a key which is a prefix of another one goes first
+        assertTrue(keys.wrap("z").compareTo(keys.wrap("a,")) > 0);
+        assertTrue(keys.wrap("z,").compareTo(keys.wrap("a,a")) < 0);
+        assertTrue(keys.wrap("z,a").compareTo(keys.wrap("a,ab")) < 0);
+        assertNull(keys.wrap(null));
+    }
+
+    @Test
+    public void testChars() {
+        SortKeys keys = SortKeys.parse(Arrays.asList("1.2,1.3"), ' ');
+        assertEquals(keys.normalize("xab yy"), keys.normalize("zabq"));
+        assertEquals(keys.normalize("x"), keys.normalize(""));
+        // The key runs to the end of the line without the second field
+        keys = SortKeys.parse(Arrays.asList("2.2"), ' ');
+        assertEquals(keys.normalize("q ab c"), keys.normalize("z zb c"));
+    }
+
+    @Test
+    public void testReverse() {
+        SortKeys keys = SortKeys.parse(Arrays.asList("1,1r", "2,2"), '\t');
+        List<String> lines = Arrays.asList("a\t2", "b\t1", "ab\t0", "b\t0", "\t5", "a\t1");
+        List<String> expected = Arrays.asList("b\t0", "b\t1", "ab\t0", "a\t1", "a\t2", "\t5");
+        assertEquals(expected, sorted(keys, lines));
+    }
+
+    @Test
+    public void testSpecialChars() {
+        SortKeys keys = SortKeys.parse(Arrays.asList("1,1", "2r"), ',');
+        List<String> lines = Arrays.asList("\uFFFF,a", "\uFFFE\uFFFF,a", "\uFFFF\u0000,a", "\u0000,\uFFFF",
+                "\u0000,\u0000", ",\uFFFF\uFFFF", ",\uFFFF", "\uFFFF,");
+        List<String> expected = Arrays.asList(",\uFFFF\uFFFF", ",\uFFFF", "\u0000,\uFFFF", "\u0000,\u0000",
+                "\uFFFE\uFFFF,a", "\uFFFF,a", "\uFFFF,", "\uFFFF\u0000,a");
+        assertEquals(expected, sorted(keys, lines));
+    }
+
+    @Test
+    public void testNumeric() {
+        SortKeys keys = SortKeys.parse("1n");
+        List<String> lines = Arrays.asList("10", "9", "-3", " 2.5", "2.5e1", "+7", "abc", "-0", "0.8ms",
+                "12.5ms", "-1e-3", ".5", "1e", "-inf", "9007199254740993", "9007199254740992", "-9007199254740993",
+                "123456789012345678", "123456789012345677", "1e400");
+        List<String> expected = Arrays.asList("-9007199254740993", "-3", "-1e-3", "-0", "-inf", "abc", ".5",
+                "0.8ms", "1e", " 2.5", "+7", "9", "10", "12.5ms", "2.5e1", "9007199254740992", "9007199254740993",
+                "123456789012345677", "123456789012345678", "1e400");
+        assertEquals(expected, sorted(keys, lines));
+
+        // The numbers of equal value are equal keys, the whole lines decide
+        assertEquals(keys.normalize("7"), keys.normalize("+7.0"));
+        assertEquals(keys.normalize("0"), keys.normalize("-0.0"));
+    }
+
+    @Test
+    public void testNumericReverse() {
+        SortKeys keys = SortKeys.parse(Arrays.asList("2nr", "1"), ',');
+        List<String> lines = Arrays.asList("a,1", "b,-2", "c,10", "d,1.5", "e,", "f,10");
+        assertEquals(Arrays.asList("c,10", "f,10", "d,1.5", "a,1", "e,", "b,-2"), sorted(keys, lines));
+    }
+
+    @Test
+    public void testHumanSize() {
+        SortKeys keys = SortKeys.parse("1h");
+        List<String> lines = Arrays.asList("1G", "900K", "1.5M", "1023", "1k", "2E", "-1K", "512Mb", "3");
+        List<String> expected = Arrays.asList("-1K", "3", "1023", "1k", "900K", "1.5M", "512Mb", "1G", "2E");
+        assertEquals(expected, sorted(keys, lines));
+        assertEquals(keys.normalize("1024"), keys.normalize("1K"));
+    }
+
+    @Test
+    public void testVersion() {
+        SortKeys keys = SortKeys.parse("1V");
+        List<String> lines = Arrays.asList("v1.10", "v1.9", "v1.9.1", "v2.0-rc1", "v2.0", "v01.9", "v1.09", "v",
+                "v10", "va", "v1a", "v1.100000000000000000000", "v1.99999999999999999999");
+        List<String> expected = Arrays.asList("v", "v01.9", "v1.09", "v1.9", "v1.9.1", "v1.10",
+                "v1.99999999999999999999", "v1.100000000000000000000", "v1a", "v2.0", "v2.0-rc1", "v10", "va");
+        assertEquals(expected, sorted(keys, lines));
+
+        keys = SortKeys.parse("1Vr");
+        List<String> reversed = new ArrayList<>(Arrays.asList("v1.9", "v1.10", "v1.9.1", "v1"));
+        assertEquals(Arrays.asList("v1.10", "v1.9.1", "v1.9", "v1"), sorted(keys, reversed));
+    }
+
+    @Test
+    public void testSortMatchesComparator() {
+        SortKeys keys = SortKeys.parse(Arrays.asList("3,3r", "1.2,1.3"), ';');
+        Random random = new Random(19);
+        String[] lines = new String[2000];
+        for (int i = 0; i < lines.length; ++i) {
+            lines[i] = random.nextInt(50) + ";" + random.nextInt(3) + ";" + random.nextInt(7);
+        }
+        String[] expected = lines.clone();
+        Comparator<String> byKeys = Comparator.<String, String>comparing(line -> field(line, 2),
+                Comparator.reverseOrder())
+                .thenComparing(line -> {
+                    String f = field(line, 0);
+                    return f.substring(Math.min(1, f.length()), Math.min(3, f.length()));
+                })
+                .thenComparing(Comparator.naturalOrder());
+        Arrays.sort(expected, byKeys);
+        keys.sort(lines, 0, lines.length);
+        assertArrayEquals(expected, lines);
+    }
+
+    @Test
+    public void testEstimate() {
+        SortKeys keys = SortKeys.parse("1", "2");
+        String line = "abc\tdef";
+        assertTrue(keys.estimate(line) >= KeyedLine.OVERHEAD + 2L * keys.normalize(line).length());
+    }
+
+    private static List<String> sorted(SortKeys keys, List<String> lines) {
+        List<KeyedLine> keyed = new ArrayList<>();
+        for (String line : lines) {
+            keyed.add(keys.wrap(line));
+        }
+        Collections.sort(keyed);
+        List<String> result = new ArrayList<>();
+        for (KeyedLine line : keyed) {
+            result.add(line.getLine());
+        }
+        return result;
+    }
+
+    private static String field(String line, int i) {
+        return line.split(";", -1)[i];
+    }
+}
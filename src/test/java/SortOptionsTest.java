@@ -0,0 +1,109 @@
+import com.bigsort.FilesSorter;
+import com.bigsort.RunGeneration;
+import com.bigsort.SortOptions;
+import com.bigsort.util.Duplicates;
+import com.bigsort.util.MergeEngine;
+import com.bigsort.util.SortKeys;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SortOptionsTest {
+
+    @Test
+    public void testDefaults() {
+        SortOptions options = new SortOptions();
+        assertEquals(1, options.getWorkers());
+        assertEquals(1, options.getMergeWorkers());
+        assertEquals(FilesSorter.MAX_FILES, options.getMaxOpenedFiles());
+        assertEquals(SortOptions.UNLIMITED_BATCH, options.getBatch());
+        assertEquals(SortOptions.UNLIMITED_MEMORY, options.getMemory());
+        assertEquals(MergeEngine.LOSER_TREE, options.getMergeEngine());
+        assertEquals(RunGeneration.LOAD_SORT, options.getRunGeneration());
+        assertEquals(0, options.getReadAhead());
+        assertEquals(0, options.getWriteBehind());
+        assertFalse(options.isPrintMergePlan());
+        assertFalse(options.isMergeDuringSort());
+        assertEquals(1, options.getMergePartitions());
+        assertFalse(options.isMergeTree());
+        assertFalse(options.isMergeOnly());
+        assertEquals(SortKeys.NONE, options.getSortKeys());
+        assertEquals(Duplicates.KEEP, options.getDuplicates());
+        assertEquals(SortOptions.UNLIMITED_LINES, options.getLimit());
+        assertFalse(options.isLimited());
+        assertTrue(options.setLimit(10).isLimited());
+    }
+
+    @Test
+    public void testChaining() {
+        SortOptions options = new SortOptions().setWorkers(4).setBatch(10).setMemory(1024)
+                .setMaxOpenedFiles(5).setMergeWorkers(2);
+        assertEquals(4, options.getWorkers());
+        assertEquals(10, options.getBatch());
+        assertEquals(1024, options.getMemory());
+        assertEquals(5, options.getMaxOpenedFiles());
+        assertEquals(2, options.getMergeWorkers());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongWorkers() {
+        new SortOptions().setWorkers(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongBatch() {
+        new SortOptions().setBatch(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongMemory() {
+        new SortOptions().setMemory(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongMaxOpenedFiles() {
+        new SortOptions().setMaxOpenedFiles(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongRunGeneration() {
+        new SortOptions().setRunGeneration(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongMergeWorkers() {
+        new SortOptions().setMergeWorkers(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongReadAhead() {
+        new SortOptions().setReadAhead(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongWriteBehind() {
+        new SortOptions().setWriteBehind(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongMergePartitions() {
+        new SortOptions().setMergePartitions(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongSortKeys() {
+        new SortOptions().setSortKeys(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongDuplicates() {
+        new SortOptions().setDuplicates(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongLimit() {
+        new SortOptions().setLimit(0);
+    }
+}
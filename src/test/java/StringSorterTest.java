@@ -0,0 +1,147 @@
+import com.bigsort.util.StringSorter;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StringSorterTest {
+
+    @Test
+    public void testRandomStrings() {
+        Random random = new Random(5);
+        for (int n : new int[]{0, 1, 2, 15, 16, 17, 100, 5000}) {
+            String[] a = new String[n];
+            for (int i = 0; i < n; i++) {
+                a[i] = randomString(random, random.nextInt(12), 'a', 4);
+            }
+            assertAllSort("random " + n, a);
+        }
+    }
+
+    @Test
+    public void testCommonPrefixes() {
+        Random random = new Random(6);
+        String[] a = new String[3000];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = "https://www.example.com/products/" + random.nextInt(3) + "/item/" + random.nextInt(500);
+        }
+        assertAllSort("urls", a);
+    }
+
+    @Test
+    public void testDuplicatesAndEmptyStrings() {
+        Random random = new Random(7);
+        String[] a = new String[2000];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextInt(4) == 0 ? "" : String.valueOf(random.nextInt(10));
+        }
+        assertAllSort("duplicates", a);
+    }
+
+    @Test
+    public void testWideChars() {
+        Random random = new Random(8);
+        String[] a = new String[2000];
+        for (int i = 0; i < a.length; i++) {
+            // Both bytes of a char matter, '\uffff' is the greatest one
+            a[i] = randomString(random, 1 + random.nextInt(5), '\u00fe', 3)
+                    + randomString(random, random.nextInt(3), '\ufffd', 3);
+        }
+        assertAllSort("wide chars", a);
+    }
+
+    @Test
+    public void testNestedPrefixes() {
+        // "a", "aa", "aaa"... must not make the recursion deep
+        String[] a = new String[3000];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < a.length; i++) {
+            sb.append('a');
+            a[i] = sb.toString();
+        }
+        for (int i = 0; i < a.length; i++) {
+            int j = (int) ((i * 7919L) % a.length);
+            String s = a[i];
+            a[i] = a[j];
+            a[j] = s;
+        }
+        assertAllSort("nested prefixes", a);
+    }
+
+    @Test
+    public void testLongEqualLines() {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'x');
+        String line = new String(chars);
+        String[] a = new String[100];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = i % 2 == 0 ? line : line + i;
+        }
+        assertAllSort("long lines", a);
+    }
+
+    @Test
+    public void testSortRange() {
+        for (StringSorter sorter : StringSorter.values()) {
+            String[] a = {"z", "d", "c", "b", "a", "0"};
+            sorter.sort(a, 1, 5);
+            assertArrayEquals(sorter.toString(), new String[]{"z", "a", "b", "c", "d", "0"}, a);
+        }
+    }
+
+    @Test
+    public void testIsSorted() {
+        assertTrue(StringSorter.isSorted(new String[0], 0, 0));
+        assertTrue(StringSorter.isSorted(new String[]{"a", "a", "b"}, 0, 3));
+        assertFalse(StringSorter.isSorted(new String[]{"a", "c", "b"}, 0, 3));
+        assertTrue(StringSorter.isSorted(new String[]{"z", "a", "b", "0"}, 1, 3));
+    }
+
+    @Test
+    public void testChoose() {
+        String[] small = {"b", "a"};
+        assertEquals(StringSorter.JDK, StringSorter.choose(small, 0, small.length));
+
+        String[] sorted = new String[1000];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = String.format("%05d", i);
+        }
+        assertEquals(StringSorter.JDK, StringSorter.choose(sorted, 0, sorted.length));
+
+        String[] reversed = sorted.clone();
+        for (int i = 0; i < reversed.length; i++) {
+            reversed[i] = sorted[sorted.length - 1 - i];
+        }
+        assertEquals(StringSorter.JDK, StringSorter.choose(reversed, 0, reversed.length));
+
+        String[] random = new String[1000];
+        Random r = new Random(9);
+        for (int i = 0; i < random.length; i++) {
+            random[i] = String.valueOf(r.nextInt());
+        }
+        assertEquals(StringSorter.MSD_RADIX, StringSorter.choose(random, 0, random.length));
+    }
+
+    private static void assertAllSort(String message, String[] a) {
+        String[] expected = a.clone();
+        Arrays.sort(expected);
+        for (StringSorter sorter : StringSorter.values()) {
+            String[] actual = a.clone();
+            sorter.sort(actual, 0, actual.length);
+            assertArrayEquals(message + ", " + sorter, expected, actual);
+        }
+    }
+
+    private static String randomString(Random random, int length, char first, int alphabet) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) (first + random.nextInt(alphabet)));
+        }
+        return sb.toString();
+    }
+}
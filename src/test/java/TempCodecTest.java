@@ -0,0 +1,87 @@
+import com.bigsort.util.FilesHandler;
+import com.bigsort.util.TempCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TempCodecTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<String> lines = createLines(20000);
+        for (TempCodec codec : TempCodec.values()) {
+            File f = folder.newFile("run." + codec);
+            write(f, lines, codec);
+            assertEquals(codec.toString(), lines, read(f, codec));
+        }
+    }
+
+    @Test
+    public void testRoundTripEmpty() throws IOException {
+        for (TempCodec codec : TempCodec.values()) {
+            File f = folder.newFile("empty." + codec);
+            write(f, new ArrayList<String>(), codec);
+            assertTrue(read(f, codec).isEmpty());
+        }
+    }
+
+    @Test
+    public void testCompressedIsSmaller() throws IOException {
+        List<String> lines = createLines(20000);
+        File plain = folder.newFile("plain");
+        write(plain, lines, TempCodec.NONE);
+        for (TempCodec codec : new TempCodec[]{TempCodec.LZ4, TempCodec.DEFLATE}) {
+            File f = folder.newFile("compressed." + codec);
+            write(f, lines, codec);
+            assertTrue(codec + ": " + f.length(), f.length() < plain.length());
+        }
+    }
+
+    @Test
+    public void testReaderOverhead() {
+        assertEquals(0, TempCodec.NONE.getReaderOverhead());
+        assertTrue(TempCodec.LZ4.getReaderOverhead() > 0);
+        assertTrue(TempCodec.DEFLATE.getReaderOverhead() > 0);
+    }
+
+    private static List<String> createLines(int count) {
+        Random random = new Random(3);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            lines.add("line " + random.nextInt(1000) + " of the run");
+        }
+        return lines;
+    }
+
+    private static void write(File f, List<String> lines, TempCodec codec) throws IOException {
+        BufferedWriter out = FilesHandler.openWriter(f, codec);
+        for (String line : lines) {
+            out.write(line);
+            out.newLine();
+        }
+        out.close();
+    }
+
+    private static List<String> read(File f, TempCodec codec) throws IOException {
+        BufferedReader in = FilesHandler.openReader(f, 1024, codec);
+        List<String> lines = new ArrayList<>();
+        String next;
+        while ((next = in.readLine()) != null) {
+            lines.add(next);
+        }
+        in.close();
+        return lines;
+    }
+}
@@ -1,9 +1,17 @@
+import com.bigsort.util.Duplicates;
 import com.bigsort.util.FilesHandler;
+import com.bigsort.util.InputSplit;
+import com.bigsort.util.MergeEngine;
+import com.bigsort.util.MergeSettings;
+import com.bigsort.util.ReadAhead;
+import com.bigsort.util.SortKeys;
+import com.bigsort.util.TempCodec;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,6 +42,71 @@ public class TestFilesHandler {
         assertNotNull(FilesHandler.getBufferedReaders(Arrays.asList(folder.newFile("temp.txt"))));
     }
 
+    @Test
+    public void testSplitFiles() throws IOException {
+        File empty = folder.newFile("empty.txt");
+        File f = folder.newFile("temp.txt");
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        w.write("0123456789");
+        w.close();
+
+        List<InputSplit> splits = FilesHandler.splitFiles(Arrays.asList(empty, f), 4);
+        assertEquals(4, splits.size());
+        assertEquals(0, splits.get(0).length());
+        assertEquals(0, splits.get(1).getStart());
+        assertEquals(4, splits.get(2).getStart());
+        assertEquals(8, splits.get(3).getStart());
+        assertEquals(10, splits.get(3).getEnd());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitFilesWrongSize() throws IOException {
+        FilesHandler.splitFiles(Arrays.asList(folder.newFile("temp.txt")), 0);
+    }
+
+    @Test
+    public void testCountLines() throws IOException {
+        File f = folder.newFile("lines.txt");
+        Files.write(f.toPath(), "a\nb\r\nc".getBytes());
+        assertEquals(3, FilesHandler.countLines(f, 2, 10));
+        assertEquals(2, FilesHandler.countLines(f, 2, 2));
+        assertEquals(0, FilesHandler.countLines(folder.newFile("empty.txt"), 2, 10));
+    }
+
+    @Test
+    public void testGetAllFiles() throws Exception {
+        File dir = folder.newFolder("in");
+        File a = new File(dir, "a.txt");
+        File b = new File(dir, "b.txt");
+        Files.write(a.toPath(), "a\n".getBytes());
+        Files.write(b.toPath(), "b\n".getBytes());
+        File single = folder.newFile("single.txt");
+        List<File> files = FilesHandler.getAllFiles(new String[]{dir.getPath(), single.getPath()});
+        Collections.sort(files);
+        assertEquals(Arrays.asList(a, b, single), files);
+    }
+
+    @Test
+    public void testGetAllFilesRecursive() throws Exception {
+        File dir = folder.newFolder("in");
+        File nested = new File(new File(dir, "x"), "y");
+        assertTrue(nested.mkdirs());
+        File a = new File(dir, "a.txt");
+        File b = new File(nested, "b.txt");
+        Files.write(a.toPath(), "a\n".getBytes());
+        Files.write(b.toPath(), "b\n".getBytes());
+        List<File> files = FilesHandler.getAllFiles(new String[]{dir.getPath()}, true);
+        Collections.sort(files);
+        assertEquals(Arrays.asList(a, b), files);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetAllFilesNestedDir() throws Exception {
+        File dir = folder.newFolder("in");
+        assertTrue(new File(dir, "x").mkdir());
+        FilesHandler.getAllFiles(new String[]{dir.getPath()});
+    }
+
     @Test
     public void testCreateTempFilePrefixIsShort() throws IOException {
         folder.newFile("temp.txt");
@@ -94,6 +167,137 @@ public class TestFilesHandler {
         assertEquals(expected, result);
     }
 
+    @Test
+    public void testMergeSortedFilesEngines() throws IOException {
+        List<File> files = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            File f = folder.newFile("temp" + i + ".txt");
+            BufferedWriter w = new BufferedWriter(new FileWriter(f));
+            for (int j = i; j < 20; j += 3) {
+                w.write(String.valueOf((char) ('a' + j)));
+                w.newLine();
+                expected.add(String.valueOf((char) ('a' + j)));
+            }
+            w.close();
+            files.add(f);
+        }
+        Collections.sort(expected);
+
+        for (MergeEngine engine : MergeEngine.values()) {
+            File resultFile = folder.newFile("result" + engine + ".txt");
+            assertTrue(FilesHandler.mergeSortedFiles(files, resultFile,
+                    new MergeSettings().setBufferSize(16).setEngine(engine)));
+            ArrayList<String> result = new ArrayList<>();
+            String next;
+            BufferedReader reader = new BufferedReader(new FileReader(resultFile));
+            while ((next = reader.readLine()) != null) {
+                result.add(next);
+            }
+            reader.close();
+            assertEquals(expected, result);
+        }
+    }
+
+
+    @Test
+    public void testMergeSortedFilesByKeys() throws IOException {
+        SortKeys keys = SortKeys.parse(Arrays.asList("2r"), ' ');
+        List<File> files = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            File f = folder.newFile("keyed" + i + ".txt");
+            List<String> lines = new ArrayList<>();
+            for (int j = 0; j < 10; ++j) {
+                lines.add((char) ('a' + j) + " " + (char) ('z' - (j * 4 + i) % 17));
+            }
+            lines.sort((a, b) -> keys.wrap(a).compareTo(keys.wrap(b)));
+            Files.write(f.toPath(), lines);
+            expected.addAll(lines);
+            files.add(f);
+        }
+        expected.sort((a, b) -> {
+            int cmp = b.substring(2).compareTo(a.substring(2));
+            return cmp != 0 ? cmp : a.compareTo(b);
+        });
+
+        File resultFile = folder.newFile("result.keyed.txt");
+        assertTrue(FilesHandler.mergeSortedFiles(files, resultFile,
+                new MergeSettings().setBufferSize(16).setEngine(MergeEngine.HEAP).setKeys(keys)));
+        assertEquals(expected, Files.readAllLines(resultFile.toPath()));
+    }
+
+    @Test
+    public void testMergeSortedFilesUnique() throws IOException {
+        File first = folder.newFile();
+        File second = folder.newFile();
+        Files.write(first.toPath(), Arrays.asList("2\ta", "1\tb", "3\td"));
+        Files.write(second.toPath(), Arrays.asList("1\ta", "5\tc", "1\td"));
+        List<File> files = Arrays.asList(first, second);
+
+        File counted = folder.newFile();
+        assertTrue(FilesHandler.mergeSortedFiles(files, counted,
+                new MergeSettings().setBufferSize(16).setDuplicates(Duplicates.COUNT)));
+        assertEquals(Arrays.asList("3\ta", "1\tb", "5\tc", "4\td"), Files.readAllLines(counted.toPath()));
+
+        // The same lines without counts
+        File dropped = folder.newFile();
+        Files.write(first.toPath(), Arrays.asList("a", "b", "d"));
+        Files.write(second.toPath(), Arrays.asList("a", "c", "d"));
+        MergeSettings drop = new MergeSettings().setBufferSize(16).setEngine(MergeEngine.HEAP)
+                .setDuplicates(Duplicates.DROP);
+        assertTrue(FilesHandler.mergeSortedFiles(files, dropped, drop));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), Files.readAllLines(dropped.toPath()));
+
+        File bytes = folder.newFile();
+        assertTrue(FilesHandler.mergeSortedByteFiles(files, bytes, drop.setBufferSize(1)));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), Files.readAllLines(bytes.toPath()));
+    }
+
+    @Test
+    public void testMergeSortedFilesLimit() throws IOException {
+        File first = folder.newFile();
+        File second = folder.newFile();
+        Files.write(first.toPath(), Arrays.asList("a", "b", "d"));
+        Files.write(second.toPath(), Arrays.asList("a", "c", "d"));
+        List<File> files = Arrays.asList(first, second);
+
+        File result = folder.newFile();
+        assertTrue(FilesHandler.mergeSortedFiles(files, result, new MergeSettings().setBufferSize(16).setLimit(3)));
+        assertEquals(Arrays.asList("a", "a", "b"), Files.readAllLines(result.toPath()));
+
+        // The limit is the number of unique lines
+        MergeSettings drop = new MergeSettings().setBufferSize(16).setEngine(MergeEngine.HEAP)
+                .setDuplicates(Duplicates.DROP);
+        assertTrue(FilesHandler.mergeSortedFiles(files, result, drop.setLimit(3)));
+        assertEquals(Arrays.asList("a", "b", "c"), Files.readAllLines(result.toPath()));
+
+        assertTrue(FilesHandler.mergeSortedByteFiles(files, result, drop.setBufferSize(1).setLimit(100)));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), Files.readAllLines(result.toPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeSortedFilesWrongLimit() throws IOException {
+        new MergeSettings().setLimit(0);
+    }
+
+    @Test
+    public void testIsSorted() throws IOException {
+        File f = folder.newFile();
+        assertTrue(FilesHandler.isSorted(f, 16, SortKeys.NONE));
+        assertTrue(FilesHandler.isSortedBytes(f, 16));
+
+        Files.write(f.toPath(), Arrays.asList("a 3", "b 1", "b 1", "c 2"));
+        assertTrue(FilesHandler.isSorted(f, 2, SortKeys.NONE));
+        assertTrue(FilesHandler.isSortedBytes(f, 2));
+        assertFalse(FilesHandler.isSorted(f, 16, SortKeys.parse(Arrays.asList("2n"), ' ')));
+
+        Files.write(f.toPath(), Arrays.asList("a", "c", "b"));
+        assertFalse(FilesHandler.isSorted(f, 16, SortKeys.NONE));
+        assertFalse(FilesHandler.isSortedBytes(f, 16));
+        Files.write(f.toPath(), Arrays.asList("c", "b", "a"));
+        assertTrue(FilesHandler.isSorted(f, 16, SortKeys.parse(Arrays.asList("1r"), ' ')));
+    }
 
     @Test
     public void testMergeSortedFilesOneByOne() throws IOException {
@@ -123,6 +327,53 @@ public class TestFilesHandler {
         }
     }
 
+    @Test
+    public void testMergeSortedByteFiles() throws IOException {
+        // Unsigned order: 0x7f < 0x80 < 0xff, a prefix goes first
+        byte[][] contents = {
+                {'a', '\n', (byte) 0x80, '\n', (byte) 0xff},
+                {'\n', 'a', 'a', '\n', 0x7f, '\n'},
+                {}
+        };
+        byte[] expected = {'\n', 'a', '\n', 'a', 'a', '\n', 0x7f, '\n', (byte) 0x80, '\n', (byte) 0xff, '\n'};
+        ReadAhead readAhead = new ReadAhead(2, 2);
+        for (MergeEngine engine : MergeEngine.values()) {
+            for (TempCodec codec : TempCodec.values()) {
+                List<File> files = new ArrayList<>();
+                for (byte[] content : contents) {
+                    File f = folder.newFile();
+                    OutputStream out = FilesHandler.openOutputStream(f, codec);
+                    out.write(content);
+                    out.close();
+                    files.add(f);
+                }
+                File resultFile = folder.newFile();
+                // A tiny buffer makes the readers grow and compact their buffers
+                assertTrue(FilesHandler.mergeSortedByteFiles(files, resultFile, new MergeSettings().setBufferSize(1)
+                        .setEngine(engine).setCodec(codec).setReadAhead(readAhead)));
+                assertArrayEquals(engine + " " + codec, expected, Files.readAllBytes(resultFile.toPath()));
+            }
+        }
+        readAhead.close();
+    }
+
+    @Test
+    public void testMergeSortedSplitsAtOffsets() throws IOException {
+        File first = folder.newFile();
+        File second = folder.newFile();
+        Files.write(first.toPath(), Arrays.asList("a", "c", "e", "g"));
+        Files.write(second.toPath(), Arrays.asList("b", "d", "f"));
+        // The ranges are [a, e) and [e, ...), the second range goes after the 8 bytes of the first one
+        List<InputSplit> low = Arrays.asList(new InputSplit(first, 0, 4), new InputSplit(second, 0, 4));
+        List<InputSplit> high = Arrays.asList(new InputSplit(first, 4, 8), new InputSplit(second, 4, 6));
+        File resultFile = folder.newFile();
+        assertTrue(FilesHandler.mergeSortedSplits(high, FilesHandler.openOutputStream(resultFile, 8),
+                new MergeSettings().setBufferSize(2)));
+        assertTrue(FilesHandler.mergeSortedByteSplits(low, FilesHandler.openOutputStream(resultFile, 0),
+                new MergeSettings().setBufferSize(2).setEngine(MergeEngine.HEAP)));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f", "g"), Files.readAllLines(resultFile.toPath()));
+    }
+
     @Test
     public void testCleanUp() throws IOException {
         for (int i = 0; i < 10; ++i) {
@@ -0,0 +1,86 @@
+import com.bigsort.util.WriteBehind;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBufferSize() {
+        new WriteBehind(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSingleBuffer() {
+        new WriteBehind(1024, 1);
+    }
+
+    @Test
+    public void testNone() {
+        OutputStream out = new ByteArrayOutputStream();
+        assertSame(out, WriteBehind.NONE.wrap(out));
+        assertEquals(0, WriteBehind.NONE.getWriterOverhead());
+    }
+
+    @Test
+    public void testWriteAll() throws IOException {
+        byte[] data = new byte[10000];
+        new Random(16).nextBytes(data);
+        for (int buffers : new int[]{2, 3}) {
+            WriteBehind writeBehind = new WriteBehind(64, buffers);
+            assertEquals(64L * buffers, writeBehind.getWriterOverhead());
+            for (int chunk : new int[]{1, 7, 64, 1000}) {
+                ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                OutputStream out = writeBehind.wrap(sink);
+                for (int i = 0; i < data.length; i += chunk) {
+                    if (chunk == 1) out.write(data[i]);
+                    else out.write(data, i, Math.min(chunk, data.length - i));
+                }
+                out.close();
+                assertArrayEquals("chunk " + chunk, data, sink.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void testFlush() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream out = new WriteBehind(1024).wrap(sink);
+        out.write(new byte[]{1, 2, 3});
+        out.flush();
+        // Everything is written once flush() returns
+        assertEquals(3, sink.size());
+        out.write(4);
+        out.close();
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, sink.toByteArray());
+    }
+
+    @Test
+    public void testWriteFailure() {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk is full");
+            }
+        };
+        boolean failed = false;
+        try {
+            OutputStream out = new WriteBehind(16).wrap(failing);
+            for (int i = 0; i < 100; ++i) {
+                out.write(new byte[10]);
+            }
+            out.close();
+        } catch (IOException e) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+}